@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+/**
+ * Count, sum, minimum and maximum of a set of values, see
+ * {@link PointIndex#aggregate(double[], double[], java.util.function.ToDoubleFunction)}.
+ *
+ * Indexes with node summaries also use this class to store the aggregate of
+ * each subtree.
+ */
+public final class Aggregate {
+
+	private int count;
+	private double sum;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Add a value.
+	 * @param value the value
+	 */
+	public void add(double value) {
+		count++;
+		sum += value;
+		min = value < min ? value : min;
+		max = value > max ? value : max;
+	}
+
+	/**
+	 * Add all values of another aggregate.
+	 * @param a the other aggregate
+	 */
+	public void add(Aggregate a) {
+		count += a.count;
+		sum += a.sum;
+		min = a.min < min ? a.min : min;
+		max = a.max > max ? a.max : max;
+	}
+
+	/**
+	 * Remove all values.
+	 */
+	public void clear() {
+		count = 0;
+		sum = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * @return number of values
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return sum of the values, 0 if there are no values
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return smallest value, positive infinity if there are no values
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return largest value, negative infinity if there are no values
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return average of the values, NaN if there are no values
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ";sum=" + sum + ";min=" + min + ";max=" + max;
+	}
+}
@@ -34,10 +34,28 @@ public interface Index<T> {
 	 */
 	void clear();
 
-	Object getStats();
+	/**
+	 * Collect statistics about the index structure. This traverses the whole index
+	 * and may also validate the structure. Only {@link #size()} is guaranteed to be
+	 * a cheap counter.
+	 * @return the statistics
+	 */
+	Stats getStats();
 
+	/**
+	 * The node count is a maintained counter in KDTree, QuadTreeKD2, RTree, PointGrid,
+	 * PointArray and RectArray. The other quadtrees, VPTree and the PH-Trees traverse 
+	 * the index to count the nodes. Wrapping indexes delegate to their inner indexes.
+	 * @return the number of nodes
+	 */
 	int getNodeCount();
 	
+	/**
+	 * The depth is a maintained counter in RTree and constant in PointGrid, PointArray 
+	 * and RectArray. All other indexes traverse the index to determine the depth.
+	 * Wrapping indexes delegate to their inner indexes.
+	 * @return the depth of the index
+	 */
 	int getDepth();
 	
 	/**
@@ -46,4 +64,12 @@ public interface Index<T> {
 	 */
 	String toStringTree();
 
+	/**
+	 * @return estimated heap usage of the index in bytes, or -1 if the index 
+	 * does not provide an estimate
+	 */
+	default long estimateMemoryBytes() {
+		return -1;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Executes batches of kNN queries.
+ *
+ * The query points are sorted in z-order so that subsequent queries access similar
+ * parts of the index. The sorted queries are split into chunks which are
+ * executed in parallel. Within a chunk, the result of the previous query
+ * provides an upper bound for the k-th distance of the next query 
+ * (triangle inequality), which allows the index to prune its search early.
+ */
+public final class KnnBatch {
+
+	/** Number of queries that are executed sequentially by the same searcher. */
+	static final int CHUNK_SIZE = 256;
+
+	/**
+	 * A kNN search. A searcher is only used by a single thread, so it can
+	 * reuse internal buffers between queries.
+	 *
+	 * @param <E> Result entry type
+	 */
+	@FunctionalInterface
+	public interface Searcher<E> {
+		/**
+		 * @param center the query point
+		 * @param k number of neighbors
+		 * @param maxDist upper bound for the distance of the k-th nearest neighbor
+		 * @return the nearest neighbors, sorted by distance
+		 */
+		List<E> search(double[] center, int k, double maxDist);
+	}
+
+	private KnnBatch() {
+		//static class
+	}
+
+	/**
+	 * Execute a batch of kNN queries.
+	 * @param centers the query points
+	 * @param k number of neighbors
+	 * @param sink receiver for the results
+	 * @param searcherFactory creates one searcher per chunk of queries
+	 * @param dist distance of a result entry
+	 * @param <E> Result entry type
+	 */
+	public static <E> void execute(double[][] centers, int k, KnnResultSink<E> sink,
+			Supplier<Searcher<E>> searcherFactory, ToDoubleFunction<E> dist) {
+		if (centers.length == 0) {
+			return;
+		}
+		execute(centers, ZOrder.sort(centers), k, sink, searcherFactory, dist);
+	}
+
+	/**
+	 * Execute a batch of kNN queries that are already sorted such that subsequent 
+	 * query points are close to each other, for example in the order of a 
+	 * depth-first traversal of an index.
+	 * @param centers the query points
+	 * @param k number of neighbors
+	 * @param sink receiver for the results
+	 * @param searcherFactory creates one searcher per chunk of queries
+	 * @param dist distance of a result entry
+	 * @param <E> Result entry type
+	 */
+	public static <E> void executeSorted(double[][] centers, int k, KnnResultSink<E> sink,
+			Supplier<Searcher<E>> searcherFactory, ToDoubleFunction<E> dist) {
+		int[] order = new int[centers.length];
+		Arrays.setAll(order, i -> i);
+		execute(centers, order, k, sink, searcherFactory, dist);
+	}
+
+	private static <E> void execute(double[][] centers, int[] order, int k, KnnResultSink<E> sink,
+			Supplier<Searcher<E>> searcherFactory, ToDoubleFunction<E> dist) {
+		int nChunks = (order.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+			Searcher<E> searcher = searcherFactory.get();
+			int end = Math.min(order.length, (chunk + 1) * CHUNK_SIZE);
+			double[] prevCenter = null;
+			double prevDist = Double.POSITIVE_INFINITY;
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				double[] center = centers[order[i]];
+				double maxDist = Double.POSITIVE_INFINITY;
+				if (prevCenter != null) {
+					maxDist = upperBound(prevDist + distance(prevCenter, center));
+				}
+				List<E> result = searcher.search(center, k, maxDist);
+				sink.accept(order[i], result);
+				if (k > 0 && result.size() >= k) {
+					prevCenter = center;
+					prevDist = dist.applyAsDouble(result.get(k - 1));
+				} else {
+					prevCenter = null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Execute a batch of kNN queries with a kNN iterator. The iterator is created once
+	 * per chunk and reused for all queries of the chunk.
+	 * @param centers the query points
+	 * @param k number of neighbors
+	 * @param sink receiver for the results
+	 * @param query kNN query
+	 * @param dist distance of a result entry
+	 * @param <E> Result entry type
+	 */
+	public static <E> void execute(double[][] centers, int k, KnnResultSink<E> sink,
+			KnnQuery<E> query, ToDoubleFunction<E> dist) {
+		execute(centers, k, sink, () -> new Searcher<E>() {
+			private QueryIteratorKNN<E> it;
+			@Override
+			public List<E> search(double[] center, int k2, double maxDist) {
+				it = it == null ? query.queryKNN(center, k2) : it.reset(center, k2);
+				return copy(it, k2);
+			}
+		}, dist);
+	}
+
+	/**
+	 * A kNN query that returns an iterator.
+	 *
+	 * @param <E> Result entry type
+	 */
+	@FunctionalInterface
+	public interface KnnQuery<E> {
+		QueryIteratorKNN<E> queryKNN(double[] center, int k);
+	}
+
+	private static <E> List<E> copy(Iterator<? extends E> it, int k) {
+		ArrayList<E> list = new ArrayList<>(k);
+		while (it.hasNext()) {
+			list.add(it.next());
+		}
+		return list;
+	}
+
+	/**
+	 * Enlarge the distance to compensate for rounding errors.
+	 */
+	private static double upperBound(double dist) {
+		return Math.nextUp(dist + dist * 1e-10);
+	}
+
+	private static double distance(double[] p1, double[] p2) {
+		double dist = 0;
+		for (int i = 0; i < p1.length; i++) {
+			double d = p1[i] - p2[i];
+			dist += d * d;
+		}
+		return Math.sqrt(dist);
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+import java.util.List;
+
+/**
+ * Receiver for the results of batched kNN queries.
+ *
+ * @param <E> Result entry type
+ */
+@FunctionalInterface
+public interface KnnResultSink<E> {
+
+	/**
+	 * Receives the result of a single kNN query. This may be called concurrently
+	 * by multiple threads and in any order.
+	 * @param queryIndex the position of the query point in the array of query points
+	 * @param results the nearest neighbors, sorted by distance
+	 */
+	void accept(int queryIndex, List<E> results);
+
+}
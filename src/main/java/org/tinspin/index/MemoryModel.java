@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+/**
+ * Object size model for heap usage estimates, see {@link Index#estimateMemoryBytes()}.
+ * 
+ * The model follows the HotSpot object layout: an object consists of a header 
+ * followed by its fields and is aligned to 8 bytes, arrays additionally store their 
+ * length. Sizes of references and headers depend on whether compressed oops are 
+ * used. Compressed oops are assumed on 64 bit JVMs with a maximum heap below 32GB,
+ * this can be overridden with {@code -Dtinspin.compressedOops=true|false}.
+ * 
+ * Field padding inside objects is ignored.
+ */
+public final class MemoryModel {
+
+	public static final boolean IS_64BIT = !"32".equals(System.getProperty("sun.arch.data.model"));
+
+	public static final boolean COMPRESSED_OOPS = IS_64BIT && 
+			(System.getProperty("tinspin.compressedOops") == null 
+			? Runtime.getRuntime().maxMemory() < (32L << 30) 
+			: Boolean.getBoolean("tinspin.compressedOops"));
+
+	/** Size of a reference. */
+	public static final int REF = IS_64BIT && !COMPRESSED_OOPS ? 8 : 4;
+	/** Size of an object header. */
+	public static final int OBJECT_HEADER = IS_64BIT ? (COMPRESSED_OOPS ? 12 : 16) : 8;
+	/** Size of an array header, including the length and alignment of the first element. */
+	public static final int ARRAY_HEADER = IS_64BIT ? (COMPRESSED_OOPS ? 16 : 24) : 16;
+
+	private static final int DEFAULT_ARRAY_LIST_CAPACITY = 10;
+
+	private MemoryModel() {
+		//static
+	}
+
+	public static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * @param nRefs number of reference fields
+	 * @param nPrimitiveBytes total size of all primitive fields
+	 * @return size of an object
+	 */
+	public static long object(int nRefs, int nPrimitiveBytes) {
+		return align(OBJECT_HEADER + (long) nRefs * REF + nPrimitiveBytes);
+	}
+
+	public static long doubleArray(int length) {
+		return align(ARRAY_HEADER + 8L * length);
+	}
+
+	public static long longArray(int length) {
+		return align(ARRAY_HEADER + 8L * length);
+	}
+
+	public static long intArray(int length) {
+		return align(ARRAY_HEADER + 4L * length);
+	}
+
+	public static long refArray(int length) {
+		return align(ARRAY_HEADER + (long) REF * length);
+	}
+
+	/**
+	 * Size of an ArrayList and its internal array, excluding the elements. The 
+	 * capacity is derived from the growth policy of ArrayList, assuming that 
+	 * the list was filled with add(). Since lists do not shrink, this is a lower 
+	 * bound for lists from which elements were removed.
+	 * @param size number of elements
+	 * @param initialCapacity the initial capacity or 0 if the list was created with 
+	 * the default constructor
+	 * @return estimated size
+	 */
+	public static long arrayList(int size, int initialCapacity) {
+		long capacity = initialCapacity;
+		if (capacity == 0 && size > 0) {
+			capacity = DEFAULT_ARRAY_LIST_CAPACITY;
+		}
+		while (capacity < size) {
+			capacity = Math.max(capacity + (capacity >> 1), capacity + 1);
+		}
+		//fields: elementData, size, modCount
+		return object(1, 8) + refArray((int) capacity);
+	}
+
+	/**
+	 * Size of an ArrayList created with the default constructor.
+	 * @param size number of elements
+	 * @return estimated size
+	 */
+	public static long arrayList(int size) {
+		return arrayList(size, 0);
+	}
+}
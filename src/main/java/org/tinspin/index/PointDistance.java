@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+/**
+ * Distance function for points. Indexes that prune with the triangle inequality, 
+ * such as the VPTree, require that the function is a metric: 
+ * d(a,b) >= 0, d(a,a) = 0, d(a,b) = d(b,a) and d(a,c) <= d(a,b) + d(b,c).
+ */
+@FunctionalInterface
+public interface PointDistance {
+
+	public static PointDistance EUCLIDEAN = PointDistance::euclidean;
+	public static PointDistance MANHATTAN = PointDistance::manhattan;
+	public static PointDistance CHEBYSHEV = PointDistance::chebyshev;
+	public static PointDistance ANGULAR = PointDistance::angular;
+
+	double dist(double[] p1, double[] p2);
+
+	public static double euclidean(double[] p1, double[] p2) {
+		double dist = 0;
+		for (int i = 0; i < p1.length; i++) {
+			double d = p1[i] - p2[i];
+			dist += d * d;
+		}
+		return Math.sqrt(dist);
+	}
+
+	public static double manhattan(double[] p1, double[] p2) {
+		double dist = 0;
+		for (int i = 0; i < p1.length; i++) {
+			dist += Math.abs(p1[i] - p2[i]);
+		}
+		return dist;
+	}
+
+	public static double chebyshev(double[] p1, double[] p2) {
+		double dist = 0;
+		for (int i = 0; i < p1.length; i++) {
+			dist = Math.max(dist, Math.abs(p1[i] - p2[i]));
+		}
+		return dist;
+	}
+
+	/**
+	 * The angle between two vectors, normalized to [0,1]. This is the metric variant of 
+	 * the cosine distance '1 - cos(a,b)', which violates the triangle inequality.
+	 * Zero vectors have distance 0 to each other and 0.5 to all other vectors.
+	 * @param p1 vector 1
+	 * @param p2 vector 2
+	 * @return angular distance
+	 */
+	public static double angular(double[] p1, double[] p2) {
+		double dot = 0;
+		double n1 = 0;
+		double n2 = 0;
+		for (int i = 0; i < p1.length; i++) {
+			dot += p1[i] * p2[i];
+			n1 += p1[i] * p1[i];
+			n2 += p2[i] * p2[i];
+		}
+		if (n1 == 0 || n2 == 0) {
+			return n1 == n2 ? 0 : 0.5;
+		}
+		double cos = dot / Math.sqrt(n1 * n2);
+		return Math.acos(Math.max(-1, Math.min(1, cos))) / Math.PI;
+	}
+}
@@ -17,7 +17,16 @@
  */
 package org.tinspin.index;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface PointIndex<T> extends Index<T> {
 
@@ -43,6 +52,25 @@ public interface PointIndex<T> extends Index<T> {
 	 */
 	T update(double[] oldPoint, double[] newPoint);
 
+	/**
+	 * Update the positions of a batch of entries. The updates are applied in 
+	 * z-order of the old positions so that subsequent updates access similar parts 
+	 * of the index. The order in which the updates are applied is unspecified, 
+	 * so the batch should not contain several updates of the same entry.
+	 * @param oldKeys old positions
+	 * @param newKeys new positions
+	 * @return the number of entries that were found and updated
+	 */
+	default int updateBatch(double[][] oldKeys, double[][] newKeys) {
+		int n = 0;
+		for (int i : ZOrder.sort(oldKeys)) {
+			if (update(oldKeys[i], newKeys[i]) != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
 	/**
 	 * Lookup an entry, using exact match.
 	 * @param point the point
@@ -62,6 +90,49 @@ public interface PointIndex<T> extends Index<T> {
 	 */
 	QueryIterator<PointEntry<T>> query(double[] min, double[] max);
 
+	/**
+	 * Window query that returns a stream. Use {@code parallel()} to process the result
+	 * with multiple threads. The index must not be modified while the stream is in use.
+	 * @param min Lower left corner of the query window
+	 * @param max Upper right corner of the query window
+	 * @return All points that lie inside the query rectangle.
+	 */
+	default Stream<PointEntry<T>> queryStream(double[] min, double[] max) {
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(query(min, max), Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Count the points in a query window. Indexes with node summaries count whole 
+	 * subtrees that lie inside the query window without traversing them.
+	 * @param min Lower left corner of the query window
+	 * @param max Upper right corner of the query window
+	 * @return Number of points that lie inside the query rectangle.
+	 */
+	default int count(double[] min, double[] max) {
+		int n = 0;
+		for (Iterator<PointEntry<T>> it = query(min, max); it.hasNext(); it.next()) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Aggregate the values of the points in a query window. Indexes with node summaries
+	 * aggregate whole subtrees that lie inside the query window without traversing them 
+	 * if 'extractor' is the extractor of the summaries.
+	 * @param min Lower left corner of the query window
+	 * @param max Upper right corner of the query window
+	 * @param extractor Maps values to the numbers that are aggregated
+	 * @return Count, sum, minimum and maximum of the points that lie inside the 
+	 * query rectangle.
+	 */
+	default Aggregate aggregate(double[] min, double[] max, ToDoubleFunction<? super T> extractor) {
+		Aggregate a = new Aggregate();
+		query(min, max).forEachRemaining(e -> a.add(extractor.applyAsDouble(e.value())));
+		return a;
+	}
+
 	/**
 	 * Finds the nearest neighbor. This uses euclidean distance. 
 	 * Other distance types can only be specified directly on the index implementations. 
@@ -85,4 +156,37 @@ public interface PointIndex<T> extends Index<T> {
 	 */
 	QueryIteratorKNN<PointEntryDist<T>> queryKNN(double[] center, int k);
 
+	/**
+	 * Executes a batch of kNN queries. The queries are sorted in z-order and executed 
+	 * in parallel. This uses euclidean distance.
+	 * The index must not be modified while the queries are executed. 
+	 * @param centers center points
+	 * @param k number of neighbors
+	 * @param sink receives the nearest neighbors of each center point
+	 */
+	default void queryKNN(double[][] centers, int k, KnnResultSink<PointEntryDist<T>> sink) {
+		KnnBatch.execute(centers, k, sink, this::queryKNN, PointEntryDist::dist);
+	}
+
+	/**
+	 * All nearest neighbor query. Finds the 'k' nearest neighbors of every entry 
+	 * in the index. The result of each entry includes the entry itself, so use 'k+1' 
+	 * to find the 'k' nearest other entries. The queries are executed in parallel. 
+	 * The index must not be modified while the queries are executed. 
+	 * @param k number of neighbors
+	 * @param consumer receives each entry and its nearest neighbors. This may be called 
+	 * concurrently by multiple threads.
+	 */
+	default void queryAllKNN(int k, BiConsumer<PointEntry<T>, List<PointEntryDist<T>>> consumer) {
+		double[] min = new double[getDims()];
+		double[] max = new double[getDims()];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		ArrayList<PointEntry<T>> entries = new ArrayList<>(size());
+		query(min, max).forEachRemaining(entries::add);
+		double[][] centers = new double[entries.size()][];
+		Arrays.setAll(centers, i -> entries.get(i).point());
+		queryKNN(centers, k, (i, result) -> consumer.accept(entries.get(i), result));
+	}
+
 }
\ No newline at end of file
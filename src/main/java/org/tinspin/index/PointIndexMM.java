@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+import java.util.Objects;
+
+/**
+ * A point index with multimap semantics: several entries may have the same key.
+ * Entries are identified by their key and their value, values are compared with 
+ * {@code equals()}.
+ * 
+ * @param <T> Value type
+ */
+public interface PointIndexMM<T> extends Index<T> {
+
+	/**
+	 * Insert a point. This always adds a new entry, even if there are already
+	 * entries with the same key.
+	 * @param key point
+	 * @param value value
+	 */
+	void insert(double[] key, T value);
+
+	/**
+	 * Remove a point entry.
+	 * @param point the point
+	 * @param value the value
+	 * @return 'true' if an entry with the given point and value was removed
+	 */
+	boolean remove(double[] point, T value);
+
+	/**
+	 * Update the position of an entry.
+	 * @param oldPoint old position
+	 * @param newPoint new position
+	 * @param value the value of the entry
+	 * @return 'true' if an entry with the given old point and value was found
+	 */
+	boolean update(double[] oldPoint, double[] newPoint, T value);
+
+	/**
+	 * Lookup entries, using exact match.
+	 * @param point the point
+	 * @return an iterator over all entries at the given point
+	 */
+	QueryIterator<PointEntry<T>> queryExact(double[] point);
+
+	/**
+	 * @param point the point
+	 * @param value the value
+	 * @return 'true' if there is an entry with the given point and value
+	 */
+	default boolean contains(double[] point, T value) {
+		QueryIterator<PointEntry<T>> it = queryExact(point);
+		while (it.hasNext()) {
+			if (Objects.equals(value, it.next().value())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return An iterator over all entries.
+	 */
+	QueryIterator<? extends PointEntry<T>> iterator();
+
+	/**
+	 * @param min Lower left corner of the query window
+	 * @param max Upper right corner of the query window
+	 * @return All points that lie inside the query rectangle.
+	 */
+	QueryIterator<PointEntry<T>> query(double[] min, double[] max);
+
+	/**
+	 * Finds the nearest neighbor. This uses euclidean distance. 
+	 * @param center center point
+	 * @return the nearest neighbor
+	 */
+	PointEntryDist<T> query1NN(double[] center);
+
+	/**
+	 * Finds the k nearest neighbors. This uses euclidean distance. 
+	 * Entries with the same key are returned as separate neighbors.
+	 * @param center center point
+	 * @param k number of neighbors
+	 * @return list of nearest neighbors
+	 */
+	QueryIteratorKNN<PointEntryDist<T>> queryKNN(double[] center, int k);
+
+}
@@ -17,6 +17,10 @@
  */
 package org.tinspin.index;
 
+import java.util.ArrayList;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
 import org.tinspin.index.rtree.Entry;
 import org.tinspin.index.rtree.RTree;
 
@@ -44,6 +48,21 @@ public class PointIndexWrapper<T> implements PointIndex<T> {
 		return new PointIter(ind.queryIntersect(min, max));
 	}
 
+	@Override
+	public Stream<PointEntry<T>> queryStream(double[] min, double[] max) {
+		return ind.queryIntersectStream(min, max).map(e -> new PointW<>(e.lower(), e.value()));
+	}
+
+	@Override
+	public int count(double[] min, double[] max) {
+		return ind.countIntersect(min, max);
+	}
+
+	@Override
+	public Aggregate aggregate(double[] min, double[] max, ToDoubleFunction<? super T> extractor) {
+		return ind.aggregateIntersect(min, max, extractor);
+	}
+
 	private static class PointW<T> implements PointEntry<T> {
 
 		private double[] point;
@@ -103,6 +122,17 @@ public class PointIndexWrapper<T> implements PointIndex<T> {
 		return new PointDIter(ind.queryKNN(center, k));
 	}
 
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<PointEntryDist<T>> sink) {
+		ind.queryKNN(centers, k, (queryIndex, results) -> {
+			ArrayList<PointEntryDist<T>> list = new ArrayList<>(results.size());
+			for (RectangleEntryDist<T> r : results) {
+				list.add(new PointDistW<>(r.lower(), r.value(), r.dist()));
+			}
+			sink.accept(queryIndex, list);
+		});
+	}
+
 	private static class PointDistW<T> extends PointW<T> implements PointEntryDist<T> {
 
 		private double dist;
@@ -180,10 +210,15 @@ public class PointIndexWrapper<T> implements PointIndex<T> {
 	}
 
 	@Override
-	public Object getStats() {
+	public Stats getStats() {
 		return ind.getStats();
 	}
 
+	@Override
+	public long estimateMemoryBytes() {
+		return ind.estimateMemoryBytes();
+	}
+
 	@Override
 	public int getNodeCount() {
 		return ind.getNodeCount();
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+/**
+ * Per-thread query statistics.
+ * 
+ * Collection is disabled by default and can be enabled with the system property 
+ * {@code -Dtinspin.querystats=true}. Since {@link #ENABLED} is a constant, the 
+ * JIT removes the counting code completely if collection is disabled.
+ * 
+ * Usage: call {@link #reset()}, execute one or more queries in the same thread, 
+ * then read the counters from {@link #get()}. The counters are cumulative, 
+ * iterators update them while they are being traversed.
+ */
+public final class QueryStats {
+
+	public static final boolean ENABLED = Boolean.getBoolean("tinspin.querystats");
+
+	private static final ThreadLocal<QueryStats> STATS = ThreadLocal.withInitial(QueryStats::new);
+
+	private long nDirNodes;
+	private long nLeafNodes;
+	private long nOverlapTests;
+	private long nDistCalcs;
+	private long nEntriesScanned;
+	private long nEntriesReturned;
+
+	private QueryStats() {
+		//only via get()
+	}
+
+	/**
+	 * @return the statistics of the current thread
+	 */
+	public static QueryStats get() {
+		return STATS.get();
+	}
+
+	/**
+	 * Reset the statistics of the current thread.
+	 */
+	public static void reset() {
+		STATS.get().clear();
+	}
+
+	private void clear() {
+		nDirNodes = 0;
+		nLeafNodes = 0;
+		nOverlapTests = 0;
+		nDistCalcs = 0;
+		nEntriesScanned = 0;
+		nEntriesReturned = 0;
+	}
+
+	/**
+	 * Count a visited directory node, i.e. a node with sub-nodes.
+	 */
+	public static void dirNode() {
+		if (ENABLED) {
+			STATS.get().nDirNodes++;
+		}
+	}
+
+	/**
+	 * Count a visited leaf node.
+	 */
+	public static void leafNode() {
+		if (ENABLED) {
+			STATS.get().nLeafNodes++;
+		}
+	}
+
+	/**
+	 * Count a visited node.
+	 * @param isLeaf whether the node is a leaf node
+	 */
+	public static void node(boolean isLeaf) {
+		if (ENABLED) {
+			if (isLeaf) {
+				STATS.get().nLeafNodes++;
+			} else {
+				STATS.get().nDirNodes++;
+			}
+		}
+	}
+
+	/**
+	 * Count an overlap or containment test of a node or an entry with a query window.
+	 */
+	public static void overlapTest() {
+		if (ENABLED) {
+			STATS.get().nOverlapTests++;
+		}
+	}
+
+	/**
+	 * Count a distance computation.
+	 */
+	public static void distCalc() {
+		if (ENABLED) {
+			STATS.get().nDistCalcs++;
+		}
+	}
+
+	/**
+	 * Count entries that were scanned, i.e. checked against the query.
+	 * @param n number of entries
+	 */
+	public static void entriesScanned(int n) {
+		if (ENABLED) {
+			STATS.get().nEntriesScanned += n;
+		}
+	}
+
+	/**
+	 * Count entries that were returned.
+	 * @param n number of entries
+	 */
+	public static void entriesReturned(int n) {
+		if (ENABLED) {
+			STATS.get().nEntriesReturned += n;
+		}
+	}
+
+	public long getDirNodes() {
+		return nDirNodes;
+	}
+
+	public long getLeafNodes() {
+		return nLeafNodes;
+	}
+
+	public long getOverlapTests() {
+		return nOverlapTests;
+	}
+
+	public long getDistCalcs() {
+		return nDistCalcs;
+	}
+
+	public long getEntriesScanned() {
+		return nEntriesScanned;
+	}
+
+	public long getEntriesReturned() {
+		return nEntriesReturned;
+	}
+
+	@Override
+	public String toString() {
+		return "dirNodes=" + nDirNodes + ";leafNodes=" + nLeafNodes +
+				";overlapTests=" + nOverlapTests + ";distCalcs=" + nDistCalcs +
+				";scanned=" + nEntriesScanned + ";returned=" + nEntriesReturned;
+	}
+}
@@ -17,7 +17,14 @@
  */
 package org.tinspin.index;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface RectangleIndex<T> extends Index<T> {
 
@@ -47,6 +54,27 @@ public interface RectangleIndex<T> extends Index<T> {
 	 */
 	public T update(double[] lo1, double[] up1, double[] lo2, double[] up2);
 
+	/**
+	 * Update the positions of a batch of entries. The updates are applied in 
+	 * z-order of the old lower corners so that subsequent updates access similar parts 
+	 * of the index. The order in which the updates are applied is unspecified, 
+	 * so the batch should not contain several updates of the same entry.
+	 * @param lo1 old min
+	 * @param up1 old max
+	 * @param lo2 new min
+	 * @param up2 new max
+	 * @return the number of entries that were found and updated
+	 */
+	default int updateBatch(double[][] lo1, double[][] up1, double[][] lo2, double[][] up2) {
+		int n = 0;
+		for (int i : ZOrder.sort(lo1)) {
+			if (update(lo1[i], up1[i], lo2[i], up2[i]) != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
 	/**
 	 * Lookup an entry, using exact match.
 	 * @param lower minimum corner
@@ -67,6 +95,84 @@ public interface RectangleIndex<T> extends Index<T> {
 	 */
 	QueryIterator<RectangleEntry<T>> queryIntersect(double[] min, double[] max);
 
+	/**
+	 * Window query that returns a stream. Use {@code parallel()} to process the result
+	 * with multiple threads. The index must not be modified while the stream is in use.
+	 * @param min Lower left corner of the query window
+	 * @param max Upper right corner of the query window
+	 * @return All rectangles that intersect with the query rectangle.
+	 */
+	default Stream<RectangleEntry<T>> queryIntersectStream(double[] min, double[] max) {
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(queryIntersect(min, max), Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Count the rectangles that intersect with a query window. Indexes with node summaries 
+	 * count whole subtrees that lie inside the query window without traversing them.
+	 * @param min Lower left corner of the query window
+	 * @param max Upper right corner of the query window
+	 * @return Number of rectangles that intersect with the query rectangle.
+	 */
+	default int countIntersect(double[] min, double[] max) {
+		int n = 0;
+		for (Iterator<RectangleEntry<T>> it = queryIntersect(min, max); it.hasNext(); it.next()) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Aggregate the values of the rectangles that intersect with a query window. 
+	 * Indexes with node summaries aggregate whole subtrees that lie inside the query 
+	 * window without traversing them if 'extractor' is the extractor of the summaries.
+	 * @param min Lower left corner of the query window
+	 * @param max Upper right corner of the query window
+	 * @param extractor Maps values to the numbers that are aggregated
+	 * @return Count, sum, minimum and maximum of the rectangles that intersect with the 
+	 * query rectangle.
+	 */
+	default Aggregate aggregateIntersect(double[] min, double[] max, 
+			ToDoubleFunction<? super T> extractor) {
+		Aggregate a = new Aggregate();
+		queryIntersect(min, max).forEachRemaining(e -> a.add(extractor.applyAsDouble(e.value())));
+		return a;
+	}
+
+	/**
+	 * Spatial join. Finds all pairs of intersecting rectangles where the first rectangle 
+	 * is from this index and the second rectangle is from the 'other' index.
+	 * The default implementation is an index nested loop join that iterates over the smaller 
+	 * index and queries the larger index.
+	 * @param other the other index
+	 * @param consumer receives all pairs of intersecting rectangles
+	 * @param <U> Value type of the other index
+	 */
+	default <U> void queryIntersectJoin(RectangleIndex<U> other, 
+			BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer) {
+		if (size() <= other.size()) {
+			double[] min = new double[getDims()];
+			double[] max = new double[getDims()];
+			Arrays.fill(min, Double.NEGATIVE_INFINITY);
+			Arrays.fill(max, Double.POSITIVE_INFINITY);
+			Iterator<RectangleEntry<T>> it = queryIntersect(min, max);
+			QueryIterator<RectangleEntry<U>> q = null;
+			while (it.hasNext()) {
+				RectangleEntry<T> e = it.next();
+				if (q == null) {
+					q = other.queryIntersect(e.lower(), e.upper());
+				} else {
+					q.reset(e.lower(), e.upper());
+				}
+				while (q.hasNext()) {
+					consumer.accept(e, q.next());
+				}
+			}
+		} else {
+			other.queryIntersectJoin(this, (e2, e1) -> consumer.accept(e1, e2));
+		}
+	}
+
 	/**
 	 * Finds the nearest neighbor. This uses euclidean 'edge distance'.
 	 * Other distance types can only be specified directly on the index implementations. 
@@ -92,4 +198,16 @@ public interface RectangleIndex<T> extends Index<T> {
 	 */
 	QueryIteratorKNN<RectangleEntryDist<T>> queryKNN(double[] center, int k);
 
+	/**
+	 * Executes a batch of kNN queries. The queries are sorted in z-order and executed 
+	 * in parallel. This uses euclidean 'edge distance'.
+	 * The index must not be modified while the queries are executed. 
+	 * @param centers center points
+	 * @param k number of neighbors
+	 * @param sink receives the nearest neighbors of each center point
+	 */
+	default void queryKNN(double[][] centers, int k, KnnResultSink<RectangleEntryDist<T>> sink) {
+		KnnBatch.execute(centers, k, sink, this::queryKNN, RectangleEntryDist::dist);
+	}
+
 }
\ No newline at end of file
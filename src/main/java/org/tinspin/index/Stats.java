@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+import java.util.Arrays;
+
+/**
+ * Statistics container class, see {@link Index#getStats()}.
+ * 
+ * Indexes return subclasses with additional structure specific information.
+ * The counters are filled in by the node classes of the indexes, see 
+ * {@link #countNode(int, boolean)} and {@link #countEntries(int, int)}.
+ */
+public class Stats {
+
+	private final int dims;
+	private int nEntries;
+	private int nNodes;
+	private int nInnerNodes;
+	private int nLeafNodes;
+	private int maxDepth;
+	/** Number of entries per depth level. */
+	private int[] histoDepth = new int[16];
+	/** Estimated heap usage in bytes, -1 if not available. */
+	private long estimatedBytes = -1;
+	private final int leafCapacity;
+
+	/**
+	 * @param dims dimensionality
+	 * @param leafCapacity maximum number of entries in a leaf node or 0 if not applicable
+	 */
+	public Stats(int dims, int leafCapacity) {
+		this.dims = dims;
+		this.leafCapacity = leafCapacity;
+	}
+
+	/**
+	 * For indexes that do not traverse their nodes.
+	 * @param dims dimensionality
+	 * @param nEntries number of entries
+	 * @param nNodes number of nodes
+	 * @param maxDepth maximum depth
+	 * @param estimatedBytes estimated heap usage in bytes, or -1 if not available
+	 */
+	protected Stats(int dims, int nEntries, int nNodes, int maxDepth, long estimatedBytes) {
+		this(dims, 0);
+		this.nEntries = nEntries;
+		this.nNodes = nNodes;
+		this.maxDepth = maxDepth;
+		this.estimatedBytes = estimatedBytes;
+	}
+
+	/**
+	 * Count a node.
+	 * @param depth depth of the node, 0 is the root
+	 * @param isLeaf whether the node is a leaf node
+	 */
+	public void countNode(int depth, boolean isLeaf) {
+		nNodes++;
+		if (isLeaf) {
+			nLeafNodes++;
+		} else {
+			nInnerNodes++;
+		}
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+	}
+
+	/**
+	 * Count entries and add them to the depth histogram.
+	 * @param depth depth of the node, 0 is the root
+	 * @param n number of entries in the node
+	 */
+	public void countEntries(int depth, int n) {
+		nEntries += n;
+		addToHistogram(depth, n);
+	}
+
+	private void addToHistogram(int depth, int n) {
+		if (depth >= histoDepth.length) {
+			histoDepth = Arrays.copyOf(histoDepth, Math.max(depth + 1, histoDepth.length * 2));
+		}
+		histoDepth[depth] += n;
+	}
+
+	/**
+	 * @param estimatedBytes estimated heap usage in bytes, or -1 if not available
+	 */
+	public void setEstimatedBytes(long estimatedBytes) {
+		this.estimatedBytes = estimatedBytes;
+	}
+
+	/**
+	 * Add the counters of other statistics, for example of a part of the index.
+	 * The memory estimate is -1 if it is not available for one of them. 
+	 * @param s other statistics
+	 */
+	protected void add(Stats s) {
+		nEntries += s.nEntries;
+		nNodes += s.nNodes;
+		nInnerNodes += s.nInnerNodes;
+		nLeafNodes += s.nLeafNodes;
+		maxDepth = Math.max(maxDepth, s.maxDepth);
+		int[] histo = s.getDepthHistogram();
+		for (int d = 0; d < histo.length; d++) {
+			addToHistogram(d, histo[d]);
+		}
+		estimatedBytes = estimatedBytes < 0 || s.estimatedBytes < 0 ? 
+				-1 : estimatedBytes + s.estimatedBytes;
+	}
+
+	public int getDims() {
+		return dims;
+	}
+
+	public int getEntryCount() {
+		return nEntries;
+	}
+
+	public int getNodeCount() {
+		return nNodes;
+	}
+
+	public int getInnerNodeCount() {
+		return nInnerNodes;
+	}
+
+	public int getLeafNodeCount() {
+		return nLeafNodes;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the number of entries per depth level, starting with the root level
+	 */
+	public int[] getDepthHistogram() {
+		int len = histoDepth.length;
+		while (len > 0 && histoDepth[len - 1] == 0) {
+			len--;
+		}
+		return Arrays.copyOf(histoDepth, len);
+	}
+
+	/**
+	 * @return average number of entries per leaf node relative to the leaf capacity, 
+	 * or NaN if not applicable.
+	 */
+	public double getFillFactor() {
+		if (leafCapacity <= 0 || nLeafNodes == 0) {
+			return Double.NaN;
+		}
+		return nEntries / (double) nLeafNodes / leafCapacity;
+	}
+
+	/**
+	 * @return estimated heap usage in bytes, or -1 if not available
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + ":dims=" + dims + ";nEntries=" + nEntries + 
+				";nNodes/inner/leaf=" + nNodes + "/" + nInnerNodes + "/" + nLeafNodes + 
+				";maxDepth=" + maxDepth + ";fill=" + getFillFactor() + 
+				";bytes=" + estimatedBytes + 
+				";histoDepth=" + Arrays.toString(getDepthHistogram());
+	}
+}
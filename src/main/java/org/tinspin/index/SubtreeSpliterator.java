@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Base class for spliterators that traverse a tree.
+ *
+ * The spliterator keeps a list of subtrees that still have to be traversed.
+ * Splitting hands off half of these subtrees, starting with the subtrees that
+ * are closest to the root, so the resulting spliterators traverse disjoint parts
+ * of the tree.
+ *
+ * The tree must not be modified while the spliterator is in use.
+ *
+ * @param <N> Node type
+ * @param <E> Entry type
+ */
+public abstract class SubtreeSpliterator<N, E> implements Spliterator<E> {
+
+	private final ArrayDeque<N> subtrees = new ArrayDeque<>();
+	private final ArrayDeque<E> buffer = new ArrayDeque<>();
+	private final Consumer<N> subtreeConsumer = subtrees::addLast;
+	private final Consumer<E> bufferConsumer = buffer::addLast;
+	private long estimatedSize;
+
+	/**
+	 * @param root the root node, may be 'null'
+	 * @param estimatedSize the estimated number of entries in the tree
+	 */
+	protected SubtreeSpliterator(N root, long estimatedSize) {
+		if (root != null) {
+			subtrees.addLast(root);
+		}
+		this.estimatedSize = estimatedSize;
+	}
+
+	/**
+	 * Visit a node. Entries in the node that match the query should be passed to 'entries',
+	 * child nodes that may contain matching entries should be passed to 'subtrees'.
+	 * @param node the node
+	 * @param subtrees consumer for child nodes
+	 * @param entries consumer for matching entries
+	 */
+	protected abstract void visit(N node, Consumer<N> subtrees, Consumer<? super E> entries);
+
+	/**
+	 * @return a new spliterator with the same query parameters, but without any subtrees.
+	 */
+	protected abstract SubtreeSpliterator<N, E> createEmpty();
+
+	@Override
+	public boolean tryAdvance(Consumer<? super E> action) {
+		while (buffer.isEmpty()) {
+			N node = subtrees.pollLast();
+			if (node == null) {
+				return false;
+			}
+			visit(node, subtreeConsumer, bufferConsumer);
+		}
+		action.accept(buffer.pollFirst());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super E> action) {
+		while (!buffer.isEmpty()) {
+			action.accept(buffer.pollFirst());
+		}
+		N node;
+		while ((node = subtrees.pollLast()) != null) {
+			visit(node, subtreeConsumer, action);
+		}
+	}
+
+	@Override
+	public Spliterator<E> trySplit() {
+		//Make sure there are at least two subtrees to split
+		while (subtrees.size() < 2) {
+			N node = subtrees.pollLast();
+			if (node == null) {
+				return null;
+			}
+			visit(node, subtreeConsumer, bufferConsumer);
+		}
+		SubtreeSpliterator<N, E> prefix = createEmpty();
+		//The first subtrees are closest to the root, i.e. they are the largest ones
+		for (int i = subtrees.size() / 2; i > 0; i--) {
+			prefix.subtrees.addLast(subtrees.pollFirst());
+		}
+		prefix.estimatedSize = estimatedSize >>> 1;
+		estimatedSize -= prefix.estimatedSize;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return estimatedSize;
+	}
+
+	@Override
+	public int characteristics() {
+		return Spliterator.NONNULL;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index;
+
+import java.util.Arrays;
+
+/**
+ * Z-order (Morton order) of points. Points that are close in z-order
+ * tend to be close in space, so processing points in z-order lets
+ * subsequent operations reuse similar paths through an index.
+ */
+public final class ZOrder {
+
+	/** Maximum number of bits used for z-ordering. */
+	private static final int Z_BITS = 63;
+
+	private ZOrder() {
+		//static utility class
+	}
+
+	/**
+	 * @param points points
+	 * @return positions of the points, sorted in z-order
+	 */
+	public static int[] sort(double[][] points) {
+		if (points.length == 0) {
+			return new int[0];
+		}
+		int dims = points[0].length;
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for (double[] p : points) {
+			for (int d = 0; d < dims; d++) {
+				min[d] = p[d] < min[d] ? p[d] : min[d];
+				max[d] = p[d] > max[d] ? p[d] : max[d];
+			}
+		}
+
+		int zDims = Math.min(dims, Z_BITS);
+		int bitsPerDim = Z_BITS / zDims;
+		long maxCell = (1L << bitsPerDim) - 1;
+		long[] z = new long[points.length];
+		long[] cell = new long[zDims];
+		for (int i = 0; i < points.length; i++) {
+			double[] p = points[i];
+			for (int d = 0; d < zDims; d++) {
+				double w = max[d] - min[d];
+				cell[d] = w > 0 ? (long) ((p[d] - min[d]) / w * maxCell) : 0;
+			}
+			long zz = 0;
+			for (int b = bitsPerDim - 1; b >= 0; b--) {
+				for (int d = 0; d < zDims; d++) {
+					zz = (zz << 1) | ((cell[d] >>> b) & 1L);
+				}
+			}
+			z[i] = zz;
+		}
+
+		Integer[] order = new Integer[points.length];
+		Arrays.setAll(order, i -> i);
+		Arrays.sort(order, (i1, i2) -> Long.compare(z[i1], z[i2]));
+		int[] ret = new int[order.length];
+		Arrays.setAll(ret, i -> order[i]);
+		return ret;
+	}
+}
@@ -12,11 +12,13 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.PointEntry;
 import org.tinspin.index.PointEntryDist;
 import org.tinspin.index.PointIndex;
 import org.tinspin.index.QueryIterator;
 import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.Stats;
 
 public class PointArray<T> implements PointIndex<T> {
 	
@@ -165,7 +167,7 @@ public class PointArray<T> implements PointIndex<T> {
 		ArrayList<KnnEntry<T>> ret = new ArrayList<>(k);
 		for (int i = 0; i < phc.length; i++) {
 			double[] p = phc[i];
-			double dist = dist(center, p);
+			double dist = distSq(center, p);
 			if (ret.size() < k) {
 				ret.add(new KnnEntry<>(p, values[i].value(), dist));
 				ret.sort(COMP);
@@ -175,16 +177,19 @@ public class PointArray<T> implements PointIndex<T> {
 				ret.sort(COMP);
 			}
 		}
+		for (int i = 0; i < ret.size(); i++) {
+			ret.get(i).dist = Math.sqrt(ret.get(i).dist);
+		}
 		return ret;
 	}
 	
-	private static double dist(double[] a, double[] b) {
+	private static double distSq(double[] a, double[] b) {
 		double dist = 0;
 		for (int i = 0; i < a.length; i++) {
 			double d =  a[i]-b[i];
 			dist += d*d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 
 	private final Comparator<KnnEntry<T>> COMP = new Comparator<KnnEntry<T>>() {
@@ -196,7 +201,7 @@ public class PointArray<T> implements PointIndex<T> {
 	
 	private static class KnnEntry<T> implements Comparable<KnnEntry<T>>, PointEntryDist<T> {
 		private final double[] p;
-		private final double dist;
+		private double dist;
 		private final T val;
 		KnnEntry(double[] p, T val, double dist) {
 			this.p = p;
@@ -276,9 +281,25 @@ public class PointArray<T> implements PointIndex<T> {
 	}
 
 	@Override
-	public Object getStats() {
-		throw new UnsupportedOperationException();
-		//return null;
+	public Stats getStats() {
+		Stats s = new Stats(dims, 0);
+		s.countNode(0, true);
+		s.countEntries(0, N);
+		s.setEstimatedBytes(estimateMemoryBytes());
+		return s;
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		long mem = MemoryModel.refArray(N) + N * MemoryModel.doubleArray(dims);
+		mem += MemoryModel.refArray(N);
+		for (int i = 0; i < N; i++) {
+			if (values[i] != null) {
+				//KnnEntry: p, val, dist
+				mem += MemoryModel.object(2, 8) + MemoryModel.doubleArray(dims);
+			}
+		}
+		return mem;
 	}
 
 	@Override
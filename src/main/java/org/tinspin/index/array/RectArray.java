@@ -12,11 +12,13 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.QueryIterator;
 import org.tinspin.index.QueryIteratorKNN;
 import org.tinspin.index.RectangleEntry;
 import org.tinspin.index.RectangleEntryDist;
 import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.Stats;
 
 public class RectArray<T> implements RectangleIndex<T> {
 
@@ -167,7 +169,7 @@ public class RectArray<T> implements RectangleIndex<T> {
 		for (int i = 0; i < phc.length/2; i++) {
 			double[] min = phc[i*2];
 			double[] max = phc[i*2+1];
-			double dist = distREdge(center, min, max);
+			double dist = distREdgeSq(center, min, max);
 			if (ret.size() < k) {
 				ret.add(new KnnEntry<>(min, max, values[i].value(), dist));
 				ret.sort(COMP);
@@ -177,10 +179,13 @@ public class RectArray<T> implements RectangleIndex<T> {
 				ret.sort(COMP);
 			}
 		}
+		for (int i = 0; i < ret.size(); i++) {
+			ret.get(i).dist = Math.sqrt(ret.get(i).dist);
+		}
 		return ret;
 	}
 
-	private static double distREdge(double[] center, double[] rLower, double[] rUpper) {
+	private static double distREdgeSq(double[] center, double[] rLower, double[] rUpper) {
 		double dist = 0;
 		for (int i = 0; i < center.length; i++) {
 			double d = 0;
@@ -191,7 +196,7 @@ public class RectArray<T> implements RectangleIndex<T> {
 			}
 			dist += d*d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 
 	private final Comparator<KnnEntry<T>> COMP = new Comparator<KnnEntry<T>>() {
@@ -205,7 +210,7 @@ public class RectArray<T> implements RectangleIndex<T> {
 		private final double[] min;
 		private final double[] max;
 		private final T val;
-		private final double dist;
+		private double dist;
 		KnnEntry(double[] min, double[] max, T val, double dist) {
 			this.min = min;
 			this.max = max;
@@ -298,9 +303,25 @@ public class RectArray<T> implements RectangleIndex<T> {
 	}
 
 	@Override
-	public Object getStats() {
-		throw new UnsupportedOperationException();
-		//return null;
+	public Stats getStats() {
+		Stats s = new Stats(dims, 0);
+		s.countNode(0, true);
+		s.countEntries(0, N);
+		s.setEstimatedBytes(estimateMemoryBytes());
+		return s;
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		long mem = MemoryModel.refArray(2*N) + 2*N * MemoryModel.doubleArray(dims);
+		mem += MemoryModel.refArray(N);
+		for (int i = 0; i < N; i++) {
+			if (values[i] != null) {
+				//KnnEntry: min, max, val, dist
+				mem += MemoryModel.object(3, 8) + 2 * MemoryModel.doubleArray(dims);
+			}
+		}
+		return mem;
 	}
 
 	@Override
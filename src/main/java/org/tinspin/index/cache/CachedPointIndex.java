@@ -0,0 +1,309 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.KnnResultSink;
+import org.tinspin.index.PointDistance;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.Stats;
+import org.tinspin.index.cache.QueryCache.CachedKnnIterator;
+import org.tinspin.index.cache.QueryCache.CachedQueryIterator;
+import org.tinspin.index.cache.QueryCache.Eviction;
+import org.tinspin.index.cache.QueryCache.Key;
+import org.tinspin.index.vptree.VPTree;
+
+/**
+ * A point index wrapper that caches the results of window and kNN queries.
+ *
+ * Example:
+ * <pre>
+ * {@code CachedPointIndex<String> idx = CachedPointIndex.create(KDTree.create(2), 1000, Eviction.LRU);}
+ * {@code idx.getCache().getHitRate();}
+ * </pre>
+ *
+ * {@link #query(double[], double[])}, {@link #queryKNN(double[], int)} and
+ * {@link #query1NN(double[])} are cached. Insert, remove and update invalidate only
+ * the cached results that contain the old or new key in their window or in the ball
+ * of their k-th nearest neighbor, see {@link QueryCache}.
+ * Other operations are delegated to the wrapped index.
+ *
+ * Cached entries are copies and are shared between queries, their keys must not be
+ * modified.
+ * The index must only be modified through this wrapper.
+ *
+ * @param <T> Value type
+ */
+public class CachedPointIndex<T> implements PointIndex<T> {
+
+	private final PointIndex<T> ind;
+	private final QueryCache cache;
+
+	private CachedPointIndex(PointIndex<T> ind, int maxEntries, Eviction eviction, 
+			PointDistance dist) {
+		this.ind = ind;
+		this.cache = new QueryCache(maxEntries, eviction, dist);
+	}
+
+	/**
+	 * The kNN queries of the index must use euclidean distance, except for a 
+	 * {@link VPTree}, whose distance function is used. 
+	 * See {@link #create(PointIndex, int, Eviction, PointDistance)} for other indexes.
+	 * @param ind the index to cache
+	 * @param maxEntries maximum number of cached query results
+	 * @param eviction the eviction strategy for full caches
+	 * @return a caching wrapper for the index
+	 * @param <T> Value type
+	 */
+	public static <T> CachedPointIndex<T> create(PointIndex<T> ind, int maxEntries,
+			Eviction eviction) {
+		PointDistance dist = ind instanceof VPTree ? 
+				((VPTree<T>) ind).getDistance() : PointDistance.EUCLIDEAN;
+		return new CachedPointIndex<>(ind, maxEntries, eviction, dist);
+	}
+
+	/**
+	 * @param ind the index to cache
+	 * @param maxEntries maximum number of cached query results
+	 * @param eviction the eviction strategy for full caches
+	 * @param dist the distance function of the kNN queries of the index
+	 * @return a caching wrapper for the index
+	 * @param <T> Value type
+	 */
+	public static <T> CachedPointIndex<T> create(PointIndex<T> ind, int maxEntries,
+			Eviction eviction, PointDistance dist) {
+		return new CachedPointIndex<>(ind, maxEntries, eviction, dist);
+	}
+
+	/**
+	 * @return the cache with its hit rate metrics
+	 */
+	public QueryCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the cached index
+	 */
+	public PointIndex<T> getIndex() {
+		return ind;
+	}
+
+	@Override
+	public void insert(double[] key, T value) {
+		ind.insert(key, value);
+		cache.invalidate(key, key);
+	}
+
+	@Override
+	public T remove(double[] point) {
+		T v = ind.remove(point);
+		cache.invalidate(point, point);
+		return v;
+	}
+
+	@Override
+	public T update(double[] oldPoint, double[] newPoint) {
+		T v = ind.update(oldPoint, newPoint);
+		cache.invalidate(oldPoint, oldPoint);
+		cache.invalidate(newPoint, newPoint);
+		return v;
+	}
+
+	@Override
+	public int updateBatch(double[][] oldKeys, double[][] newKeys) {
+		int n = ind.updateBatch(oldKeys, newKeys);
+		for (int i = 0; i < oldKeys.length; i++) {
+			cache.invalidate(oldKeys[i], oldKeys[i]);
+			cache.invalidate(newKeys[i], newKeys[i]);
+		}
+		return n;
+	}
+
+	@Override
+	public T queryExact(double[] point) {
+		return ind.queryExact(point);
+	}
+
+	@Override
+	public QueryIterator<? extends PointEntry<T>> iterator() {
+		return ind.iterator();
+	}
+
+	@Override
+	public QueryIterator<PointEntry<T>> query(double[] min, double[] max) {
+		return new CachedQueryIterator<>(this::queryCached, min, max);
+	}
+
+	private List<PointEntry<T>> queryCached(double[] min, double[] max) {
+		Key key = Key.window(min, max);
+		List<PointEntry<T>> result = cache.get(key);
+		if (result == null) {
+			long modCount = cache.getModCount();
+			result = new ArrayList<>();
+			QueryIterator<PointEntry<T>> it = ind.query(min, max);
+			while (it.hasNext()) {
+				PointEntry<T> e = it.next();
+				result.add(new PointDistC<>(e.point().clone(), e.value(), 0));
+			}
+			result = Collections.unmodifiableList(result);
+			cache.put(key, result, 0, modCount);
+		}
+		return result;
+	}
+
+	@Override
+	public Stream<PointEntry<T>> queryStream(double[] min, double[] max) {
+		return ind.queryStream(min, max);
+	}
+
+	@Override
+	public int count(double[] min, double[] max) {
+		return ind.count(min, max);
+	}
+
+	@Override
+	public Aggregate aggregate(double[] min, double[] max, ToDoubleFunction<? super T> extractor) {
+		return ind.aggregate(min, max, extractor);
+	}
+
+	@Override
+	public PointEntryDist<T> query1NN(double[] center) {
+		List<PointEntryDist<T>> result = queryKnnCached(center, 1);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	@Override
+	public QueryIteratorKNN<PointEntryDist<T>> queryKNN(double[] center, int k) {
+		return new CachedKnnIterator<>(this::queryKnnCached, center, k);
+	}
+
+	private List<PointEntryDist<T>> queryKnnCached(double[] center, int k) {
+		Key key = Key.knn(center, k);
+		List<PointEntryDist<T>> result = cache.get(key);
+		if (result == null) {
+			long modCount = cache.getModCount();
+			result = new ArrayList<>();
+			QueryIteratorKNN<PointEntryDist<T>> it = ind.queryKNN(center, k);
+			while (it.hasNext()) {
+				PointEntryDist<T> e = it.next();
+				result.add(new PointDistC<>(e.point().clone(), e.value(), e.dist()));
+			}
+			double radius = result.size() < k || result.isEmpty() ?
+					Double.POSITIVE_INFINITY : result.get(result.size() - 1).dist();
+			result = Collections.unmodifiableList(result);
+			cache.put(key, result, radius, modCount);
+		}
+		return result;
+	}
+
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<PointEntryDist<T>> sink) {
+		ind.queryKNN(centers, k, sink);
+	}
+
+	@Override
+	public void queryAllKNN(int k, BiConsumer<PointEntry<T>, List<PointEntryDist<T>>> consumer) {
+		ind.queryAllKNN(k, consumer);
+	}
+
+	@Override
+	public int getDims() {
+		return ind.getDims();
+	}
+
+	@Override
+	public int size() {
+		return ind.size();
+	}
+
+	@Override
+	public void clear() {
+		ind.clear();
+		cache.invalidateAll();
+	}
+
+	@Override
+	public Stats getStats() {
+		return ind.getStats();
+	}
+
+	@Override
+	public int getNodeCount() {
+		return ind.getNodeCount();
+	}
+
+	@Override
+	public int getDepth() {
+		return ind.getDepth();
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		return ind.estimateMemoryBytes();
+	}
+
+	@Override
+	public String toStringTree() {
+		return ind.toStringTree();
+	}
+
+	@Override
+	public String toString() {
+		return ind.toString() + ";" + cache;
+	}
+
+	private static class PointDistC<T> implements PointEntryDist<T> {
+
+		private final double[] point;
+		private final T value;
+		private final double dist;
+
+		PointDistC(double[] point, T value, double dist) {
+			this.point = point;
+			this.value = value;
+			this.dist = dist;
+		}
+
+		@Override
+		public double[] point() {
+			return point;
+		}
+
+		@Override
+		public T value() {
+			return value;
+		}
+
+		@Override
+		public double dist() {
+			return dist;
+		}
+	}
+}
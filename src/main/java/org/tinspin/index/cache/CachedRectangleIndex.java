@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.KnnResultSink;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.RectangleEntry;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.Stats;
+import org.tinspin.index.cache.QueryCache.CachedKnnIterator;
+import org.tinspin.index.cache.QueryCache.CachedQueryIterator;
+import org.tinspin.index.cache.QueryCache.Eviction;
+import org.tinspin.index.cache.QueryCache.Key;
+
+/**
+ * A rectangle index wrapper that caches the results of window and kNN queries.
+ *
+ * Example:
+ * <pre>
+ * {@code CachedRectangleIndex<String> idx = CachedRectangleIndex.create(RTree.createRStar(2), 1000, Eviction.LFU);}
+ * {@code idx.getCache().getHitRate();}
+ * </pre>
+ *
+ * {@link #queryIntersect(double[], double[])}, {@link #queryKNN(double[], int)} and
+ * {@link #query1NN(double[])} are cached. Insert, remove and update invalidate only
+ * the cached results whose window intersects the old or new rectangle, or whose
+ * k-th nearest neighbor is not closer than the rectangle, see {@link QueryCache}.
+ * Other operations are delegated to the wrapped index.
+ *
+ * Cached entries are copies and are shared between queries, their keys must not be
+ * modified.
+ * The index must only be modified through this wrapper.
+ *
+ * @param <T> Value type
+ */
+public class CachedRectangleIndex<T> implements RectangleIndex<T> {
+
+	private final RectangleIndex<T> ind;
+	private final QueryCache cache;
+
+	private CachedRectangleIndex(RectangleIndex<T> ind, int maxEntries, Eviction eviction) {
+		this.ind = ind;
+		this.cache = new QueryCache(maxEntries, eviction, null);
+	}
+
+	/**
+	 * @param ind the index to cache
+	 * @param maxEntries maximum number of cached query results
+	 * @param eviction the eviction strategy for full caches
+	 * @return a caching wrapper for the index
+	 * @param <T> Value type
+	 */
+	public static <T> CachedRectangleIndex<T> create(RectangleIndex<T> ind, int maxEntries,
+			Eviction eviction) {
+		return new CachedRectangleIndex<>(ind, maxEntries, eviction);
+	}
+
+	/**
+	 * @return the cache with its hit rate metrics
+	 */
+	public QueryCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the cached index
+	 */
+	public RectangleIndex<T> getIndex() {
+		return ind;
+	}
+
+	@Override
+	public void insert(double[] lower, double[] upper, T value) {
+		ind.insert(lower, upper, value);
+		cache.invalidate(lower, upper);
+	}
+
+	@Override
+	public T remove(double[] lower, double[] upper) {
+		T v = ind.remove(lower, upper);
+		cache.invalidate(lower, upper);
+		return v;
+	}
+
+	@Override
+	public T update(double[] lo1, double[] up1, double[] lo2, double[] up2) {
+		T v = ind.update(lo1, up1, lo2, up2);
+		cache.invalidate(lo1, up1);
+		cache.invalidate(lo2, up2);
+		return v;
+	}
+
+	@Override
+	public int updateBatch(double[][] lo1, double[][] up1, double[][] lo2, double[][] up2) {
+		int n = ind.updateBatch(lo1, up1, lo2, up2);
+		for (int i = 0; i < lo1.length; i++) {
+			cache.invalidate(lo1[i], up1[i]);
+			cache.invalidate(lo2[i], up2[i]);
+		}
+		return n;
+	}
+
+	@Override
+	public T queryExact(double[] lower, double[] upper) {
+		return ind.queryExact(lower, upper);
+	}
+
+	@Override
+	public QueryIterator<RectangleEntry<T>> iterator() {
+		return ind.iterator();
+	}
+
+	@Override
+	public QueryIterator<RectangleEntry<T>> queryIntersect(double[] min, double[] max) {
+		return new CachedQueryIterator<>(this::queryCached, min, max);
+	}
+
+	private List<RectangleEntry<T>> queryCached(double[] min, double[] max) {
+		Key key = Key.window(min, max);
+		List<RectangleEntry<T>> result = cache.get(key);
+		if (result == null) {
+			long modCount = cache.getModCount();
+			result = new ArrayList<>();
+			QueryIterator<RectangleEntry<T>> it = ind.queryIntersect(min, max);
+			while (it.hasNext()) {
+				RectangleEntry<T> e = it.next();
+				result.add(new RectDistC<>(e.lower().clone(), e.upper().clone(), e.value(), 0));
+			}
+			result = Collections.unmodifiableList(result);
+			cache.put(key, result, 0, modCount);
+		}
+		return result;
+	}
+
+	@Override
+	public Stream<RectangleEntry<T>> queryIntersectStream(double[] min, double[] max) {
+		return ind.queryIntersectStream(min, max);
+	}
+
+	@Override
+	public int countIntersect(double[] min, double[] max) {
+		return ind.countIntersect(min, max);
+	}
+
+	@Override
+	public Aggregate aggregateIntersect(double[] min, double[] max,
+			ToDoubleFunction<? super T> extractor) {
+		return ind.aggregateIntersect(min, max, extractor);
+	}
+
+	@Override
+	public <U> void queryIntersectJoin(RectangleIndex<U> other,
+			BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer) {
+		ind.queryIntersectJoin(other, consumer);
+	}
+
+	@Override
+	public RectangleEntryDist<T> query1NN(double[] center) {
+		List<RectangleEntryDist<T>> result = queryKnnCached(center, 1);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	@Override
+	public QueryIteratorKNN<RectangleEntryDist<T>> queryKNN(double[] center, int k) {
+		return new CachedKnnIterator<>(this::queryKnnCached, center, k);
+	}
+
+	private List<RectangleEntryDist<T>> queryKnnCached(double[] center, int k) {
+		Key key = Key.knn(center, k);
+		List<RectangleEntryDist<T>> result = cache.get(key);
+		if (result == null) {
+			long modCount = cache.getModCount();
+			result = new ArrayList<>();
+			QueryIteratorKNN<RectangleEntryDist<T>> it = ind.queryKNN(center, k);
+			while (it.hasNext()) {
+				RectangleEntryDist<T> e = it.next();
+				result.add(new RectDistC<>(e.lower().clone(), e.upper().clone(), e.value(),
+						e.dist()));
+			}
+			double radius = result.size() < k || result.isEmpty() ?
+					Double.POSITIVE_INFINITY : result.get(result.size() - 1).dist();
+			result = Collections.unmodifiableList(result);
+			cache.put(key, result, radius, modCount);
+		}
+		return result;
+	}
+
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<RectangleEntryDist<T>> sink) {
+		ind.queryKNN(centers, k, sink);
+	}
+
+	@Override
+	public int getDims() {
+		return ind.getDims();
+	}
+
+	@Override
+	public int size() {
+		return ind.size();
+	}
+
+	@Override
+	public void clear() {
+		ind.clear();
+		cache.invalidateAll();
+	}
+
+	@Override
+	public Stats getStats() {
+		return ind.getStats();
+	}
+
+	@Override
+	public int getNodeCount() {
+		return ind.getNodeCount();
+	}
+
+	@Override
+	public int getDepth() {
+		return ind.getDepth();
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		return ind.estimateMemoryBytes();
+	}
+
+	@Override
+	public String toStringTree() {
+		return ind.toStringTree();
+	}
+
+	@Override
+	public String toString() {
+		return ind.toString() + ";" + cache;
+	}
+
+	private static class RectDistC<T> implements RectangleEntryDist<T> {
+
+		private final double[] lower;
+		private final double[] upper;
+		private final T value;
+		private final double dist;
+
+		RectDistC(double[] lower, double[] upper, T value, double dist) {
+			this.lower = lower;
+			this.upper = upper;
+			this.value = value;
+			this.dist = dist;
+		}
+
+		@Override
+		public double[] lower() {
+			return lower;
+		}
+
+		@Override
+		public double[] upper() {
+			return upper;
+		}
+
+		@Override
+		public T value() {
+			return value;
+		}
+
+		@Override
+		public double dist() {
+			return dist;
+		}
+	}
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+import org.tinspin.index.PointDistance;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+
+/**
+ * Bounded cache for the results of window and kNN queries.
+ *
+ * Every cached result covers a region of the key space: the query window for window
+ * queries and the ball with the distance of the k-th result for kNN queries.
+ * The ball is measured with the distance function of the index, see 
+ * {@link #QueryCache(int, Eviction, PointDistance)}.
+ * Modifications of the index invalidate only the results whose region intersects
+ * the modified key, other results stay cached.
+ *
+ * Invalidation tests all cached results, the cache is therefore meant for a moderate
+ * number of frequently repeated queries.
+ *
+ * All methods are synchronized. Results that are computed while the index is
+ * modified are not cached.
+ */
+public final class QueryCache {
+
+	public enum Eviction {
+		/** Evict the least recently used result. */
+		LRU,
+		/** Evict the least frequently used result, ties are evicted in LRU order. */
+		LFU
+	}
+
+	//relative margin of kNN radii, the index may calculate distances with different rounding
+	private static final double RADIUS_MARGIN = 1e-9;
+
+	private final int maxEntries;
+	private final Eviction eviction;
+	//distance of the kNN queries of a point index, 'null' for euclidean distance
+	private final PointDistance dist;
+	//access order, the first entry is the least recently used entry
+	private final LinkedHashMap<Key, CacheEntry> map = new LinkedHashMap<>(16, 0.75f, true);
+	//incremented by every modification, see put()
+	private long modCount;
+
+	private long nHits;
+	private long nMisses;
+	private long nInvalidations;
+	private long nEvictions;
+
+	/**
+	 * @param maxEntries maximum number of cached results
+	 * @param eviction eviction strategy
+	 * @param dist distance function of the kNN queries of a point index, or 'null' for 
+	 * euclidean distance. Rectangle indexes must use 'null'.
+	 */
+	QueryCache(int maxEntries, Eviction eviction, PointDistance dist) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be > 0: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.eviction = eviction;
+		this.dist = dist == PointDistance.EUCLIDEAN ? null : dist;
+	}
+
+	/**
+	 * Query key. The arrays are not copied, use {@link #copy()} before storing a key.
+	 */
+	static final class Key {
+		//window: min/max; kNN: center/null
+		private final double[] a;
+		private final double[] b;
+		//kNN: k; window: -1
+		private final int k;
+		private final int hash;
+
+		private Key(double[] a, double[] b, int k) {
+			this.a = a;
+			this.b = b;
+			this.k = k;
+			this.hash = (Arrays.hashCode(a) * 31 + Arrays.hashCode(b)) * 31 + k;
+		}
+
+		static Key window(double[] min, double[] max) {
+			return new Key(min, max, -1);
+		}
+
+		static Key knn(double[] center, int k) {
+			return new Key(center, null, k);
+		}
+
+		Key copy() {
+			return new Key(a.clone(), b == null ? null : b.clone(), k);
+		}
+
+		boolean isWindow() {
+			return k < 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) obj;
+			return k == o.k && hash == o.hash && Arrays.equals(a, o.a) && Arrays.equals(b, o.b);
+		}
+	}
+
+	private static final class CacheEntry {
+		private final List<?> result;
+		//kNN: distance of the k-th result, or infinity if there are fewer results
+		private final double radius;
+		private long useCount;
+
+		CacheEntry(List<?> result, double radius) {
+			this.result = result;
+			this.radius = radius;
+		}
+	}
+
+	/**
+	 * @return the modification counter, to be passed to {@link #put(Key, List, double, long)}
+	 */
+	synchronized long getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * @param key query key
+	 * @return the cached result or {@code null}
+	 * @param <E> entry type
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized <E> List<E> get(Key key) {
+		CacheEntry e = map.get(key);
+		if (e == null) {
+			nMisses++;
+			return null;
+		}
+		nHits++;
+		e.useCount++;
+		return (List<E>) e.result;
+	}
+
+	/**
+	 * Cache a result. The result is ignored if the index has been modified
+	 * after {@code modCount} was obtained.
+	 * @param key query key, is copied
+	 * @param result query result
+	 * @param radius kNN: distance of the k-th result or infinity; window: ignored
+	 * @param modCount the modification counter from before the query was executed
+	 */
+	synchronized void put(Key key, List<?> result, double radius, long modCount) {
+		if (modCount != this.modCount) {
+			return;
+		}
+		if (map.size() >= maxEntries) {
+			evict();
+		}
+		map.put(key.copy(), new CacheEntry(result, radius * (1 + RADIUS_MARGIN)));
+	}
+
+	private void evict() {
+		Iterator<CacheEntry> it = map.values().iterator();
+		if (eviction == Eviction.LRU) {
+			it.next();
+			it.remove();
+		} else {
+			CacheEntry victim = null;
+			for (CacheEntry e : map.values()) {
+				if (victim == null || e.useCount < victim.useCount) {
+					victim = e;
+				}
+			}
+			while (it.next() != victim) {
+				//find victim
+			}
+			it.remove();
+		}
+		nEvictions++;
+	}
+
+	/**
+	 * Invalidate all results whose region intersects the modified key.
+	 * @param lower lower corner of the modified key
+	 * @param upper upper corner of the modified key, same as lower for points.
+	 * Points must be passed if the cache has a distance function.
+	 */
+	synchronized void invalidate(double[] lower, double[] upper) {
+		modCount++;
+		Iterator<Map.Entry<Key, CacheEntry>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, CacheEntry> me = it.next();
+			Key key = me.getKey();
+			boolean hit;
+			if (key.isWindow()) {
+				hit = overlaps(key.a, key.b, lower, upper);
+			} else {
+				double r = me.getValue().radius;
+				if (dist == null) {
+					hit = distToBoxSq(key.a, lower, upper) <= r * r;
+				} else {
+					hit = dist.dist(key.a, lower) <= r;
+				}
+			}
+			if (hit) {
+				it.remove();
+				nInvalidations++;
+			}
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public synchronized void invalidateAll() {
+		modCount++;
+		nInvalidations += map.size();
+		map.clear();
+	}
+
+	private static boolean overlaps(double[] min1, double[] max1, double[] min2, double[] max2) {
+		for (int d = 0; d < min1.length; d++) {
+			if (min1[d] > max2[d] || max1[d] < min2[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The distance to the closest point of a box is a lower bound for the point
+	 * and rectangle distances used by kNN queries.
+	 */
+	private static double distToBoxSq(double[] p, double[] lower, double[] upper) {
+		double dist = 0;
+		for (int d = 0; d < p.length; d++) {
+			double x = p[d] < lower[d] ? lower[d] - p[d] : (p[d] > upper[d] ? p[d] - upper[d] : 0);
+			dist += x * x;
+		}
+		return dist;
+	}
+
+	/**
+	 * @return number of cached results
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public Eviction getEviction() {
+		return eviction;
+	}
+
+	/**
+	 * @return number of queries answered from the cache
+	 */
+	public synchronized long getHitCount() {
+		return nHits;
+	}
+
+	/**
+	 * @return number of queries that were executed on the index
+	 */
+	public synchronized long getMissCount() {
+		return nMisses;
+	}
+
+	/**
+	 * @return hits / (hits + misses), or 0 if there were no queries
+	 */
+	public synchronized double getHitRate() {
+		long n = nHits + nMisses;
+		return n == 0 ? 0 : nHits / (double) n;
+	}
+
+	/**
+	 * @return number of results removed because of modifications
+	 */
+	public synchronized long getInvalidationCount() {
+		return nInvalidations;
+	}
+
+	/**
+	 * @return number of results removed because the cache was full
+	 */
+	public synchronized long getEvictionCount() {
+		return nEvictions;
+	}
+
+	/**
+	 * Reset the hit, miss, invalidation and eviction counters.
+	 */
+	public synchronized void resetStats() {
+		nHits = 0;
+		nMisses = 0;
+		nInvalidations = 0;
+		nEvictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QueryCache(" + eviction + ";size=" + map.size() + "/" + maxEntries +
+				";hits=" + nHits + ";misses=" + nMisses +
+				";hitRate=" + String.format("%.3f", getHitRate()) +
+				";invalidations=" + nInvalidations + ";evictions=" + nEvictions + ")";
+	}
+
+	/**
+	 * Iterator over a cached window query result. reset() performs a new (cached) query.
+	 * @param <E> entry type
+	 */
+	static final class CachedQueryIterator<E> implements QueryIterator<E> {
+
+		private final BiFunction<double[], double[], List<E>> query;
+		private Iterator<E> it;
+
+		CachedQueryIterator(BiFunction<double[], double[], List<E>> query,
+				double[] min, double[] max) {
+			this.query = query;
+			reset(min, max);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public E next() {
+			if (!it.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return it.next();
+		}
+
+		@Override
+		public void reset(double[] min, double[] max) {
+			it = query.apply(min, max).iterator();
+		}
+	}
+
+	/**
+	 * Iterator over a cached kNN query result. reset() performs a new (cached) query.
+	 * @param <E> entry type
+	 */
+	static final class CachedKnnIterator<E> implements QueryIteratorKNN<E> {
+
+		private final BiFunction<double[], Integer, List<E>> query;
+		private Iterator<E> it;
+
+		CachedKnnIterator(BiFunction<double[], Integer, List<E>> query,
+				double[] center, int k) {
+			this.query = query;
+			reset(center, k);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public E next() {
+			if (!it.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return it.next();
+		}
+
+		@Override
+		public CachedKnnIterator<E> reset(double[] center, int k) {
+			it = query.apply(center, k).iterator();
+			return this;
+		}
+	}
+}
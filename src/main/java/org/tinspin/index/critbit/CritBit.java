@@ -76,6 +76,8 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.tinspin.index.MemoryModel;
+
 public class CritBit<V> implements CritBit1D<V>, CritBitKD<V> {
 
 	private final int DEPTH;
@@ -500,6 +502,38 @@ public class CritBit<V> implements CritBit1D<V>, CritBitKD<V> {
 		return size;
 	}
 
+	/**
+	 * Estimate the heap usage of the tree, see {@link MemoryModel}.
+	 * @return estimated size of the tree in bytes
+	 */
+	@Override
+	public long estimateMemoryBytes() {
+		//DEPTH, DIM, root, rootKey, rootVal, size
+		long mem = MemoryModel.object(3, 12);
+		if (rootKey != null) {
+			mem += MemoryModel.longArray(rootKey.length);
+		}
+		return mem + estimateMemory(root);
+	}
+
+	private static long estimateMemory(Node<?> n) {
+		if (n == null) {
+			return 0;
+		}
+		//loVal, hiVal, lo, hi, loPost, hiPost, infix, posFirstBit, posDiff
+		long mem = MemoryModel.object(7, 8);
+		if (n.loPost != null) {
+			mem += MemoryModel.longArray(n.loPost.length);
+		}
+		if (n.hiPost != null) {
+			mem += MemoryModel.longArray(n.hiPost.length);
+		}
+		if (n.infix != null) {
+			mem += MemoryModel.longArray(n.infix.length);
+		}
+		return mem + estimateMemory(n.lo) + estimateMemory(n.hi);
+	}
+
 	/**
 	 * Check whether a given key exists in the tree.
 	 * @param key key
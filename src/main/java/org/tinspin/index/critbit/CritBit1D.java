@@ -61,6 +61,13 @@ public interface CritBit1D<V> {
 	 */
 	int size();
 
+	/** 
+	 * @return Estimated heap usage in bytes
+	 *  
+	 * @see CritBit#estimateMemoryBytes() 
+	 */
+	long estimateMemoryBytes();
+
 	/** 
 	 * @param key key
 	 * @return previous value or 'null' if none existed
@@ -58,6 +58,8 @@ package org.tinspin.index.critbit;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.tinspin.index.MemoryModel;
+
 public class CritBit64<V> implements Iterable<V> {
 
 	protected static final int DEPTH = 64;
@@ -361,6 +363,20 @@ public class CritBit64<V> implements Iterable<V> {
 		return info.size;
 	}
 
+	/**
+	 * Estimate the heap usage of the tree, see {@link MemoryModel}. A tree with
+	 * more than one entry has exactly size-1 nodes, so this does not require 
+	 * a traversal.
+	 * @return estimated size of the tree in bytes
+	 */
+	public long estimateMemoryBytes() {
+		AtomicInfo<V> i = info;
+		//tree: info; AtomicInfo: root, rootVal, rootKey, size
+		long mem = MemoryModel.object(1, 0) + MemoryModel.object(2, 12);
+		//Node: loVal, hiVal, lo, hi, loPost, hiPost, posDiff
+		return mem + Math.max(0, i.size - 1) * MemoryModel.object(4, 17);
+	}
+
 	/**
 	 * Check whether a given key exists in the tree.
 	 * @param key key
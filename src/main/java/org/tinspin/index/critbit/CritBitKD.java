@@ -51,6 +51,13 @@ public interface CritBitKD<V> {
 	 */  
 	int size();
 
+	/**
+	 * @return Estimated heap usage in bytes
+	 *  
+	 * @see CritBit#estimateMemoryBytes() 
+	 */  
+	long estimateMemoryBytes();
+
 	/** 
 	 * @param lowerLeft Lower left corner of the query window
 	 * @param upperRight Upper right corner of the query window
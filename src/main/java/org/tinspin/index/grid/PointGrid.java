@@ -0,0 +1,625 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.tinspin.index.MemoryModel;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.Stats;
+
+/**
+ * A uniform grid for points in a bounded area. 
+ * <p>
+ * Each cell stores the coordinates of its points in a single primitive array and the
+ * values in a parallel array, there are no entry or node objects. This makes the grid 
+ * well suited for dense, uniformly distributed points that are updated frequently: 
+ * an update of a point that stays in its cell only overwrites the coordinates.
+ * <p>
+ * Points outside the area are stored in the cells at the border of the grid. This is 
+ * correct but slow if many points lie outside the area.
+ * <p>
+ * kNN queries search rings of cells around the cell of the query point until no 
+ * unvisited cell can contain a closer point.
+ * 
+ * @param <T> Value type
+ */
+public class PointGrid<T> implements PointIndex<T> {
+
+	private static final String NL = System.lineSeparator();
+
+	/** The maximum number of cells. */
+	public static final int MAX_CELLS = 1 << 26;
+	
+	private static final int INITIAL_CELL_CAPACITY = 4;
+	
+	private final int dims;
+	private final double[] min;
+	private final double cellSize;
+	private final double cellSizeInv;
+	//number of cells per dimension
+	private final int[] nCells;
+	//distance between neighboring cells of a dimension in the cell arrays
+	private final int[] strides;
+	//coordinates of the points in each cell, 'dims' values per point
+	private final double[][] cellKeys;
+	private final Object[][] cellValues;
+	private final int[] cellSizes;
+	private int nUsedCells = 0;
+	private int size = 0;
+	
+	private PointGrid(int dims, double[] min, double[] max, double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("Cell size must be > 0 but was " + cellSize);
+		}
+		this.dims = dims;
+		this.min = Arrays.copyOf(min, dims);
+		this.cellSize = cellSize;
+		this.cellSizeInv = 1 / cellSize;
+		this.nCells = new int[dims];
+		this.strides = new int[dims];
+		long total = 1;
+		for (int d = dims - 1; d >= 0; d--) {
+			if (!(max[d] >= min[d])) {
+				throw new IllegalArgumentException("max < min in dimension " + d + ": " + 
+						max[d] + " < " + min[d]);
+			}
+			double n = Math.ceil((max[d] - min[d]) * cellSizeInv);
+			nCells[d] = (int) Math.max(1, Math.min(n, MAX_CELLS));
+			strides[d] = (int) total;
+			total *= nCells[d];
+			if (total > MAX_CELLS) {
+				throw new IllegalArgumentException("Too many cells, increase the cell size: " + 
+						cellSize);
+			}
+		}
+		cellKeys = new double[(int) total][];
+		cellValues = new Object[(int) total][];
+		cellSizes = new int[(int) total];
+	}
+
+	/**
+	 * Create a grid for the area between 'min' and 'max'.
+	 * @param dims dimensions
+	 * @param min lower left corner of the area
+	 * @param max upper right corner of the area
+	 * @param cellSize edge length of the cells
+	 * @return a new grid
+	 * @param <T> value type
+	 */
+	public static <T> PointGrid<T> create(int dims, double[] min, double[] max, double cellSize) {
+		return new PointGrid<>(dims, min, max, cellSize);
+	}
+	
+	private int cellCoord(double x, int d) {
+		double c = (x - min[d]) * cellSizeInv;
+		if (!(c >= 0)) {
+			//also catches NaN
+			return 0;
+		}
+		if (c >= nCells[d]) {
+			return nCells[d] - 1;
+		}
+		return (int) c;
+	}
+	
+	private int cellIndex(double[] p) {
+		int cell = 0;
+		for (int d = 0; d < dims; d++) {
+			cell += cellCoord(p[d], d) * strides[d];
+		}
+		return cell;
+	}
+
+	private int find(int cell, double[] p) {
+		double[] keys = cellKeys[cell];
+		int n = cellSizes[cell];
+		for (int i = 0, offs = 0; i < n; i++, offs += dims) {
+			if (isEqual(keys, offs, p)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private boolean isEqual(double[] keys, int offs, double[] p) {
+		for (int d = 0; d < dims; d++) {
+			if (keys[offs + d] != p[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void add(int cell, double[] p, Object value) {
+		double[] keys = cellKeys[cell];
+		int n = cellSizes[cell];
+		if (keys == null) {
+			keys = new double[INITIAL_CELL_CAPACITY * dims];
+			cellKeys[cell] = keys;
+			cellValues[cell] = new Object[INITIAL_CELL_CAPACITY];
+			nUsedCells++;
+		} else if (n == cellValues[cell].length) {
+			keys = Arrays.copyOf(keys, n * 2 * dims);
+			cellKeys[cell] = keys;
+			cellValues[cell] = Arrays.copyOf(cellValues[cell], n * 2);
+		}
+		System.arraycopy(p, 0, keys, n * dims, dims);
+		cellValues[cell][n] = value;
+		cellSizes[cell] = n + 1;
+	}
+
+	private void removeAt(int cell, int pos) {
+		double[] keys = cellKeys[cell];
+		Object[] values = cellValues[cell];
+		int n = cellSizes[cell] - 1;
+		//move last entry into the gap
+		System.arraycopy(keys, n * dims, keys, pos * dims, dims);
+		values[pos] = values[n];
+		values[n] = null;
+		cellSizes[cell] = n;
+		if (n == 0) {
+			cellKeys[cell] = null;
+			cellValues[cell] = null;
+			nUsedCells--;
+		} else if (n * 4 <= values.length && values.length > INITIAL_CELL_CAPACITY) {
+			cellKeys[cell] = Arrays.copyOf(keys, values.length / 2 * dims);
+			cellValues[cell] = Arrays.copyOf(values, values.length / 2);
+		}
+	}
+
+	@Override
+	public void insert(double[] key, T value) {
+		add(cellIndex(key), key, value);
+		size++;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T remove(double[] point) {
+		int cell = cellIndex(point);
+		int pos = find(cell, point);
+		if (pos < 0) {
+			return null;
+		}
+		T value = (T) cellValues[cell][pos];
+		removeAt(cell, pos);
+		size--;
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T update(double[] oldPoint, double[] newPoint) {
+		int cell = cellIndex(oldPoint);
+		int pos = find(cell, oldPoint);
+		if (pos < 0) {
+			return null;
+		}
+		T value = (T) cellValues[cell][pos];
+		int newCell = cellIndex(newPoint);
+		if (newCell == cell) {
+			System.arraycopy(newPoint, 0, cellKeys[cell], pos * dims, dims);
+		} else {
+			removeAt(cell, pos);
+			add(newCell, newPoint, value);
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T queryExact(double[] point) {
+		int cell = cellIndex(point);
+		int pos = find(cell, point);
+		return pos < 0 ? null : (T) cellValues[cell][pos];
+	}
+
+	@Override
+	public GridIterator query(double[] min, double[] max) {
+		return new GridIterator(min, max);
+	}
+
+	@Override
+	public GridIterator iterator() {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return new GridIterator(min, max);
+	}
+
+	@Override
+	public GridIteratorKNN queryKNN(double[] center, int k) {
+		return new GridIteratorKNN(center, k);
+	}
+	
+	/**
+	 * Resettable window query iterator.
+	 */
+	public class GridIterator implements QueryIterator<PointEntry<T>> {
+
+		private final int[] lo = new int[dims];
+		private final int[] hi = new int[dims];
+		private final int[] cur = new int[dims];
+		private double[] qMin;
+		private double[] qMax;
+		private int cell;
+		private int pos;
+		private boolean done;
+		private GridEntry<T> next;
+		
+		GridIterator(double[] min, double[] max) {
+			reset(min, max);
+		}
+		
+		@Override
+		public void reset(double[] min, double[] max) {
+			this.qMin = min;
+			this.qMax = max;
+			this.done = false;
+			this.cell = 0;
+			this.pos = 0;
+			for (int d = 0; d < dims; d++) {
+				lo[d] = cellCoord(min[d], d);
+				hi[d] = cellCoord(max[d], d);
+				if (lo[d] > hi[d]) {
+					done = true;
+				}
+				cur[d] = lo[d];
+				cell += lo[d] * strides[d];
+			}
+			findNext();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void findNext() {
+			while (!done) {
+				double[] keys = cellKeys[cell];
+				int n = cellSizes[cell];
+				while (pos < n) {
+					int offs = pos * dims;
+					if (isInWindow(keys, offs)) {
+						next = new GridEntry<>(Arrays.copyOfRange(keys, offs, offs + dims), 
+								(T) cellValues[cell][pos++]);
+						return;
+					}
+					pos++;
+				}
+				done = !nextCell();
+			}
+			next = null;
+		}
+		
+		private boolean isInWindow(double[] keys, int offs) {
+			for (int d = 0; d < dims; d++) {
+				double x = keys[offs + d];
+				if (x < qMin[d] || x > qMax[d]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private boolean nextCell() {
+			pos = 0;
+			for (int d = dims - 1; d >= 0; d--) {
+				if (cur[d] < hi[d]) {
+					cur[d]++;
+					cell += strides[d];
+					return true;
+				}
+				cell -= (cur[d] - lo[d]) * strides[d];
+				cur[d] = lo[d];
+			}
+			return false;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public PointEntry<T> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			GridEntry<T> ret = next;
+			findNext();
+			return ret;
+		}
+	}
+	
+	/**
+	 * kNN query iterator.
+	 */
+	public class GridIteratorKNN implements QueryIteratorKNN<PointEntryDist<T>> {
+
+		private Iterator<GridEntryDist<T>> it;
+
+		GridIteratorKNN(double[] center, int k) {
+			reset(center, k);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public PointEntryDist<T> next() {
+			return it.next();
+		}
+
+		@Override
+		public GridIteratorKNN reset(double[] center, int k) {
+			it = knnQuery(center, k).iterator();
+			return this;
+		}
+	}
+	
+	private ArrayList<GridEntryDist<T>> knnQuery(double[] center, int k) {
+		ArrayList<GridEntryDist<T>> candidates = new ArrayList<>(k);
+		if (size == 0 || k <= 0) {
+			return candidates;
+		}
+		//distances are compared squared, the square root is taken in the end
+		int[] c = new int[dims];
+		int[] lo = new int[dims];
+		int[] hi = new int[dims];
+		int[] cur = new int[dims];
+		for (int d = 0; d < dims; d++) {
+			c[d] = cellCoord(center[d], d);
+		}
+		for (int r = 0; ; r++) {
+			for (int d = 0; d < dims; d++) {
+				lo[d] = Math.max(0, c[d] - r);
+				hi[d] = Math.min(nCells[d] - 1, c[d] + r);
+			}
+			searchRing(center, k, candidates, c, r, lo, hi, cur);
+			
+			//Any cell outside the searched cells lies beyond at least one of the 
+			//faces of the searched box. Points in border cells that lie outside 
+			//the grid area are even further away.
+			boolean hasMoreCells = false;
+			double minDist = Double.POSITIVE_INFINITY;
+			for (int d = 0; d < dims; d++) {
+				if (c[d] - r > 0) {
+					hasMoreCells = true;
+					minDist = Math.min(minDist, center[d] - (min[d] + (c[d] - r) * cellSize));
+				}
+				if (c[d] + r < nCells[d] - 1) {
+					hasMoreCells = true;
+					minDist = Math.min(minDist, min[d] + (c[d] + r + 1) * cellSize - center[d]);
+				}
+			}
+			if (!hasMoreCells || (candidates.size() == k && 
+					minDist * minDist > candidates.get(k - 1).dist)) {
+				break;
+			}
+		}
+		for (int i = 0; i < candidates.size(); i++) {
+			GridEntryDist<T> e = candidates.get(i);
+			e.dist = Math.sqrt(e.dist);
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Search all cells at Chebyshev distance 'r' from cell 'c', i.e. the surface of 
+	 * the box between 'lo' and 'hi'.
+	 */
+	private void searchRing(double[] center, int k, ArrayList<GridEntryDist<T>> candidates, 
+			int[] c, int r, int[] lo, int[] hi, int[] cur) {
+		int last = dims - 1;
+		System.arraycopy(lo, 0, cur, 0, dims);
+		while (true) {
+			boolean onSurface = false;
+			int cell = 0;
+			for (int d = 0; d < last; d++) {
+				if (cur[d] == c[d] - r || cur[d] == c[d] + r) {
+					onSurface = true;
+				}
+				cell += cur[d] * strides[d];
+			}
+			if (onSurface) {
+				for (int i = lo[last]; i <= hi[last]; i++) {
+					searchCell(center, k, candidates, cell + i * strides[last]);
+				}
+			} else {
+				//inner row: only the two end cells are on the surface
+				if (c[last] - r >= 0) {
+					searchCell(center, k, candidates, cell + (c[last] - r) * strides[last]);
+				}
+				if (r > 0 && c[last] + r < nCells[last]) {
+					searchCell(center, k, candidates, cell + (c[last] + r) * strides[last]);
+				}
+			}
+			int d = last - 1;
+			while (d >= 0 && cur[d] == hi[d]) {
+				cur[d] = lo[d];
+				d--;
+			}
+			if (d < 0) {
+				return;
+			}
+			cur[d]++;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void searchCell(double[] center, int k, ArrayList<GridEntryDist<T>> candidates, 
+			int cell) {
+		double[] keys = cellKeys[cell];
+		int n = cellSizes[cell];
+		for (int i = 0, offs = 0; i < n; i++, offs += dims) {
+			double dist = 0;
+			for (int d = 0; d < dims; d++) {
+				double x = keys[offs + d] - center[d];
+				dist += x * x;
+			}
+			if (candidates.size() == k) {
+				if (dist >= candidates.get(k - 1).dist) {
+					continue;
+				}
+				candidates.remove(k - 1);
+			}
+			int pos = candidates.size();
+			while (pos > 0 && candidates.get(pos - 1).dist > dist) {
+				pos--;
+			}
+			candidates.add(pos, new GridEntryDist<>(Arrays.copyOfRange(keys, offs, offs + dims), 
+					(T) cellValues[cell][i], dist));
+		}
+	}
+	
+	private static class GridEntry<T> implements PointEntry<T> {
+		private final double[] point;
+		private final T value;
+		
+		GridEntry(double[] point, T value) {
+			this.point = point;
+			this.value = value;
+		}
+		
+		@Override
+		public double[] point() {
+			return point;
+		}
+
+		@Override
+		public T value() {
+			return value;
+		}
+		
+		@Override
+		public String toString() {
+			return Arrays.toString(point) + " v=" + value;
+		}
+	}
+
+	private static class GridEntryDist<T> extends GridEntry<T> implements PointEntryDist<T> {
+		private double dist;
+		
+		GridEntryDist(double[] point, T value, double dist) {
+			super(point, value);
+			this.dist = dist;
+		}
+		
+		@Override
+		public double dist() {
+			return dist;
+		}
+
+		@Override
+		public String toString() {
+			return "d=" + dist + ":" + super.toString();
+		}
+	}
+
+	@Override
+	public int getDims() {
+		return dims;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(cellKeys, null);
+		Arrays.fill(cellValues, null);
+		Arrays.fill(cellSizes, 0);
+		nUsedCells = 0;
+		size = 0;
+	}
+
+	/**
+	 * Nodes are the cells that contain at least one point.
+	 */
+	@Override
+	public Stats getStats() {
+		Stats s = new Stats(dims, 0);
+		for (int i = 0; i < cellSizes.length; i++) {
+			if (cellSizes[i] > 0) {
+				s.countNode(0, true);
+				s.countEntries(0, cellSizes[i]);
+			}
+		}
+		s.setEstimatedBytes(estimateMemoryBytes());
+		return s;
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		//min, nCells, strides, cellKeys, cellValues, cellSizes; dims, cellSize, 
+		//cellSizeInv, nUsedCells, size
+		long mem = MemoryModel.object(6, 28) + MemoryModel.doubleArray(dims) + 
+				2 * MemoryModel.intArray(dims);
+		mem += 2 * MemoryModel.refArray(cellSizes.length) + MemoryModel.intArray(cellSizes.length);
+		for (int i = 0; i < cellValues.length; i++) {
+			if (cellValues[i] != null) {
+				mem += MemoryModel.doubleArray(cellKeys[i].length);
+				mem += MemoryModel.refArray(cellValues[i].length);
+			}
+		}
+		return mem;
+	}
+
+	@Override
+	public int getNodeCount() {
+		return nUsedCells;
+	}
+
+	@Override
+	public int getDepth() {
+		return 0;
+	}
+
+	@Override
+	public String toStringTree() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < cellSizes.length; i++) {
+			if (cellSizes[i] > 0) {
+				sb.append("cell=" + i + NL);
+				double[] keys = cellKeys[i];
+				for (int j = 0; j < cellSizes[i]; j++) {
+					sb.append(" " + Arrays.toString(Arrays.copyOfRange(keys, j * dims, (j + 1) * dims)));
+					sb.append(" v=" + cellValues[i][j] + NL);
+				}
+			}
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return "PointGrid;cellSize=" + cellSize + ";cells=" + Arrays.toString(nCells) + 
+				";min=" + Arrays.toString(min);
+	}
+}
@@ -38,6 +38,10 @@ public class KDEntryDist<T> implements PointEntryDist<T> {
 		//
 	}
 
+	void setDist(double dist) {
+		this.distance = dist;
+	}
+
 	@Override
 	public double dist() {
 		return distance;
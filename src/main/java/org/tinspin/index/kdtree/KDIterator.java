@@ -5,6 +5,7 @@ import java.util.NoSuchElementException;
 
 import org.tinspin.index.PointEntry;
 import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryStats;
 
 /**
  * Resetable query iterator.
@@ -23,8 +24,10 @@ public class KDIterator<T> implements QueryIterator<PointEntry<T>> {
 			this.depth = depth;
 			double[] key = node.getKey();
 			int pos = depth % dims;
-			doLeft = min[pos] < key[pos];
-			doRight = max[pos] > key[pos];
+			//Keys equal to the node's key are usually stored in the 'upper' branch,
+			//but may end up in the 'lower' branch when the invariant is broken.
+			doLeft = min[pos] <= key[pos];
+			doRight = max[pos] >= key[pos];
 			doKey = doLeft || doRight || key[pos] == min[pos] || key[pos] == max[pos];
 		}
 	}
@@ -46,6 +49,7 @@ public class KDIterator<T> implements QueryIterator<PointEntry<T>> {
 				stack.add(new IteratorPos<>());
 			}
 			IteratorPos<T> ni = stack.get(size++);
+			QueryStats.node(node.isLeaf());
 			
 			ni.set(node, min, max, depth, dims);
 			return ni;
@@ -87,7 +91,9 @@ public class KDIterator<T> implements QueryIterator<PointEntry<T>> {
 			}
 			if (itPos.doKey) {
 				itPos.doKey = false;
+				QueryStats.entriesScanned(1);
 				if (KDTree.isEnclosed(node.getKey(), min, max)) {
+					QueryStats.entriesReturned(1);
 					next = node;
 					return;
 				}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.kdtree;
+
+import java.util.function.Consumer;
+
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.SubtreeSpliterator;
+
+/**
+ * Splittable window query, see {@link KDTree#queryStream(double[], double[])}.
+ *
+ * @param <T> Value type
+ */
+public class KDSpliterator<T> extends SubtreeSpliterator<Node<T>, PointEntry<T>> {
+
+	private final double[] min;
+	private final double[] max;
+
+	KDSpliterator(Node<T> root, double[] min, double[] max, long estimatedSize) {
+		super(root, estimatedSize);
+		this.min = min;
+		this.max = max;
+	}
+
+	@Override
+	protected void visit(Node<T> node, Consumer<Node<T>> subtrees,
+			Consumer<? super PointEntry<T>> entries) {
+		double[] key = node.getKey();
+		int pos = node.getDim();
+		//Use '<=' for the lower branch, it may contain equal keys if the invariant is broken
+		if (node.getLo() != null && min[pos] <= key[pos]) {
+			subtrees.accept(node.getLo());
+		}
+		if (node.getHi() != null && max[pos] >= key[pos]) {
+			subtrees.accept(node.getHi());
+		}
+		if (KDTree.isEnclosed(key, min, max)) {
+			entries.accept(node);
+		}
+	}
+
+	@Override
+	protected KDSpliterator<T> createEmpty() {
+		return new KDSpliterator<>(null, min, max, 0);
+	}
+}
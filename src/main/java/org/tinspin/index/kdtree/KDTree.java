@@ -17,6 +17,7 @@
  */
 package org.tinspin.index.kdtree;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -24,12 +25,24 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.KnnBatch;
+import org.tinspin.index.KnnResultSink;
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.PointEntry;
 import org.tinspin.index.PointEntryDist;
 import org.tinspin.index.PointIndex;
 import org.tinspin.index.QueryIterator;
 import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.QueryStats;
+import org.tinspin.index.Stats;
+import org.tinspin.index.ZOrder;
 
 /**
  * A simple KD-Tree implementation. 
@@ -65,8 +78,22 @@ public class KDTree<T> implements PointIndex<T> {
 	//This is especially useful in scenarios where 'remove()' is not required or where
 	//points have never the same values (such as for physical measurements or other experimental results).
 	private boolean invariantBroken = false;
+	//modCount when the invariant was broken
+	private int modCountAtInvariantBroken = 0;
+	
+	//Balancing follows the scapegoat tree approach: if an insertion results in a path
+	//that is longer than log_{1/ALPHA}(size), we rebuild the subtree of the lowest node
+	//on that path whose larger child contains more than ALPHA of its entries.
+	//The whole tree is rebuilt if it shrank below ALPHA*maxSize or if the invariant
+	//has been broken for more than 'size' modifications.
+	private static final double ALPHA = 0.8;
+	private static final double LOG_INV_ALPHA = Math.log(1 / ALPHA);
+	//largest size since the last rebuild of the whole tree
+	private int maxSize = 0;
 	
 	private Node<T> root;
+	//Value extractor of the node summaries, 'null' if the tree has no summaries
+	private final ToDoubleFunction<? super T> extractor;
 	
 	public static void main(String ... args) {
 		for (int i = 0; i < 10; i++) {
@@ -127,15 +154,35 @@ public class KDTree<T> implements PointIndex<T> {
 		}
 	}
 	
-	private KDTree(int dims) {
+	private KDTree(int dims, ToDoubleFunction<? super T> extractor) {
 		if (DEBUG) {
 			System.err.println("Warning: DEBUG enabled");
 		}
 		this.dims = dims;
+		this.extractor = extractor;
 	}
 
 	public static <T> KDTree<T> create(int dims) {
-		return new KDTree<>(dims);
+		return new KDTree<>(dims, null);
+	}
+	
+	/**
+	 * Create a KD-Tree where every node stores the number of entries, the bounding box 
+	 * and the aggregate of the values in its subtree. This speeds up {@link #count} and 
+	 * {@link #aggregate} at the cost of slower modifications and more memory.
+	 * @param dims dimensionality
+	 * @param extractor value extractor for {@link #aggregate}, or 'null' to speed up only 
+	 * {@link #count}
+	 * @param <T> value type
+	 * @return a new KD-Tree
+	 */
+	public static <T> KDTree<T> createWithSummaries(int dims, 
+			ToDoubleFunction<? super T> extractor) {
+		return new KDTree<>(dims, extractor != null ? extractor : v -> 0);
+	}
+	
+	private Node<T> createNode(double[] key, T value, int dim) {
+		return extractor == null ? new Node<>(key, value, dim) : new SummaryNode<>(key, value, dim);
 	}
 	
 	/**
@@ -147,12 +194,88 @@ public class KDTree<T> implements PointIndex<T> {
 	public void insert(double[] key, T value) {
 		size++;
 		modCount++;
+		maxSize = Math.max(maxSize, size);
 		if (root == null) {
-			root = new Node<>(key, value, 0);
+			root = createNode(key, value, 0);
+			addToSummaries(key, value);
 			return;
 		}
 		Node<T> n = root;
-		while ((n = n.getClosestNodeOrAddPoint(key, value, dims)) != null);
+		int depth = 1;
+		while ((n = n.getClosestNodeOrAddPoint(key, value, dims)) != null) {
+			depth++;
+		}
+		addToSummaries(key, value);
+		if (depth > Math.log(size) / LOG_INV_ALPHA + 1) {
+			rebuildScapegoat(key, depth);
+		}
+	}
+	
+	/**
+	 * Add a new entry to the summaries of all nodes on its path. 
+	 * @param key the key of the new entry
+	 * @param value the value of the new entry
+	 */
+	private void addToSummaries(double[] key, T value) {
+		if (extractor == null) {
+			return;
+		}
+		double v = extractor.applyAsDouble(value);
+		for (Node<T> n = root; n != null; ) {
+			((SummaryNode<T>) n).addToSummary(key, v);
+			n = key[n.getDim()] >= n.getKey()[n.getDim()] ? n.getHi() : n.getLo();
+		}
+	}
+	
+	/**
+	 * Recalculate the summaries of a node and its ancestors.
+	 * @param node the node
+	 */
+	private void recalcSummaries(Node<T> node) {
+		ArrayList<Node<T>> path = new ArrayList<>();
+		findPath(root, node, path);
+		for (int i = path.size() - 1; i >= 0; i--) {
+			((SummaryNode<T>) path.get(i)).recalcSummary(extractor);
+		}
+	}
+	
+	/**
+	 * Find the path to a node. Lower subtrees may contain keys that are equal
+	 * to the key of their parent, see 'invariantBroken'. 
+	 * @param n current node
+	 * @param node the node to find
+	 * @param path output, the nodes from 'n' to 'node' 
+	 * @return whether the node was found
+	 */
+	private static <T> boolean findPath(Node<T> n, Node<T> node, ArrayList<Node<T>> path) {
+		path.add(n);
+		if (n == node) {
+			return true;
+		}
+		double x = node.getKey()[n.getDim()];
+		double nodeX = n.getKey()[n.getDim()];
+		if ((x >= nodeX && n.getHi() != null && findPath(n.getHi(), node, path)) 
+				|| (x <= nodeX && n.getLo() != null && findPath(n.getLo(), node, path))) {
+			return true;
+		}
+		path.remove(path.size() - 1);
+		return false;
+	}
+	
+	/**
+	 * Recalculate the summaries of all nodes in a subtree.
+	 * @param sub root of the subtree
+	 * @param size number of nodes in the subtree
+	 */
+	private void recalcSubtreeSummaries(Node<T> sub, int size) {
+		if (extractor == null) {
+			return;
+		}
+		//children come after their parents
+		Node<T>[] nodes = collect(sub, size);
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			((SummaryNode<T>) nodes[i]).recalcSummary(extractor);
+		}
 	}
 	
 	/**
@@ -161,7 +284,7 @@ public class KDTree<T> implements PointIndex<T> {
 	 * @return true iff the key exists
 	 */
 	public boolean containsExact(double[] key) {
-		return findNodeExcat(key, new RemoveResult<>()) != null;
+		return findNodeExcat(key, new RemoveResult<>(), null) != null;
 	}
 	
 	/**
@@ -171,26 +294,36 @@ public class KDTree<T> implements PointIndex<T> {
 	 */
 	@Override
 	public T queryExact(double[] key) {
-		Node<T> e = findNodeExcat(key, new RemoveResult<>());
+		Node<T> e = findNodeExcat(key, new RemoveResult<>(), null);
 		return e == null ? null : e.getValue();
 	}
 	
-	private Node<T> findNodeExcat(double[] key, RemoveResult<T> resultDepth) {
+	/**
+	 * @param key the key
+	 * @param resultDepth returns the parent of the node
+	 * @param filter only nodes with values that match the filter are returned, 
+	 * 'null' matches all values
+	 * @return a node with the given key or 'null' if no matching node was found
+	 */
+	private Node<T> findNodeExcat(double[] key, RemoveResult<T> resultDepth, 
+			Predicate<? super T> filter) {
 		if (root == null) {
 			return null;
 		}
 		return invariantBroken 
-				? findNodeExactSlow(key, root, null, resultDepth) 
-						: findNodeExcatFast(key, null, resultDepth);
+				? findNodeExactSlow(key, root, null, resultDepth, filter) 
+						: findNodeExcatFast(key, null, resultDepth, filter);
 	} 
 
-	private Node<T> findNodeExcatFast(double[] key, Node<T> parent, RemoveResult<T> resultDepth) {
+	private Node<T> findNodeExcatFast(double[] key, Node<T> parent, RemoveResult<T> resultDepth,
+			Predicate<? super T> filter) {
 		Node<T> n = root;
 		do {
 			double[] nodeKey = n.getKey();
 			double nodeX = nodeKey[n.getDim()];
 			double keyX = key[n.getDim()];
-			if (keyX == nodeX && Arrays.equals(key, nodeKey)) {
+			if (keyX == nodeX && Arrays.equals(key, nodeKey) 
+					&& (filter == null || filter.test(n.getValue()))) {
 				resultDepth.pos = n.getDim();
 				resultDepth.nodeParent = parent;
 				return n;
@@ -201,20 +334,21 @@ public class KDTree<T> implements PointIndex<T> {
 		return n;
 	}
 	
-	private Node<T> findNodeExactSlow(double[] key, Node<T> n, Node<T> parent, RemoveResult<T> resultDepth) {
+	private Node<T> findNodeExactSlow(double[] key, Node<T> n, Node<T> parent, 
+			RemoveResult<T> resultDepth, Predicate<? super T> filter) {
 		do {
 			double[] nodeKey = n.getKey();
 			double nodeX = nodeKey[n.getDim()];
 			double keyX = key[n.getDim()];
 			if (keyX == nodeX) {
-				if (Arrays.equals(key, nodeKey)) {
+				if (Arrays.equals(key, nodeKey) && (filter == null || filter.test(n.getValue()))) {
 					resultDepth.pos = n.getDim();
 					resultDepth.nodeParent = parent;
 					return n;
 				}
 				//Broken invariant? We need to check the 'lower' part as well...
 				if (n.getLo() != null) {
-					Node<T> n2 = findNodeExactSlow(key, n.getLo(), parent, resultDepth);
+					Node<T> n2 = findNodeExactSlow(key, n.getLo(), n, resultDepth, filter);
 					if (n2 != null) {
 						return n2;
 					}
@@ -239,22 +373,64 @@ public class KDTree<T> implements PointIndex<T> {
 		
 		//find
 		RemoveResult<T> removeResult = new RemoveResult<>();
-		Node<T> eToRemove = findNodeExcat(key, removeResult);
+		Node<T> eToRemove = findNodeExcat(key, removeResult, null);
 		if (eToRemove == null) {
 			return null;
 		}
+		return removeNode(eToRemove, removeResult);
+	}
+
+	/**
+	 * Remove an entry with the given key and a value that matches the filter.
+	 * @param key key to remove
+	 * @param filter value filter
+	 * @return whether an entry was removed
+	 */
+	boolean removeIf(double[] key, Predicate<? super T> filter) {
+		RemoveResult<T> removeResult = new RemoveResult<>();
+		Node<T> eToRemove = findNodeExcat(key, removeResult, filter);
+		if (eToRemove == null) {
+			return false;
+		}
+		removeNode(eToRemove, removeResult);
+		return true;
+	}
+
+	/**
+	 * Move an entry with the given key and a value that matches the filter.
+	 * @param oldKey old key
+	 * @param newKey new key
+	 * @param filter value filter
+	 * @return whether an entry was moved
+	 */
+	boolean updateIf(double[] oldKey, double[] newKey, Predicate<? super T> filter) {
+		RemoveResult<T> removeResult = new RemoveResult<>();
+		Node<T> eToRemove = findNodeExcat(oldKey, removeResult, filter);
+		if (eToRemove == null) {
+			return false;
+		}
+		insert(newKey, removeNode(eToRemove, removeResult));
+		return true;
+	}
 
-		//remove
+	/**
+	 * Remove a node that was found with findNodeExcat().
+	 * @param eToRemove the node
+	 * @param removeResult the result of findNodeExcat()
+	 * @return the value of the removed node
+	 */
+	private T removeNode(Node<T> eToRemove, RemoveResult<T> removeResult) {
 		modCount++;
 		T value = eToRemove.getValue();
 		if (eToRemove == root && size == 1) {
 			root = null;
 			size = 0;
 			invariantBroken = false;
+			return value;
 		}
+		boolean wasBroken = invariantBroken;
 		
 		//find replacement
-		removeResult.nodeParent = null; 
 		while (eToRemove != null && !eToRemove.isLeaf()) {
 			//recurse
 			int pos = removeResult.pos;
@@ -292,11 +468,204 @@ public class KDTree<T> implements PointIndex<T> {
 			} else { 
 				throw new IllegalStateException();
 			}
+			if (extractor != null) {
+				//the summaries of the parent of the removed leaf and of all its ancestors changed
+				recalcSummaries(parent);
+			}
 		}
 		size--;
+		if (invariantBroken && !wasBroken) {
+			modCountAtInvariantBroken = modCount;
+		}
+		if (size < ALPHA * maxSize || (invariantBroken && modCount - modCountAtInvariantBroken > size)) {
+			rebalance();
+		}
 		return value;
 	}
 
+	/**
+	 * Rebuild the whole tree so that it is balanced. This also repairs the invariant
+	 * that allows fast exact lookups (see 'invariantBroken').
+	 * Balancing is usually triggered automatically during modifications.
+	 */
+	public void rebalance() {
+		modCount++;
+		maxSize = size;
+		invariantBroken = false;
+		if (root == null) {
+			return;
+		}
+		root = build(collect(root, size), 0, size, 0);
+		recalcSubtreeSummaries(root, size);
+	}
+	
+	/**
+	 * Find the scapegoat on the path to a newly inserted key and rebuild its subtree. 
+	 * Nodes with the same key as the new key always end up on one path, no rebuild 
+	 * can make it shorter. They are therefore not counted towards the depth, otherwise 
+	 * every insert of another duplicate would rebuild the same subtree again. 
+	 * @param key the new key
+	 * @param depth depth of the new key
+	 */
+	private void rebuildScapegoat(double[] key, int depth) {
+		ArrayList<Node<T>> path = new ArrayList<>();
+		int nDuplicates = 0;
+		for (Node<T> n = root; n != null; ) {
+			path.add(n);
+			double[] nodeKey = n.getKey();
+			int dim = n.getDim();
+			if (key[dim] == nodeKey[dim] && Arrays.equals(key, nodeKey)) {
+				nDuplicates++;
+			}
+			n = key[dim] >= nodeKey[dim] ? n.getHi() : n.getLo();
+		}
+		//the new node itself is not a duplicate
+		if (depth - (nDuplicates - 1) <= Math.log(size) / LOG_INV_ALPHA + 1) {
+			return;
+		}
+		int childSize = 1;
+		for (int i = path.size() - 2; i >= 0; i--) {
+			Node<T> node = path.get(i);
+			Node<T> child = path.get(i + 1);
+			int nodeSize = 1 + childSize + count(node.getLo() == child ? node.getHi() : node.getLo());
+			if (childSize > ALPHA * nodeSize) {
+				if (i == 0) {
+					rebalance();
+					return;
+				}
+				Node<T> sub = build(collect(node, nodeSize), 0, nodeSize, node.getDim());
+				recalcSubtreeSummaries(sub, nodeSize);
+				Node<T> parent = path.get(i - 1);
+				if (parent.getLo() == node) {
+					parent.setLeft(sub);
+				} else {
+					parent.setRight(sub);
+				}
+				return;
+			}
+			childSize = nodeSize;
+		}
+	}
+
+	private static <T> int count(Node<T> node) {
+		if (node == null) {
+			return 0;
+		}
+		int n = 0;
+		ArrayDeque<Node<T>> stack = new ArrayDeque<>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			Node<T> x = stack.pop();
+			n++;
+			if (x.getLo() != null) {
+				stack.push(x.getLo());
+			}
+			if (x.getHi() != null) {
+				stack.push(x.getHi());
+			}
+		}
+		return n;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> Node<T>[] collect(Node<T> node, int size) {
+		Node<T>[] nodes = new Node[size];
+		int n = 0;
+		ArrayDeque<Node<T>> stack = new ArrayDeque<>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			Node<T> x = stack.pop();
+			nodes[n++] = x;
+			if (x.getLo() != null) {
+				stack.push(x.getLo());
+			}
+			if (x.getHi() != null) {
+				stack.push(x.getHi());
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Build a balanced subtree. Each node is split at the median. If several nodes 
+	 * have the median value, the first of them is chosen, so all nodes with the 
+	 * same value end up in the 'upper' branch. This ensures the invariant.
+	 * The 'upper' branches are built iteratively, because they can be very long 
+	 * if there are many duplicate keys.
+	 * @param nodes the nodes
+	 * @param start first node (inclusive)
+	 * @param end last node (exclusive)
+	 * @param dim splitting dimension of the subtree root
+	 * @return the root of the new subtree
+	 */
+	private Node<T> build(Node<T>[] nodes, int start, int end, int dim) {
+		Node<T> first = null;
+		Node<T> prev = null;
+		while (start < end) {
+			int mid = (start + end) >>> 1;
+			select(nodes, start, end, mid, dim);
+			//move all nodes with the median value after the lower nodes
+			double median = nodes[mid].getKey()[dim];
+			int lt = start;
+			for (int i = start; i < mid; i++) {
+				if (nodes[i].getKey()[dim] < median) {
+					swap(nodes, lt++, i);
+				}
+			}
+			mid = lt;
+			Node<T> n = nodes[mid];
+			int next = (dim + 1) % dims;
+			n.setDim(dim);
+			n.setLeft(build(nodes, start, mid, next));
+			n.setRight(null);
+			if (prev == null) {
+				first = n;
+			} else {
+				prev.setRight(n);
+			}
+			prev = n;
+			start = mid + 1;
+			dim = next;
+		}
+		return first;
+	}
+
+	/**
+	 * Quickselect with three-way partitioning. Afterwards, the k-th node is at position 'k', 
+	 * all nodes before 'k' are smaller or equal and all nodes after 'k' are larger or equal.
+	 */
+	private static <T> void select(Node<T>[] nodes, int start, int end, int k, int dim) {
+		while (end - start > 1) {
+			double pivot = nodes[(start + end) >>> 1].getKey()[dim];
+			int lt = start;
+			int gt = end;
+			int i = start;
+			while (i < gt) {
+				double x = nodes[i].getKey()[dim];
+				if (x < pivot) {
+					swap(nodes, lt++, i++);
+				} else if (x > pivot) {
+					swap(nodes, i, --gt);
+				} else {
+					i++;
+				}
+			}
+			if (k < lt) {
+				end = lt;
+			} else if (k >= gt) {
+				start = gt;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static <T> void swap(Node<T>[] nodes, int i, int j) {
+		Node<T> n = nodes[i];
+		nodes[i] = nodes[j];
+		nodes[j] = n;
+	}
+
 	private static class RemoveResult<T> {
 		Node<T> node = null;
 		Node<T> nodeParent = null;
@@ -384,6 +753,41 @@ public class KDTree<T> implements PointIndex<T> {
 		insert(newKey, value);
 		return value;
 	}
+
+	/**
+	 * Update a batch of entries. All entries are first removed in z-order of
+	 * their old keys and then inserted in z-order of their new keys, so that 
+	 * subsequent removals and insertions mostly follow the same path through the tree.
+	 * @param oldKeys old positions
+	 * @param newKeys new positions
+	 * @return the number of entries that were found and updated
+	 */
+	@Override
+	public int updateBatch(double[][] oldKeys, double[][] newKeys) {
+		if (root == null) {
+			return 0;
+		}
+		Object[] values = new Object[oldKeys.length];
+		boolean[] found = new boolean[oldKeys.length];
+		int n = 0;
+		for (int i : ZOrder.sort(oldKeys)) {
+			RemoveResult<T> removeResult = new RemoveResult<>();
+			Node<T> eToRemove = findNodeExcat(oldKeys[i], removeResult, null);
+			if (eToRemove != null) {
+				values[i] = removeNode(eToRemove, removeResult);
+				found[i] = true;
+				n++;
+			}
+		}
+		for (int i : ZOrder.sort(newKeys)) {
+			if (found[i]) {
+				@SuppressWarnings("unchecked")
+				T value = (T) values[i];
+				insert(newKeys[i], value);
+			}
+		}
+		return n;
+	}
 	
 	/**
 	 * Get the number of key-value pairs in the tree.
@@ -400,6 +804,7 @@ public class KDTree<T> implements PointIndex<T> {
 	@Override
 	public void clear() {
 		size = 0;
+		maxSize = 0;
 		root = null;
 		invariantBroken = false;
 		modCount++;
@@ -416,6 +821,83 @@ public class KDTree<T> implements PointIndex<T> {
 		return new KDIterator<>(this, min, max);
 	}
 
+	/**
+	 * Query the tree, returning all points in the axis-aligned rectangle between 'min' and 'max'.
+	 * The returned stream can be split into disjoint subtrees for parallel processing.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @return all entries in the rectangle
+	 */
+	@Override
+	public Stream<PointEntry<T>> queryStream(double[] min, double[] max) {
+		return StreamSupport.stream(new KDSpliterator<>(root, min, max, size), false);
+	}
+
+	/**
+	 * Count the points in the query window. Trees with summaries count subtrees 
+	 * whose bounding box lies inside the query window without traversing them.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @return number of entries in the rectangle
+	 */
+	@Override
+	public int count(double[] min, double[] max) {
+		if (extractor == null) {
+			return PointIndex.super.count(min, max);
+		}
+		return aggregate(min, max, extractor).getCount();
+	}
+
+	/**
+	 * Aggregate the values of the points in the query window. Trees with summaries 
+	 * aggregate subtrees whose bounding box lies inside the query window without 
+	 * traversing them, if 'extractor' is the extractor of the summaries.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @param extractor value extractor
+	 * @return aggregate of the entries in the rectangle
+	 */
+	@Override
+	public Aggregate aggregate(double[] min, double[] max, ToDoubleFunction<? super T> extractor) {
+		if (this.extractor == null || extractor != this.extractor) {
+			return PointIndex.super.aggregate(min, max, extractor);
+		}
+		Aggregate a = new Aggregate();
+		if (root != null) {
+			aggregate((SummaryNode<T>) root, min, max, a);
+		}
+		return a;
+	}
+
+	private void aggregate(SummaryNode<T> node, double[] min, double[] max, Aggregate a) {
+		QueryStats.node(node.isLeaf());
+		double[] lower = node.getLower();
+		double[] upper = node.getUpper();
+		boolean inside = true;
+		for (int d = 0; d < dims; d++) {
+			if (upper[d] < min[d] || lower[d] > max[d]) {
+				return;
+			}
+			inside &= lower[d] >= min[d] && upper[d] <= max[d];
+		}
+		if (inside) {
+			QueryStats.entriesReturned(node.getSummary().getCount());
+			a.add(node.getSummary());
+			return;
+		}
+		QueryStats.entriesScanned(1);
+		if (isEnclosed(node.getKey(), min, max)) {
+			QueryStats.entriesReturned(1);
+			a.add(extractor.applyAsDouble(node.getValue()));
+		}
+		if (node.getLo() != null) {
+			aggregate((SummaryNode<T>) node.getLo(), min, max, a);
+		}
+		if (node.getHi() != null) {
+			aggregate((SummaryNode<T>) node.getHi(), min, max, a);
+		}
+	}
+
 	static boolean isEnclosed(double[] point, double[] min, double[] max) {
 		for (int i = 0; i < point.length; i++) {
 			if (point[i] < min[i] || point[i] > max[i]) {
@@ -425,13 +907,22 @@ public class KDTree<T> implements PointIndex<T> {
 		return true;
 	}
 
-	private static double distance(double[] p1, double[] p2) {
+	private static double distanceSq(double[] p1, double[] p2) {
 		double dist = 0;
 		for (int i = 0; i < p1.length; i++) {
 			double d = p1[i]-p2[i];
 			dist += d * d;
 		}
-		return Math.sqrt(dist);
+		return dist;
+	}
+	
+	/**
+	 * @param d distance to a splitting plane, negative if the plane is behind the center 
+	 * @param maxRangeSq squared search range
+	 * @return 'true' if the plane is within the search range
+	 */
+	private static boolean isInRange(double d, double maxRangeSq) {
+		return d <= 0 || d * d <= maxRangeSq;
 	}
 	
 	/**
@@ -444,18 +935,22 @@ public class KDTree<T> implements PointIndex<T> {
     		return null;
 		}
     	KDEntryDist<T> candidate = new KDEntryDist<>(null, Double.POSITIVE_INFINITY);
+    	//all distances in the search are squared
    		rangeSearch1NN(root, center, candidate, Double.POSITIVE_INFINITY);
+   		candidate.setDist(Math.sqrt(candidate.dist()));
+    	QueryStats.entriesReturned(1);
     	return candidate;
     }
 
     private double rangeSearch1NN(Node<T> node, double[] center, 
     		KDEntryDist<T> candidate, double maxRange) {
+    	QueryStats.node(node.isLeaf());
     	int pos = node.getDim();
     	if (node.getLo() != null && (center[pos] < node.getKey()[pos] || node.getHi() == null)) {
         	//go down
     		maxRange = rangeSearch1NN(node.getLo(), center, candidate, maxRange);
         	//refine result
-    		if (center[pos] + maxRange >= node.getKey()[pos]) {
+    		if (isInRange(node.getKey()[pos] - center[pos], maxRange)) {
     			maxRange = addCandidate(node, center, candidate, maxRange);
         		if (node.getHi() != null) {
         			maxRange = rangeSearch1NN(node.getHi(), center, candidate, maxRange);
@@ -465,7 +960,7 @@ public class KDTree<T> implements PointIndex<T> {
         	//go down
     		maxRange = rangeSearch1NN(node.getHi(), center, candidate, maxRange);
         	//refine result
-    		if (center[pos] <= node.getKey()[pos] + maxRange) {
+    		if (isInRange(center[pos] - node.getKey()[pos], maxRange)) {
     			maxRange = addCandidate(node, center, candidate, maxRange);
         		if (node.getLo() != null) {
         			maxRange = rangeSearch1NN(node.getLo(), center, candidate, maxRange);
@@ -479,7 +974,9 @@ public class KDTree<T> implements PointIndex<T> {
     }
         
     private double addCandidate(Node<T> node, double[] center, final KDEntryDist<T> candidate, double maxRange) {
-    	double dist = distance(center, node.getKey());
+    	QueryStats.entriesScanned(1);
+    	QueryStats.distCalc();
+    	double dist = distanceSq(center, node.getKey());
     	if (dist >= maxRange) {
     		//don't add if too far away
     		//don't add if we already have an equally good result
@@ -490,22 +987,75 @@ public class KDTree<T> implements PointIndex<T> {
     }
 	
 	public List<KDEntryDist<T>> knnQuery(double[] center, int k) {
+		return knnQuery(center, k, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * kNN query that ignores all entries that are farther away than 'maxDist'.
+	 * @param center The point for which the nearest neighbors are requested
+	 * @param k number of neighbors
+	 * @param maxDist maximum distance
+	 * @return Nearest neighbors
+	 */
+	private List<KDEntryDist<T>> knnQuery(double[] center, int k, double maxDist) {
 		if (root == null) {
     		return Collections.emptyList();
 		}
     	ArrayList<KDEntryDist<T>> candidates = new ArrayList<>(k);
-   		rangeSearchKNN(root, center, candidates, k, Double.POSITIVE_INFINITY);
+    	//all distances in the search are squared
+   		rangeSearchKNN(root, center, candidates, k, maxDist * maxDist);
+    	for (int i = 0; i < candidates.size(); i++) {
+    		candidates.get(i).setDist(Math.sqrt(candidates.get(i).dist()));
+    	}
+    	QueryStats.entriesReturned(candidates.size());
     	return candidates;
     }
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<PointEntryDist<T>> sink) {
+		KnnBatch.execute(centers, k, sink, 
+				() -> (center, k2, maxDist) -> (List) knnQuery(center, k2, maxDist), 
+				PointEntryDist::dist);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public void queryAllKNN(int k, BiConsumer<PointEntry<T>, List<PointEntryDist<T>>> consumer) {
+		//Use depth-first order: subsequent queries are close to each other and 
+		//each chunk of queries covers one or more subtrees.
+		ArrayList<Node<T>> nodes = new ArrayList<>(size);
+		if (root != null) {
+			ArrayList<Node<T>> stack = new ArrayList<>();
+			stack.add(root);
+			while (!stack.isEmpty()) {
+				Node<T> n = stack.remove(stack.size() - 1);
+				nodes.add(n);
+				if (n.getHi() != null) {
+					stack.add(n.getHi());
+				}
+				if (n.getLo() != null) {
+					stack.add(n.getLo());
+				}
+			}
+		}
+		double[][] centers = new double[nodes.size()][];
+		Arrays.setAll(centers, i -> nodes.get(i).getKey());
+		KnnBatch.<PointEntryDist<T>>executeSorted(centers, k, 
+				(i, result) -> consumer.accept(nodes.get(i), result), 
+				() -> (center, k2, maxDist) -> (List) knnQuery(center, k2, maxDist), 
+				PointEntryDist::dist);
+	}
+
     private double rangeSearchKNN(Node<T> node, double[] center, 
     		ArrayList<KDEntryDist<T>> candidates, int k, double maxRange) {
+    	QueryStats.node(node.isLeaf());
     	int pos = node.getDim();
     	if (node.getLo() != null && (center[pos] < node.getKey()[pos] || node.getHi() == null)) {
         	//go down
     		maxRange = rangeSearchKNN(node.getLo(), center, candidates, k, maxRange);
         	//refine result
-    		if (center[pos] + maxRange >= node.getKey()[pos]) {
+    		if (isInRange(node.getKey()[pos] - center[pos], maxRange)) {
     			maxRange = addCandidate(node, center, candidates, k, maxRange);
         		if (node.getHi() != null) {
         			maxRange = rangeSearchKNN(node.getHi(), center, candidates, k, maxRange);
@@ -515,7 +1065,7 @@ public class KDTree<T> implements PointIndex<T> {
         	//go down
     		maxRange = rangeSearchKNN(node.getHi(), center, candidates, k, maxRange);
         	//refine result
-    		if (center[pos] <= node.getKey()[pos] + maxRange) {
+    		if (isInRange(center[pos] - node.getKey()[pos], maxRange)) {
     			maxRange = addCandidate(node, center, candidates, k, maxRange);
         		if (node.getLo() != null) {
         			maxRange = rangeSearchKNN(node.getLo(), center, candidates, k, maxRange);
@@ -539,7 +1089,9 @@ public class KDTree<T> implements PointIndex<T> {
     private double addCandidate(Node<T> node, double[] center, 
     		ArrayList<KDEntryDist<T>> candidates, int k, double maxRange) {
     	//add ?
-    	double dist = distance(center, node.getKey());
+    	QueryStats.entriesScanned(1);
+    	QueryStats.distCalc();
+    	double dist = distanceSq(center, node.getKey());
     	if (dist > maxRange) {
     		//don't add if too far away
     		return maxRange;
@@ -635,24 +1187,37 @@ public class KDTree<T> implements PointIndex<T> {
 	
 	@Override
 	public KDStats getStats() {
-		KDStats s = new KDStats();
+		KDStats s = new KDStats(dims);
 		if (root != null) {
 			root.checkNode(s, 0);
 		}
+		s.setEstimatedBytes(estimateMemoryBytes());
 		return s;
 	}
 	
 	/**
-	 * Statistics container class.
+	 * Every entry is stored in exactly one node, so the estimate does not require
+	 * a traversal.
 	 */
-	public static class KDStats {
-		int nNodes;
-		int maxDepth;
-		public int getNodeCount() {
-			return nNodes;
+	@Override
+	public long estimateMemoryBytes() {
+		if (extractor != null) {
+			//SummaryNode: coordinate, value, left, right, summary, lower, upper, dim;
+			//Aggregate: count, sum, min, max
+			return size * (MemoryModel.object(7, 4) + 3 * MemoryModel.doubleArray(dims) 
+					+ MemoryModel.object(0, 28));
 		}
-		public int getMaxDepth() {
-			return maxDepth;
+		//Node: coordinate, value, left, right, dim
+		return size * (MemoryModel.object(4, 4) + MemoryModel.doubleArray(dims));
+	}
+	
+	/**
+	 * Statistics container class.
+	 */
+	public static class KDStats extends Stats {
+		public KDStats(int dims) {
+			//no fill factor, every node contains exactly one entry
+			super(dims, 0);
 		}
 	}
 
@@ -662,13 +1227,12 @@ public class KDTree<T> implements PointIndex<T> {
 	}
 
 	@Override
-	public QueryIterator<PointEntry<T>> iterator() {
-		if (root == null) {
-			return query(new double[dims], new double[dims]);
-		}
-		//return query(root.);
-		//TODO
-		throw new UnsupportedOperationException();
+	public KDIterator<T> iterator() {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return query(min, max);
 	}
 
 	@Override
@@ -683,7 +1247,8 @@ public class KDTree<T> implements PointIndex<T> {
 
 	@Override
 	public int getNodeCount() {
-		return getStats().getNodeCount();
+		//every node contains exactly one entry
+		return size;
 	}
 
 	@Override
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.kdtree;
+
+import java.util.Objects;
+
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndexMM;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.kdtree.KDTree.KDStats;
+
+/**
+ * Multimap version of the KD-Tree. Several entries may have the same key,
+ * entries are identified by key and value.
+ * 
+ * @param <T> Value type
+ */
+public class KDTreeMM<T> implements PointIndexMM<T> {
+
+	private final KDTree<T> tree;
+
+	private KDTreeMM(KDTree<T> tree) {
+		this.tree = tree;
+	}
+
+	public static <T> KDTreeMM<T> create(int dims) {
+		return new KDTreeMM<>(KDTree.create(dims));
+	}
+
+	@Override
+	public void insert(double[] key, T value) {
+		tree.insert(key, value);
+	}
+
+	@Override
+	public boolean remove(double[] point, T value) {
+		return tree.removeIf(point, v -> Objects.equals(value, v));
+	}
+
+	@Override
+	public boolean update(double[] oldPoint, double[] newPoint, T value) {
+		return tree.updateIf(oldPoint, newPoint, v -> Objects.equals(value, v));
+	}
+
+	@Override
+	public QueryIterator<PointEntry<T>> queryExact(double[] point) {
+		return tree.query(point, point);
+	}
+
+	@Override
+	public QueryIterator<? extends PointEntry<T>> iterator() {
+		return tree.iterator();
+	}
+
+	@Override
+	public QueryIterator<PointEntry<T>> query(double[] min, double[] max) {
+		return tree.query(min, max);
+	}
+
+	@Override
+	public PointEntryDist<T> query1NN(double[] center) {
+		return tree.query1NN(center);
+	}
+
+	@Override
+	public QueryIteratorKNN<PointEntryDist<T>> queryKNN(double[] center, int k) {
+		return tree.queryKNN(center, k);
+	}
+
+	@Override
+	public int getDims() {
+		return tree.getDims();
+	}
+
+	@Override
+	public int size() {
+		return tree.size();
+	}
+
+	@Override
+	public void clear() {
+		tree.clear();
+	}
+
+	@Override
+	public KDStats getStats() {
+		return tree.getStats();
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		return tree.estimateMemoryBytes();
+	}
+
+	@Override
+	public int getNodeCount() {
+		return tree.getNodeCount();
+	}
+
+	@Override
+	public int getDepth() {
+		return tree.getDepth();
+	}
+
+	@Override
+	public String toStringTree() {
+		return tree.toStringTree();
+	}
+
+	@Override
+	public String toString() {
+		return "MM;" + tree.toString();
+	}
+}
@@ -50,16 +50,23 @@ public class Node<T> implements PointEntry<T> {
 			if (right != null) {
 				return right;
 			}
-			right = new Node<>(p, value, (dim + 1) % dims);
+			right = createNode(p, value, (dim + 1) % dims);
 			return null;
 		} 
 		if (left != null) {
 			return left;
 		}
-		left = new Node<>(p, value, (dim + 1) % dims);
+		left = createNode(p, value, (dim + 1) % dims);
 		return null;
 	}
 
+	/**
+	 * Create a new node of the same type.
+	 */
+	Node<T> createNode(double[] p, T value, int dim) {
+		return new Node<>(p, value, dim);
+	}
+
 	double[] getKey() {
 		return coordinate;
 	}
@@ -100,10 +107,8 @@ public class Node<T> implements PointEntry<T> {
 	}
 
 	void checkNode(KDStats s, int depth) {
-		s.nNodes++;
-		if (depth > s.maxDepth) {
-			s.maxDepth = depth;
-		}
+		s.countNode(depth, isLeaf());
+		s.countEntries(depth, 1);
 		if (left != null) {
 			left.checkNode(s, depth + 1);
 		}
@@ -124,4 +129,8 @@ public class Node<T> implements PointEntry<T> {
 	int getDim() {
 		return dim;
 	}
+
+	void setDim(int dim) {
+		this.dim = dim;
+	}
 }
\ No newline at end of file
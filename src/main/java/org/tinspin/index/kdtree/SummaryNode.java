@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.kdtree;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+import org.tinspin.index.Aggregate;
+
+/**
+ * Node with a summary of its subtree: the aggregate of the values and the 
+ * bounding box of the keys.
+ *
+ * @param <T> Value type
+ */
+class SummaryNode<T> extends Node<T> {
+
+	private final Aggregate summary = new Aggregate();
+	private final double[] lower;
+	private final double[] upper;
+
+	SummaryNode(double[] p, T value, int dim) {
+		super(p, value, dim);
+		lower = new double[p.length];
+		upper = new double[p.length];
+		Arrays.fill(lower, Double.POSITIVE_INFINITY);
+		Arrays.fill(upper, Double.NEGATIVE_INFINITY);
+	}
+
+	@Override
+	Node<T> createNode(double[] p, T value, int dim) {
+		return new SummaryNode<>(p, value, dim);
+	}
+
+	/**
+	 * Add an entry that was inserted into this subtree.
+	 * @param p the key
+	 * @param v the extracted value
+	 */
+	void addToSummary(double[] p, double v) {
+		summary.add(v);
+		for (int d = 0; d < p.length; d++) {
+			lower[d] = p[d] < lower[d] ? p[d] : lower[d];
+			upper[d] = p[d] > upper[d] ? p[d] : upper[d];
+		}
+	}
+
+	/**
+	 * Recalculate the summary from the local entry and the summaries of the children.
+	 * @param extractor value extractor
+	 */
+	void recalcSummary(ToDoubleFunction<? super T> extractor) {
+		summary.clear();
+		Arrays.fill(lower, Double.POSITIVE_INFINITY);
+		Arrays.fill(upper, Double.NEGATIVE_INFINITY);
+		addToSummary(getKey(), extractor.applyAsDouble(getValue()));
+		addChild((SummaryNode<T>) getLo());
+		addChild((SummaryNode<T>) getHi());
+	}
+
+	private void addChild(SummaryNode<T> child) {
+		if (child != null) {
+			summary.add(child.summary);
+			for (int d = 0; d < lower.length; d++) {
+				lower[d] = child.lower[d] < lower[d] ? child.lower[d] : lower[d];
+				upper[d] = child.upper[d] > upper[d] ? child.upper[d] : upper[d];
+			}
+		}
+	}
+
+	Aggregate getSummary() {
+		return summary;
+	}
+
+	/**
+	 * @return lower corner of the bounding box of all keys in this subtree
+	 */
+	double[] getLower() {
+		return lower;
+	}
+
+	/**
+	 * @return upper corner of the bounding box of all keys in this subtree
+	 */
+	double[] getUpper() {
+		return upper;
+	}
+}
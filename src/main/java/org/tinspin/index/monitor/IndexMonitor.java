@@ -0,0 +1,368 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.monitor;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.tinspin.index.Index;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.Stats;
+
+/**
+ * Collects operation metrics of an index and exposes them, together with
+ * size and structure information of the index, via JMX.
+ * 
+ * Monitors are created by {@link MonitoredPointIndex} and {@link MonitoredRectangleIndex}.
+ * They are only visible via JMX after calling {@link #register(String)}.
+ * The object name is {@code org.tinspin.index:type=<index class>,name=<name>}.
+ * <p>
+ * JMX attributes are read by JMX threads, but the indexes are not thread-safe. 
+ * Only the size is read from the index directly. Depth, node count, memory estimate 
+ * and structure statistics may require a traversal of the index, they are taken from 
+ * the last snapshot, see {@link #publishSnapshot()}.
+ */
+public class IndexMonitor implements IndexMonitorMXBean {
+
+	public enum Op {
+		INSERT, REMOVE, UPDATE, QUERY_EXACT, QUERY_WINDOW, QUERY_KNN
+	}
+
+	private final Index<?> index;
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Op.values().length];
+	private volatile long startNanos = System.nanoTime();
+	private volatile Snapshot snapshot = null;
+	private ObjectName objectName;
+
+	/**
+	 * Structure information of the index at a given time.
+	 */
+	private static class Snapshot {
+		final int depth;
+		final int nodeCount;
+		final long estimatedMemoryBytes;
+		final String structureStats;
+		final long nanos = System.nanoTime();
+		//'null' if the snapshot succeeded
+		final String error;
+
+		Snapshot(int depth, int nodeCount, long estimatedMemoryBytes, String structureStats, 
+				String error) {
+			this.depth = depth;
+			this.nodeCount = nodeCount;
+			this.estimatedMemoryBytes = estimatedMemoryBytes;
+			this.structureStats = structureStats;
+			this.error = error;
+		}
+	}
+
+	IndexMonitor(Index<?> index) {
+		this.index = index;
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Record an operation that started at {@code t0}.
+	 * @param op the operation type
+	 * @param t0 start time as returned by {@link System#nanoTime()}
+	 */
+	void record(Op op, long t0) {
+		histograms[op.ordinal()].record(System.nanoTime() - t0);
+	}
+
+	/**
+	 * Record a batch of {@code n} operations that started at {@code t0}. 
+	 * Each operation is recorded with the average duration.
+	 * @param op the operation type
+	 * @param t0 start time as returned by {@link System#nanoTime()}
+	 * @param n number of operations
+	 */
+	void record(Op op, long t0, int n) {
+		if (n > 0) {
+			histograms[op.ordinal()].record((System.nanoTime() - t0) / n, n);
+		}
+	}
+
+	/**
+	 * @param op the operation type
+	 * @return the histogram of the operation type
+	 */
+	public LatencyHistogram getHistogram(Op op) {
+		return histograms[op.ordinal()];
+	}
+
+	/**
+	 * @param op the operation type
+	 * @return a snapshot of the metrics of the operation type
+	 */
+	public OperationStats getOperationStats(Op op) {
+		return new OperationStats(getHistogram(op), System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Read the structure information of the index and publish it to JMX. 
+	 * All values are taken from a single call to {@link Index#getStats()}, which
+	 * traverses the whole index. It must be called by the thread that modifies 
+	 * the index, or while holding the lock that protects the index.
+	 * Failures are not propagated, they are reported via {@link #getSnapshotError()}.
+	 */
+	public void publishSnapshot() {
+		try {
+			Stats s = index.getStats();
+			snapshot = new Snapshot(s.getMaxDepth(), s.getNodeCount(), 
+					s.getEstimatedBytes(), String.valueOf(s), null);
+		} catch (RuntimeException e) {
+			snapshot = new Snapshot(-1, -1, -1, null, String.valueOf(e));
+		}
+	}
+
+	/**
+	 * Register this monitor with the platform MBean server.
+	 * @param name name of the index, must be unique for the index type
+	 * @return this monitor
+	 * @throws IllegalStateException if the monitor is already registered or if 
+	 * registration fails
+	 */
+	public synchronized IndexMonitor register(String name) {
+		if (objectName != null) {
+			throw new IllegalStateException("Already registered: " + objectName);
+		}
+		try {
+			ObjectName on = new ObjectName("org.tinspin.index:type=" + getIndexType() + 
+					",name=" + ObjectName.quote(name));
+			server().registerMBean(this, on);
+			objectName = on;
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * Remove this monitor from the platform MBean server. Does nothing if the 
+	 * monitor is not registered.
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			server().unregisterMBean(objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			objectName = null;
+		}
+	}
+
+	/**
+	 * @return the object name, or {@code null} if the monitor is not registered
+	 */
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+
+	private static MBeanServer server() {
+		return ManagementFactory.getPlatformMBeanServer();
+	}
+
+	@Override
+	public String getIndexType() {
+		return index.getClass().getSimpleName();
+	}
+
+	@Override
+	public int getDims() {
+		return index.getDims();
+	}
+
+	@Override
+	public int getSize() {
+		return index.size();
+	}
+
+	@Override
+	public int getDepth() {
+		Snapshot s = snapshot;
+		return s == null ? -1 : s.depth;
+	}
+
+	@Override
+	public int getNodeCount() {
+		Snapshot s = snapshot;
+		return s == null ? -1 : s.nodeCount;
+	}
+
+	@Override
+	public long getEstimatedMemoryBytes() {
+		Snapshot s = snapshot;
+		return s == null ? -1 : s.estimatedMemoryBytes;
+	}
+
+	@Override
+	public String getStructureStats() {
+		Snapshot s = snapshot;
+		return s == null ? null : s.structureStats;
+	}
+
+	@Override
+	public long getSnapshotAgeMillis() {
+		Snapshot s = snapshot;
+		return s == null ? -1 : (System.nanoTime() - s.nanos) / 1_000_000;
+	}
+
+	@Override
+	public String getSnapshotError() {
+		Snapshot s = snapshot;
+		return s == null ? null : s.error;
+	}
+
+	@Override
+	public OperationStats getInsert() {
+		return getOperationStats(Op.INSERT);
+	}
+
+	@Override
+	public OperationStats getRemove() {
+		return getOperationStats(Op.REMOVE);
+	}
+
+	@Override
+	public OperationStats getUpdate() {
+		return getOperationStats(Op.UPDATE);
+	}
+
+	@Override
+	public OperationStats getExactQuery() {
+		return getOperationStats(Op.QUERY_EXACT);
+	}
+
+	@Override
+	public OperationStats getWindowQuery() {
+		return getOperationStats(Op.QUERY_WINDOW);
+	}
+
+	@Override
+	public OperationStats getKnnQuery() {
+		return getOperationStats(Op.QUERY_KNN);
+	}
+
+	@Override
+	public void resetMetrics() {
+		for (LatencyHistogram h : histograms) {
+			h.reset();
+		}
+		startNanos = System.nanoTime();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(getIndexType());
+		for (Op op : Op.values()) {
+			sb.append("\n").append(op).append(": ").append(getOperationStats(op));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Window query iterator that records the query once it is exhausted.
+	 * Iterators that are abandoned before they are exhausted are not recorded.
+	 */
+	static class TimedQueryIterator<E> implements QueryIterator<E> {
+
+		private final IndexMonitor monitor;
+		private final QueryIterator<E> it;
+		private long t0;
+		private boolean done;
+
+		TimedQueryIterator(IndexMonitor monitor, long t0, QueryIterator<E> it) {
+			this.monitor = monitor;
+			this.t0 = t0;
+			this.it = it;
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean hasNext = it.hasNext();
+			if (!hasNext && !done) {
+				done = true;
+				monitor.record(Op.QUERY_WINDOW, t0);
+			}
+			return hasNext;
+		}
+
+		@Override
+		public E next() {
+			return it.next();
+		}
+
+		@Override
+		public void reset(double[] min, double[] max) {
+			t0 = System.nanoTime();
+			done = false;
+			it.reset(min, max);
+		}
+	}
+
+	/**
+	 * kNN query iterator that records the query once it is exhausted.
+	 * Iterators that are abandoned before they are exhausted are not recorded.
+	 */
+	static class TimedKnnIterator<E> implements QueryIteratorKNN<E> {
+
+		private final IndexMonitor monitor;
+		private final QueryIteratorKNN<E> it;
+		private long t0;
+		private boolean done;
+
+		TimedKnnIterator(IndexMonitor monitor, long t0, QueryIteratorKNN<E> it) {
+			this.monitor = monitor;
+			this.t0 = t0;
+			this.it = it;
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean hasNext = it.hasNext();
+			if (!hasNext && !done) {
+				done = true;
+				monitor.record(Op.QUERY_KNN, t0);
+			}
+			return hasNext;
+		}
+
+		@Override
+		public E next() {
+			return it.next();
+		}
+
+		@Override
+		public TimedKnnIterator<E> reset(double[] center, int k) {
+			t0 = System.nanoTime();
+			done = false;
+			it.reset(center, k);
+			return this;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.monitor;
+
+/**
+ * JMX interface of {@link IndexMonitor}.
+ * 
+ * Depth, node count, memory estimate and structure statistics are taken from the last 
+ * snapshot of the index, see {@link IndexMonitor#publishSnapshot()}.
+ */
+public interface IndexMonitorMXBean {
+
+	String getIndexType();
+
+	int getDims();
+
+	int getSize();
+
+	/**
+	 * @return maximum depth of a node in the index, see {@code Stats.getMaxDepth()}, 
+	 * or -1 if there is no snapshot
+	 */
+	int getDepth();
+
+	/**
+	 * @return number of nodes of the index, or -1 if there is no snapshot
+	 */
+	int getNodeCount();
+
+	/**
+	 * @return estimated heap usage in bytes, or -1 if there is no snapshot or if the 
+	 * index does not provide an estimate
+	 */
+	long getEstimatedMemoryBytes();
+
+	/**
+	 * @return the structure specific statistics of the index, see {@code Index.getStats()},
+	 * or {@code null} if there is no snapshot
+	 */
+	String getStructureStats();
+
+	/**
+	 * @return age of the snapshot in milliseconds, or -1 if there is no snapshot
+	 */
+	long getSnapshotAgeMillis();
+
+	/**
+	 * @return the error of the last snapshot, or {@code null} if it succeeded or 
+	 * if there is no snapshot
+	 */
+	String getSnapshotError();
+
+	OperationStats getInsert();
+
+	OperationStats getRemove();
+
+	OperationStats getUpdate();
+
+	OperationStats getExactQuery();
+
+	OperationStats getWindowQuery();
+
+	OperationStats getKnnQuery();
+
+	/**
+	 * Reset all operation counters and histograms.
+	 */
+	void resetMetrics();
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe latency histogram with logarithmic buckets.
+ * 
+ * By default, bucket {@code i} counts durations {@code d} with 
+ * {@code 2^(i-1) <= d < 2^i} nanoseconds, bucket 0 counts durations of 0ns. 
+ * Percentiles are reported as the upper bound of the bucket, i.e. they are accurate 
+ * to a factor of 2.
+ * 
+ * Similar to HdrHistogram, a higher precision can be requested by splitting every 
+ * power of two into {@code 2^precisionBits} linear sub-buckets. Percentiles are then
+ * accurate to a factor of {@code 1 + 2^-precisionBits}, values below 
+ * {@code 2^precisionBits} are recorded exactly. 
+ */
+public final class LatencyHistogram {
+
+	/** Number of buckets of a histogram with default precision. */
+	public static final int BUCKETS = 64;
+	/** Maximum supported precision. */
+	public static final int MAX_PRECISION_BITS = 10;
+
+	private final int precisionBits;
+	private final AtomicLongArray buckets;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Create a histogram with power of two buckets.
+	 */
+	public LatencyHistogram() {
+		this(0);
+	}
+
+	/**
+	 * @param precisionBits number of bits used for linear sub-buckets, 
+	 * between 0 and {@link #MAX_PRECISION_BITS}
+	 */
+	public LatencyHistogram(int precisionBits) {
+		if (precisionBits < 0 || precisionBits > MAX_PRECISION_BITS) {
+			throw new IllegalArgumentException("precisionBits=" + precisionBits);
+		}
+		this.precisionBits = precisionBits;
+		this.buckets = new AtomicLongArray((BUCKETS - precisionBits) << precisionBits);
+	}
+
+	/**
+	 * Record a single operation.
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		record(nanos, 1);
+	}
+
+	/**
+	 * Record several operations with the same duration, typically the
+	 * average duration of a batch operation.
+	 * @param nanos duration of each operation in nanoseconds
+	 * @param n number of operations
+	 */
+	public void record(long nanos, int n) {
+		if (n <= 0) {
+			return;
+		}
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.addAndGet(bucket(nanos), n);
+		count.add(n);
+		totalNanos.add(nanos * n);
+		if (nanos > maxNanos.get()) {
+			maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	private int bucket(long nanos) {
+		if (nanos < (1L << precisionBits)) {
+			return (int) nanos;
+		}
+		//the exponent is at least precisionBits
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = exp - precisionBits;
+		return ((shift + 1) << precisionBits) + (int) (nanos >>> shift) - (1 << precisionBits);
+	}
+
+	private long lowerBound(int bucket) {
+		int shift = bucket >>> precisionBits;
+		if (shift == 0) {
+			return bucket;
+		}
+		long mantissa = (1L << precisionBits) + (bucket & ((1 << precisionBits) - 1));
+		return mantissa << (shift - 1);
+	}
+
+	/**
+	 * @param bucket bucket index
+	 * @return the largest duration that is counted in the bucket
+	 */
+	public long getUpperBoundNanos(int bucket) {
+		return bucket == buckets.length() - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+	}
+
+	public int getPrecisionBits() {
+		return precisionBits;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	public double getMeanNanos() {
+		long n = getCount();
+		return n == 0 ? 0 : getTotalNanos() / (double) n;
+	}
+
+	/**
+	 * @param p percentile, e.g. 0.99
+	 * @return upper bound of the bucket that contains the percentile, or 0 if the
+	 * histogram is empty.
+	 */
+	public long getPercentileNanos(double p) {
+		long[] b = getBuckets();
+		long n = 0;
+		for (long c : b) {
+			n += c;
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(p * n);
+		long sum = 0;
+		for (int i = 0; i < b.length; i++) {
+			sum += b[i];
+			if (sum >= rank && b[i] > 0) {
+				return Math.min(getUpperBoundNanos(i), getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * @return a copy of the bucket counters
+	 * @see #getUpperBoundNanos(int)
+	 */
+	public long[] getBuckets() {
+		long[] b = new long[buckets.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = buckets.get(i);
+		}
+		return b;
+	}
+
+	public void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.reset();
+		totalNanos.reset();
+		maxNanos.set(0);
+	}
+
+}
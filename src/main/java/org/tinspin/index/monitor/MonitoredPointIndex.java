@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.monitor;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.KnnResultSink;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.Stats;
+import org.tinspin.index.monitor.IndexMonitor.Op;
+import org.tinspin.index.monitor.IndexMonitor.TimedKnnIterator;
+import org.tinspin.index.monitor.IndexMonitor.TimedQueryIterator;
+
+/**
+ * A point index wrapper that records operation counts and latencies.
+ * 
+ * Example:
+ * <pre>
+ * {@code MonitoredPointIndex<String> idx = MonitoredPointIndex.create(KDTree.create(3));}
+ * {@code idx.getMonitor().register("cities");}
+ * </pre>
+ * 
+ * Window and kNN queries are recorded when their iterator is exhausted. Batch operations
+ * are recorded as individual operations with the average duration. 
+ * Streams and {@link #iterator()} are not recorded.
+ *
+ * @param <T> Value type
+ */
+public class MonitoredPointIndex<T> implements PointIndex<T> {
+
+	private final PointIndex<T> ind;
+	private final IndexMonitor monitor;
+
+	private MonitoredPointIndex(PointIndex<T> ind) {
+		this.ind = ind;
+		this.monitor = new IndexMonitor(ind);
+	}
+
+	public static <T> MonitoredPointIndex<T> create(PointIndex<T> ind) {
+		return new MonitoredPointIndex<>(ind);
+	}
+
+	public IndexMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * @return the monitored index
+	 */
+	public PointIndex<T> getIndex() {
+		return ind;
+	}
+
+	@Override
+	public void insert(double[] key, T value) {
+		long t0 = System.nanoTime();
+		ind.insert(key, value);
+		monitor.record(Op.INSERT, t0);
+	}
+
+	@Override
+	public T remove(double[] point) {
+		long t0 = System.nanoTime();
+		T v = ind.remove(point);
+		monitor.record(Op.REMOVE, t0);
+		return v;
+	}
+
+	@Override
+	public T update(double[] oldPoint, double[] newPoint) {
+		long t0 = System.nanoTime();
+		T v = ind.update(oldPoint, newPoint);
+		monitor.record(Op.UPDATE, t0);
+		return v;
+	}
+
+	@Override
+	public int updateBatch(double[][] oldKeys, double[][] newKeys) {
+		long t0 = System.nanoTime();
+		int n = ind.updateBatch(oldKeys, newKeys);
+		monitor.record(Op.UPDATE, t0, oldKeys.length);
+		return n;
+	}
+
+	@Override
+	public T queryExact(double[] point) {
+		long t0 = System.nanoTime();
+		T v = ind.queryExact(point);
+		monitor.record(Op.QUERY_EXACT, t0);
+		return v;
+	}
+
+	@Override
+	public QueryIterator<? extends PointEntry<T>> iterator() {
+		return ind.iterator();
+	}
+
+	@Override
+	public QueryIterator<PointEntry<T>> query(double[] min, double[] max) {
+		long t0 = System.nanoTime();
+		return new TimedQueryIterator<>(monitor, t0, ind.query(min, max));
+	}
+
+	@Override
+	public Stream<PointEntry<T>> queryStream(double[] min, double[] max) {
+		return ind.queryStream(min, max);
+	}
+
+	@Override
+	public int count(double[] min, double[] max) {
+		long t0 = System.nanoTime();
+		int n = ind.count(min, max);
+		monitor.record(Op.QUERY_WINDOW, t0);
+		return n;
+	}
+
+	@Override
+	public Aggregate aggregate(double[] min, double[] max, ToDoubleFunction<? super T> extractor) {
+		long t0 = System.nanoTime();
+		Aggregate a = ind.aggregate(min, max, extractor);
+		monitor.record(Op.QUERY_WINDOW, t0);
+		return a;
+	}
+
+	@Override
+	public PointEntryDist<T> query1NN(double[] center) {
+		long t0 = System.nanoTime();
+		PointEntryDist<T> e = ind.query1NN(center);
+		monitor.record(Op.QUERY_KNN, t0);
+		return e;
+	}
+
+	@Override
+	public QueryIteratorKNN<PointEntryDist<T>> queryKNN(double[] center, int k) {
+		long t0 = System.nanoTime();
+		return new TimedKnnIterator<>(monitor, t0, ind.queryKNN(center, k));
+	}
+
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<PointEntryDist<T>> sink) {
+		long t0 = System.nanoTime();
+		ind.queryKNN(centers, k, sink);
+		monitor.record(Op.QUERY_KNN, t0, centers.length);
+	}
+
+	@Override
+	public void queryAllKNN(int k, BiConsumer<PointEntry<T>, List<PointEntryDist<T>>> consumer) {
+		long t0 = System.nanoTime();
+		int n = ind.size();
+		ind.queryAllKNN(k, consumer);
+		monitor.record(Op.QUERY_KNN, t0, n);
+	}
+
+	@Override
+	public int getDims() {
+		return ind.getDims();
+	}
+
+	@Override
+	public int size() {
+		return ind.size();
+	}
+
+	@Override
+	public void clear() {
+		ind.clear();
+	}
+
+	@Override
+	public Stats getStats() {
+		return ind.getStats();
+	}
+
+	@Override
+	public int getNodeCount() {
+		return ind.getNodeCount();
+	}
+
+	@Override
+	public int getDepth() {
+		return ind.getDepth();
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		return ind.estimateMemoryBytes();
+	}
+
+	@Override
+	public String toStringTree() {
+		return ind.toStringTree();
+	}
+
+	@Override
+	public String toString() {
+		return ind.toString();
+	}
+}
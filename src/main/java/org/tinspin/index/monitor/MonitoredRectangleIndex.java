@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.monitor;
+
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.KnnResultSink;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.RectangleEntry;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.Stats;
+import org.tinspin.index.monitor.IndexMonitor.Op;
+import org.tinspin.index.monitor.IndexMonitor.TimedKnnIterator;
+import org.tinspin.index.monitor.IndexMonitor.TimedQueryIterator;
+
+/**
+ * A rectangle index wrapper that records operation counts and latencies.
+ * 
+ * Example:
+ * <pre>
+ * {@code MonitoredRectangleIndex<String> idx = MonitoredRectangleIndex.create(RTree.createRStar(3));}
+ * {@code idx.getMonitor().register("buildings");}
+ * </pre>
+ * 
+ * Window and kNN queries are recorded when their iterator is exhausted. Batch operations
+ * are recorded as individual operations with the average duration. 
+ * Streams, joins and {@link #iterator()} are not recorded.
+ *
+ * @param <T> Value type
+ */
+public class MonitoredRectangleIndex<T> implements RectangleIndex<T> {
+
+	private final RectangleIndex<T> ind;
+	private final IndexMonitor monitor;
+
+	private MonitoredRectangleIndex(RectangleIndex<T> ind) {
+		this.ind = ind;
+		this.monitor = new IndexMonitor(ind);
+	}
+
+	public static <T> MonitoredRectangleIndex<T> create(RectangleIndex<T> ind) {
+		return new MonitoredRectangleIndex<>(ind);
+	}
+
+	public IndexMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * @return the monitored index
+	 */
+	public RectangleIndex<T> getIndex() {
+		return ind;
+	}
+
+	@Override
+	public void insert(double[] lower, double[] upper, T value) {
+		long t0 = System.nanoTime();
+		ind.insert(lower, upper, value);
+		monitor.record(Op.INSERT, t0);
+	}
+
+	@Override
+	public T remove(double[] lower, double[] upper) {
+		long t0 = System.nanoTime();
+		T v = ind.remove(lower, upper);
+		monitor.record(Op.REMOVE, t0);
+		return v;
+	}
+
+	@Override
+	public T update(double[] lo1, double[] up1, double[] lo2, double[] up2) {
+		long t0 = System.nanoTime();
+		T v = ind.update(lo1, up1, lo2, up2);
+		monitor.record(Op.UPDATE, t0);
+		return v;
+	}
+
+	@Override
+	public int updateBatch(double[][] lo1, double[][] up1, double[][] lo2, double[][] up2) {
+		long t0 = System.nanoTime();
+		int n = ind.updateBatch(lo1, up1, lo2, up2);
+		monitor.record(Op.UPDATE, t0, lo1.length);
+		return n;
+	}
+
+	@Override
+	public T queryExact(double[] lower, double[] upper) {
+		long t0 = System.nanoTime();
+		T v = ind.queryExact(lower, upper);
+		monitor.record(Op.QUERY_EXACT, t0);
+		return v;
+	}
+
+	@Override
+	public QueryIterator<RectangleEntry<T>> iterator() {
+		return ind.iterator();
+	}
+
+	@Override
+	public QueryIterator<RectangleEntry<T>> queryIntersect(double[] min, double[] max) {
+		long t0 = System.nanoTime();
+		return new TimedQueryIterator<>(monitor, t0, ind.queryIntersect(min, max));
+	}
+
+	@Override
+	public Stream<RectangleEntry<T>> queryIntersectStream(double[] min, double[] max) {
+		return ind.queryIntersectStream(min, max);
+	}
+
+	@Override
+	public int countIntersect(double[] min, double[] max) {
+		long t0 = System.nanoTime();
+		int n = ind.countIntersect(min, max);
+		monitor.record(Op.QUERY_WINDOW, t0);
+		return n;
+	}
+
+	@Override
+	public Aggregate aggregateIntersect(double[] min, double[] max,
+			ToDoubleFunction<? super T> extractor) {
+		long t0 = System.nanoTime();
+		Aggregate a = ind.aggregateIntersect(min, max, extractor);
+		monitor.record(Op.QUERY_WINDOW, t0);
+		return a;
+	}
+
+	@Override
+	public <U> void queryIntersectJoin(RectangleIndex<U> other,
+			BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer) {
+		ind.queryIntersectJoin(other, consumer);
+	}
+
+	@Override
+	public RectangleEntryDist<T> query1NN(double[] center) {
+		long t0 = System.nanoTime();
+		RectangleEntryDist<T> e = ind.query1NN(center);
+		monitor.record(Op.QUERY_KNN, t0);
+		return e;
+	}
+
+	@Override
+	public QueryIteratorKNN<RectangleEntryDist<T>> queryKNN(double[] center, int k) {
+		long t0 = System.nanoTime();
+		return new TimedKnnIterator<>(monitor, t0, ind.queryKNN(center, k));
+	}
+
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<RectangleEntryDist<T>> sink) {
+		long t0 = System.nanoTime();
+		ind.queryKNN(centers, k, sink);
+		monitor.record(Op.QUERY_KNN, t0, centers.length);
+	}
+
+	@Override
+	public int getDims() {
+		return ind.getDims();
+	}
+
+	@Override
+	public int size() {
+		return ind.size();
+	}
+
+	@Override
+	public void clear() {
+		ind.clear();
+	}
+
+	@Override
+	public Stats getStats() {
+		return ind.getStats();
+	}
+
+	@Override
+	public int getNodeCount() {
+		return ind.getNodeCount();
+	}
+
+	@Override
+	public int getDepth() {
+		return ind.getDepth();
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		return ind.estimateMemoryBytes();
+	}
+
+	@Override
+	public String toStringTree() {
+		return ind.toStringTree();
+	}
+
+	@Override
+	public String toString() {
+		return ind.toString();
+	}
+}
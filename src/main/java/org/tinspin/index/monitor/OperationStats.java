@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.monitor;
+
+/**
+ * Immutable snapshot of the metrics of one operation type.
+ * 
+ * All durations are in nanoseconds. Percentiles are accurate to a factor of 2,
+ * see {@link LatencyHistogram}.
+ */
+public final class OperationStats {
+
+	private final long count;
+	private final double ratePerSecond;
+	private final double meanNanos;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long p999Nanos;
+	private final long maxNanos;
+
+	OperationStats(LatencyHistogram h, long elapsedNanos) {
+		this.count = h.getCount();
+		this.ratePerSecond = elapsedNanos <= 0 ? 0 : count * 1e9 / elapsedNanos;
+		this.meanNanos = h.getMeanNanos();
+		this.p50Nanos = h.getPercentileNanos(0.5);
+		this.p99Nanos = h.getPercentileNanos(0.99);
+		this.p999Nanos = h.getPercentileNanos(0.999);
+		this.maxNanos = h.getMaxNanos();
+	}
+
+	/**
+	 * @return number of operations since the last reset
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return average number of operations per second since the last reset
+	 */
+	public double getRatePerSecond() {
+		return ratePerSecond;
+	}
+
+	public double getMeanNanos() {
+		return meanNanos;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getP999Nanos() {
+		return p999Nanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + count + ";rate/s=" + ratePerSecond + ";mean=" + meanNanos + 
+				";p50=" + p50Nanos + ";p99=" + p99Nanos + ";p999=" + p999Nanos + 
+				";max=" + maxNanos;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Tilmann Zaeschke
+ * 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.phtree;
+
+import org.tinspin.index.Stats;
+
+import ch.ethz.globis.phtree.util.PhTreeStats;
+
+/**
+ * Statistics of a PH-tree. The original PH-tree statistics are available
+ * via {@link #getPhTreeStats()}.
+ */
+public class PHStats extends Stats {
+
+	private final PhTreeStats phStats;
+
+	PHStats(int dims, int size, PhTreeStats phStats) {
+		super(dims, size, phStats.getNodeCount(), phStats.getBitDepth(), 
+				phStats.getCalculatedMemSize());
+		this.phStats = phStats;
+	}
+
+	public PhTreeStats getPhTreeStats() {
+		return phStats;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ";\n" + phStats.toString();
+	}
+}
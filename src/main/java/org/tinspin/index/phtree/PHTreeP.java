@@ -57,8 +57,17 @@ public class PHTreeP<T> implements PointIndex<T> {
 	}
 
 	@Override
-	public Object getStats() {
-		return tree.getInternalTree().getStats();
+	public PHStats getStats() {
+		return new PHStats(getDims(), size(), tree.getInternalTree().getStats());
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		if (size() == 0) {
+			//the PH-Tree statistics require a root node
+			return 0;
+		}
+		return tree.getInternalTree().getStats().getCalculatedMemSize();
 	}
 
 	@Override
@@ -20,6 +20,7 @@ package org.tinspin.index.qthypercube;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.qthypercube.QuadTreeKD.QStats;
 
 /**
@@ -273,11 +274,30 @@ public class QNode<T> {
 				" " + System.identityHashCode(this);
 	}
 
-	void checkNode(QStats s, QNode<T> parent, int depth) {
-		if (depth > s.maxDepth) {
-			s.maxDepth = depth;
+	/**
+	 * @return estimated heap usage of this node and all entries and nodes below it
+	 */
+	long estimateMemory() {
+		//center, values, subs; radius
+		long mem = MemoryModel.object(3, 8) + MemoryModel.doubleArray(center.length);
+		if (values != null) {
+			//point, value
+			long entrySize = MemoryModel.object(2, 0) + MemoryModel.doubleArray(center.length);
+			mem += MemoryModel.arrayList(values.size(), 2) + values.size() * entrySize;
+		}
+		if (subs != null) {
+			mem += MemoryModel.refArray(subs.length);
+			for (QNode<T> sub : subs) {
+				if (sub != null) {
+					mem += sub.estimateMemory();
+				}
+			}
 		}
-		s.nNodes++;
+		return mem;
+	}
+
+	void checkNode(QStats s, QNode<T> parent, int depth) {
+		s.countNode(depth, values != null);
 		
 		if (parent != null) {
 			if (!QUtil.isRectEnclosed(center, radius, 
@@ -299,8 +319,7 @@ public class QNode<T> {
 			}
 		}
 		if (values != null) {
-			s.nNodesLeaf++;
-			s.nEntries += values.size();
+			s.countEntries(depth, values.size());
 			s.histoValues[values.size()]++;
 			for (int i = 0; i < values.size(); i++) {
 				QEntry<T> e = values.get(i);
@@ -325,8 +344,7 @@ public class QNode<T> {
 				throw new IllegalStateException();
 			}
 		} else {
-			s.nNodesInner++;
-			if (subs.length != 1L<<s.dims) {
+			if (subs.length != 1L<<s.getDims()) {
 				throw new IllegalStateException();
 			}
 			int nSubs = 0;
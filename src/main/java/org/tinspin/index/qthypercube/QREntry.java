@@ -19,6 +19,7 @@ package org.tinspin.index.qthypercube;
 
 import java.util.Arrays;
 
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.RectangleEntry;
 
 public class QREntry<T> implements RectangleEntry<T> {
@@ -68,4 +69,16 @@ public class QREntry<T> implements RectangleEntry<T> {
 		this.pointU = newPointU;
 	}
 
+	/**
+	 * @param e an entry
+	 * @return estimated heap usage of the entry
+	 */
+	static long estimateMemory(QREntry<?> e) {
+		//pointL, pointU, value
+		long mem = MemoryModel.object(3, 0) + MemoryModel.doubleArray(e.pointL.length);
+		if (e.pointU != e.pointL) {
+			mem += MemoryModel.doubleArray(e.pointU.length);
+		}
+		return mem;
+	}
 }
@@ -54,7 +54,7 @@ public class QRIterator<T> implements QueryIterator<RectangleEntry<T>> {
 				}
 				QRNode<T> node = se.subs[pos];
 				if (node != null) {
-					se = stack.prepareAndPush(node, min, max);
+					se = stack.prepareAndPush(node, min, max, tree.getLooseness());
 				}
 			}
 			while (se.posE < se.lenE) {
@@ -97,7 +97,7 @@ public class QRIterator<T> implements QueryIterator<RectangleEntry<T>> {
 		this.max = max;
 		next = null;
 		if (tree.getRoot() != null) {
-			stack.prepareAndPush(tree.getRoot(), min, max);
+			stack.prepareAndPush(tree.getRoot(), min, max, tree.getLooseness());
 			findNext();
 		}
 	}
@@ -114,13 +114,14 @@ public class QRIterator<T> implements QueryIterator<RectangleEntry<T>> {
 			return size == 0;
 		}
 
-		StackEntry<T> prepareAndPush(QRNode<T> node, double[] min, double[] max) {
+		StackEntry<T> prepareAndPush(QRNode<T> node, double[] min, double[] max, 
+				double looseness) {
 			if (size == stack.size()) {
 				stack.add(new StackEntry<>());
 			}
 			StackEntry<T> ni = stack.get(size++);
 			
-			ni.set(node, min, max);
+			ni.set(node, min, max, looseness);
 			return ni;
 		}
 
@@ -147,7 +148,7 @@ public class QRIterator<T> implements QueryIterator<RectangleEntry<T>> {
 		int lenE;
 		int lenSub;
 		
-		void set(QRNode<T> node, double[] min, double[] max) {
+		void set(QRNode<T> node, double[] min, double[] max, double looseness) {
 			this.vals = node.getEntries();
 			this.subs = node.getChildNodes();
 
@@ -158,12 +159,23 @@ public class QRIterator<T> implements QueryIterator<RectangleEntry<T>> {
 				m0 = 0;
 				m1 = 0;
 				double[] center = node.getCenter();
+				//In loose trees the subnodes overlap, rectangles in the upper subnode may 
+				//start below the center and rectangles in the lower subnode may end above it.
+				//This must be calculated exactly as in QRNode.calcSubPositionLoose().
+				double radiusSub = node.getRadius()/2.0;
+				double radiusLoose = radiusSub*looseness;
 				for (int d = 0; d < center.length; d++) {
 					m0 <<= 1;
 					m1 <<= 1;
-					if (max[d] >= center[d]) {
+					double upperMin = center[d]; 
+					double lowerMax = center[d]; 
+					if (looseness > 1) {
+						upperMin = center[d]+radiusSub-radiusLoose;
+						lowerMax = center[d]-radiusSub+radiusLoose;
+					}
+					if (max[d] >= upperMin) {
 						m1 |= 1;
-						if (min[d] >= center[d]) {
+						if (min[d] > lowerMax) {
 							m0 |= 1;
 						}
 					}
@@ -20,6 +20,7 @@ package org.tinspin.index.qthypercube;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.qthypercube.QuadTreeKD.QStats;
 
 /**
@@ -54,14 +55,14 @@ public class QRNode<T> {
 	}
 
 	@SuppressWarnings({ "unchecked", "unused" })
-	QRNode<T> tryPut(QREntry<T> e, int maxNodeSize, boolean enforceLeaf) {
-		if (QuadTreeKD.DEBUG && !e.enclosedBy(center, radius)) {
+	QRNode<T> tryPut(QREntry<T> e, int maxNodeSize, double looseness, boolean enforceLeaf) {
+		if (QuadTreeKD.DEBUG && !e.enclosedBy(center, radius*looseness)) {
 			throw new IllegalStateException("e=" + e + 
 					" center/radius=" + Arrays.toString(center) + "/" + radius);
 		}
 		
 		//traverse subs?
-		int pos = calcSubPositionR(e.lower(), e.upper());
+		int pos = calcSubPositionR(e.lower(), e.upper(), looseness);
 		if (subs != null && pos != OVERLAP_WITH_CENTER) {
 			return getOrCreateSubR(pos);
 		}
@@ -90,7 +91,7 @@ public class QRNode<T> {
 		subs = new QRNode[1 << center.length];
 		for (int i = 0; i < vals.size(); i++) {
 			QREntry<T> e2 = vals.get(i); 
-			int pos2 = calcSubPositionR(e2.lower(), e2.upper());
+			int pos2 = calcSubPositionR(e2.lower(), e2.upper(), looseness);
 			if (pos2 == OVERLAP_WITH_CENTER) {
 				if (values == null) {
 					values = new ArrayList<>();
@@ -102,7 +103,7 @@ public class QRNode<T> {
 			while (sub != null) {
 				//This may recurse if all entries fall 
 				//into the same subnode
-				sub = (QRNode<T>) sub.tryPut(e2, maxNodeSize, false);
+				sub = (QRNode<T>) sub.tryPut(e2, maxNodeSize, looseness, false);
 			}
 		}
 		return null;
@@ -138,10 +139,16 @@ public class QRNode<T> {
 	 * The subnode position has reverse ordering of the point's
 	 * dimension ordering. Dimension 0 of a point is the highest
 	 * ordered bit in the position.
-	 * @param p point
-	 * @return subnode position
+	 * @param pMin lower corner of the rectangle
+	 * @param pMax upper corner of the rectangle
+	 * @param looseness looseness factor of the tree, '1' for a strict quadtree
+	 * @return subnode position or OVERLAP_WITH_CENTER if the rectangle 
+	 * has to be stored in this node
 	 */
-	private int calcSubPositionR(double[] pMin, double[] pMax) {
+	private int calcSubPositionR(double[] pMin, double[] pMax, double looseness) {
+		if (looseness > 1) {
+			return calcSubPositionLoose(pMin, pMax, looseness);
+		}
 		int subNodePos = 0;
 		for (int d = 0; d < center.length; d++) {
 			subNodePos <<= 1;
@@ -155,13 +162,44 @@ public class QRNode<T> {
 		return subNodePos;
 	}
 
-	QREntry<T> remove(QRNode<T> parent, double[] keyL, double[] keyU, int maxNodeSize) {
+	/**
+	 * Loose quadtree: the subnode is chosen by the center of the rectangle. The 
+	 * rectangle is moved to the subnode only if it fits into the extent of the 
+	 * subnode enlarged by the looseness factor. Small rectangles can therefore 
+	 * sink down even if they overlap with the center point.
+	 * <p>
+	 * The bounds are calculated in the same way as in QRIterator, this ensures 
+	 * that queries visit all subnodes that may contain a rectangle.
+	 */
+	private int calcSubPositionLoose(double[] pMin, double[] pMax, double looseness) {
+		double radiusSub = radius/2.0;
+		double radiusLoose = radiusSub*looseness;
+		int subNodePos = 0;
+		for (int d = 0; d < center.length; d++) {
+			subNodePos <<= 1;
+			double centerSub;
+			if ((pMin[d]+pMax[d])/2.0 >= center[d]) {
+				subNodePos |= 1;
+				centerSub = center[d]+radiusSub;
+			} else {
+				centerSub = center[d]-radiusSub;
+			}
+			if (centerSub+radiusLoose < pMax[d] || centerSub-radiusLoose > pMin[d]) {
+				//too large for the subnode
+				return OVERLAP_WITH_CENTER;
+			}
+		}
+		return subNodePos;
+	}
+
+	QREntry<T> remove(QRNode<T> parent, double[] keyL, double[] keyU, int maxNodeSize,
+			double looseness) {
 		if (subs != null) {
-			int pos = calcSubPositionR(keyL, keyU);
+			int pos = calcSubPositionR(keyL, keyU, looseness);
 			if (pos != OVERLAP_WITH_CENTER) {
 				QRNode<T> sub = subs[pos];
 				if (sub != null) {
-					return sub.remove(this, keyL, keyU, maxNodeSize);
+					return sub.remove(this, keyL, keyU, maxNodeSize, looseness);
 				}
 				return null;
 			}
@@ -186,25 +224,34 @@ public class QRNode<T> {
 		return null;
 	}
 
+	/**
+	 * @param newKeyInNode 'true' if an insert of the new key would pass through 
+	 * (or end in) this node
+	 */
 	@SuppressWarnings("unchecked")
 	QREntry<T> update(QRNode<T> parent, double[] keyOldL, double[] keyOldU, 
-			double[] keyNewL, double[] keyNewU, int maxNodeSize,
-			boolean[] requiresReinsert, int currentDepth, int maxDepth) {
+			double[] keyNewL, double[] keyNewU, int maxNodeSize, double looseness,
+			boolean newKeyInNode, boolean[] requiresReinsert, int currentDepth, int maxDepth) {
 		if (subs != null) {
-			int pos = calcSubPositionR(keyOldL, keyOldU);
+			int pos = calcSubPositionR(keyOldL, keyOldU, looseness);
 			if (pos != OVERLAP_WITH_CENTER) {
 				QRNode<T> sub = subs[pos];
 				if (sub == null) {
 					return null;
 				}
+				//In loose trees, being enclosed by a node is not sufficient, the new key must 
+				//also be routed through the node, otherwise it cannot be found later.
+				boolean newKeyInSub = newKeyInNode && 
+						calcSubPositionR(keyNewL, keyNewU, looseness) == pos;
 				QREntry<T> ret = sub.update(this, keyOldL, keyOldU, keyNewL, keyNewU, 
-						maxNodeSize, requiresReinsert, currentDepth+1, maxDepth);
-				if (ret != null && requiresReinsert[0] && 
-						QUtil.isRectEnclosed(ret.lower(), ret.upper(), center, radius)) {
+						maxNodeSize, looseness, newKeyInSub, requiresReinsert, 
+						currentDepth+1, maxDepth);
+				if (ret != null && requiresReinsert[0] && newKeyInNode) {
 					requiresReinsert[0] = false;
 					Object r = this;
 					while (r instanceof QRNode) {
-						r = ((QRNode<T>)r).tryPut(ret, maxNodeSize, currentDepth++ > maxDepth);
+						r = ((QRNode<T>)r).tryPut(ret, maxNodeSize, looseness, 
+								currentDepth++ > maxDepth);
 					}
 				}
 				return ret;
@@ -220,10 +267,9 @@ public class QRNode<T> {
 			if (QUtil.isRectEqual(e, keyOldL, keyOldU)) {
 				values.remove(i);
 				e.setKey(keyNewL, keyNewU);
-				//Divide by EPS to ensure that we do not reinsert to low
-				if (QUtil.isRectEnclosed(keyNewL, keyNewU, center, radius)) {
+				if (newKeyInNode) {
 					requiresReinsert[0] = false;
-					int pos = calcSubPositionR(keyNewL, keyNewU);
+					int pos = calcSubPositionR(keyNewL, keyNewU, looseness);
 					if (pos == OVERLAP_WITH_CENTER) {
 						//reinsert locally;
 						values.add(e);
@@ -238,7 +284,8 @@ public class QRNode<T> {
 							currentDepth++;
 						}
 						while (r instanceof QRNode) {
-							r = ((QRNode<T>)r).tryPut(e, maxNodeSize, currentDepth++ > maxDepth);
+							r = ((QRNode<T>)r).tryPut(e, maxNodeSize, looseness, 
+									currentDepth++ > maxDepth);
 						}
 					}
 				} else {
@@ -298,13 +345,13 @@ public class QRNode<T> {
 		return radius;
 	}
 
-	QREntry<T> getExact(double[] keyL, double[] keyU) {
+	QREntry<T> getExact(double[] keyL, double[] keyU, double looseness) {
 		if (subs != null) {
-			int pos = calcSubPositionR(keyL, keyU);
+			int pos = calcSubPositionR(keyL, keyU, looseness);
 			if (pos != OVERLAP_WITH_CENTER) {
 				QRNode<T> sub = subs[pos];
 				if (sub != null) {
-					return sub.getExact(keyL, keyU);
+					return sub.getExact(keyL, keyU, looseness);
 				}
 				return null;
 			}
@@ -333,11 +380,31 @@ public class QRNode<T> {
 				" " + System.identityHashCode(this);
 	}
 
-	void checkNode(QStats s, QRNode<T> parent, int depth) {
-		if (depth > s.maxDepth) {
-			s.maxDepth = depth;
+	/**
+	 * @return estimated heap usage of this node and all entries and nodes below it
+	 */
+	long estimateMemory() {
+		//center, values, subs; radius
+		long mem = MemoryModel.object(3, 8) + MemoryModel.doubleArray(center.length);
+		if (values != null) {
+			mem += MemoryModel.arrayList(values.size());
+			for (int i = 0; i < values.size(); i++) {
+				mem += QREntry.estimateMemory(values.get(i));
+			}
 		}
-		s.nNodes++;
+		if (subs != null) {
+			mem += MemoryModel.refArray(subs.length);
+			for (QRNode<T> sub : subs) {
+				if (sub != null) {
+					mem += sub.estimateMemory();
+				}
+			}
+		}
+		return mem;
+	}
+
+	void checkNode(QStats s, QRNode<T> parent, int depth, double looseness) {
+		s.countNode(depth, subs == null);
 		
 		if (parent != null) {
 			if (!QUtil.isRectEnclosed(center, radius, parent.center, parent.radius*QUtil.EPS_MUL)) {
@@ -346,9 +413,11 @@ public class QRNode<T> {
 			}
 		}
 		if (values != null) {
+			s.countEntries(depth, values.size());
 			for (int i = 0; i < values.size(); i++) {
 				QREntry<T> e = values.get(i);
-				if (!QUtil.isRectEnclosed(e.lower(), e.upper(), center, radius*QUtil.EPS_MUL)) {
+				if (!QUtil.isRectEnclosed(e.lower(), e.upper(), center, 
+						radius*looseness*QUtil.EPS_MUL)) {
 					throw new IllegalStateException();
 				}
 				//TODO check that they overlap with the centerpoint or that subs==null
@@ -359,7 +428,7 @@ public class QRNode<T> {
 				QRNode<T> n = subs[i];
 				//TODO check pos
 				if (n != null) {
-					n.checkNode(s, this, depth+1);
+					n.checkNode(s, this, depth+1, looseness);
 				}
 			}
 		}
@@ -34,6 +34,12 @@ import org.tinspin.index.qthypercube.QuadTreeKD.QStats;
 /**
  * A simple MX-quadtree implementation with configurable maximum depth, maximum nodes size, and
  * (if desired) automatic guessing of root rectangle. 
+ * <p>
+ * Rectangles are stored in the smallest node that fully contains them. Small rectangles 
+ * that overlap with the center of a node therefore get stuck high up in the tree. 
+ * Trees created with {@link #createLoose(int)} are loose quadtrees: the extent of each 
+ * node is enlarged by a 'looseness' factor and rectangles are assigned to subnodes based on
+ * their center. This limits the depth of a rectangle by its size instead of by its position.
  * 
  * @author ztilmann
  *
@@ -47,18 +53,29 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 
 	public static final boolean DEBUG = false;
 	private static final int DEFAULT_MAX_NODE_SIZE = 10;
+	public static final double DEFAULT_LOOSENESS = 1.25;
 	
 	private final int dims;
 	private final int maxNodeSize;
+	//factor by which the extent of nodes is enlarged, '1' means 'not loose'
+	private final double looseness;
 	private QRNode<T> root = null;
 	private int size = 0; 
 	
 	private QuadTreeRKD(int dims, int maxNodeSize) {
+		this(dims, maxNodeSize, 1.0);
+	}
+	
+	private QuadTreeRKD(int dims, int maxNodeSize, double looseness) {
 		if (DEBUG) {
 			System.err.println("Warning: DEBUG enabled");
 		}
+		if (!(looseness >= 1)) {
+			throw new IllegalArgumentException("Looseness must be >= 1 but was " + looseness);
+		}
 		this.dims = dims;
 		this.maxNodeSize = maxNodeSize;
+		this.looseness = looseness;
 	}
 
 	public static <T> QuadTreeRKD<T> create(int dims) {
@@ -70,6 +87,31 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 		return new QuadTreeRKD<>(dims, maxNodeSize);
 	}
 	
+	/**
+	 * Create a loose quadtree with the default looseness of 1.25, i.e. every node covers
+	 * 1.25 times the width of its regular area. Larger factors let rectangles sink deeper
+	 * but cause queries to visit more nodes.
+	 * @param dims dimensions
+	 * @return a new loose quadtree
+	 * @param <T> value type
+	 */
+	public static <T> QuadTreeRKD<T> createLoose(int dims) {
+		return new QuadTreeRKD<>(dims, DEFAULT_MAX_NODE_SIZE, DEFAULT_LOOSENESS);
+	}
+	
+	/**
+	 * Create a loose quadtree.
+	 * @param dims dimensions
+	 * @param maxNodeSize maximum number of entries in a leaf node
+	 * @param looseness factor by which the extent of nodes is enlarged, '1' creates a 
+	 * regular quadtree
+	 * @return a new loose quadtree
+	 * @param <T> value type
+	 */
+	public static <T> QuadTreeRKD<T> createLoose(int dims, int maxNodeSize, double looseness) {
+		return new QuadTreeRKD<>(dims, maxNodeSize, looseness);
+	}
+	
 	public static <T> QuadTreeRKD<T> create(int dims, int maxNodeSize, 
 			double[] min, double[] max) {
 		double radius = 0;
@@ -111,7 +153,7 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 		Object r = root;
 		int depth = 0;
 		while (r instanceof QRNode) {
-			r = ((QRNode<T>)r).tryPut(e, maxNodeSize, depth++>MAX_DEPTH);
+			r = ((QRNode<T>)r).tryPut(e, maxNodeSize, looseness, depth++>MAX_DEPTH);
 		}
 	}
 	
@@ -138,7 +180,7 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 		if (root == null) {
 			return false;
 		}
-		return root.getExact(keyL, keyU) != null;
+		return root.getExact(keyL, keyU, looseness) != null;
 	}
 	
 	/**
@@ -152,7 +194,7 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 		if (root == null) {
 			return null;
 		}
-		QREntry<T> e = root.getExact(keyL, keyU);
+		QREntry<T> e = root.getExact(keyL, keyU, looseness);
 		return e == null ? null : e.value();
 	}
 	
@@ -171,7 +213,7 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 			}
 			return null;
 		}
-		QREntry<T> e = root.remove(null, keyL, keyU, maxNodeSize);
+		QREntry<T> e = root.remove(null, keyL, keyU, maxNodeSize, looseness);
 		if (e == null) {
 			if (DEBUG) {
 				System.err.println("Failed remove 2: " + 
@@ -198,8 +240,10 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 			return null;
 		}
 		boolean[] requiresReinsert = new boolean[]{false};
+		boolean newKeyInRoot = 
+				QUtil.isRectEnclosed(newKeyL, newKeyU, root.getCenter(), root.getRadius());
 		QREntry<T> e = root.update(null, oldKeyL, oldKeyU, newKeyL, newKeyU, 
-				maxNodeSize, requiresReinsert, 0, MAX_DEPTH);
+				maxNodeSize, looseness, newKeyInRoot, requiresReinsert, 0, MAX_DEPTH);
 		if (e == null) {
 			//not found
 			if (DEBUG) {
@@ -217,8 +261,8 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 			ensureCoverage(e);
 			Object r = root;
 			int depth = 0;
-			while (r instanceof QNode) {
-				r = ((QRNode<T>)r).tryPut(e, maxNodeSize, depth++>MAX_DEPTH);
+			while (r instanceof QRNode) {
+				r = ((QRNode<T>)r).tryPut(e, maxNodeSize, looseness, depth++>MAX_DEPTH);
 			}
 		}
 		return e.value();
@@ -295,16 +339,21 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
         Comparator<QREntry<T>> comp =  
         		(QREntry<T> e1, QREntry<T> e2) -> {
         			double deltaDist = 
-        					QUtil.distToRectEdge(center, e1) - 
-        					QUtil.distToRectEdge(center, e2);
+        					QUtil.distToRectEdgeSq(center, e1) - 
+        					QUtil.distToRectEdgeSq(center, e2);
         			return deltaDist < 0 ? -1 : (deltaDist > 0 ? 1 : 0);
         		};
+        //all distances in the search are squared
         double distEstimate = distanceEstimate(root, center, k, comp);
         ArrayList<QREntryDist<T>> candidates = new ArrayList<>();
     	while (candidates.size() < k) {
     		candidates.clear();
     		rangeSearchKNN(root, center, candidates, k, distEstimate);
-    		distEstimate *= 2;
+    		//double the search radius
+    		distEstimate *= 4;
+    	}
+    	for (int i = 0; i < candidates.size(); i++) {
+    		candidates.get(i).setDist(Math.sqrt(candidates.get(i).dist()));
     	}
     	return candidates;
     }
@@ -324,22 +373,26 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
     		//okay, this directory node contains the point, but none of the leaves does.
     		//We just return the size of this node, because all it's leaf nodes should
     		//contain more than enough candidate in proximity of 'point'.
-    		return node.getRadius() * Math.sqrt(point.length); //TODO scale???
+    		return node.getRadius() * node.getRadius() * point.length; //TODO scale???
     	}
 
     	//TODO do we need this stuff?? Simplify???
     	//This is a leaf that would contain a good candidate.
     	int n = node.getEntries().size();
+    	if (n == 0) {
+    		//leaf may be empty after remove() or update()
+    		return node.getRadius() * node.getRadius() * 4;
+    	}
     	QREntry<T>[] data = node.getEntries().toArray(new QREntry[n]);
     	Arrays.sort(data, comp);
     	int pos = n < k ? n : k;
-    	double dist = QUtil.distToRectEdge(point, data[pos-1]);
+    	double dist = QUtil.distToRectEdgeSq(point, data[pos-1]);
     	if (n < k) {
     		//scale search dist with dimensions.
-    		dist = dist * Math.pow(k/(double)n, 1/(double)dims);
+    		dist = dist * Math.pow(k/(double)n, 2/(double)dims);
     	}
 		if (dist <= 0.0) {
-			return node.getRadius() * 2;
+			return node.getRadius() * node.getRadius() * 4;
 		}
 		return dist;
     }
@@ -350,7 +403,7 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
     	if (points != null) {
     		for (int i = 0; i < points.size(); i++) {
     			QREntry<T> p = points.get(i);
-    			double dist = QUtil.distToRectEdge(center, p);
+    			double dist = QUtil.distToRectEdgeSq(center, p);
     			if (dist < maxRange) {
     				candidates.add(new QREntryDist<>(p, dist));
     			}
@@ -362,8 +415,8 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
    		if (nodes != null) {
     		for (int i = 0; i < nodes.length; i++) {
     			QRNode<T> sub = nodes[i];
-    			if (sub != null && 
-    					QUtil.distToRectNode(center, sub.getCenter(), sub.getRadius()) < maxRange) {
+    			if (sub != null && QUtil.distToRectNodeSq(
+    					center, sub.getCenter(), sub.getRadius()*looseness) < maxRange) {
     				maxRange = rangeSearchKNN(sub, center, candidates, k, maxRange);
     			}
     		}
@@ -461,6 +514,7 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 	public String toString() {
 		return "QuadTreeRKD;maxNodeSize=" + maxNodeSize + 
 				";maxDepth=" + MAX_DEPTH + 
+				";looseness=" + looseness + 
 				";DEBUG=" + DEBUG + 
 				";center/radius=" + (root==null ? "null" : 
 					(Arrays.toString(root.getCenter()) + "/" +
@@ -469,13 +523,19 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 	
 	@Override
 	public QStats getStats() {
-		QStats s = new QStats(dims);
+		QStats s = new QStats(dims, maxNodeSize);
 		if (root != null) {
-			root.checkNode(s, null, 0);
+			root.checkNode(s, null, 0, looseness);
 		}
+		s.setEstimatedBytes(estimateMemoryBytes());
 		return s;
 	}
 	
+	@Override
+	public long estimateMemoryBytes() {
+		return root == null ? 0 : root.estimateMemory();
+	}
+	
 	@Override
 	public int getDims() {
 		return dims;
@@ -506,4 +566,11 @@ public class QuadTreeRKD<T> implements RectangleIndex<T> {
 	protected QRNode<T> getRoot() {
 		return root;
 	}
+	
+	/**
+	 * @return the looseness factor, '1' for regular (not loose) quadtrees
+	 */
+	public double getLooseness() {
+		return looseness;
+	}
 }
@@ -42,13 +42,13 @@ public class QIterator0<T> implements QueryIterator<PointEntry<T>> {
 			return size == 0;
 		}
 
-		StackEntry<T> prepareAndPush(QNode<T> node) {
+		StackEntry<T> prepareAndPush(QNode<T> node, double[] parentCenter, long posInParent) {
 			if (size == stack.size()) {
 				stack.add(new StackEntry<>());
 			}
 			StackEntry<T> ni = stack.get(size++);
 			
-			ni.set(node);
+			ni.set(node, parentCenter, posInParent);
 			return ni;
 		}
 
@@ -74,13 +74,30 @@ public class QIterator0<T> implements QueryIterator<PointEntry<T>> {
 	private static class StackEntry<T> {
 		int pos;
 		Object[] entries;
+		//quadrant positions of sparse directory nodes
+		long[] positions;
+		double[] center;
 		boolean isLeaf;
 		int len;
 		
-		void set(QNode<T> node) {
+		/**
+		 * @param node the node
+		 * @param parentCenter center of the parent node or of the root node
+		 * @param posInParent position in the parent node or -1 for the root node
+		 */
+		void set(QNode<T> node, double[] parentCenter, long posInParent) {
 			this.pos = 0;
 			this.entries = node.getEntries();
+			this.positions = node.getSubPositions();
 			this.isLeaf = node.isLeaf();
+			if (center == null) {
+				center = new double[parentCenter.length];
+			}
+			if (posInParent < 0) {
+				System.arraycopy(parentCenter, 0, center, 0, center.length);
+			} else {
+				node.calcCenter(parentCenter, posInParent, center);
+			}
 
 			if (isLeaf) {
 				len = node.getValueCount();
@@ -117,8 +134,12 @@ public class QIterator0<T> implements QueryIterator<PointEntry<T>> {
 					Object e = se.entries[pos];
 					if (e instanceof QNode) {
 						QNode<T> node = (QNode<T>) e;
-						if (QUtil.overlap(min, max, node.getCenter(), node.getRadius())) {
-							se = stack.prepareAndPush(node);
+						long hcPos = se.positions == null ? pos : se.positions[pos];
+						StackEntry<T> sub = stack.prepareAndPush(node, se.center, hcPos);
+						if (QUtil.overlap(min, max, sub.center, node.getRadius())) {
+							se = sub;
+						} else {
+							stack.pop();
 						}
 					} else if (e != null) {
 						QEntry<T> qe = (QEntry<T>) e;
@@ -163,7 +184,7 @@ public class QIterator0<T> implements QueryIterator<PointEntry<T>> {
 		this.max = max;
 		next = null;
 		if (tree.getRoot() != null) {
-			stack.prepareAndPush(tree.getRoot());
+			stack.prepareAndPush(tree.getRoot(), tree.getRootCenter(), -1);
 			findNext();
 		}
 	}
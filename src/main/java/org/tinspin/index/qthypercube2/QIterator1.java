@@ -42,13 +42,14 @@ public class QIterator1<T> implements QueryIterator<PointEntry<T>> {
 			return size == 0;
 		}
 
-		StackEntry<T> prepareAndPush(QNode<T> node, double[] min, double[] max) {
+		StackEntry<T> prepareAndPush(QNode<T> node, double[] parentCenter, long posInParent,
+				double[] min, double[] max) {
 			if (size == stack.size()) {
 				stack.add(new StackEntry<>());
 			}
 			StackEntry<T> ni = stack.get(size++);
 			
-			ni.set(node, min, max);
+			ni.set(node, parentCenter, posInParent, min, max);
 			return ni;
 		}
 
@@ -76,19 +77,38 @@ public class QIterator1<T> implements QueryIterator<PointEntry<T>> {
 		long m0;
 		long m1;
 		Object[] entries;
+		//quadrant positions of sparse directory nodes
+		long[] positions;
+		double[] center;
 		boolean isLeaf;
 		public int len;
 		
-		void set(QNode<T> node, double[] min, double[] max) {
+		/**
+		 * @param node the node
+		 * @param parentCenter center of the parent node or of the root node
+		 * @param posInParent position in the parent node or -1 for the root node
+		 * @param min query min
+		 * @param max query max
+		 */
+		void set(QNode<T> node, double[] parentCenter, long posInParent, 
+				double[] min, double[] max) {
 			this.entries = node.getEntries();
 			this.isLeaf = node.isLeaf();
+			if (center == null) {
+				center = new double[parentCenter.length];
+			}
+			if (posInParent < 0) {
+				System.arraycopy(parentCenter, 0, center, 0, center.length);
+			} else {
+				node.calcCenter(parentCenter, posInParent, center);
+			}
 
 			if (isLeaf) {
 				len = node.getValueCount();
 				pos = 0;
 			} else {
-				len = this.entries.length;
-				double[] center = node.getCenter();
+				positions = node.getSubPositions();
+				len = positions == null ? this.entries.length : node.getSubCount();
 				m0 = 0;
 				m1 = 0;
 				for (int d = 0; d < center.length; d++) {
@@ -101,7 +121,7 @@ public class QIterator1<T> implements QueryIterator<PointEntry<T>> {
 						}
 					}
 				}
-				pos = m0;
+				pos = positions == null ? m0 : 0;
 			}
 		}
 		
@@ -135,10 +155,11 @@ public class QIterator1<T> implements QueryIterator<PointEntry<T>> {
 					}
 				} else {
 					Object e = se.entries[pos];
-					if (se.checkHcPos(pos) && e != null) {
+					long hcPos = se.positions == null ? pos : se.positions[pos];
+					if (se.checkHcPos(hcPos) && e != null) {
 						if (e instanceof QNode) {
 							QNode<T> node = (QNode<T>) e;
-							se = stack.prepareAndPush(node, min, max);
+							se = stack.prepareAndPush(node, se.center, hcPos, min, max);
 						} else {
 							QEntry<T> qe = (QEntry<T>) e;
 							if (qe.enclosedBy(min, max)) {
@@ -183,7 +204,7 @@ public class QIterator1<T> implements QueryIterator<PointEntry<T>> {
 		this.max = max;
 		next = null;
 		if (tree.getRoot() != null) {
-			stack.prepareAndPush(tree.getRoot(), min, max);
+			stack.prepareAndPush(tree.getRoot(), tree.getRootCenter(), -1, min, max);
 			findNext();
 		}
 	}
@@ -18,10 +18,12 @@
 package org.tinspin.index.qthypercube2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 import org.tinspin.index.PointEntry;
 import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryStats;
 
 /**
  * Resettable query iterator.
@@ -42,13 +44,15 @@ public class QIterator2<T> implements QueryIterator<PointEntry<T>> {
 			return size == 0;
 		}
 
-		StackEntry<T> prepareAndPush(QNode<T> node, double[] min, double[] max) {
+		StackEntry<T> prepareAndPush(QNode<T> node, double[] parentCenter, long posInParent,
+				double[] min, double[] max) {
 			if (size == stack.size()) {
 				stack.add(new StackEntry<>());
 			}
 			StackEntry<T> ni = stack.get(size++);
+			QueryStats.node(node.isLeaf());
 			
-			ni.set(node, min, max);
+			ni.set(node, parentCenter, posInParent, min, max);
 			return ni;
 		}
 
@@ -76,21 +80,45 @@ public class QIterator2<T> implements QueryIterator<PointEntry<T>> {
 		long m0;
 		long m1;
 		Object[] entries;
+		//quadrant positions of sparse directory nodes, 'pos' is then the index in 'entries'
+		long[] positions;
+		double[] center;
+		//next valid quadrant position in sparse nodes
+		long hcPos;
+		//position of the last entry returned by nextSparse()
+		long lastPos;
+		boolean useInc;
 		boolean isLeaf;
 		int len;
 		
-		void set(QNode<T> node, double[] min, double[] max) {
+		/**
+		 * @param node the node
+		 * @param parentCenter center of the parent node or of the root node
+		 * @param posInParent position in the parent node or -1 for the root node
+		 * @param min query min
+		 * @param max query max
+		 */
+		void set(QNode<T> node, double[] parentCenter, long posInParent, 
+				double[] min, double[] max) {
 			this.entries = node.getEntries();
 			this.isLeaf = node.isLeaf();
+			if (center == null) {
+				center = new double[parentCenter.length];
+			}
+			if (posInParent < 0) {
+				System.arraycopy(parentCenter, 0, center, 0, center.length);
+			} else {
+				node.calcCenter(parentCenter, posInParent, center);
+			}
 
 			if (isLeaf) {
 				len = node.getValueCount();
 				pos = 0;
 			} else {
-				len = this.entries.length;
+				positions = node.getSubPositions();
+				len = positions == null ? this.entries.length : node.getSubCount();
 				m0 = 0;
 				m1 = 0;
-				double[] center = node.getCenter();
 				for (int d = 0; d < center.length; d++) {
 					m0 <<= 1;
 					m1 <<= 1;
@@ -101,7 +129,17 @@ public class QIterator2<T> implements QueryIterator<PointEntry<T>> {
 						}
 					}
 				}
-				pos = m0;
+				if (positions == null) {
+					pos = m0;
+				} else {
+					int i = Arrays.binarySearch(positions, 0, len, m0);
+					pos = i >= 0 ? i : -(i + 1);
+					hcPos = m0;
+					//Navigate with inc() if there are fewer valid quadrants than occupied 
+					//quadrants left, otherwise scan the occupied quadrants and filter them.
+					int nFree = Long.bitCount(m1 & ~m0);
+					useInc = nFree < 31 && (1 << nFree) < len - pos;
+				}
 			}
 		}
 		
@@ -109,23 +147,52 @@ public class QIterator2<T> implements QueryIterator<PointEntry<T>> {
 			return isLeaf;
 		}
 		
-		//boolean checkHcPos(long pos) {
-		//	return ((pos | m0) & m1) == pos;
-		//}
+		boolean checkHcPos(long pos) {
+			return ((pos | m0) & m1) == pos;
+		}
 
-		void inc() {
+		long inc(long v) {
 			//first, fill all 'invalid' bits with '1' (bits that can have only one value).
-			long r = pos | (~m1);
+			long r = v | (~m1);
 			//increment. The '1's in the invalid bits will cause bitwise overflow to the next valid bit.
 			r++;
 			//remove invalid bits.
-			pos = (r & m1) | m0;
+			return (r & m1) | m0;
 
 			//return -1 if we exceed 'max' and cause an overflow or return the original value. The
 			//latter can happen if there is only one possible value (all filter bits are set).
 			//The <= is also owed to the bug tested in testBugDecrease()
 			//return (r <= v) ? -1 : r;
 		}
+		
+		/**
+		 * @return the next entry or sub-node of a sparse node that may lie in the 
+		 * query window, or 'null'
+		 */
+		Object nextSparse() {
+			if (useInc) {
+				int i = Arrays.binarySearch(positions, (int) pos, len, hcPos);
+				long prev = hcPos;
+				hcPos = inc(hcPos);
+				if (hcPos <= prev) {
+					//no increment, this was the last valid position
+					pos = len;
+				} else {
+					pos = i >= 0 ? i + 1 : -(i + 1);
+				}
+				lastPos = prev;
+				return i >= 0 ? entries[i] : null;
+			}
+			long p = positions[(int) pos];
+			if (p > m1) {
+				//m1 is the highest valid position
+				pos = len;
+				return null;
+			}
+			Object e = entries[(int) pos++];
+			lastPos = p;
+			return checkHcPos(p) ? e : null;
+		}
 	}
 	
 	
@@ -142,25 +209,37 @@ public class QIterator2<T> implements QueryIterator<PointEntry<T>> {
 			while (se.pos < se.len) {
 				if (se.isLeaf()) {
 					QEntry<T> e = (QEntry<T>) se.entries[(int) se.pos++];
+					QueryStats.entriesScanned(1);
 					if (e.enclosedBy(min, max)) {
+						QueryStats.entriesReturned(1);
 						next = e;
 						return;
 					}
 				} else {
-					int pos = (int) se.pos;
-					se.inc();
-					//abort in next round if no increment is detected
-					if (se.pos <= pos) {
-						se.pos = Long.MAX_VALUE;
+					Object e;
+					long hcPos;
+					if (se.positions == null) {
+						int pos = (int) se.pos;
+						se.pos = se.inc(se.pos);
+						//abort in next round if no increment is detected
+						if (se.pos <= pos) {
+							se.pos = Long.MAX_VALUE;
+						}
+						e = se.entries[pos];
+						hcPos = pos;
+					} else {
+						e = se.nextSparse();
+						hcPos = se.lastPos;
 					}
-					Object e = se.entries[pos];
 					if (e != null) {
 						if (e instanceof QNode) {
 							QNode<T> node = (QNode<T>) e;
-							se = stack.prepareAndPush(node, min, max);
+							se = stack.prepareAndPush(node, se.center, hcPos, min, max);
 						} else {
 							QEntry<T> qe = (QEntry<T>) e;
+							QueryStats.entriesScanned(1);
 							if (qe.enclosedBy(min, max)) {
+								QueryStats.entriesReturned(1);
 								next = qe;
 								return;
 							}
@@ -203,7 +282,7 @@ public class QIterator2<T> implements QueryIterator<PointEntry<T>> {
 		this.max = max;
 		next = null;
 		if (tree.getRoot() != null) {
-			stack.prepareAndPush(tree.getRoot(), min, max);
+			stack.prepareAndPush(tree.getRoot(), tree.getRootCenter(), -1, min, max);
 			findNext();
 		}
 	}
@@ -17,12 +17,27 @@
  */
 package org.tinspin.index.qthypercube2;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.qthypercube2.QuadTreeKD2.QStats;
 
 /**
  * Node class for the quadtree.
+ * <p>
+ * Directory nodes switch automatically between a full array with one slot per
+ * quadrant (AHC) and a sparse array of the occupied quadrants with their sorted 
+ * positions (LHC), similar to the PH-tree. The sparse form allows up to 63 dimensions.
+ * <p>
+ * Nodes do not store their center, only the tree stores the center of the root node.
+ * The center of a sub-node is derived from the center of its parent, the radius of the 
+ * sub-node and its quadrant position, see {@link #calcCenter(double[], long, double[])}.
+ * Methods that traverse the tree therefore take the center of the current node as argument.
  * 
  * @author ztilmann
  *
@@ -30,33 +45,52 @@ import org.tinspin.index.qthypercube2.QuadTreeKD2.QStats;
  */
 public class QNode<T> {
 
-	private double[] center;
+	//Full directory nodes require 2^dims slots
+	private static final int MAX_FULL_DIMS = 20;
+
 	private double radius;
 	//null indicates that we have sub-node i.o. values
 	private QEntry<T>[] values;
+	//Directory nodes have either a full array with one slot per quadrant (AHC) or
+	//a dense array of the occupied quadrants only (LHC), see 'subPos'.
 	private Object[] subs;
+	//null for full directory nodes, otherwise the sorted positions of the entries in 'subs'
+	private long[] subPos;
+	//number of occupied slots in 'subs' (entries and sub-nodes)
+	private int nSubs = 0;
 	private int nValues = 0;
 	private boolean isLeaf;
+	//aggregate of all entries in this subtree, 'null' if the tree has no summaries
+	private Aggregate summary;
 	
 	@SuppressWarnings("unchecked")
-	QNode(double[] center, double radius) {
-		this.center = center;
+	QNode(double radius) {
 		this.radius = radius;
 		this.values = new QEntry[2];
 		this.isLeaf = true;
 	}
 
-	QNode(double[] center, double radius, QNode<T> subNode, int subNodePos) {
-		this.center = center;
+	QNode(double radius, QNode<T> subNode, long subNodePos, int dims) {
 		this.radius = radius;
 		this.values = null;
-		this.subs = new Object[1 << center.length];
-		subs[subNodePos] = subNode;
+		initSubs(1, dims);
+		insertSub(subIndex(subNodePos), subNodePos, subNode, dims);
 		this.isLeaf = false;
 	}
 
+	/**
+	 * @param tree the tree, it counts the nodes
+	 * @param e the entry
+	 * @param center the center of this node. If a sub-node is returned, the center is 
+	 * updated to the center of the sub-node.
+	 * @param maxNodeSize maximum node size
+	 * @param enforceLeaf whether the entry must be added to this node
+	 * @return the sub-node into which the entry should be inserted or 'null' if the entry 
+	 * was added 
+	 */
 	@SuppressWarnings("unused")
-	QNode<T> tryPut(QEntry<T> e, int maxNodeSize, boolean enforceLeaf) {
+	QNode<T> tryPut(QuadTreeKD2<T> tree, QEntry<T> e, double[] center, int maxNodeSize, 
+			boolean enforceLeaf) {
 		if (QuadTreeKD2.DEBUG && !e.enclosedBy(center, radius)) {
 			throw new IllegalStateException("e=" + Arrays.toString(e.point()) + 
 					" center/radius=" + Arrays.toString(center) + "/" + radius);
@@ -64,7 +98,7 @@ public class QNode<T> {
 		
 		//traverse subs?
 		if (!isLeaf()) {
-			return getOrCreateSub(e, maxNodeSize, enforceLeaf);
+			return getOrCreateSub(tree, e, center, maxNodeSize, enforceLeaf);
 		}
 		
 		//add if:
@@ -82,18 +116,21 @@ public class QNode<T> {
 		QEntry<T>[] vals = values;
 		int nVal = nValues;
 		clearValues();
-		subs = new Object[1 << center.length];
+		initSubs(nVal + 1, center.length);
 		isLeaf = false;
+		tree.countNodes(0, -1);
+		double[] subCenter = new double[center.length];
 		for (int i = 0; i < nVal; i++) {
 			QEntry<T> e2 = vals[i]; 
-			QNode<T> sub = getOrCreateSub(e2, maxNodeSize, enforceLeaf);
+			System.arraycopy(center, 0, subCenter, 0, center.length);
+			QNode<T> sub = getOrCreateSub(tree, e2, subCenter, maxNodeSize, enforceLeaf);
 			while (sub != null) {
 				//This may recurse if all entries fall 
 				//into the same subnode
-				sub = (QNode<T>) sub.tryPut(e2, maxNodeSize, false);
+				sub = (QNode<T>) sub.tryPut(tree, e2, subCenter, maxNodeSize, false);
 			}
 		}
-		return getOrCreateSub(e, maxNodeSize, enforceLeaf);
+		return getOrCreateSub(tree, e, center, maxNodeSize, enforceLeaf);
 	}
 
 	private boolean areAllPointsIdentical(QEntry<T> e) {
@@ -114,7 +151,8 @@ public class QNode<T> {
 		//Allow overflow over max node size (for example for lots of identical values in node)
 		int maxLen = nValues >= maxNodeSize ? nValues * 2 : maxNodeSize;
 		if (nValues >= getValues().length) {
-			values = Arrays.copyOf(getValues(), nValues * 3 > maxLen ? maxLen : nValues * 3); 
+			//merged nodes may be empty
+			values = Arrays.copyOf(getValues(), Math.min(Math.max(nValues * 3, 2), maxLen)); 
 		}
 		getValues()[nValues++] = e;
 	}
@@ -124,9 +162,11 @@ public class QNode<T> {
 			if (pos < --nValues) {
 				System.arraycopy(getValues(), pos+1, getValues(), pos, nValues-pos);
 			}
+			//kNN queries scan the whole array
+			getValues()[nValues] = null;
 		} else {
 			nValues--;
-			subs[pos] = null;
+			removeSubAt(pos);
 		}
 	}
 	
@@ -136,43 +176,134 @@ public class QNode<T> {
 	}
 	
 	@SuppressWarnings("unchecked")
-	private QNode<T> getOrCreateSub(QEntry<T> e, int maxNodeSize, boolean enforceLeaf) {
-		int pos = calcSubPosition(e.point());
-		Object n = subs[pos];
+	private QNode<T> getOrCreateSub(QuadTreeKD2<T> tree, QEntry<T> e, double[] center, 
+			int maxNodeSize, boolean enforceLeaf) {
+		long pos = calcSubPosition(e.point(), center);
+		int i = subIndex(pos);
+		Object n = i >= 0 ? subs[i] : null;
 		
 		if (n instanceof QNode) {
-			return (QNode<T>)n;
+			QNode<T> sub = (QNode<T>) n;
+			sub.calcCenter(center, pos, center);
+			return sub;
 		}
 		
 		if (n == null) {
-			subs[pos] = e;
+			insertSub(i, pos, e, center.length);
 			nValues++;
 			return null;
 		}
 
 		QEntry<T> e2 = (QEntry<T>) n;
 		nValues--;
-		QNode<T> sub = createSubForEntry(pos);
-		subs[pos] = sub;
-		sub.tryPut(e2, maxNodeSize, enforceLeaf);
+		//This ensures that the subsnodes completely cover the area of
+		//the parent node.
+		QNode<T> sub = new QNode<>(radius/2.0);
+		tree.countNodes(1, 1);
+		subs[i] = sub;
+		sub.calcCenter(center, pos, center);
+		sub.tryPut(tree, e2, center, maxNodeSize, enforceLeaf);
 		return sub;
 	}
 	
-	private QNode<T> createSubForEntry(int subNodePos) {
-		double[] centerSub = new double[center.length];
-		int mask = 1<<center.length;
-		//This ensures that the subsnodes completely cover the area of
-		//the parent node.
-		double radiusSub = radius/2.0;
-		for (int d = 0; d < center.length; d++) {
-			mask >>= 1;
-			if ((subNodePos & mask) > 0) {
-				centerSub[d] = center[d]+radiusSub;
-			} else {
-				centerSub[d] = center[d]-radiusSub; 
+	/**
+	 * Full (AHC) directory nodes need one slot per quadrant, sparse (LHC) nodes need
+	 * one slot plus one position for every occupied quadrant. We use the smaller one.
+	 * @param n number of occupied quadrants
+	 * @return whether a full array is smaller than the sparse representation
+	 */
+	private static boolean preferFull(int n, int dims) {
+		return dims <= MAX_FULL_DIMS && 
+				(1L << dims) * MemoryModel.REF <= n * (long)(MemoryModel.REF + 8);
+	}
+	
+	private void initSubs(int n, int dims) {
+		nSubs = 0;
+		if (preferFull(n, dims)) {
+			subs = new Object[1 << dims];
+			subPos = null;
+		} else {
+			subs = new Object[n];
+			subPos = new long[n];
+		}
+	}
+	
+	/**
+	 * @param pos quadrant position
+	 * @return slot in 'subs' or '-(insertion point)-1' if a sparse node has no such quadrant
+	 */
+	private int subIndex(long pos) {
+		if (subPos == null) {
+			return (int) pos;
+		}
+		return Arrays.binarySearch(subPos, 0, nSubs, pos);
+	}
+	
+	private void insertSub(int i, long pos, Object o, int dims) {
+		nSubs++;
+		if (subPos == null) {
+			subs[i] = o;
+			return;
+		}
+		int ins = -(i + 1);
+		if (nSubs > subs.length) {
+			int newLen = subs.length * 2;
+			subs = Arrays.copyOf(subs, newLen);
+			subPos = Arrays.copyOf(subPos, newLen);
+		}
+		System.arraycopy(subs, ins, subs, ins + 1, nSubs - 1 - ins);
+		System.arraycopy(subPos, ins, subPos, ins + 1, nSubs - 1 - ins);
+		subs[ins] = o;
+		subPos[ins] = pos;
+		if (preferFull(nSubs, dims)) {
+			Object[] full = new Object[1 << dims];
+			for (int j = 0; j < nSubs; j++) {
+				full[(int) subPos[j]] = subs[j];
+			}
+			subs = full;
+			subPos = null;
+		}
+	}
+	
+	private void removeSubAt(int i) {
+		nSubs--;
+		if (subPos == null) {
+			subs[i] = null;
+			//switch back only if the sparse form is much smaller, this avoids flip-flopping
+			if (!preferFull(2 * nSubs, Integer.numberOfTrailingZeros(subs.length))) {
+				Object[] full = subs;
+				subs = new Object[Math.max(2, nSubs)];
+				subPos = new long[subs.length];
+				int j = 0;
+				for (int p = 0; p < full.length; p++) {
+					if (full[p] != null) {
+						subs[j] = full[p];
+						subPos[j++] = p;
+					}
+				}
 			}
+			return;
+		}
+		System.arraycopy(subs, i + 1, subs, i, nSubs - i);
+		System.arraycopy(subPos, i + 1, subPos, i, nSubs - i);
+		subs[nSubs] = null;
+	}
+	
+	/**
+	 * Calculate the center of this node from the center of its parent. The center
+	 * is offset by the radius of this node in every dimension, the quadrant bits
+	 * determine the direction.
+	 * @param parentCenter center of the parent node
+	 * @param posInParent quadrant position of this node in the parent node
+	 * @param center output, may be the same array as 'parentCenter'
+	 */
+	void calcCenter(double[] parentCenter, long posInParent, double[] center) {
+		int shift = parentCenter.length;
+		for (int d = 0; d < parentCenter.length; d++) {
+			//-1 or +1
+			long dir = (((posInParent >>> --shift) & 1L) << 1) - 1;
+			center[d] = parentCenter[d] + radius * dir;
 		}
-		return new QNode<>(centerSub, radiusSub);		
 	}
 	
 	/**
@@ -180,29 +311,44 @@ public class QNode<T> {
 	 * dimension ordering. Dimension 0 of a point is the highest
 	 * ordered bit in the position.
 	 * @param p point
+	 * @param center center of the node
 	 * @return subnode position
 	 */
-	int calcSubPosition(double[] p) {
-		int subNodePos = 0;
+	static long calcSubPosition(double[] p, double[] center) {
+		long subNodePos = 0;
 		for (int d = 0; d < center.length; d++) {
-			subNodePos <<= 1;
-			if (p[d] >= center[d]) {
-				subNodePos |= 1;
-			}
+			//The sign bit of (p-center) is 0 iff p >= center. The difference is only 
+			//0.0 if p == center, subnormal numbers prevent underflow. Adding 0.0 turns 
+			//-0.0 (from -0.0 - 0.0) into 0.0.
+			long isLower = Double.doubleToRawLongBits(p[d] - center[d] + 0.0) >>> 63;
+			subNodePos = (subNodePos << 1) | (isLower ^ 1L);
 		}
 		return subNodePos;
 	}
 
+	/**
+	 * @param tree the tree, it counts the nodes
+	 * @param parent parent node or 'null'
+	 * @param key the key
+	 * @param center center of this node, will be modified 
+	 * @param maxNodeSize maximum node size
+	 * @param filter value filter, 'null' matches all values
+	 * @return the removed entry or 'null'
+	 */
 	@SuppressWarnings("unchecked")
-	QEntry<T> remove(QNode<T> parent, double[] key, int maxNodeSize) {
+	QEntry<T> remove(QuadTreeKD2<T> tree, QNode<T> parent, double[] key, double[] center, 
+			int maxNodeSize, Predicate<? super T> filter) {
 		if (!isLeaf()) {
-			int pos = calcSubPosition(key);
-			Object o = subs[pos];
+			long pos = calcSubPosition(key, center);
+			int i = subIndex(pos);
+			Object o = i >= 0 ? subs[i] : null;
 			if (o instanceof QNode) {
-				return ((QNode<T>)o).remove(this, key, maxNodeSize);
+				QNode<T> sub = (QNode<T>) o;
+				sub.calcCenter(center, pos, center);
+				return sub.remove(tree, this, key, center, maxNodeSize, filter);
 			} else if (o instanceof QEntry) {
 				QEntry<T> e = (QEntry<T>) o;
-				if (removeSub(parent, key, pos, e, maxNodeSize)) {
+				if (removeSub(tree, parent, key, i, e, maxNodeSize, filter)) {
 					return e;
 				}
 			}
@@ -211,77 +357,111 @@ public class QNode<T> {
 		
 		for (int i = 0; i < nValues; i++) {
 			QEntry<T> e = values[i];
-			if (removeSub(parent, key, i, e, maxNodeSize)) {
+			if (removeSub(tree, parent, key, i, e, maxNodeSize, filter)) {
 				return e;
 			}
 		}
 		return null;
 	}
 
-	private boolean removeSub(QNode<T> parent, double[] key, int pos, QEntry<T> e, int maxNodeSize) {
-		if (QUtil.isPointEqual(e.point(), key)) {
+	private boolean removeSub(QuadTreeKD2<T> tree, QNode<T> parent, double[] key, int pos, 
+			QEntry<T> e, int maxNodeSize, Predicate<? super T> filter) {
+		if (matches(e, key, filter)) {
 			removeValue(pos);
 			//TODO provide threshold for re-insert
 			//i.e. do not always merge.
 			if (parent != null) {
-				parent.checkAndMergeLeafNodes(maxNodeSize);
+				parent.checkAndMergeLeafNodes(tree, maxNodeSize);
 			}
 			return true;
 		}
 		return false;
 	}
 	
+	/**
+	 * @param e an entry
+	 * @param key a key
+	 * @param filter value filter, 'null' matches all values
+	 * @return whether the entry has the given key and a matching value
+	 */
+	private static <T> boolean matches(QEntry<T> e, double[] key, Predicate<? super T> filter) {
+		return QUtil.isPointEqual(e.point(), key) && (filter == null || filter.test(e.value()));
+	}
+	
+	/**
+	 * @param tree the tree, it counts the nodes
+	 * @param parent parent node or 'null'
+	 * @param keyOld old key
+	 * @param keyNew new key
+	 * @param centers buffers for the centers of the nodes on the path, the center of this 
+	 * node is at index 'currentDepth'. The list is extended if the path is longer.
+	 * @param maxNodeSize maximum node size
+	 * @param requiresReinsert output, whether the entry must be reinserted from the root
+	 * @param currentDepth depth of this node
+	 * @param maxDepth maximum depth
+	 * @param filter value filter, 'null' matches all values
+	 * @return the updated entry or 'null'
+	 */
 	@SuppressWarnings("unchecked")
-	QEntry<T> update(QNode<T> parent, double[] keyOld, double[] keyNew, int maxNodeSize,
-			boolean[] requiresReinsert, int currentDepth, int maxDepth) {
+	QEntry<T> update(QuadTreeKD2<T> tree, QNode<T> parent, double[] keyOld, double[] keyNew, 
+			List<double[]> centers, int maxNodeSize, boolean[] requiresReinsert, int currentDepth, int maxDepth, 
+			Predicate<? super T> filter) {
+		double[] center = centers.get(currentDepth);
 		if (!isLeaf()) {
-			int pos = calcSubPosition(keyOld);
-			Object e = subs[pos];
+			long hcPos = calcSubPosition(keyOld, center);
+			int pos = subIndex(hcPos);
+			Object e = pos >= 0 ? subs[pos] : null;
 			if (e == null) {
 				return null;
 			}
 			if (e instanceof QNode) {
 				QNode<T> sub = (QNode<T>) e;
-				QEntry<T> ret = sub.update(this, keyOld, keyNew, maxNodeSize, requiresReinsert,
-						currentDepth+1, maxDepth);
+				if (centers.size() == currentDepth + 1) {
+					centers.add(new double[center.length]);
+				}
+				sub.calcCenter(center, hcPos, centers.get(currentDepth + 1));
+				QEntry<T> ret = sub.update(tree, this, keyOld, keyNew, centers, maxNodeSize, 
+						requiresReinsert, currentDepth+1, maxDepth, filter);
 				if (ret != null && requiresReinsert[0] && 
 						QUtil.isPointEnclosed(ret.point(), center, radius/QUtil.EPS_MUL)) {
 					requiresReinsert[0] = false;
 					Object r = this;
 					while (r instanceof QNode) {
-						r = ((QNode<T>)r).tryPut(ret, maxNodeSize, currentDepth++ > maxDepth);
+						r = ((QNode<T>)r).tryPut(tree, ret, center, maxNodeSize, currentDepth++ > maxDepth);
 					}
 				}
 				return ret;
 			}
 			//Entry
 			QEntry<T> qe = (QEntry<T>) e;
-			if (QUtil.isPointEqual(qe.point(), keyOld)) {
+			if (matches(qe, keyOld, filter)) {
 				removeValue(pos);
 				qe.setKey(keyNew);
 				if (QUtil.isPointEnclosed(keyNew, center, radius/QUtil.EPS_MUL)) {
 					//reinsert locally;
 					Object r = this;
 					while (r instanceof QNode) {
-						r = ((QNode<T>)r).tryPut(qe, maxNodeSize, currentDepth++ > maxDepth);
+						r = ((QNode<T>)r).tryPut(tree, qe, center, maxNodeSize, currentDepth++ > maxDepth);
 					}
 					requiresReinsert[0] = false;
 				} else {
 					requiresReinsert[0] = true;
 					if (parent != null) {
-						parent.checkAndMergeLeafNodes(maxNodeSize);
+						parent.checkAndMergeLeafNodes(tree, maxNodeSize);
 					}
 				}
 				return qe;
 			}
+			requiresReinsert[0] = false;
+			return null;
 		}
 		
 		for (int i = 0; i < nValues; i++) {
 			QEntry<T> e = getValues()[i];
-			if (QUtil.isPointEqual(e.point(), keyOld)) {
+			if (matches(e, keyOld, filter)) {
 				removeValue(i);
 				e.setKey(keyNew);
-				updateSub(keyNew, e, parent, maxNodeSize, requiresReinsert);
+				updateSub(tree, keyNew, e, parent, center, maxNodeSize, requiresReinsert);
 				return e;
 			}
 		}
@@ -289,7 +469,8 @@ public class QNode<T> {
 		return null;
 	}
 
-	private void updateSub(double[] keyNew, QEntry<T> e, QNode<T> parent, int maxNodeSize, boolean[] requiresReinsert) {
+	private void updateSub(QuadTreeKD2<T> tree, double[] keyNew, QEntry<T> e, QNode<T> parent, 
+			double[] center, int maxNodeSize, boolean[] requiresReinsert) {
 		if (QUtil.isPointEnclosed(keyNew, center, radius/QUtil.EPS_MUL)) {
 			//reinsert locally;
 			addValue(e, maxNodeSize);
@@ -299,13 +480,150 @@ public class QNode<T> {
 			//TODO provide threshold for re-insert
 			//i.e. do not always merge.
 			if (parent != null) {
-				parent.checkAndMergeLeafNodes(maxNodeSize);
+				parent.checkAndMergeLeafNodes(tree, maxNodeSize);
+			}
+		}
+	}
+	
+	/**
+	 * Batch version of {@link #update}. All updates whose old key lies in this node are 
+	 * handled in a single descent: they are grouped by quadrant, so every sub-node is 
+	 * visited once. Moved entries are put back only after all old keys of this node have 
+	 * been removed, entries that do not fit into this node are passed to the parent.
+	 * @param tree the tree, it counts the nodes
+	 * @param parent parent node or 'null'
+	 * @param oldKeys old keys
+	 * @param newKeys new keys
+	 * @param ids the updates of this node are 'ids[start]' to 'ids[end-1]', the range 
+	 * is reordered
+	 * @param start first update of this node
+	 * @param end end (exclusive) of the updates of this node
+	 * @param center center of this node
+	 * @param maxNodeSize maximum node size
+	 * @param currentDepth depth of this node
+	 * @param maxDepth maximum depth
+	 * @param escapees output, moved entries that do not fit into this node
+	 * @return the number of updated entries
+	 */
+	@SuppressWarnings("unchecked")
+	int updateBatch(QuadTreeKD2<T> tree, QNode<T> parent, double[][] oldKeys, double[][] newKeys, 
+			int[] ids, int start, int end, double[] center, int maxNodeSize, int currentDepth, 
+			int maxDepth, List<QEntry<T>> escapees) {
+		List<QEntry<T>> moved = new ArrayList<>();
+		int n = 0;
+		if (isLeaf()) {
+			for (int i = start; i < end; i++) {
+				double[] keyOld = oldKeys[ids[i]];
+				for (int j = 0; j < nValues; j++) {
+					QEntry<T> e = getValues()[j];
+					if (matches(e, keyOld, null)) {
+						removeValue(j);
+						e.setKey(newKeys[ids[i]]);
+						moved.add(e);
+						n++;
+						break;
+					}
+				}
+			}
+			for (QEntry<T> e : moved) {
+				if (QUtil.isPointEnclosed(e.point(), center, radius/QUtil.EPS_MUL)) {
+					//reinsert locally;
+					addValue(e, maxNodeSize);
+				} else {
+					escapees.add(e);
+				}
+			}
+			return n;
+		}
+
+		long[] hcPos = new long[end - start];
+		for (int i = start; i < end; i++) {
+			hcPos[i - start] = calcSubPosition(oldKeys[ids[i]], center);
+		}
+		sortByPos(ids, hcPos, start);
+		boolean subLostEntries = false;
+		for (int i = start; i < end; ) {
+			long pos = hcPos[i - start];
+			int groupEnd = i + 1;
+			while (groupEnd < end && hcPos[groupEnd - start] == pos) {
+				groupEnd++;
+			}
+			int slot = subIndex(pos);
+			Object e = slot >= 0 ? subs[slot] : null;
+			if (e instanceof QNode) {
+				QNode<T> sub = (QNode<T>) e;
+				double[] subCenter = new double[center.length];
+				sub.calcCenter(center, pos, subCenter);
+				int nMoved = moved.size();
+				n += sub.updateBatch(tree, this, oldKeys, newKeys, ids, i, groupEnd, subCenter, 
+						maxNodeSize, currentDepth+1, maxDepth, moved);
+				subLostEntries |= moved.size() > nMoved;
+			} else if (e != null) {
+				//Entry
+				QEntry<T> qe = (QEntry<T>) e;
+				for (int j = i; j < groupEnd; j++) {
+					if (matches(qe, oldKeys[ids[j]], null)) {
+						removeValue(slot);
+						qe.setKey(newKeys[ids[j]]);
+						moved.add(qe);
+						n++;
+						break;
+					}
+				}
+			}
+			i = groupEnd;
+		}
+		
+		if (subLostEntries) {
+			checkAndMergeLeafNodes(tree, maxNodeSize);
+		}
+		for (QEntry<T> qe : moved) {
+			if (QUtil.isPointEnclosed(qe.point(), center, radius/QUtil.EPS_MUL)) {
+				//reinsert locally, tryPut() modifies the center
+				double[] c = center.clone();
+				int depth = currentDepth;
+				Object r = this;
+				while (r instanceof QNode) {
+					r = ((QNode<T>)r).tryPut(tree, qe, c, maxNodeSize, depth++ > maxDepth);
+				}
+			} else {
+				escapees.add(qe);
 			}
 		}
+		return n;
+	}
+
+	/**
+	 * Sort the ids by their quadrant position.
+	 * @param ids ids, the range starts at 'start'
+	 * @param hcPos quadrant positions of the range, sorted together with the ids
+	 * @param start start of the range in 'ids'
+	 */
+	private static void sortByPos(int[] ids, long[] hcPos, int start) {
+		boolean sorted = true;
+		for (int i = 1; i < hcPos.length && sorted; i++) {
+			sorted = hcPos[i-1] <= hcPos[i];
+		}
+		if (sorted) {
+			return;
+		}
+		Integer[] order = new Integer[hcPos.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (i1, i2) -> Long.compare(hcPos[i1], hcPos[i2]));
+		int[] ids2 = new int[order.length];
+		long[] pos2 = new long[order.length];
+		for (int i = 0; i < order.length; i++) {
+			ids2[i] = ids[start + order[i]];
+			pos2[i] = hcPos[order[i]];
+		}
+		System.arraycopy(ids2, 0, ids, start, ids2.length);
+		System.arraycopy(pos2, 0, hcPos, 0, pos2.length);
 	}
 	
 	@SuppressWarnings("unchecked")
-	private void checkAndMergeLeafNodes(int maxNodeSize) {
+	private void checkAndMergeLeafNodes(QuadTreeKD2<T> tree, int maxNodeSize) {
 		//check: We start with including all local values: nValues
 		int nTotal = nValues;
 		for (int i = 0; i < subs.length; i++) {
@@ -328,6 +646,7 @@ public class QNode<T> {
 		//okay, let's merge
 		values = new QEntry[nTotal];
 		nValues = 0;
+		int nMerged = 0;
 		for (int i = 0; i < subs.length; i++) {
 			Object e = subs[i];
 			if (e instanceof QNode) {
@@ -335,29 +654,92 @@ public class QNode<T> {
 				for (int j = 0; j < sub.nValues; j++) {
 					values[nValues++] = sub.values[j];
 				}
+				nMerged++;
 			} else if (e instanceof QEntry) {
 				values[nValues++] = (QEntry<T>) e;
 			}
 		}
 		subs = null;
+		subPos = null;
+		nSubs = 0;
 		isLeaf = true;
-	}
-
-	double[] getCenter() {
-		return center;
+		//the merged leaves are replaced by this node
+		tree.countNodes(-nMerged, 1 - nMerged);
 	}
 
 	double getRadius() {
 		return radius;
 	}
 
+	/**
+	 * Recalculate the summaries of all nodes on the path of a key. Nodes that are not on
+	 * the path are only recalculated if they have no summary yet, i.e. if they were created 
+	 * during the last modification.
+	 * @param key the key
+	 * @param center center of this node, will be modified
+	 * @param extractor value extractor
+	 */
+	@SuppressWarnings("unchecked")
+	void recalcSummaries(double[] key, double[] center, ToDoubleFunction<? super T> extractor) {
+		if (!isLeaf()) {
+			long pos = calcSubPosition(key, center);
+			Object sub = getSub(pos);
+			if (sub instanceof QNode) {
+				QNode<T> subNode = (QNode<T>) sub;
+				subNode.calcCenter(center, pos, center);
+				subNode.recalcSummaries(key, center, extractor);
+			}
+		}
+		recalcSummary(extractor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void recalcSummary(ToDoubleFunction<? super T> extractor) {
+		if (summary == null) {
+			summary = new Aggregate();
+		} else {
+			summary.clear();
+		}
+		if (isLeaf()) {
+			for (int i = 0; i < nValues; i++) {
+				summary.add(extractor.applyAsDouble(values[i].value()));
+			}
+			return;
+		}
+		for (Object o : subs) {
+			if (o instanceof QNode) {
+				QNode<T> sub = (QNode<T>) o;
+				if (sub.summary == null) {
+					sub.recalcSummary(extractor);
+				}
+				summary.add(sub.summary);
+			} else if (o != null) {
+				summary.add(extractor.applyAsDouble(((QEntry<T>) o).value()));
+			}
+		}
+	}
+
+	/**
+	 * @return aggregate of all entries in this subtree or 'null' if the tree has no summaries
+	 */
+	Aggregate getSummary() {
+		return summary;
+	}
+
+	/**
+	 * @param key the key
+	 * @param center center of this node, will be modified
+	 * @return the entry with the key or 'null'
+	 */
 	@SuppressWarnings("unchecked")
-	QEntry<T> getExact(double[] key) {
+	QEntry<T> getExact(double[] key, double[] center) {
 		if (!isLeaf()) {
-			int pos = calcSubPosition(key);
-			Object sub = subs[pos];
+			long pos = calcSubPosition(key, center);
+			Object sub = getSub(pos);
 			if (sub instanceof QNode) {
-				return ((QNode<T>)sub).getExact(key);
+				QNode<T> subNode = (QNode<T>) sub;
+				subNode.calcCenter(center, pos, center);
+				return subNode.getExact(key, center);
 			} else  if (sub != null) {
 				QEntry<T> e = (QEntry<T>) sub;
 				if (QUtil.isPointEqual(e.point(), key)) {
@@ -376,77 +758,156 @@ public class QNode<T> {
 		return null;
 	}
 
+	/**
+	 * @return the values of a leaf node or the sub-nodes and entries of a directory node.
+	 * For sparse directory nodes the array is dense and {@link #getSubPositions()} 
+	 * contains the position of each slot.
+	 */
 	Object[] getEntries() {
 		return isLeaf ? values : subs;
 	}
 
+	/**
+	 * @return sorted positions of the slots in {@link #getEntries()} or 'null' if this
+	 * is a leaf node or a full directory node.
+	 */
+	long[] getSubPositions() {
+		return subPos;
+	}
+
+	/**
+	 * @return number of occupied slots of a directory node
+	 */
+	int getSubCount() {
+		return nSubs;
+	}
+
+	/**
+	 * @param pos quadrant position
+	 * @return the sub-node or entry in the given quadrant of this directory node or 'null'
+	 */
+	Object getSub(long pos) {
+		int i = subIndex(pos);
+		return i >= 0 ? subs[i] : null;
+	}
+
 	
 	@Override
 	public String toString() {
-		return "center/radius=" + Arrays.toString(center) + "/" + radius + 
-				" " + System.identityHashCode(this);
+		return "radius=" + radius + " " + System.identityHashCode(this);
 	}
 
+	/**
+	 * @param dims dimensionality
+	 * @return estimated heap usage of this node and all entries and nodes below it
+	 */
 	@SuppressWarnings("unchecked")
-	void checkNode(QStats s, QNode<T> parent, int depth) {
-		if (depth > s.maxDepth) {
-			s.maxDepth = depth;
+	long estimateMemory(int dims) {
+		//values, subs, subPos, summary; radius, nSubs, nValues, isLeaf
+		long mem = MemoryModel.object(4, 17);
+		if (summary != null) {
+			//count, sum, min, max
+			mem += MemoryModel.object(0, 28);
 		}
-		s.nNodes++;
+		if (values != null) {
+			mem += MemoryModel.refArray(values.length) + nValues * entrySize(dims);
+		} else {
+			mem += MemoryModel.refArray(subs.length);
+			if (subPos != null) {
+				mem += MemoryModel.longArray(subPos.length);
+			}
+			for (Object o : subs) {
+				if (o instanceof QNode) {
+					mem += ((QNode<T>) o).estimateMemory(dims);
+				} else if (o != null) {
+					mem += entrySize(dims);
+				}
+			}
+		}
+		return mem;
+	}
+
+	private static long entrySize(int dims) {
+		//point, value
+		return MemoryModel.object(2, 0) + MemoryModel.doubleArray(dims);
+	}
+
+	@SuppressWarnings("unchecked")
+	void checkNode(QStats s, QNode<T> parent, double[] parentCenter, double[] center, int depth) {
+		s.countNode(depth, values != null);
 		
 		if (parent != null) {
-			if (!QUtil.isRectEnclosed(center, radius, 
-					parent.center, parent.radius*QUtil.EPS_MUL)) {
+			if (radius != parent.radius/2 || !QUtil.isRectEnclosed(center, radius, 
+					parentCenter, parent.radius*QUtil.EPS_MUL)) {
 				for (int d = 0; d < center.length; d++) {
 //					if ((centerOuter[d]+radiusOuter) / (centerEnclosed[d]+radiusEnclosed) < 0.9999999 || 
 //							(centerOuter[d]-radiusOuter) / (centerEnclosed[d]-radiusEnclosed) > 1.0000001) {
 //						return false;
 //					}
 					System.out.println("Outer: " + parent.radius + " " + 
-						Arrays.toString(parent.center));
+						Arrays.toString(parentCenter));
 					System.out.println("Child: " + radius + " " + Arrays.toString(center));
-					System.out.println((parent.center[d]+parent.radius) + " vs " + (center[d]+radius)); 
-					System.out.println("r=" + (parent.center[d]+parent.radius) / (center[d]+radius)); 
-					System.out.println((parent.center[d]-parent.radius) + " vs " + (center[d]-radius));
-					System.out.println("r=" + (parent.center[d]-parent.radius) / (center[d]-radius));
+					System.out.println((parentCenter[d]+parent.radius) + " vs " + (center[d]+radius)); 
+					System.out.println("r=" + (parentCenter[d]+parent.radius) / (center[d]+radius)); 
+					System.out.println((parentCenter[d]-parent.radius) + " vs " + (center[d]-radius));
+					System.out.println("r=" + (parentCenter[d]-parent.radius) / (center[d]-radius));
 				}
 				throw new IllegalStateException();
 			}
 		}
 		if (values != null) {
-			s.nNodesLeaf++;
-			s.nEntries += nValues;
-			s.histoValues[nValues]++;
+			s.countEntries(depth, nValues);
+			s.histoValues(nValues);
 			for (int i = 0; i < nValues; i++) {
 				QEntry<T> e = values[i];
-				checkEntry(e);
+				checkEntry(e, center);
 			}
 			if (subs != null) {
 				throw new IllegalStateException();
 			}
 		} else {
-			s.nNodesInner++;
-			if (subs.length != 1L<<s.dims) {
-				throw new IllegalStateException();
+			if (subPos == null) {
+				if (subs.length != 1L<<s.getDims()) {
+					throw new IllegalStateException();
+				}
+			} else {
+				for (int i = 1; i < nSubs; i++) {
+					if (subPos[i-1] >= subPos[i]) {
+						throw new IllegalStateException();
+					}
+				}
 			}
-			int nSubs = 0;
+			int nSubNodes = 0;
+			int nOccupied = 0;
 			for (int i = 0; i < subs.length; i++) {
 				Object n = subs[i];
-				//TODO check pos
+				long pos = subPos == null ? i : subPos[i];
 				if (n instanceof QNode) {
-					nSubs++;
-					((QNode<T>)n).checkNode(s, this, depth+1);
+					nSubNodes++;
+					QNode<T> sub = (QNode<T>) n;
+					double[] subCenter = new double[center.length];
+					sub.calcCenter(center, pos, subCenter);
+					sub.checkNode(s, this, center, subCenter, depth+1);
 				} else if (n != null) {
-					s.nEntries++;
-					checkEntry(n);
+					s.countEntries(depth, 1);
+					checkEntry(n, center);
+					if (calcSubPosition(((QEntry<T>) n).point(), center) != pos) {
+						throw new IllegalStateException();
+					}
+				}
+				if (n != null) {
+					nOccupied++;
 				}
 			}
-			s.histo(nSubs);
+			if (nOccupied != nSubs) {
+				throw new IllegalStateException();
+			}
+			s.histo(nSubNodes);
 		}
 	}
 
 	@SuppressWarnings("unchecked")
-	private void checkEntry(Object o) {
+	private void checkEntry(Object o, double[] center) {
 		QEntry<T> e = (QEntry<T>) o;
 		if (!QUtil.isPointEnclosed(e.point(), center, radius*QUtil.EPS_MUL)) {
 			System.out.println("Node: " + radius + " " + Arrays.toString(center));
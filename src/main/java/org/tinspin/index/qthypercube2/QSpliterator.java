@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.qthypercube2;
+
+import java.util.function.Consumer;
+
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.SubtreeSpliterator;
+
+/**
+ * Splittable window query, see {@link QuadTreeKD2#queryStream(double[], double[])}.
+ *
+ * @param <T> Value type
+ */
+public class QSpliterator<T> extends SubtreeSpliterator<QSpliterator.Subtree<T>, PointEntry<T>> {
+
+	/**
+	 * A node and its center.
+	 */
+	static class Subtree<T> {
+		final QNode<T> node;
+		final double[] center;
+		Subtree(QNode<T> node, double[] center) {
+			this.node = node;
+			this.center = center;
+		}
+	}
+
+	private final double[] min;
+	private final double[] max;
+
+	QSpliterator(QNode<T> root, double[] rootCenter, double[] min, double[] max, 
+			long estimatedSize) {
+		super(root == null ? null : new Subtree<>(root, rootCenter), estimatedSize);
+		this.min = min;
+		this.max = max;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected void visit(Subtree<T> subtree, Consumer<Subtree<T>> subtrees,
+			Consumer<? super PointEntry<T>> entries) {
+		QNode<T> node = subtree.node;
+		Object[] subs = node.getEntries();
+		if (node.isLeaf()) {
+			for (int i = 0; i < node.getValueCount(); i++) {
+				QEntry<T> e = (QEntry<T>) subs[i];
+				if (e.enclosedBy(min, max)) {
+					entries.accept(e);
+				}
+			}
+			return;
+		}
+		long[] subPos = node.getSubPositions();
+		for (int i = 0; i < subs.length; i++) {
+			Object o = subs[i];
+			if (o instanceof QNode) {
+				QNode<T> sub = (QNode<T>) o;
+				double[] center = new double[min.length];
+				sub.calcCenter(subtree.center, subPos == null ? i : subPos[i], center);
+				if (QUtil.overlap(min, max, center, sub.getRadius())) {
+					subtrees.accept(new Subtree<>(sub, center));
+				}
+			} else if (o != null) {
+				QEntry<T> e = (QEntry<T>) o;
+				if (e.enclosedBy(min, max)) {
+					entries.accept(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected QSpliterator<T> createEmpty() {
+		return new QSpliterator<>(null, null, min, max, 0);
+	}
+}
@@ -98,6 +98,17 @@ public class QUtil {
 		return true;
 	}
 
+	public static boolean isRectEnclosed(double[] centerEnclosed, double radiusEnclosed,
+			double[] minOuter, double[] maxOuter) {
+		for (int d = 0; d < minOuter.length; d++) {
+			if (maxOuter[d] < centerEnclosed[d]+radiusEnclosed || 
+					minOuter[d] > centerEnclosed[d]-radiusEnclosed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static boolean isRectEnclosed(double[] centerEnclosed, double radiusEnclosed,
 			double[] centerOuter, double radiusOuter) {
 		for (int d = 0; d < centerOuter.length; d++) {
@@ -112,12 +123,21 @@ public class QUtil {
 	}
 
 	public static double distance(double[] p1, double[] p2) {
+		return Math.sqrt(distanceSq(p1, p2));
+	}
+	
+	/**
+	 * @param p1 point 1
+	 * @param p2 point 2
+	 * @return the squared distance between the points
+	 */
+	public static double distanceSq(double[] p1, double[] p2) {
 		double dist = 0;
 		for (int i = 0; i < p1.length; i++) {
 			double d = p1[i]-p2[i];
 			dist += d * d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 	
 	/**
@@ -185,6 +205,17 @@ public class QUtil {
 	 * @return distance to edge of the node or 0 if the point is inside the node
 	 */
 	static double distToRectNode(double[] point, double[] nodeCenter, double nodeRadius) {
+		return Math.sqrt(distToRectNodeSq(point, nodeCenter, nodeRadius));
+	}
+	
+	/**
+	 * Calculates the squared distance to the edge of a node.
+	 * @param point the point
+	 * @param nodeCenter the center of the node
+	 * @param nodeRadius radius of the node
+	 * @return squared distance to edge of the node or 0 if the point is inside the node
+	 */
+	static double distToRectNodeSq(double[] point, double[] nodeCenter, double nodeRadius) {
 		double dist = 0;
 		for (int i = 0; i < point.length; i++) {
 			double d = 0;
@@ -195,7 +226,7 @@ public class QUtil {
 			}
 			dist += d*d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 	
 }
@@ -23,12 +23,23 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.KnnBatch;
+import org.tinspin.index.KnnResultSink;
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.PointEntry;
 import org.tinspin.index.PointEntryDist;
 import org.tinspin.index.PointIndex;
 import org.tinspin.index.QueryIterator;
 import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.QueryStats;
+import org.tinspin.index.Stats;
 
 /**
  * This is a MX-quadtree implementation with configurable maximum depth, maximum nodes size, and
@@ -39,8 +50,9 @@ import org.tinspin.index.QueryIteratorKNN;
  * T. Zaeschke and M. Norrie, "Efficient Z-Ordered Traversal of Hypercube Indexes, 
  * BTW proceedings, 2017.
  * 
- * This version of the quadtree stores for each node only the center point and the
- * distance (radius) to the edges.
+ * This version of the quadtree stores for each node only the distance (radius) to the edges.
+ * Only the center of the root node is stored, the center of any other node is derived from 
+ * its parent's center while traversing the tree.
  * This reduces space requirements but increases problems with numerical precision.
  * Overall it is more space efficient and slightly faster. 
  * 
@@ -71,40 +83,77 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 	//This is the MINIMUM MAX_NODE_SIZE. MAX__NODE_SIZE is adjust upwards automatically
 	//with increasing dimensionality
 	private static final int DEFAULT_MAX_NODE_SIZE = 10;
+	//quadrant positions are stored in a 'long'
+	public static final int MAX_DIMS = 63;
 	
 	private final int dims;
 	private final int maxNodeSize;
 	private QNode<T> root = null;
+	private double[] rootCenter = null;
+	//Buffers for the centers of the nodes on the path of insert/remove/update
+	private final ArrayList<double[]> centers = new ArrayList<>();
 	private int size = 0; 
+	//number of nodes and of leaf nodes, maintained by the nodes
+	private int nNodes = 0;
+	private int nLeafNodes = 0;
+	//Value extractor of the node summaries, 'null' if the tree has no summaries
+	private final ToDoubleFunction<? super T> extractor;
 	
 
-	private QuadTreeKD2(int dims, int maxNodeSize) {
+	private QuadTreeKD2(int dims, int maxNodeSize, ToDoubleFunction<? super T> extractor) {
 		if (DEBUG) {
 			System.err.println("Warning: DEBUG enabled");
 		}
+		if (dims > MAX_DIMS) {
+			throw new IllegalArgumentException("Dimensions must be <= " + MAX_DIMS + " but was " + dims);
+		}
 		this.dims = dims;
 		this.maxNodeSize = maxNodeSize;
+		this.extractor = extractor;
 	}
 
-	public static <T> QuadTreeKD2<T> create(int dims) {
+	private static int defaultMaxNodeSize(int dims) {
 		int maxNodeSize = DEFAULT_MAX_NODE_SIZE;
 		if (2 * dims > DEFAULT_MAX_NODE_SIZE) {
 			maxNodeSize = 2*dims;
 		}
-		return new QuadTreeKD2<>(dims, maxNodeSize);
+		return maxNodeSize;
+	}
+
+	public static <T> QuadTreeKD2<T> create(int dims) {
+		return new QuadTreeKD2<>(dims, defaultMaxNodeSize(dims), null);
 	}
 	
 	public static <T> QuadTreeKD2<T> create(int dims, int maxNodeSize) {
-		return new QuadTreeKD2<>(dims, maxNodeSize);
+		return new QuadTreeKD2<>(dims, maxNodeSize, null);
+	}
+	
+	/**
+	 * Create a quadtree where every node stores the number of entries and the aggregate 
+	 * of the values in its subtree. This speeds up {@link #count} and {@link #aggregate} 
+	 * at the cost of slower modifications.
+	 * @param dims dimensionality
+	 * @param extractor value extractor for {@link #aggregate}, or 'null' to speed up only 
+	 * {@link #count}
+	 * @param <T> value type
+	 * @return a new quadtree
+	 */
+	public static <T> QuadTreeKD2<T> createWithSummaries(int dims, 
+			ToDoubleFunction<? super T> extractor) {
+		return new QuadTreeKD2<>(dims, defaultMaxNodeSize(dims), 
+				extractor != null ? extractor : v -> 0);
 	}
 	
 	public static <T> QuadTreeKD2<T> create(int dims, int maxNodeSize, 
 			double[] center, double radius) {
-		QuadTreeKD2<T> t = new QuadTreeKD2<>(dims, maxNodeSize);
+		QuadTreeKD2<T> t = new QuadTreeKD2<>(dims, maxNodeSize, null);
 		if (radius <= 0) {
 			throw new IllegalArgumentException("Radius must be > 0 but was " + radius);
 		}
-		t.root = new QNode<>(Arrays.copyOf(center, center.length), radius);
+		t.root = new QNode<>(radius);
+		t.nNodes = 1;
+		t.nLeafNodes = 1;
+		t.rootCenter = Arrays.copyOf(center, center.length);
 		return t;
 	}
 	
@@ -122,13 +171,44 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 			initializeRoot(key);
 		}
 		ensureCoverage(e);
+		insertFromRoot(e);
+		recalcSummaries(key);
+	}
+	
+	/**
+	 * Recalculate the summaries of all nodes that contain the key. This must be called 
+	 * after every modification, for the old and the new key.
+	 * @param key the key
+	 */
+	private void recalcSummaries(double[] key) {
+		if (extractor != null) {
+			root.recalcSummaries(key, copyRootCenter(), extractor);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void insertFromRoot(QEntry<T> e) {
 		Object r = root;
+		double[] center = copyRootCenter();
 		int depth = 0;
 		while (r instanceof QNode) {
-			r = ((QNode<T>)r).tryPut(e, maxNodeSize, depth++>MAX_DEPTH);
+			r = ((QNode<T>)r).tryPut(this, e, center, maxNodeSize, depth++>MAX_DEPTH);
 		}
 	}
 	
+	/**
+	 * Write operations are not thread-safe, so they can use the same buffers.
+	 * @return the first center buffer, initialized with the center of the root node 
+	 */
+	private double[] copyRootCenter() {
+		if (centers.isEmpty()) {
+			centers.add(new double[dims]);
+		}
+		double[] center = centers.get(0);
+		System.arraycopy(rootCenter, 0, center, 0, dims);
+		return center;
+	}
+	
 	private void initializeRoot(double[] key) {
 		double lo = Double.MAX_VALUE;
 		double hi = -Double.MAX_VALUE;
@@ -147,7 +227,10 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 			center[d] = key[d] > 0 ? maxDistOrigin : -maxDistOrigin;
 //			max[d] = key[d] < 0 ? 0 : (maxDistOrigin*2);
 		}			
-		root = new QNode<>(center, maxDistOrigin);
+		root = new QNode<>(maxDistOrigin);
+		nNodes = 1;
+		nLeafNodes = 1;
+		rootCenter = center;
 	}
 	
 	/**
@@ -159,7 +242,7 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 		if (root == null) {
 			return false;
 		}
-		return root.getExact(key) != null;
+		return root.getExact(key, rootCenter.clone()) != null;
 	}
 	
 	/**
@@ -172,7 +255,7 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 		if (root == null) {
 			return null;
 		}
-		QEntry<T> e = root.getExact(key);
+		QEntry<T> e = root.getExact(key, rootCenter.clone());
 		return e == null ? null : e.value();
 	}
 	
@@ -189,7 +272,7 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 			}
 			return null;
 		}
-		QEntry<T> e = root.remove(null, key, maxNodeSize);
+		QEntry<T> e = root.remove(this, null, key, copyRootCenter(), maxNodeSize, null);
 		if (e == null) {
 			if (DEBUG) {
 				System.err.println("Failed remove 2: " + Arrays.toString(key));
@@ -197,9 +280,36 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 			return null;
 		}
 		size--;
+		recalcSummaries(key);
 		return e.value();
 	}
 
+	/**
+	 * Remove an entry with the given key and a value that matches the filter.
+	 * @param key key to remove
+	 * @param filter value filter
+	 * @return whether an entry was removed
+	 */
+	boolean removeIf(double[] key, Predicate<? super T> filter) {
+		if (root == null || root.remove(this, null, key, copyRootCenter(), maxNodeSize, filter) == null) {
+			return false;
+		}
+		size--;
+		recalcSummaries(key);
+		return true;
+	}
+
+	/**
+	 * Move an entry with the given key and a value that matches the filter.
+	 * @param oldKey old key
+	 * @param newKey new key
+	 * @param filter value filter
+	 * @return whether an entry was moved
+	 */
+	boolean updateIf(double[] oldKey, double[] newKey, Predicate<? super T> filter) {
+		return update(oldKey, newKey, new boolean[]{false}, filter) != null;
+	}
+
 	/**
 	 * Reinsert the key.
 	 * @param oldKey old key
@@ -207,14 +317,53 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 	 * @return the value associated with the key or 'null' if the key was not found.
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	public T update(double[] oldKey, double[] newKey) {
+		QEntry<T> e = update(oldKey, newKey, new boolean[]{false}, null);
+		return e == null ? null : e.value();
+	}
+
+	/**
+	 * Update a batch of entries. The updates are grouped by node, so every node is 
+	 * visited only once for all old keys that it contains. Entries that move out of the 
+	 * node are put back in the lowest common ancestor, entries that move out of the tree 
+	 * are reinserted at the end.
+	 * @param oldKeys old keys
+	 * @param newKeys new keys
+	 * @return the number of entries that were found and updated
+	 */
+	@Override
+	public int updateBatch(double[][] oldKeys, double[][] newKeys) {
+		if (root == null) {
+			return 0;
+		}
+		int[] ids = new int[oldKeys.length];
+		Arrays.setAll(ids, i -> i);
+		List<QEntry<T>> escapees = new ArrayList<>();
+		int n = root.updateBatch(this, null, oldKeys, newKeys, ids, 0, ids.length, 
+				copyRootCenter().clone(), maxNodeSize, 0, MAX_DEPTH, escapees);
+		for (QEntry<T> e : escapees) {
+			ensureCoverage(e);
+			insertFromRoot(e);
+		}
+		if (extractor != null) {
+			for (int i = 0; i < oldKeys.length; i++) {
+				recalcSummaries(oldKeys[i]);
+				recalcSummaries(newKeys[i]);
+			}
+		}
+		return n;
+	}
+
+	@SuppressWarnings("unchecked")
+	private QEntry<T> update(double[] oldKey, double[] newKey, boolean[] requiresReinsert,
+			Predicate<? super T> filter) {
 		if (root == null) {
 			return null;
 		}
-		boolean[] requiresReinsert = new boolean[]{false};
-		QEntry<T> e = root.update(null, oldKey, newKey, maxNodeSize, requiresReinsert, 
-				0, MAX_DEPTH);
+		requiresReinsert[0] = false;
+		copyRootCenter();
+		QEntry<T> e = root.update(this, null, oldKey, newKey, centers, maxNodeSize, requiresReinsert, 
+				0, MAX_DEPTH, filter);
 		if (e == null) {
 			//not found
 			if (DEBUG) {
@@ -228,46 +377,74 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 			}
 			//does not fit in root node...
 			ensureCoverage(e);
-			Object r = root;
-			int depth = 0;
-			while (r instanceof QNode) {
-				r = ((QNode<T>)r).tryPut(e, maxNodeSize, depth++>MAX_DEPTH);
-			}
+			insertFromRoot(e);
 		}
-		return e.value();
+		recalcSummaries(oldKey);
+		recalcSummaries(newKey);
+		return e;
 	}
 	
 	/**
 	 * Ensure that the tree covers the entry.
 	 * @param e Entry to cover.
 	 */
-	@SuppressWarnings("unused")
 	private void ensureCoverage(QEntry<T> e) {
 		double[] p = e.point();
-		while(!e.enclosedBy(root.getCenter(), root.getRadius())) {
-			double[] center = root.getCenter();
+		while(!e.enclosedBy(rootCenter, root.getRadius())) {
+			double[] center = rootCenter;
 			double radius = root.getRadius();
-			double[] center2 = new double[center.length];
 			double radius2 = radius*2;
-			int subNodePos = 0;
+			long subNodePos = 0;
+			//The center of the old root is derived from the new root, this must be exact
+			boolean isExact = true;
 			for (int d = 0; d < center.length; d++) {
 				subNodePos <<= 1;
 				if (p[d] < center[d]-radius) {
-					center2[d] = center[d]-radius;
 					//root will end up in upper quadrant in this 
 					//dimension
 					subNodePos |= 1;
+					isExact &= (center[d]-radius)+radius == center[d];
 				} else {
 					//extend upwards, even if extension unnecessary for this dimension.
-					center2[d] = center[d]+radius; 
+					isExact &= (center[d]+radius)-radius == center[d];
+				}
+			}
+			if (!isExact) {
+				double[] center2 = new double[center.length];
+				for (int d = 0; d < center.length; d++) {
+					center2[d] = p[d] < center[d]-radius ? center[d]-radius : center[d]+radius;
 				}
+				rebuild(center2, radius2);
+				continue;
 			}
-			if (QuadTreeKD2.DEBUG && !QUtil.isRectEnclosed(center, radius, center2, radius2)) {
-				throw new IllegalStateException("e=" + Arrays.toString(e.point()) + 
-						" center/radius=" + Arrays.toString(center2) + 
-						"/"+ radius);
+			for (int d = 0; d < center.length; d++) {
+				center[d] = p[d] < center[d]-radius ? center[d]-radius : center[d]+radius;
 			}
-			root = new QNode<>(center2, radius2, root, subNodePos);
+			root = new QNode<>(radius2, root, subNodePos, dims);
+			nNodes++;
+		}
+	}
+	
+	/**
+	 * Replace the root and reinsert all entries. This is required when the root grows
+	 * but the center of the old root cannot be derived exactly from the new root.
+	 * @param center center of the new root
+	 * @param radius radius of the new root
+	 */
+	@SuppressWarnings("unchecked")
+	private void rebuild(double[] center, double radius) {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		ArrayList<QEntry<T>> entries = new ArrayList<>(size);
+		query(min, max).forEachRemaining(e -> entries.add((QEntry<T>) e));
+		root = new QNode<>(radius);
+		nNodes = 1;
+		nLeafNodes = 1;
+		rootCenter = center;
+		for (QEntry<T> e : entries) {
+			insertFromRoot(e);
 		}
 	}
 	
@@ -287,6 +464,9 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 	public void clear() {
 		size = 0;
 		root = null;
+		rootCenter = null;
+		nNodes = 0;
+		nLeafNodes = 0;
 	}
 
 	/**
@@ -308,42 +488,194 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 		//return new QIterator<>(this, min, max);
 	}
 
+	/**
+	 * Query the tree, returning all points in the axis-aligned rectangle between 'min' and 'max'.
+	 * The returned stream can be split into disjoint subtrees for parallel processing.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @return all entries in the rectangle
+	 */
+	@Override
+	public Stream<PointEntry<T>> queryStream(double[] min, double[] max) {
+		return StreamSupport.stream(new QSpliterator<>(root, rootCenter, min, max, size), false);
+	}
+
+	/**
+	 * Count the points in the query window. Trees with summaries count nodes that 
+	 * lie inside the query window without traversing them.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @return number of entries in the rectangle
+	 */
+	@Override
+	public int count(double[] min, double[] max) {
+		if (extractor == null) {
+			return PointIndex.super.count(min, max);
+		}
+		return aggregate(min, max, extractor).getCount();
+	}
+
+	/**
+	 * Aggregate the values of the points in the query window. Trees with summaries 
+	 * aggregate nodes that lie inside the query window without traversing them, 
+	 * if 'extractor' is the extractor of the summaries.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @param extractor value extractor
+	 * @return aggregate of the entries in the rectangle
+	 */
+	@Override
+	public Aggregate aggregate(double[] min, double[] max, ToDoubleFunction<? super T> extractor) {
+		if (this.extractor == null || extractor != this.extractor) {
+			return PointIndex.super.aggregate(min, max, extractor);
+		}
+		Aggregate a = new Aggregate();
+		if (root != null) {
+			aggregate(root, rootCenter, min, max, a);
+		}
+		return a;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void aggregate(QNode<T> node, double[] center, double[] min, double[] max, 
+			Aggregate a) {
+		QueryStats.node(node.isLeaf());
+		//entries may lie slightly outside their node, see QNode.checkEntry()
+		double radius = node.getRadius() * QUtil.EPS_MUL;
+		if (!QUtil.overlap(min, max, center, radius)) {
+			return;
+		}
+		if (QUtil.isRectEnclosed(center, radius, min, max)) {
+			QueryStats.entriesReturned(node.getSummary().getCount());
+			a.add(node.getSummary());
+			return;
+		}
+		Object[] entries = node.getEntries();
+		if (node.isLeaf()) {
+			for (int i = 0; i < node.getValueCount(); i++) {
+				addIfEnclosed((QEntry<T>) entries[i], min, max, a);
+			}
+			return;
+		}
+		long[] positions = node.getSubPositions();
+		int len = positions == null ? entries.length : node.getSubCount();
+		double[] subCenter = null;
+		for (int i = 0; i < len; i++) {
+			Object o = entries[i];
+			if (o instanceof QNode) {
+				QNode<T> sub = (QNode<T>) o;
+				if (subCenter == null) {
+					subCenter = new double[dims];
+				}
+				sub.calcCenter(center, positions == null ? i : positions[i], subCenter);
+				aggregate(sub, subCenter, min, max, a);
+			} else if (o != null) {
+				addIfEnclosed((QEntry<T>) o, min, max, a);
+			}
+		}
+	}
+
+	private void addIfEnclosed(QEntry<T> e, double[] min, double[] max, Aggregate a) {
+		QueryStats.entriesScanned(1);
+		if (e.enclosedBy(min, max)) {
+			QueryStats.entriesReturned(1);
+			a.add(extractor.applyAsDouble(e.value()));
+		}
+	}
+
 	public List<QEntryDist<T>> knnQuery(double[] center, int k) {
+		return knnQuery(center, k, Double.MAX_VALUE);
+	}
+
+	/**
+	 * kNN query that ignores all entries that are not closer than 'maxDist'.
+	 * @param center The point for which the nearest neighbors are requested
+	 * @param k number of neighbors
+	 * @param maxDist maximum distance (exclusive)
+	 * @return Nearest neighbors
+	 */
+	private List<QEntryDist<T>> knnQuery(double[] center, int k, double maxDist) {
 		if (root == null) {
     		return Collections.emptyList();
 		}
     	ArrayList<QEntryDist<T>> candidates = new ArrayList<>();
-    	rangeSearchKNN(root, center, candidates, k, Double.MAX_VALUE);
+    	//all distances in the search are squared
+    	rangeSearchKNN(root, rootCenter, center, candidates, k, maxDist * maxDist);
+    	for (int i = 0; i < candidates.size(); i++) {
+    		candidates.get(i).setDist(Math.sqrt(candidates.get(i).dist()));
+    	}
+    	QueryStats.entriesReturned(candidates.size());
     	return candidates;
     }
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<PointEntryDist<T>> sink) {
+		KnnBatch.execute(centers, k, sink, 
+				() -> (center, k2, maxDist) -> (List) knnQuery(center, k2, maxDist), 
+				PointEntryDist::dist);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public void queryAllKNN(int k, BiConsumer<PointEntry<T>, List<PointEntryDist<T>>> consumer) {
+		//The iterator returns entries in depth-first order: subsequent queries are 
+		//close to each other and each chunk of queries covers one or more subtrees.
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		ArrayList<PointEntry<T>> entries = new ArrayList<>(size);
+		query(min, max).forEachRemaining(entries::add);
+		double[][] centers = new double[entries.size()][];
+		Arrays.setAll(centers, i -> entries.get(i).point());
+		KnnBatch.<PointEntryDist<T>>executeSorted(centers, k, 
+				(i, result) -> consumer.accept(entries.get(i), result), 
+				() -> (center, k2, maxDist) -> (List) knnQuery(center, k2, maxDist), 
+				PointEntryDist::dist);
+	}
+
     @SuppressWarnings("unchecked")
-	private double rangeSearchKNN(QNode<T> node, double[] center, 
+	private double rangeSearchKNN(QNode<T> node, double[] nodeCenter, double[] center, 
     		ArrayList<QEntryDist<T>> candidates, int k, double maxRange) {
-    	int posHC = node.calcSubPosition(center);
+    	QueryStats.node(node.isLeaf());
     	Object[] entries = node.getEntries();
+    	long[] subPos = node.getSubPositions();
     	Object alreadyVisited = null;
     	if (!node.isLeaf()) {
     		//Search best node first 
-	    	Object ePos = entries[posHC];
+    		long pos = QNode.calcSubPosition(center, nodeCenter);
+	    	Object ePos = node.getSub(pos);
 	    	if (ePos instanceof QNode) {
-				maxRange = rangeSearchKNN((QNode<T>)ePos, center, candidates, k, maxRange);
+	    		QNode<T> n = (QNode<T>) ePos;
+	    		double[] subCenter = new double[dims];
+	    		n.calcCenter(nodeCenter, pos, subCenter);
+				maxRange = rangeSearchKNN(n, subCenter, center, candidates, k, maxRange);
 				alreadyVisited = ePos;
 	    	}
     	}
     	//TODO first sort entries by distance!
     	//TODO reuse buffer!
     	ArrayList<KnnTemp> buffer = new ArrayList<>();
+    	double[] subCenter = null;
     	for (int i = 0; i < entries.length; i++) {
     		Object e = entries[i];
     		if (e instanceof QNode && e != alreadyVisited) {
     			QNode<T> n = (QNode<T>) e;
-    			double dist = QUtil.distToRectNode(center, n.getCenter(), n.getRadius());
-    			addToBuffer(n, dist, maxRange, buffer);
+    			long pos = subPos == null ? i : subPos[i];
+    			if (subCenter == null) {
+    				subCenter = new double[dims];
+    			}
+    			n.calcCenter(nodeCenter, pos, subCenter);
+    			QueryStats.distCalc();
+    			double dist = QUtil.distToRectNodeSq(center, subCenter, n.getRadius());
+    			addToBuffer(n, pos, dist, maxRange, buffer);
     		} else if (e instanceof QEntry) {
     			QEntry<T> p = (QEntry<T>) e;
-   				double dist = QUtil.distance(center, p.point());
-    			addToBuffer(p, dist, maxRange, buffer);
+    			QueryStats.entriesScanned(1);
+    			QueryStats.distCalc();
+   				double dist = QUtil.distanceSq(center, p.point());
+    			addToBuffer(p, -1, dist, maxRange, buffer);
     		}
     	}
     	
@@ -356,7 +688,10 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
     		}
     		Object o = t.o;
     		if (o instanceof QNode && o != alreadyVisited) {
-    			maxRange = rangeSearchKNN((QNode<T>)o, center, candidates, k, maxRange);
+    			QNode<T> n = (QNode<T>) o;
+    			double[] nCenter = new double[dims];
+    			n.calcCenter(nodeCenter, t.pos, nCenter);
+    			maxRange = rangeSearchKNN(n, nCenter, center, candidates, k, maxRange);
     		} else if (o instanceof QEntry) {
     			QEntry<T> p = (QEntry<T>) o;
    				candidates.add(new QEntryDist<>(p, t.dist));
@@ -366,9 +701,10 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
     	return maxRange;
     }
 
-    private void addToBuffer(Object o, double dist, double maxDist, ArrayList<KnnTemp> buffer) {
+    private void addToBuffer(Object o, long pos, double dist, double maxDist, 
+    		ArrayList<KnnTemp> buffer) {
 		if (dist < maxDist) {
-			buffer.add(new KnnTemp(o, dist));
+			buffer.add(new KnnTemp(o, pos, dist));
 		}
 	}
 
@@ -390,9 +726,12 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 	
     private static class KnnTemp {
     	Object o;
+    	//quadrant position of sub-nodes
+    	long pos;
     	double dist;
-    	public KnnTemp(Object o, double d) {
+    	public KnnTemp(Object o, long pos, double d) {
     		this.o = o;
+    		this.pos = pos;
     		this.dist = d;
 		}
     }
@@ -439,27 +778,31 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 		if (root == null) {
 			sb.append("empty tree");
 		} else {
-			toStringTree(sb, root, 0, 0);
+			toStringTree(sb, root, rootCenter, 0, 0);
 		}
 		return sb.toString();
 	}
 	
 	@SuppressWarnings("unchecked")
-	private void toStringTree(StringBuilder sb, QNode<T> node, 
-			int depth, int posInParent) {
+	private void toStringTree(StringBuilder sb, QNode<T> node, double[] center,
+			int depth, long posInParent) {
 		String prefix = "";
 		for (int i = 0; i < depth; i++) {
 			prefix += ".";
 		}
 		sb.append(prefix + posInParent + " d=" + depth);
-		sb.append(" " + Arrays.toString(node.getCenter()));
+		sb.append(" " + Arrays.toString(center));
 		sb.append("/" + node.getRadius() + NL);
 		prefix += " ";
+		long[] subPos = node.getSubPositions();
 		for (int i = 0; i < node.getEntries().length; i++) {
 			Object o = node.getEntries()[i];
 			if (o instanceof QNode) {
 				QNode<T> sub = (QNode<T>) o;
-				toStringTree(sb, sub, depth+1, i);
+				long pos = subPos == null ? i : subPos[i];
+				double[] subCenter = new double[center.length];
+				sub.calcCenter(center, pos, subCenter);
+				toStringTree(sb, sub, subCenter, depth+1, pos);
 			} else if (o != null) {
 				QEntry<T> e = (QEntry<T>) o;
 				sb.append(prefix + Arrays.toString(e.point()));
@@ -474,46 +817,41 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 				";maxDepth=" + MAX_DEPTH + 
 				";DEBUG=" + DEBUG + 
 				";center/radius=" + (root==null ? "null" : 
-					(Arrays.toString(root.getCenter()) + "/" +
+					(Arrays.toString(rootCenter) + "/" +
 				root.getRadius())) + 
 				";HCI-1/2=" + ENABLE_HCI_1 + "/" + ENABLE_HCI_2;
 	}
 	
 	@Override
 	public QStats getStats() {
-		QStats s = new QStats(dims);
+		QStats s = new QStats(dims, maxNodeSize);
 		if (root != null) {
-			root.checkNode(s, null, 0);
+			root.checkNode(s, null, null, rootCenter, 0);
 		}
+		s.setEstimatedBytes(estimateMemoryBytes());
 		return s;
 	}
 	
+	@Override
+	public long estimateMemoryBytes() {
+		return root == null ? 0 : root.estimateMemory(dims) + MemoryModel.doubleArray(dims);
+	}
+	
 	/**
 	 * Statistics container class.
 	 */
-	public static class QStats {
-		int nNodes;
-		int nNodesInner;
-		int nNodesLeaf;
-		int maxDepth;
-		int nEntries;
+	public static class QStats extends Stats {
 		final int[] histoValues = new int[100];
 		final int[] histoSubs;
 		static final int HISTO_MAX = (1 << 10) + 1;
-		final int dims;
-		public QStats(int dims) {
-			this.dims = dims;
-			int histoSize = 1 + (1 << dims);
-			this.histoSubs = new int[histoSize > HISTO_MAX ? HISTO_MAX : histoSize];
+		public QStats(int dims, int maxNodeSize) {
+			super(dims, maxNodeSize);
+			int histoSize = dims >= 10 ? HISTO_MAX : 1 + (1 << dims);
+			this.histoSubs = new int[histoSize];
 		}
-		public int getNodeCount() {
-			return nNodes;
-		}
-		public int getEntryCount() {
-			return nEntries;
-		}
-		public int getMaxDepth() {
-			return maxDepth;
+		public void histoValues(int nValues) {
+			//leaves with identical points may exceed maxNodeSize
+			histoValues[Math.min(nValues, histoValues.length-1)]++;
 		}
 		public void histo(int pos) {
 			if (pos < histoSubs.length) {
@@ -524,7 +862,7 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 		}
 		@Override
 		public String toString() {
-			return "nNodes/inner/leaf=" + nNodes + "/" + nNodesInner + "/" + nNodesLeaf + ";\n"
+			return super.toString() + ";\n"
 					+ "histoVal:" + Arrays.toString(histoValues) + "\n"
 					+ "histoSub:" + Arrays.toString(histoSubs);
 		}
@@ -537,12 +875,11 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 
 	@Override
 	public QueryIterator<PointEntry<T>> iterator() {
-		if (root == null) {
-			return query(new double[dims], new double[dims]);
-		}
-		//return query(root.);
-		//TODO
-		throw new UnsupportedOperationException();
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return query(min, max);
 	}
 
 	@Override
@@ -552,7 +889,24 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 
 	@Override
 	public int getNodeCount() {
-		return getStats().getNodeCount();
+		return nNodes;
+	}
+
+	/**
+	 * @return the number of leaf nodes
+	 */
+	public int getLeafNodeCount() {
+		return nLeafNodes;
+	}
+
+	/**
+	 * Called by the nodes when they add, remove, split or merge nodes.
+	 * @param dNodes change of the number of nodes
+	 * @param dLeafNodes change of the number of leaf nodes
+	 */
+	void countNodes(int dNodes, int dLeafNodes) {
+		nNodes += dNodes;
+		nLeafNodes += dLeafNodes;
 	}
 
 	@Override
@@ -563,4 +917,11 @@ public class QuadTreeKD2<T> implements PointIndex<T> {
 	protected QNode<T> getRoot() {
 		return root;
 	}
+	
+	/**
+	 * @return the center of the root node
+	 */
+	double[] getRootCenter() {
+		return rootCenter;
+	}
 }
@@ -34,6 +34,10 @@ public class QEntryDist<T> extends QEntry<T> implements PointEntryDist<T> {
 		return distance;
 	}
 	
+	void setDist(double dist) {
+		this.distance = dist;
+	}
+	
 	public static final QEntryComparator COMP = new QEntryComparator();
 	
 	static class QEntryComparator implements Comparator<QEntryDist<?>> {
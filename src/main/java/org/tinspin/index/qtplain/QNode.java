@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.qtplain.QuadTreeKD0.QStats;
 
 /**
@@ -268,11 +269,28 @@ public class QNode<T> {
 				" " + System.identityHashCode(this);
 	}
 
-	void checkNode(QStats s, QNode<T> parent, int depth) {
-		if (depth > s.maxDepth) {
-			s.maxDepth = depth;
+	/**
+	 * @return estimated heap usage of this node and all entries and nodes below it
+	 */
+	long estimateMemory() {
+		//center, values, subs; radius
+		long mem = MemoryModel.object(3, 8) + MemoryModel.doubleArray(center.length);
+		if (values != null) {
+			//point, value
+			long entrySize = MemoryModel.object(2, 0) + MemoryModel.doubleArray(center.length);
+			mem += MemoryModel.arrayList(values.size(), 2) + values.size() * entrySize;
+		}
+		if (subs != null) {
+			mem += MemoryModel.arrayList(subs.size());
+			for (int i = 0; i < subs.size(); i++) {
+				mem += subs.get(i).estimateMemory();
+			}
 		}
-		s.nNodes++;
+		return mem;
+	}
+
+	void checkNode(QStats s, QNode<T> parent, int depth) {
+		s.countNode(depth, values != null);
 		
 		if (parent != null) {
 			if (!QUtil.isRectEnclosed(center, radius, 
@@ -294,6 +312,7 @@ public class QNode<T> {
 			}
 		}
 		if (values != null) {
+			s.countEntries(depth, values.size());
 			for (int i = 0; i < values.size(); i++) {
 				QEntry<T> e = values.get(i);
 				if (!QUtil.isPointEnclosed(e.point(), center, radius*QUtil.EPS_MUL)) {
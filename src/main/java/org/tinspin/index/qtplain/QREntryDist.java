@@ -34,6 +34,10 @@ public class QREntryDist<T> extends QREntry<T> implements RectangleEntryDist<T>
 		return distance;
 	}
 	
+	void setDist(double dist) {
+		this.distance = dist;
+	}
+	
 	public static final QEntryComparator COMP = new QEntryComparator();
 	
 	static class QEntryComparator implements Comparator<QREntryDist<?>> {
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import org.tinspin.index.MemoryModel;
 import org.tinspin.index.qtplain.QuadTreeKD0.QStats;
 
 /**
@@ -373,11 +374,32 @@ public class QRNode<T> {
 				" " + System.identityHashCode(this);
 	}
 
-	void checkNode(QStats s, QRNode<T> parent, int depth) {
-		if (depth > s.maxDepth) {
-			s.maxDepth = depth;
+	/**
+	 * @return estimated heap usage of this node and all entries and nodes below it
+	 */
+	long estimateMemory() {
+		//center, values, subs; radius
+		long mem = MemoryModel.object(3, 8) + MemoryModel.doubleArray(center.length);
+		if (values != null) {
+			mem += MemoryModel.arrayList(values.size());
+			for (int i = 0; i < values.size(); i++) {
+				mem += QREntry.estimateMemory(values.get(i));
+			}
 		}
-		s.nNodes++;
+		if (subs != null) {
+			mem += MemoryModel.arrayList(subs.size());
+			for (int i = 0; i < subs.size(); i++) {
+				QRNode<T> sub = subs.get(i);
+				if (sub != null) {
+					mem += sub.estimateMemory();
+				}
+			}
+		}
+		return mem;
+	}
+
+	void checkNode(QStats s, QRNode<T> parent, int depth) {
+		s.countNode(depth, subs == null);
 		
 		if (parent != null) {
 			if (!QUtil.isRectEnclosed(center, radius, parent.center, parent.radius*QUtil.EPS_MUL)) {
@@ -386,6 +408,7 @@ public class QRNode<T> {
 			}
 		}
 		if (values != null) {
+			s.countEntries(depth, values.size());
 			for (int i = 0; i < values.size(); i++) {
 				QREntry<T> e = values.get(i);
 				if (!QUtil.isRectEnclosed(e.lower(), e.upper(), center, radius*QUtil.EPS_MUL)) {
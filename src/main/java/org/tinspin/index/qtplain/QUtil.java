@@ -122,12 +122,21 @@ public class QUtil {
 	}
 
 	public static double distance(double[] p1, double[] p2) {
+		return Math.sqrt(distanceSq(p1, p2));
+	}
+	
+	/**
+	 * @param p1 point 1
+	 * @param p2 point 2
+	 * @return the squared distance between the points
+	 */
+	public static double distanceSq(double[] p1, double[] p2) {
 		double dist = 0;
 		for (int i = 0; i < p1.length; i++) {
 			double d = p1[i]-p2[i];
 			dist += d * d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 	
 	/**
@@ -164,6 +173,17 @@ public class QUtil {
 	 * @return distance to edge
 	 */
 	static double distToRectEdge(double[] center, double[] rLower, double[] rUpper) {
+		return Math.sqrt(distToRectEdgeSq(center, rLower, rUpper));
+	}
+	
+	/**
+	 * Calculates the squared distance to the edge of rectangle.
+	 * @param p point
+	 * @param rMin rectangle min
+	 * @param rMax rectangle max
+	 * @return squared distance to edge
+	 */
+	static double distToRectEdgeSq(double[] center, double[] rLower, double[] rUpper) {
 		double dist = 0;
 		for (int i = 0; i < center.length; i++) {
 			double d = 0;
@@ -174,7 +194,7 @@ public class QUtil {
 			}
 			dist += d*d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 	
 	/**
@@ -187,6 +207,16 @@ public class QUtil {
 		return distToRectEdge(p, e.lower(), e.upper());
 	}
 	
+	/**
+	 * Calculates the squared distance to edge of rectangle.
+	 * @param p point
+	 * @param e rectangle
+	 * @return squared distance to edge point
+	 */
+	public static double distToRectEdgeSq(double[] p, QREntry<?> e) {
+		return distToRectEdgeSq(p, e.lower(), e.upper());
+	}
+	
 	/**
 	 * Calculates distance to the edge of a node.
 	 * @param point the point
@@ -195,6 +225,17 @@ public class QUtil {
 	 * @return distance to edge of the node or 0 if the point is inside the node
 	 */
 	static double distToRectNode(double[] point, double[] nodeCenter, double nodeRadius) {
+		return Math.sqrt(distToRectNodeSq(point, nodeCenter, nodeRadius));
+	}
+	
+	/**
+	 * Calculates the squared distance to the edge of a node.
+	 * @param point the point
+	 * @param nodeCenter the center of the node
+	 * @param nodeRadius radius of the node
+	 * @return squared distance to edge of the node or 0 if the point is inside the node
+	 */
+	static double distToRectNodeSq(double[] point, double[] nodeCenter, double nodeRadius) {
 		double dist = 0;
 		for (int i = 0; i < point.length; i++) {
 			double d = 0;
@@ -205,7 +246,7 @@ public class QUtil {
 			}
 			dist += d*d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 	
 }
@@ -31,6 +31,7 @@ import org.tinspin.index.PointEntryDist;
 import org.tinspin.index.PointIndex;
 import org.tinspin.index.QueryIterator;
 import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.Stats;
 
 /**
  * A simple MX-quadtree implementation with configurable maximum depth, maximum nodes size, and
@@ -365,16 +366,21 @@ public class QuadTreeKD0<T> implements PointIndex<T> {
         Comparator<QEntry<T>> comp =  
         		(QEntry<T> point1, QEntry<T> point2) -> {
         			double deltaDist = 
-        					QUtil.distance(center, point1.point()) - 
-        					QUtil.distance(center, point2.point());
+        					QUtil.distanceSq(center, point1.point()) - 
+        					QUtil.distanceSq(center, point2.point());
         			return deltaDist < 0 ? -1 : (deltaDist > 0 ? 1 : 0);
         		};
+        //all distances in the search are squared
         double distEstimate = distanceEstimate(root, center, k, comp);
     	ArrayList<QEntryDist<T>> candidates = new ArrayList<>();
     	while (candidates.size() < k) {
     		candidates.clear();
     		rangeSearchKNN(root, center, candidates, k, distEstimate);
-    		distEstimate *= 2;
+    		//double the search radius
+    		distEstimate *= 4;
+    	}
+    	for (int i = 0; i < candidates.size(); i++) {
+    		candidates.get(i).setDist(Math.sqrt(candidates.get(i).dist()));
     	}
     	return candidates;
     }
@@ -388,13 +394,13 @@ public class QuadTreeKD0<T> implements PointIndex<T> {
     		QEntry<T>[] data = node.getEntries().toArray(new QEntry[n]);
     		Arrays.sort(data, comp);
     		int pos = n < k ? n : k;
-    		double dist = QUtil.distance(point, data[pos-1].point());
+    		double dist = QUtil.distanceSq(point, data[pos-1].point());
     		if (n < k) {
     			//scale search dist with dimensions.
-    			dist = dist * Math.pow(k/(double)n, 1/(double)dims);
+    			dist = dist * Math.pow(k/(double)n, 2/(double)dims);
     		}
     		if (dist <= 0.0) {
-    			return node.getRadius();
+    			return node.getRadius() * node.getRadius();
     		}
     		return dist;
     	} else {
@@ -408,7 +414,7 @@ public class QuadTreeKD0<T> implements PointIndex<T> {
     		//okay, this directory node contains the point, but none of the leaves does.
     		//We just return the size of this node, because all it's leaf nodes should
     		//contain more than enough candidate in proximity of 'point'.
-    		return node.getRadius() * Math.sqrt(point.length);
+    		return node.getRadius() * node.getRadius() * point.length;
     	}
     }
     
@@ -418,7 +424,7 @@ public class QuadTreeKD0<T> implements PointIndex<T> {
     		ArrayList<QEntry<T>> points = node.getEntries();
     		for (int i = 0; i < points.size(); i++) {
     			QEntry<T> p = points.get(i);
-   				double dist = QUtil.distance(center, p.point());
+   				double dist = QUtil.distanceSq(center, p.point());
    				if (dist < maxRange) {
     				candidates.add(new QEntryDist<>(p, dist));
   				}
@@ -429,7 +435,7 @@ public class QuadTreeKD0<T> implements PointIndex<T> {
     		for (int i = 0; i < nodes.size(); i++) {
     			QNode<T> sub = nodes.get(i);
     			if (sub != null && 
-    					QUtil.distToRectNode(center, sub.getCenter(), sub.getRadius()) < maxRange) {
+    					QUtil.distToRectNodeSq(center, sub.getCenter(), sub.getRadius()) < maxRange) {
     				maxRange = rangeSearchKNN(sub, center, candidates, k, maxRange);
     				//we set maxRange simply to the latest returned value.
     			}
@@ -534,24 +540,25 @@ public class QuadTreeKD0<T> implements PointIndex<T> {
 	
 	@Override
 	public QStats getStats() {
-		QStats s = new QStats();
+		QStats s = new QStats(dims, maxNodeSize);
 		if (root != null) {
 			root.checkNode(s, null, 0);
 		}
+		s.setEstimatedBytes(estimateMemoryBytes());
 		return s;
 	}
 	
+	@Override
+	public long estimateMemoryBytes() {
+		return root == null ? 0 : root.estimateMemory();
+	}
+	
 	/**
 	 * Statistics container class.
 	 */
-	public static class QStats {
-		int nNodes;
-		int maxDepth;
-		public int getNodeCount() {
-			return nNodes;
-		}
-		public int getMaxDepth() {
-			return maxDepth;
+	public static class QStats extends Stats {
+		public QStats(int dims, int maxNodeSize) {
+			super(dims, maxNodeSize);
 		}
 	}
 
@@ -364,16 +364,21 @@ public class QuadTreeRKD0<T> implements RectangleIndex<T> {
         Comparator<QREntry<T>> comp =  
         		(QREntry<T> e1, QREntry<T> e2) -> {
         			double deltaDist = 
-        					QUtil.distToRectEdge(center, e1) - 
-        					QUtil.distToRectEdge(center, e2);
+        					QUtil.distToRectEdgeSq(center, e1) - 
+        					QUtil.distToRectEdgeSq(center, e2);
         			return deltaDist < 0 ? -1 : (deltaDist > 0 ? 1 : 0);
         		};
+        //all distances in the search are squared
         double distEstimate = distanceEstimate(root, center, k, comp);
         ArrayList<QREntryDist<T>> candidates = new ArrayList<>();
     	while (candidates.size() < k) {
     		candidates.clear();
     		rangeSearchKNN(root, center, candidates, k, distEstimate);
-    		distEstimate *= 2;
+    		//double the search radius
+    		distEstimate *= 4;
+    	}
+    	for (int i = 0; i < candidates.size(); i++) {
+    		candidates.get(i).setDist(Math.sqrt(candidates.get(i).dist()));
     	}
     	return candidates;
     }
@@ -393,7 +398,7 @@ public class QuadTreeRKD0<T> implements RectangleIndex<T> {
     		//okay, this directory node contains the point, but none of the leaves does.
     		//We just return the size of this node, because all it's leaf nodes should
     		//contain more than enough candidate in proximity of 'point'.
-    		return node.getRadius() * Math.sqrt(point.length); //TODO scale???
+    		return node.getRadius() * node.getRadius() * point.length; //TODO scale???
     	}
 
     	//TODO do we need this stuff?? Simplify???
@@ -402,13 +407,13 @@ public class QuadTreeRKD0<T> implements RectangleIndex<T> {
     	QREntry<T>[] data = node.getEntries().toArray(new QREntry[n]);
     	Arrays.sort(data, comp);
     	int pos = n < k ? n : k;
-    	double dist = QUtil.distToRectEdge(point, data[pos-1]);
+    	double dist = QUtil.distToRectEdgeSq(point, data[pos-1]);
     	if (n < k) {
     		//scale search dist with dimensions.
-    		dist = dist * Math.pow(k/(double)n, 1/(double)dims);
+    		dist = dist * Math.pow(k/(double)n, 2/(double)dims);
     	}
 		if (dist <= 0.0) {
-			return node.getRadius() * 2;
+			return node.getRadius() * node.getRadius() * 4;
 		}
 		return dist;
     }
@@ -419,7 +424,7 @@ public class QuadTreeRKD0<T> implements RectangleIndex<T> {
     	if (points != null) {
     		for (int i = 0; i < points.size(); i++) {
     			QREntry<T> p = points.get(i);
-    			double dist = QUtil.distToRectEdge(center, p);
+    			double dist = QUtil.distToRectEdgeSq(center, p);
     			if (dist < maxRange) {
     				candidates.add(new QREntryDist<>(p, dist));
     			}
@@ -431,7 +436,7 @@ public class QuadTreeRKD0<T> implements RectangleIndex<T> {
    		if (nodes != null) {
     		for (int i = 0; i < nodes.size(); i++) {
     			QRNode<T> sub = nodes.get(i);
-    			if (QUtil.distToRectNode(center, sub.getCenter(), sub.getRadius()) < maxRange) {
+    			if (QUtil.distToRectNodeSq(center, sub.getCenter(), sub.getRadius()) < maxRange) {
     				maxRange = rangeSearchKNN(sub, center, candidates, k, maxRange);
     			}
     		}
@@ -535,13 +540,19 @@ public class QuadTreeRKD0<T> implements RectangleIndex<T> {
 	
 	@Override
 	public QStats getStats() {
-		QStats s = new QStats();
+		QStats s = new QStats(dims, maxNodeSize);
 		if (root != null) {
 			root.checkNode(s, null, 0);
 		}
+		s.setEstimatedBytes(estimateMemoryBytes());
 		return s;
 	}
 	
+	@Override
+	public long estimateMemoryBytes() {
+		return root == null ? 0 : root.estimateMemory();
+	}
+	
 	@Override
 	public int getDims() {
 		return dims;
@@ -47,6 +47,10 @@ public class DistEntry<T> extends Entry<T> implements RectangleEntryDist<T> {
 		return super.toString() + ";dist=" + dist;
 	}
 
+	void setDist(double distance) {
+		this.dist = distance;
+	}
+
 	protected void set(Entry<T> e, double distance) {
 		super.set(e);
 		this.dist = distance;
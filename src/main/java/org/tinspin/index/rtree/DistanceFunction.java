@@ -119,6 +119,16 @@ public interface DistanceFunction {
 	}
 
 	public static double edgeDistance(double[] center, double[] min, double[] max) {
+		return Math.sqrt(edgeDistanceSq(center, min, max));
+	}
+
+	/**
+	 * @param center a point
+	 * @param min lower corner of a rectangle
+	 * @param max upper corner of a rectangle
+	 * @return the squared EDGE distance, this preserves the order of the EDGE distance 
+	 */
+	public static double edgeDistanceSq(double[] center, double[] min, double[] max) {
 		double dist = 0;
 		for (int i = 0; i < center.length; i++) {
 			double d = 0;
@@ -129,6 +139,6 @@ public interface DistanceFunction {
 			}
 			dist += d*d;
 		}
-		return Math.sqrt(dist);
+		return dist;
 	}
 }
@@ -88,6 +88,21 @@ public class Entry<T> implements RectangleEntry<T>, Comparable<Entry<T>> {
 		return true;
 	}
 
+	/**
+	 * Check whether the current entry touches the border of 'e'. If it does,
+	 * removing the current entry from 'e' may shrink the MBB of 'e'.
+	 * @param e an entry that includes the current entry
+	 * @return Whether the current entry touches the border of 'e'.
+	 */
+	boolean touchesBorderOf(Entry<?> e) {
+		for (int i = 0; i < min.length; i++) {
+			if (min[i] == e.min[i] || max[i] == e.max[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public double calcArea() {
 		double area = 1;
 		for (int i = 0; i < min.length; i++) {
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Tilmann Zaeschke
+ * 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.rtree;
+
+import java.util.ArrayList;
+
+/**
+ * Batch operations on the packed MBBs of all children of a directory node.
+ * 
+ * The MBBs are stored in a single array, each child occupies 2*dims slots, first 
+ * the lower corner, then the upper corner. Compared to following the child 
+ * references this avoids two indirections per child and keeps the data that is 
+ * scanned by a query in one contiguous block.
+ */
+final class MBBKernel {
+
+	private MBBKernel() {
+		//static methods only
+	}
+
+	/**
+	 * @param entries the entries
+	 * @param dims dimensionality
+	 * @return the packed MBBs of the entries
+	 */
+	static double[] pack(ArrayList<? extends Entry<?>> entries, int dims) {
+		double[] packed = new double[entries.size() * 2 * dims];
+		int pos = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			Entry<?> e = entries.get(i);
+			System.arraycopy(e.min, 0, packed, pos, dims);
+			System.arraycopy(e.max, 0, packed, pos + dims, dims);
+			pos += 2 * dims;
+		}
+		return packed;
+	}
+
+	/**
+	 * Test a query window against all packed MBBs.
+	 * @param packed packed MBBs
+	 * @param min lower corner of the query window
+	 * @param max upper corner of the query window
+	 * @param out receives the positions of all MBBs that overlap with the query window,
+	 * must have at least one slot per MBB 
+	 * @return number of overlapping MBBs
+	 */
+	static int intersect(double[] packed, double[] min, double[] max, int[] out) {
+		final int dims = min.length;
+		final int n = packed.length / (2 * dims);
+		int nOut = 0;
+		int pos = 0;
+		nextMBB:
+		for (int i = 0; i < n; i++, pos += 2 * dims) {
+			for (int d = 0; d < dims; d++) {
+				if (min[d] > packed[pos + dims + d] || max[d] < packed[pos + d]) {
+					continue nextMBB;
+				}
+			}
+			out[nOut++] = i;
+		}
+		return nOut;
+	}
+
+	/**
+	 * Calculate the squared EDGE distance from a point to all packed MBBs.
+	 * @param packed packed MBBs
+	 * @param center the point
+	 * @param out receives the squared distance of each MBB, must have at least one slot 
+	 * per MBB
+	 * @see DistanceFunction#edgeDistanceSq(double[], double[], double[])
+	 */
+	static void edgeDistancesSq(double[] packed, double[] center, double[] out) {
+		final int dims = center.length;
+		final int n = packed.length / (2 * dims);
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			double dist = 0;
+			for (int d = 0; d < dims; d++) {
+				double c = center[d];
+				//at most one of the two terms is positive
+				double dd = Math.max(packed[pos + d] - c, 0) + Math.max(c - packed[pos + dims + d], 0);
+				dist += dd * dd;
+			}
+			out[i] = dist;
+			pos += 2 * dims;
+		}
+	}
+}
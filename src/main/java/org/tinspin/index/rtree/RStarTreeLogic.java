@@ -171,23 +171,34 @@ public class RStarTreeLogic implements RTreeLogic {
 	 * b) returns (ret) the split dimension
 	 * c) 
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> RTreeNode<T> split(RTreeNode<T> node, Entry<T> e) {
 		//S1 determine axis
-		final int M = getM(node);
-		Entry<T>[] children = node.getEntries().toArray(new Entry[M+1]);
-		children[M] = e;
+		Entry<T>[] children = getEntriesWith(node, e);
 		
 		int splitAxis = chooseSplitAxis(children);
 
 		//S2 choose split index 
+		int splitIndex = chooseSplitIndex(children, splitAxis);
 		//S3 split
-		return chooseSplitIndex(node, children, splitAxis);
+		return splitAt(node, children, splitIndex);
+	}
+	
+	/**
+	 * @param node an overflowing node
+	 * @param e the additional entry
+	 * @return the entries of the node plus the additional entry
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Entry<T>[] getEntriesWith(RTreeNode<T> node, Entry<T> e) {
+		final int M = node.getEntries().size();
+		Entry<T>[] children = node.getEntries().toArray(new Entry[M+1]);
+		children[M] = e;
+		return children;
 	}
 	
 	@SuppressWarnings("unused")
-	private <T> int chooseSplitAxis(Entry<T>[] children) {
+	<T> int chooseSplitAxis(Entry<T>[] children) {
 		int dims = children[0].min.length;
 		double[] bufMin = new double[dims];
 		double[] bufMax = new double[dims];
@@ -243,8 +254,7 @@ public class RStarTreeLogic implements RTreeLogic {
 	 * @param splitAxis
 	 * @return the split index
 	 */
-	private <T> RTreeNode<T> chooseSplitIndex(
-			RTreeNode<T> nodeToSplit, Entry<T>[] children, int splitAxis) {
+	<T> int chooseSplitIndex(Entry<T>[] children, int splitAxis) {
 		int dims = children[0].min.length;
 		double[] bufMin1 = new double[dims];
 		double[] bufMax1 = new double[dims];
@@ -289,8 +299,28 @@ public class RStarTreeLogic implements RTreeLogic {
 		if (bestSortOrder == 0) {
 			Arrays.sort(children, SORT_BY_AXIS_ASC);
 		}
-		
-		//split
+		return bestIndex;
+	}
+	
+	/**
+	 * Sort the entries by their lower and upper bound in the given dimension.
+	 * @param children entries
+	 * @param axis the dimension
+	 */
+	<T> void sortByAxis(Entry<T>[] children, int axis) {
+		SORT_BY_AXIS_ASC.setAxis(axis);
+		Arrays.sort(children, SORT_BY_AXIS_ASC);
+	}
+	
+	/**
+	 * Move the entries starting at 'splitIndex' into a new node.
+	 * @param nodeToSplit the node to split
+	 * @param children the entries of the node in split order
+	 * @param splitIndex the first entry of the new node
+	 * @return the new node
+	 */
+	<T> RTreeNode<T> splitAt(RTreeNode<T> nodeToSplit, Entry<T>[] children, int splitIndex) {
+		int dims = children[0].min.length;
 		RTreeNode<T> newNode;
 		if (nodeToSplit instanceof RTreeNodeDir) {
 			newNode = new RTreeNodeDir<>(dims);
@@ -299,13 +329,13 @@ public class RStarTreeLogic implements RTreeLogic {
 		}
 		
 		nodeToSplit.clear();
-		for (int i = 0; i < bestIndex; i++) {
+		for (int i = 0; i < splitIndex; i++) {
 			nodeToSplit.addEntry(children[i]);
 		}
 		//shrink parents
 		nodeToSplit.recalcParentMBB();
 	
-		for (int i = bestIndex; i < children.length; i++) {
+		for (int i = splitIndex; i < children.length; i++) {
 			newNode.addEntry(children[i]);
 		}
 		
@@ -316,7 +346,7 @@ public class RStarTreeLogic implements RTreeLogic {
 	@Override
 	public <T> Entry<T>[] reInsert(RTreeNode<T> node, Entry<T> e) {
 		//RI1 calculate center distances from node center
-		final int M = getM(node);
+		final int M = node.getEntries().size();
 		EDPair<T>[] children = new EDPair[M+1];
 		ArrayList<Entry<T>> currentChildren =  node.getEntries();
 		for (int i = 0; i < M; i++) {
@@ -392,12 +422,4 @@ public class RStarTreeLogic implements RTreeLogic {
 		return node.hasSpace();
 	}
 
-	private boolean isLeaf(RTreeNode<?> node) {
-		return node instanceof RTreeNodeLeaf;
-	}
-	
-	private int getM(RTreeNode<?> node) {
-		return isLeaf(node) ? RTree.NODE_MAX_DATA : RTree.NODE_MAX_DIR;
-	}
-
 }
@@ -20,9 +20,20 @@ package org.tinspin.index.rtree;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.KnnBatch;
+import org.tinspin.index.KnnResultSink;
+import org.tinspin.index.MemoryModel;
+import org.tinspin.index.QueryStats;
+import org.tinspin.index.RectangleEntry;
 import org.tinspin.index.RectangleEntryDist;
 import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.Stats;
 
 /**
  * R*Tree implementation based on the paper from
@@ -56,14 +67,26 @@ public class RTree<T> implements RectangleIndex<T> {
 	private RTreeNode<T> root;
 	private int nNodes = 0;
 	
-	static RTreeLogic logic = new RStarTreeLogic();
+	private final RTreeLogic logic;
+	//Value extractor of the node summaries, 'null' if the tree has no summaries
+	private final ToDoubleFunction<? super T> extractor;
 	
 	/**
 	 * Create an RTree. By default it is an R*tree.
 	 * @param dims dimensionality
 	 */
 	protected RTree(int dims) {
+		this(dims, new RStarTreeLogic());
+	} 
+	
+	protected RTree(int dims, RTreeLogic logic) {
+		this(dims, logic, null);
+	} 
+	
+	protected RTree(int dims, RTreeLogic logic, ToDoubleFunction<? super T> extractor) {
 		this.dims = dims;
+		this.logic = logic;
+		this.extractor = extractor;
 		if (DEBUG) {
 			System.err.println("WARNING: Using DEBUG mode.");
 		}
@@ -74,11 +97,49 @@ public class RTree<T> implements RectangleIndex<T> {
 		return new RTree<>(dims);
 	}
 	
+	/**
+	 * Create an X-tree. The X-tree avoids splits of directory nodes that would result 
+	 * in heavily overlapping nodes by creating supernodes, which is useful for 
+	 * higher dimensional data (about 10-20 dimensions).
+	 * @param dims dimensionality
+	 * @param <T> value type
+	 * @return a new X-tree
+	 */
+	public static <T> RTree<T> createXTree(int dims) {
+		return new RTree<>(dims, new XTreeLogic());
+	}
+	
+	/**
+	 * Create an R*tree where every node stores the aggregate of the values in its 
+	 * subtree. This speeds up {@link #countIntersect} and {@link #aggregateIntersect} 
+	 * at the cost of slower modifications.
+	 * @param dims dimensionality
+	 * @param extractor value extractor for {@link #aggregateIntersect}, or 'null' to 
+	 * speed up only {@link #countIntersect}
+	 * @param <T> value type
+	 * @return a new R*tree
+	 */
+	public static <T> RTree<T> createWithSummaries(int dims, 
+			ToDoubleFunction<? super T> extractor) {
+		return new RTree<>(dims, new RStarTreeLogic(), extractor != null ? extractor : v -> 0);
+	}
+	
 	private void init() {
 		this.root = new RTreeNodeLeaf<>(dims);
 		this.nNodes = 1;
 		this.depth = 1;
 		this.size = 0;
+		updateSummaries();
+	}
+
+	/**
+	 * Recalculates the outdated node summaries after a modification. Modifications of 
+	 * nodes mark the summaries of the node and its ancestors as outdated.
+	 */
+	private void updateSummaries() {
+		if (extractor != null) {
+			root.updateSummary(extractor);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -127,6 +188,7 @@ public class RTree<T> implements RectangleIndex<T> {
 	public void insert(Entry<T> e) {
 		size++;
 		insertAtDepth(e, 0);
+		updateSummaries();
 	}
 	
 	private void insertAtDepth(Entry<T> e, int desiredInsertionLevel) {
@@ -192,6 +254,7 @@ public class RTree<T> implements RectangleIndex<T> {
 		nNodes = bulkLoader.getNNodes();
 		root = bulkLoader.getRoot();
 		depth = bulkLoader.getDepth();
+		updateSummaries();
 	}
 	
 
@@ -208,7 +271,9 @@ public class RTree<T> implements RectangleIndex<T> {
 	 */
 	@Override
 	public T remove(double[] min, double[] max) {
-		return findNodeEntry(min, max, true);
+		T val = findNodeEntry(min, max, true);
+		updateSummaries();
+		return val;
 	}
 
 	/**
@@ -221,14 +286,73 @@ public class RTree<T> implements RectangleIndex<T> {
 	 */
 	@Override
 	public T update(double[] lo1, double[] up1, double[] lo2, double[] up2) {
-		T val = remove(lo1, up1);
-		if (val != null) {
-			insert(lo2, up2, val);
+		int[] pos = new int[1];
+		RTreeNode<T> leaf = findLeaf(lo1, up1, pos);
+		if (leaf == null) {
+			return null;
 		}
-		return val;
+		ArrayList<Entry<T>> entries = leaf.getEntries();
+		Entry<T> old = entries.get(pos[0]);
+		Entry<T> e = new Entry<>(lo2, up2, old.value());
+		
+		//Fast path: the new rectangle fits into the current leaf
+		if (leaf.checkInclusion(lo2, up2)) {
+			entries.set(pos[0], e);
+			if (old.touchesBorderOf(leaf)) {
+				leaf.recalcMBB();
+				leaf.recalcParentMBB();
+			}
+			return e.value();
+		}
+		
+		//Find the lowest ancestor that covers the new rectangle
+		RTreeNode<T> ancestor = leaf.getParent();
+		int level = 1;
+		while (ancestor != null && !ancestor.checkInclusion(lo2, up2)) {
+			ancestor = ancestor.getParent();
+			level++;
+		}
+		if (ancestor == null || entries.size() <= NODE_MIN_DATA) {
+			//No covering ancestor or removal would cause underflow
+			deleteFromNode(leaf, pos[0]);
+			insert(e);
+			return e.value();
+		}
+		
+		leaf.removeEntry(pos[0]);
+		RTreeNode<T> node = logic.chooseSubTree(ancestor, e, 0, level + 1);
+		if (logic.hasSpace(node)) {
+			node.addEntry(e);
+			node.extendParentMBB();
+		} else {
+			//overflow treatment may require reinsertion from the root
+			insertAtDepth(e, 0);
+		}
+		updateSummaries();
+		return e.value();
 	}
 
 	private T findNodeEntry(double[] min, double[] max, boolean delete) {
+		int[] pos = new int[1];
+		RTreeNode<T> leaf = findLeaf(min, max, pos);
+		if (leaf == null) {
+			return null;
+		}
+		T val = leaf.getEntries().get(pos[0]).value();
+		if (delete) {
+			deleteFromNode(leaf, pos[0]);
+		}
+		return val;
+	}
+
+	/**
+	 * Find the leaf node that contains an entry with exactly the given rectangle.
+	 * @param min min
+	 * @param max max
+	 * @param posOut returns the position of the entry in the leaf
+	 * @return the leaf node or 'null' if no such entry exists
+	 */
+	private RTreeNode<T> findLeaf(double[] min, double[] max, int[] posOut) {
 		int[] positions = new int[depth];
 		int level = depth-1;
 		RTreeNode<T> node = root;
@@ -252,10 +376,8 @@ public class RTree<T> implements RectangleIndex<T> {
 				for (int i = 0; i < children.size(); i++) {
 					Entry<T> e = children.get(i);
 					if (e.checkExactMatch(min, max)) {
-						if (delete) {
-							deleteFromNode(node, i);
-						}
-						return e.value();
+						posOut[0] = i;
+						return node;
 					}
 				}
 			}
@@ -322,7 +444,112 @@ public class RTree<T> implements RectangleIndex<T> {
 	public RTreeIterator<T> queryIntersect(double[] min, double[] max) {
 		return new RTreeIterator<>(this, min, max);
 	}
+
+	/**
+	 * Query the tree, returning all entries that intersect with the query window.
+	 * The returned stream can be split into disjoint subtrees for parallel processing.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @return all intersecting entries
+	 */
+	@Override
+	public Stream<RectangleEntry<T>> queryIntersectStream(double[] min, double[] max) {
+		return StreamSupport.stream(new RTreeSpliterator<>(root, min, max, size), false);
+	}
+	
+	/**
+	 * Count the entries that intersect with the query window. Trees with summaries 
+	 * count nodes whose MBB lies inside the query window without traversing them.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @return number of intersecting entries
+	 */
+	@Override
+	public int countIntersect(double[] min, double[] max) {
+		if (extractor == null) {
+			return RectangleIndex.super.countIntersect(min, max);
+		}
+		return aggregateIntersect(min, max, extractor).getCount();
+	}
+	
+	/**
+	 * Aggregate the values of the entries that intersect with the query window. 
+	 * Trees with summaries aggregate nodes whose MBB lies inside the query window 
+	 * without traversing them, if 'extractor' is the extractor of the summaries.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @param extractor value extractor
+	 * @return aggregate of the intersecting entries
+	 */
+	@Override
+	public Aggregate aggregateIntersect(double[] min, double[] max, 
+			ToDoubleFunction<? super T> extractor) {
+		if (this.extractor == null || extractor != this.extractor) {
+			return RectangleIndex.super.aggregateIntersect(min, max, extractor);
+		}
+		Aggregate a = new Aggregate();
+		if (Entry.checkOverlap(min, max, root)) {
+			aggregate(root, min, max, a);
+		}
+		return a;
+	}
 	
+	private void aggregate(RTreeNode<T> node, double[] min, double[] max, Aggregate a) {
+		boolean isLeaf = node instanceof RTreeNodeLeaf;
+		QueryStats.node(isLeaf);
+		if (Entry.calcIncludes(min, max, node.min, node.max)) {
+			QueryStats.entriesReturned(node.getSummary().getCount());
+			a.add(node.getSummary());
+			return;
+		}
+		ArrayList<Entry<T>> entries = node.getEntries();
+		QueryStats.entriesScanned(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			Entry<T> e = entries.get(i);
+			if (Entry.checkOverlap(min, max, e)) {
+				if (isLeaf) {
+					QueryStats.entriesReturned(1);
+					a.add(extractor.applyAsDouble(e.value()));
+				} else {
+					aggregate((RTreeNode<T>) e, min, max, a);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Spatial join. Finds all pairs of intersecting rectangles where the first rectangle 
+	 * is from this tree and the second rectangle is from the 'other' index.
+	 * If the other index is also an R-Tree, both trees are traversed simultaneously.
+	 * @param other the other index
+	 * @param consumer receives all pairs of intersecting rectangles
+	 * @param <U> Value type of the other index
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <U> void queryIntersectJoin(RectangleIndex<U> other, 
+			BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer) {
+		if (other instanceof RTree) {
+			RTreeJoin.join(this, (RTree<U>) other, consumer, false);
+		} else {
+			RectangleIndex.super.queryIntersectJoin(other, consumer);
+		}
+	}
+
+	/**
+	 * Spatial join of two R-Trees. Finds all pairs of intersecting rectangles where 
+	 * the first rectangle is from this tree and the second rectangle is from the 'other' tree.
+	 * @param other the other tree
+	 * @param consumer receives all pairs of intersecting rectangles. If 'parallel' is
+	 * 'true', the consumer is called concurrently by multiple threads.
+	 * @param parallel whether to use multiple threads
+	 * @param <U> Value type of the other tree
+	 */
+	public <U> void queryIntersectJoin(RTree<U> other, 
+			BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer, boolean parallel) {
+		RTreeJoin.join(this, other, consumer, parallel);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.tinspin.index.rtree.Index#query1N
 	 */
@@ -343,6 +570,21 @@ public class RTree<T> implements RectangleIndex<T> {
 		return new RTreeQueryKnn<>(this, center, k, dist);
 	}
 	
+	@Override
+	public void queryKNN(double[][] centers, int k, KnnResultSink<RectangleEntryDist<T>> sink) {
+		KnnBatch.execute(centers, k, sink, () -> {
+			RTreeQueryKnn<T> query = new RTreeQueryKnn<>(this);
+			return (center, k2, maxDist) -> {
+				query.reset(center, k2, maxDist);
+				ArrayList<RectangleEntryDist<T>> result = new ArrayList<>(k2);
+				while (query.hasNext()) {
+					result.add(query.next());
+				}
+				return result;
+			};
+		}, RectangleEntryDist::dist);
+	}
+	
 	public Iterable<RectangleEntryDist<T>> queryRangedNearestNeighbor(
 			double[] center, DistanceFunction dist,
 			DistanceFunction closestDist, double[] minBound, double[] maxBound) {
@@ -405,11 +647,56 @@ public class RTree<T> implements RectangleIndex<T> {
 		}
 	}
 
-	public static class RTreeStats {
-		int dims;
-		int nNodes;
-		int nEntries;
-		int depth;
+	/**
+	 * Statistics container class.
+	 * Overlap is the sum of the pairwise overlap volumes of the child nodes of each 
+	 * directory node. Dead space is estimated per node as the volume of the node 
+	 * minus the volumes of its children, as in {@link Entry#calcDeadspace}.
+	 */
+	public static class RTreeStats extends Stats {
+		double volume;
+		double childVolume;
+		double overlap;
+		double deadSpace;
+		int nSuperNodes;
+		public RTreeStats(int dims) {
+			super(dims, NODE_MAX_DATA);
+		}
+		/**
+		 * @return number of directory nodes with extended capacity (X-tree)
+		 */
+		public int getNSuperNodes() {
+			return nSuperNodes;
+		}
+		/**
+		 * @return sum of the pairwise overlap of sibling nodes
+		 */
+		public double getOverlap() {
+			return overlap;
+		}
+		/**
+		 * @return the overlap relative to the volume of all non-root nodes
+		 */
+		public double getOverlapRatio() {
+			return childVolume == 0 ? 0 : overlap / childVolume;
+		}
+		/**
+		 * @return estimated dead space of all nodes
+		 */
+		public double getDeadSpace() {
+			return deadSpace;
+		}
+		/**
+		 * @return the estimated dead space relative to the volume of all nodes
+		 */
+		public double getDeadSpaceRatio() {
+			return volume == 0 ? 0 : deadSpace / volume;
+		}
+		@Override
+		public String toString() {
+			return super.toString() + ";overlap=" + getOverlapRatio() + 
+					";deadSpace=" + getDeadSpaceRatio() + ";superNodes=" + nSuperNodes;
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -417,42 +704,87 @@ public class RTree<T> implements RectangleIndex<T> {
 	 */
 	@Override
 	public RTreeStats getStats() {
-		RTreeStats stats = new RTreeStats();
-		stats.dims = dims;
-		stats.depth = depth;
+		RTreeStats stats = new RTreeStats(dims);
 		getStats(stats, root, depth-1);
-		if (stats.nEntries != size) {
+		if (stats.getEntryCount() != size) {
 			throw new IllegalStateException();
 		}
-		if (stats.nNodes != nNodes) {
-			throw new IllegalStateException("Node count/nNodes " + stats.nNodes + "/" + nNodes);
+		if (stats.getNodeCount() != nNodes) {
+			throw new IllegalStateException("Node count/nNodes " + stats.getNodeCount() + "/" + nNodes);
 		}
+		stats.setEstimatedBytes(estimateMemoryBytes());
 		return stats;
 	}
 	
+	@Override
+	public long estimateMemoryBytes() {
+		return root == null ? 0 : estimateMemory(root);
+	}
+	
+	private long estimateMemory(RTreeNode<T> node) {
+		//min, max, val, parent, entries, splitHistory, packedMBBs, summary, capacity
+		long mem = MemoryModel.object(8, 4) + 2 * MemoryModel.doubleArray(dims);
+		if (node.getSummary() != null) {
+			//count, sum, min, max
+			mem += MemoryModel.object(0, 28);
+		}
+		if (node.getSplitHistory() != null) {
+			//words
+			mem += MemoryModel.object(1, 8) + MemoryModel.longArray(1);
+		}
+		ArrayList<Entry<T>> entries = node.getEntries();
+		mem += MemoryModel.arrayList(entries.size());
+		if (node instanceof RTreeNodeLeaf) {
+			for (int i = 0; i < entries.size(); i++) {
+				Entry<T> e = entries.get(i);
+				//min, max, val
+				mem += MemoryModel.object(3, 0) + MemoryModel.doubleArray(e.min.length);
+				if (e.max != e.min) {
+					mem += MemoryModel.doubleArray(e.max.length);
+				}
+			}
+		} else {
+			for (int i = 0; i < entries.size(); i++) {
+				mem += estimateMemory((RTreeNode<T>) entries.get(i));
+			}
+		}
+		return mem;
+	}
+	
 	@SuppressWarnings("unused")
 	private void getStats(RTreeStats stats, RTreeNode<T> node, int level) {
 		if (level < 0) {
 			throw new IllegalStateException();
 		}
-		stats.nNodes ++;
+		stats.countNode(depth - 1 - level, node instanceof RTreeNodeLeaf);
 		
 		if (node instanceof RTreeNodeLeaf && level != 0) {
 			throw new IllegalStateException();
 		}
 		
 		ArrayList<Entry<T>> entries = node.getEntries();
+		double volume = Entry.calcVolume(node);
+		double childVolume = 0;
 		for (int i = 0; i < entries.size(); i++) {
 			Entry<T> e = entries.get(i);
 			if (!node.checkInclusion(e.min, e.max)) {
 				throw new IllegalStateException();
 			}
+			childVolume += Entry.calcVolume(e);
 			if (e instanceof RTreeNode) {
+				for (int j = i + 1; j < entries.size(); j++) {
+					stats.overlap += e.calcOverlap(entries.get(j));
+				}
 				getStats(stats, (RTreeNode<T>) e, level-1);
-			} else {
-				stats.nEntries++;
 			}
 		}
+		stats.volume += volume;
+		stats.deadSpace += volume - childVolume;
+		if (node instanceof RTreeNodeLeaf) {
+			stats.countEntries(depth - 1 - level, entries.size());
+		} else {
+			stats.childVolume += childVolume;
+		}
 
 		if (node instanceof RTreeNodeLeaf && node != root && entries.size() < NODE_MIN_DATA) {
 			throw new IllegalStateException();
@@ -463,9 +795,12 @@ public class RTree<T> implements RectangleIndex<T> {
 		if (node instanceof RTreeNodeDir && node != root && entries.size() < NODE_MIN_DIR) {
 			throw new IllegalStateException();
 		}
-		if (node instanceof RTreeNodeDir && entries.size() > NODE_MAX_DIR) {
+		if (node instanceof RTreeNodeDir && entries.size() > ((RTreeNodeDir<T>) node).getCapacity()) {
 			throw new IllegalStateException();
 		}
+		if (node instanceof RTreeNodeDir && ((RTreeNodeDir<T>) node).isSuperNode()) {
+			stats.nSuperNodes++;
+		}
 		
 		if (DEBUG && node instanceof RTreeNodeLeaf) {
 			for (int i = 0; i < entries.size(); i++) {
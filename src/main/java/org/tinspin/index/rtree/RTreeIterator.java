@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryStats;
 import org.tinspin.index.RectangleEntry;
 
 public class RTreeIterator<T> implements QueryIterator<RectangleEntry<T>> {
@@ -45,6 +46,16 @@ public class RTreeIterator<T> implements QueryIterator<RectangleEntry<T>> {
 			}
 			
 			ni.init(node);
+			if (node instanceof RTreeNodeDir) {
+				ni.initMatches((RTreeNodeDir<T>) node, min, max);
+			}
+			if (QueryStats.ENABLED) {
+				boolean isLeaf = node instanceof RTreeNodeLeaf;
+				QueryStats.node(isLeaf);
+				if (isLeaf) {
+					QueryStats.entriesScanned(node.getEntries().size());
+				}
+			}
 			return ni;
 		}
 
@@ -67,11 +78,27 @@ public class RTreeIterator<T> implements QueryIterator<RectangleEntry<T>> {
 	private static class IterPos<T> {
 		private RTreeNode<T> node;
 		private int pos;
+		//positions of the overlapping children of directory nodes
+		private int[] matches = new int[RTree.NODE_MAX_DIR];
+		private int nMatches;
 		
 		public void init(RTreeNode<T> node) {
 			this.node = node;
 			this.pos = 0;
 		}
+		
+		void initMatches(RTreeNodeDir<T> node, double[] min, double[] max) {
+			int n = node.getChildren().size();
+			if (matches.length < n) {
+				matches = new int[n];
+			}
+			nMatches = MBBKernel.intersect(node.getPackedMBBs(), min, max, matches);
+			if (QueryStats.ENABLED) {
+				for (int i = 0; i < n; i++) {
+					QueryStats.overlapTest();
+				}
+			}
+		}
 	}
 	
 	public RTreeIterator(RTree<T> tree, double[] min, double[] max) {
@@ -103,18 +130,24 @@ public class RTreeIterator<T> implements QueryIterator<RectangleEntry<T>> {
 		nextSub:
 		while (!stack.isEmpty()) {
 			IterPos<T> ip = stack.peek();
+			if (ip.node instanceof RTreeNodeDir) {
+				if (ip.pos < ip.nMatches) {
+					ArrayList<RTreeNode<T>> children = ((RTreeNodeDir<T>) ip.node).getChildren();
+					stack.prepareAndPush(children.get(ip.matches[ip.pos++]));
+					continue nextSub;
+				}
+				stack.pop();
+				continue;
+			}
 			ArrayList<Entry<T>> entries = ip.node.getEntries(); 
 			while (ip.pos < entries.size()) {
 				Entry<T> e = entries.get(ip.pos);
 				ip.pos++;
+				QueryStats.overlapTest();
 				if (Entry.checkOverlap(min, max, e)) {
-					if (e instanceof RTreeNode) {
-						stack.prepareAndPush((RTreeNode<T>) e);
-						continue nextSub;
-					} else {
-						next = e;
-						return;
-					}
+					QueryStats.entriesReturned(1);
+					next = e;
+					return;
 				}
 			}
 			stack.pop();
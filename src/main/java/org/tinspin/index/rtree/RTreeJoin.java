@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.rtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.tinspin.index.RectangleEntry;
+
+/**
+ * Spatial intersection join of two R-Trees with synchronized traversal.
+ *
+ * Both trees are traversed at the same time. Pairs of nodes are only
+ * followed if their bounding boxes overlap. For each pair of nodes, only the
+ * entries that overlap with the intersection of both nodes are considered
+ * ('space restriction'). The overlapping pairs of entries are found with a
+ * plane sweep along the first dimension.
+ *
+ * Brinkhoff, T.; Kriegel, H. P.; Seeger, B. (1993).
+ * "Efficient processing of spatial joins using R-trees". ACM SIGMOD 1993.
+ *
+ * @param <T> Value type of the first tree
+ * @param <U> Value type of the second tree
+ */
+class RTreeJoin<T, U> {
+
+	private static final Comparator<Entry<?>> COMP_MIN_0 =
+			(e1, e2) -> Double.compare(e1.min[0], e2.min[0]);
+
+	/** Node pairs are expanded until there are at least this many pairs per thread. */
+	private static final int PAIRS_PER_THREAD = 4;
+
+	private final BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer;
+
+	private RTreeJoin(BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Find all pairs of intersecting entries.
+	 * @param tree1 first tree
+	 * @param tree2 second tree
+	 * @param consumer receives the pairs, it must be thread-safe if 'parallel' is 'true'
+	 * @param parallel whether to use multiple threads
+	 * @param <T> Value type of the first tree
+	 * @param <U> Value type of the second tree
+	 */
+	static <T, U> void join(RTree<T> tree1, RTree<U> tree2,
+			BiConsumer<RectangleEntry<T>, RectangleEntry<U>> consumer, boolean parallel) {
+		if (tree1.size() == 0 || tree2.size() == 0) {
+			return;
+		}
+		RTreeJoin<T, U> join = new RTreeJoin<>(consumer);
+		if (!parallel) {
+			join.join(tree1.getRoot(), tree2.getRoot(), true);
+			return;
+		}
+
+		//Expand node pairs until we have enough pairs to keep all threads busy
+		int target = Runtime.getRuntime().availableProcessors() * PAIRS_PER_THREAD;
+		ArrayList<Entry<?>[]> pairs = new ArrayList<>();
+		pairs.add(new Entry<?>[]{tree1.getRoot(), tree2.getRoot()});
+		boolean hasNodes = true;
+		while (hasNodes && pairs.size() < target) {
+			ArrayList<Entry<?>[]> next = new ArrayList<>();
+			hasNodes = false;
+			for (Entry<?>[] p : pairs) {
+				if (p[0] instanceof RTreeNode || p[1] instanceof RTreeNode) {
+					join.expand(p[0], p[1], (e1, e2) -> next.add(new Entry<?>[]{e1, e2}));
+					hasNodes = true;
+				} else {
+					next.add(p);
+				}
+			}
+			pairs = next;
+		}
+		pairs.parallelStream().forEach(p -> join.join(p[0], p[1], false));
+	}
+
+	/**
+	 * Recursively find all intersecting pairs of entries.
+	 * @param e1 node or data entry of the first tree
+	 * @param e2 node or data entry of the second tree
+	 * @param checkOverlap whether the overlap of e1 and e2 still needs to be checked
+	 */
+	private void join(Entry<?> e1, Entry<?> e2, boolean checkOverlap) {
+		if (checkOverlap && !Entry.checkOverlap(e1.min, e1.max, e2)) {
+			return;
+		}
+		if (e1 instanceof RTreeNode || e2 instanceof RTreeNode) {
+			expand(e1, e2, (c1, c2) -> join(c1, c2, false));
+		} else {
+			emit(e1, e2);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void emit(Entry<?> e1, Entry<?> e2) {
+		consumer.accept((RectangleEntry<T>) e1, (RectangleEntry<U>) e2);
+	}
+
+	/**
+	 * Find all pairs of overlapping children of two overlapping entries.
+	 * Data entries are treated like nodes with a single child.
+	 * @param e1 node or data entry of the first tree
+	 * @param e2 node or data entry of the second tree
+	 * @param pairs receives the overlapping pairs
+	 */
+	private void expand(Entry<?> e1, Entry<?> e2, BiConsumer<Entry<?>, Entry<?>> pairs) {
+		int dims = e1.min.length;
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		for (int d = 0; d < dims; d++) {
+			min[d] = Entry.max(e1.min[d], e2.min[d]);
+			max[d] = Entry.min(e1.max[d], e2.max[d]);
+		}
+		Entry<?>[] c1 = restrict(e1, min, max);
+		Entry<?>[] c2 = restrict(e2, min, max);
+		if (c1.length == 0 || c2.length == 0) {
+			return;
+		}
+		planeSweep(c1, c2, pairs);
+	}
+
+	/**
+	 * @return the children of 'e' that overlap with the given window, sorted by min[0]
+	 */
+	private static Entry<?>[] restrict(Entry<?> e, double[] min, double[] max) {
+		if (!(e instanceof RTreeNode)) {
+			return new Entry<?>[]{e};
+		}
+		List<? extends Entry<?>> entries = ((RTreeNode<?>) e).getEntries();
+		Entry<?>[] ret = new Entry<?>[entries.size()];
+		int n = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			Entry<?> c = entries.get(i);
+			if (Entry.checkOverlap(min, max, c)) {
+				ret[n++] = c;
+			}
+		}
+		ret = n == ret.length ? ret : Arrays.copyOf(ret, n);
+		Arrays.sort(ret, COMP_MIN_0);
+		return ret;
+	}
+
+	/**
+	 * Plane sweep along the first dimension. Both arrays must be sorted by min[0].
+	 */
+	private static void planeSweep(Entry<?>[] a1, Entry<?>[] a2,
+			BiConsumer<Entry<?>, Entry<?>> pairs) {
+		int i1 = 0;
+		int i2 = 0;
+		while (i1 < a1.length && i2 < a2.length) {
+			if (a1[i1].min[0] <= a2[i2].min[0]) {
+				Entry<?> e = a1[i1++];
+				for (int j = i2; j < a2.length && a2[j].min[0] <= e.max[0]; j++) {
+					if (Entry.checkOverlap(e.min, e.max, a2[j])) {
+						pairs.accept(e, a2[j]);
+					}
+				}
+			} else {
+				Entry<?> e = a2[i2++];
+				for (int j = i1; j < a1.length && a1[j].min[0] <= e.max[0]; j++) {
+					if (Entry.checkOverlap(e.min, e.max, a1[j])) {
+						pairs.accept(a1[j], e);
+					}
+				}
+			}
+		}
+	}
+}
@@ -21,6 +21,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
 
+import org.tinspin.index.QueryStats;
 import org.tinspin.index.RectangleEntryDist;
 
 class RTreeMixedQuery<T> implements Iterator<RectangleEntryDist<T>> {
@@ -150,9 +151,11 @@ class RTreeMixedQuery<T> implements Iterator<RectangleEntryDist<T>> {
 	}
 
 	private RTreeNodeWrapper<T> insert(RTreeNode<T> node) {
+		QueryStats.overlapTest();
 		if (!filter.intersects(node.min, node.max)) {
 			return null;
 		}
+		QueryStats.distCalc();
 		RTreeNodeWrapper<T> wrapped = 
 				new RTreeNodeWrapper<>(node, closestDist.dist(center, node.min, node.max));
 		queue.add(wrapped);
@@ -201,6 +204,7 @@ class RTreeMixedQuery<T> implements Iterator<RectangleEntryDist<T>> {
 		ArrayList<RTreeNode<T>> children = node.getChildren();
 		assert node.value() == null;
 		assert children.size() > 0;
+		QueryStats.node(false);
 		for (int i = 0; i < children.size(); i++) {
 			insert(children.get(i));
 		}
@@ -209,6 +213,8 @@ class RTreeMixedQuery<T> implements Iterator<RectangleEntryDist<T>> {
 	private boolean processNode(RTreeNodeLeaf<T> node) {
 		ArrayList<Entry<T>> entries = node.getEntries();
 		assert node.value() == null;
+		QueryStats.node(true);
+		QueryStats.entriesScanned(entries.size());
 		for (int i = 0; i < entries.size(); i++) {
 			Entry<T> ent = entries.get(i);
 			assert !(ent instanceof RTreeNode);
@@ -223,6 +229,7 @@ class RTreeMixedQuery<T> implements Iterator<RectangleEntryDist<T>> {
 		}
 		assert parent.getParent() == null || isTreeNode(parent);
 		assert !(ent instanceof RTreeNode);
+		QueryStats.distCalc();
 		double distance = dist.dist(center, ent.min, ent.max);
 
 		if (distance < distanceOfLastReturnedNode) {
@@ -254,6 +261,7 @@ class RTreeMixedQuery<T> implements Iterator<RectangleEntryDist<T>> {
 
 		current = next;
 		next = null;
+		QueryStats.entriesReturned(1);
 		return current;
 	}
 
@@ -18,10 +18,18 @@ package org.tinspin.index.rtree;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.ToDoubleFunction;
+
+import org.tinspin.index.Aggregate;
 
 abstract class RTreeNode<T> extends Entry<T> {
 
 	private RTreeNodeDir<T> parent;
+	//dimensions in which this node and its ancestors have been split (X-tree only)
+	private BitSet splitHistory;
+	//aggregate of the subtree, 'null' if it is outdated or if the tree has no summaries
+	private Aggregate summary;
 
 	public RTreeNode(int dim) {
 		super(new double[dim], new double[dim], null);
@@ -120,6 +128,18 @@ abstract class RTreeNode<T> extends Entry<T> {
 		return parent;
 	}
 	
+	/**
+	 * @return the dimensions in which this node has been split, or 'null' if 
+	 * there is no split history
+	 */
+	BitSet getSplitHistory() {
+		return splitHistory;
+	}
+
+	void setSplitHistory(BitSet splitHistory) {
+		this.splitHistory = splitHistory;
+	}
+	
 	public void extendParentMBB() {
 		RTreeNodeDir<T> parent = this.parent;
 		//TODO?
@@ -140,12 +160,56 @@ abstract class RTreeNode<T> extends Entry<T> {
 		}
 	}
 
+	/**
+	 * Marks the summary of this node and of its ancestors as outdated.
+	 * Ancestors of nodes without summary have no summary either, so this stops
+	 * at the first node without summary.
+	 */
+	void invalidateSummary() {
+		RTreeNode<T> node = this;
+		while (node != null && node.summary != null) {
+			node.summary = null;
+			node = node.parent;
+		}
+	}
+
+	/**
+	 * Recalculates outdated summaries in this subtree.
+	 * @param extractor value extractor
+	 * @return the summary of this node
+	 */
+	Aggregate updateSummary(ToDoubleFunction<? super T> extractor) {
+		if (summary == null) {
+			Aggregate a = new Aggregate();
+			ArrayList<Entry<T>> entries = getEntries();
+			if (this instanceof RTreeNodeLeaf) {
+				for (int i = 0; i < entries.size(); i++) {
+					a.add(extractor.applyAsDouble(entries.get(i).value()));
+				}
+			} else {
+				for (int i = 0; i < entries.size(); i++) {
+					a.add(((RTreeNode<T>) entries.get(i)).updateSummary(extractor));
+				}
+			}
+			summary = a;
+		}
+		return summary;
+	}
+
+	/**
+	 * @return the aggregate of this subtree, or 'null' if there is no summary
+	 */
+	Aggregate getSummary() {
+		return summary;
+	}
+
 	public abstract boolean hasSpace();
 
 	public abstract boolean isUnderfull();
 
 	public void removeEntry(int i) {
 		getEntries().remove(i);
+		invalidateSummary();
 		recalcMBB();
 		recalcParentMBB();
 	}
@@ -28,6 +28,10 @@ import java.util.Arrays;
 class RTreeNodeDir<T> extends RTreeNode<T> {
 
 	private ArrayList<RTreeNode<T>> children;
+	//maximum number of children, this is larger than NODE_MAX_DIR for supernodes
+	private int capacity = RTree.NODE_MAX_DIR;
+	//MBBs of the children for batch processing, 'null' after any modification
+	private volatile double[] packedMBBs;
 	
 	public RTreeNodeDir(int dim) {
 		super(dim);
@@ -38,7 +42,9 @@ class RTreeNodeDir<T> extends RTreeNode<T> {
 	public void addEntry(Entry<T> e) {
 		RTreeNode<T> node = (RTreeNode<T>) e;
 		children.add(node);
+		packedMBBs = null;
 		node.setParent(this);
+		invalidateSummary();
 		if (children.size() > 1) {
 			extendMBB(e);
 		} else {
@@ -63,6 +69,12 @@ class RTreeNodeDir<T> extends RTreeNode<T> {
 			if (children.get(i) == e) {
 				e.setParent(null);
 				children.remove(i);
+				packedMBBs = null;
+				invalidateSummary();
+				if (children.size() <= capacity - RTree.NODE_MAX_DIR) {
+					//shrink supernode
+					capacity -= RTree.NODE_MAX_DIR;
+				}
 				recalcMBB();
 				recalcParentMBB();
 				return;
@@ -88,20 +100,79 @@ class RTreeNodeDir<T> extends RTreeNode<T> {
 	@Override
 	public void clear() {
 		children.clear();
+		packedMBBs = null;
+		invalidateSummary();
 		//TODO this may not be necessary
 		resetMBB();
 	}
 
 	@Override
 	public boolean hasSpace() {
-		return children.size() < RTree.NODE_MAX_DIR;
+		return children.size() < capacity;
+	}
+	
+	/**
+	 * Any change of the MBB of a child is followed by an update of the MBB of
+	 * this node, so this is where we invalidate the packed MBBs.
+	 */
+	@Override
+	protected void extendMBB(Entry<T> e) {
+		packedMBBs = null;
+		super.extendMBB(e);
+	}
+	
+	@Override
+	public void recalcMBB() {
+		packedMBBs = null;
+		super.recalcMBB();
+	}
+	
+	/**
+	 * @return the MBBs of all children, see {@link MBBKernel}
+	 */
+	double[] getPackedMBBs() {
+		double[] packed = packedMBBs;
+		if (packed == null) {
+			packed = MBBKernel.pack(children, min.length);
+			packedMBBs = packed;
+		}
+		return packed;
+	}
+	
+	/**
+	 * @return the maximum number of children
+	 */
+	int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return 'true' if this node can hold more than the default number of children
+	 */
+	boolean isSuperNode() {
+		return capacity > RTree.NODE_MAX_DIR;
+	}
+	
+	/**
+	 * Turn this node into a supernode or extend the supernode by one block.
+	 */
+	void extendCapacity() {
+		capacity += RTree.NODE_MAX_DIR;
+	}
+	
+	/**
+	 * Adjust the capacity to the smallest number of blocks that holds all children.
+	 */
+	void fitCapacity() {
+		int nBlocks = (children.size() + RTree.NODE_MAX_DIR - 1) / RTree.NODE_MAX_DIR;
+		capacity = Math.max(1, nBlocks) * RTree.NODE_MAX_DIR;
 	}
 	
 	@Override
 	public String toString() {
 		double[] len = new double[min.length];
 		Arrays.setAll(len, (i)->(max[i]-min[i]));
-		return "NodeDir;n=" + children.size() + 
+		return "NodeDir;n=" + children.size() + ";capacity=" + capacity + 
 				";min/max=" + Arrays.toString(lower()) + "/" + Arrays.toString(upper()) +
 				";lengths=" + Arrays.toString(len) +
 				";id=" + System.identityHashCode(this);
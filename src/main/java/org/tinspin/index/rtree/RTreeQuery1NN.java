@@ -71,14 +71,18 @@ public class RTreeQuery1NN<T> {
 		}
 	}
 
+	private static final DistanceFunction EDGE_SQ = DistanceFunction::edgeDistanceSq;
 	private final DEComparator COMP = new DEComparator();
 	private final RTree<T> tree;
 	private double[] center;
 	private IteratorStack stack;
 	private DistanceFunction dist;
+	//the EDGE distance is searched with squared distances
+	private boolean squared;
+	private double[] childDist = new double[RTree.NODE_MAX_DIR];
 	
 	private static class IterPos<T> {
-		final DistEntry<RTreeNode<T>>[] subNodes;
+		DistEntry<RTreeNode<T>>[] subNodes;
 		RTreeNode<T> node;
 		int pos;
 		int maxPos;
@@ -123,11 +127,17 @@ public class RTreeQuery1NN<T> {
 			return null;
 		}
 		
+		this.squared = this.dist == DistanceFunction.EDGE;
 		this.stack.prepareAndPush(tree.getRoot(), Double.POSITIVE_INFINITY);
-		return findCandidate();
+		DistEntry<T> result = findCandidate();
+		if (squared) {
+			result.setDist(Math.sqrt(result.dist()));
+		}
+		return result;
 	}
 	
 	private DistEntry<T> findCandidate() {
+		DistanceFunction dist = squared ? EDGE_SQ : this.dist;
 		DistEntry<T> candidate  = new DistEntry<>(null, null, null, Double.POSITIVE_INFINITY);
 		double currentDist = Double.MAX_VALUE;
 		nextSub:
@@ -183,11 +193,21 @@ public class RTreeQuery1NN<T> {
 	 */
 	protected void sortEntries(IterPos<T> iPos, double minDist) {
 		ArrayList<RTreeNode<T>> subNodes = ((RTreeNodeDir<T>)iPos.node).getChildren();
+		if (iPos.subNodes.length < subNodes.size()) {
+			//X-tree supernode
+			iPos.subNodes = new IterPos<T>(subNodes.size()).subNodes;
+		}
 		DistEntry<RTreeNode<T>>[] ret = iPos.subNodes;
+		if (squared) {
+			if (childDist.length < subNodes.size()) {
+				childDist = new double[subNodes.size()];
+			}
+			MBBKernel.edgeDistancesSq(((RTreeNodeDir<T>)iPos.node).getPackedMBBs(), center, childDist);
+		}
 		int pos = 0;
 		for (int i = 0; i < subNodes.size(); i++) {
 			RTreeNode<T> e = subNodes.get(i);
-			double d = dist.dist(center, e.min, e.max);
+			double d = squared ? childDist[i] : dist.dist(center, e.min, e.max);
 			//Strategy #1/#3
 			if (d < minDist) {
 				ret[pos++].set(e.lower(), e.upper(), e, d);
@@ -22,6 +22,7 @@ import java.util.Comparator;
 import java.util.Iterator;
 
 import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.QueryStats;
 import org.tinspin.index.RectangleEntryDist;
 
 /**
@@ -44,6 +45,7 @@ public class RTreeQueryKnn<T> implements QueryIteratorKNN<RectangleEntryDist<T>>
 		}
 	}
 
+	private static final DistanceFunction EDGE_SQ = DistanceFunction::edgeDistanceSq;
 	private final DEComparator COMP = new DEComparator();
 	private final RTree<T> tree;
 	private double[] center;
@@ -52,6 +54,7 @@ public class RTreeQueryKnn<T> implements QueryIteratorKNN<RectangleEntryDist<T>>
 	private final ArrayList<DistEntry<T>> candidates = new ArrayList<>();
 	private final ArrayList<DistEntry<Object>> pool = new ArrayList<>();
 	private final PriorityQueue<DistEntry<Object>> queue = new PriorityQueue<>(COMP);
+	private double[] childDist = new double[RTree.NODE_MAX_DIR];
 	
 	
 	public RTreeQueryKnn(RTree<T> tree, double[] center, int k, DistanceFunction dist) {
@@ -59,6 +62,16 @@ public class RTreeQueryKnn<T> implements QueryIteratorKNN<RectangleEntryDist<T>>
 		reset(center, k, dist == null ? DistanceFunction.EDGE : dist);
 	}
 
+	/**
+	 * Create an iterator without executing a query.
+	 * @param tree the tree
+	 */
+	RTreeQueryKnn(RTree<T> tree) {
+		this.tree = tree;
+		this.dist = DistanceFunction.EDGE;
+		this.iter = candidates.iterator();
+	}
+
 	
 	@Override
 	public RTreeQueryKnn<T> reset(double[] center, int k) {
@@ -68,6 +81,20 @@ public class RTreeQueryKnn<T> implements QueryIteratorKNN<RectangleEntryDist<T>>
 	
 	
 	public void reset(double[] center, int k, DistanceFunction dist) {
+		reset(center, k, dist, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Reset the iterator. Entries that are farther away than 'maxDist' are ignored.
+	 * @param center the center point
+	 * @param k number of neighbors
+	 * @param maxDist maximum distance
+	 */
+	void reset(double[] center, int k, double maxDist) {
+		reset(center, k, null, maxDist);
+	}
+
+	private void reset(double[] center, int k, DistanceFunction dist, double maxDist) {
 		if (dist != null) {
 			this.dist = dist;
 		}
@@ -89,16 +116,36 @@ public class RTreeQueryKnn<T> implements QueryIteratorKNN<RectangleEntryDist<T>>
 		}
 
 		//search
-		search(k);
+		search(k, maxDist);
+		QueryStats.entriesReturned(candidates.size());
 		iter = candidates.iterator();
 		//System.out.println("Queue size: " + queue.size());
 	}
 	
 	
+	private void search(int k, double maxDist) {
+		if (dist != DistanceFunction.EDGE) {
+			search(k, maxDist, dist, false);
+			return;
+		}
+		//EDGE distance: search with squared distances 
+		search(k, maxDist * maxDist, EDGE_SQ, true);
+		for (int i = 0; i < candidates.size(); i++) {
+			candidates.get(i).setDist(Math.sqrt(candidates.get(i).dist()));
+		}
+	}
+	
+	/**
+	 * @param k number of neighbors
+	 * @param maxDist maximum distance
+	 * @param dist the distance function
+	 * @param packed whether 'dist' is the squared EDGE distance and we can use MBBKernel
+	 */
 	@SuppressWarnings("unchecked")
-	private void search(int k) {
+	private void search(int k, double maxDist, DistanceFunction dist, boolean packed) {
 		//Initialize queue
 		RTreeNode<T> eRoot = tree.getRoot();
+		QueryStats.distCalc();
 		double dRoot = dist.dist(center, eRoot.min, eRoot.max);
 		queue.add(createEntry(eRoot.lower(), eRoot.upper(), eRoot, dRoot));
 
@@ -114,19 +161,34 @@ public class RTreeQueryKnn<T> implements QueryIteratorKNN<RectangleEntryDist<T>>
 			} else if (o instanceof RTreeNodeLeaf) {
 				//leaf node
 				ArrayList<Entry<T>> entries = ((RTreeNodeLeaf<T>)o).getEntries();
+				QueryStats.node(true);
+				QueryStats.entriesScanned(entries.size());
 				for (int i = 0; i < entries.size(); i++) {
 					Entry<T> e2 = entries.get(i);
+					QueryStats.distCalc();
 					double d = dist.dist(center, e2.min, e2.max);
-					queue.add(createEntry(e2.lower(), e2.upper(), e2.value(), d));
+					if (d <= maxDist) {
+						queue.add(createEntry(e2.lower(), e2.upper(), e2.value(), d));
+					}
 				}
 				pool.add(candidate);
 			} else {
 				//inner node
 				ArrayList<RTreeNode<T>> entries = ((RTreeNodeDir<T>)o).getChildren();
+				QueryStats.node(false);
+				if (packed) {
+					if (childDist.length < entries.size()) {
+						childDist = new double[entries.size()];
+					}
+					MBBKernel.edgeDistancesSq(((RTreeNodeDir<T>)o).getPackedMBBs(), center, childDist);
+				}
 				for (int i = 0; i < entries.size(); i++) {
 					RTreeNode<T> e2 = entries.get(i);
-					double d = dist.dist(center, e2.min, e2.max);
-					queue.add(createEntry(e2.lower(), e2.upper(), e2, d));
+					QueryStats.distCalc();
+					double d = packed ? childDist[i] : dist.dist(center, e2.min, e2.max);
+					if (d <= maxDist) {
+						queue.add(createEntry(e2.lower(), e2.upper(), e2, d));
+					}
 				}
 				pool.add(candidate);
 			}				
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.rtree;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+import org.tinspin.index.RectangleEntry;
+import org.tinspin.index.SubtreeSpliterator;
+
+/**
+ * Splittable window query, see {@link RTree#queryIntersectStream(double[], double[])}.
+ *
+ * @param <T> Value type
+ */
+public class RTreeSpliterator<T> extends SubtreeSpliterator<RTreeNode<T>, RectangleEntry<T>> {
+
+	private final double[] min;
+	private final double[] max;
+
+	RTreeSpliterator(RTreeNode<T> root, double[] min, double[] max, long estimatedSize) {
+		super(root, estimatedSize);
+		this.min = min;
+		this.max = max;
+	}
+
+	@Override
+	protected void visit(RTreeNode<T> node, Consumer<RTreeNode<T>> subtrees,
+			Consumer<? super RectangleEntry<T>> entries) {
+		if (node instanceof RTreeNodeDir) {
+			ArrayList<RTreeNode<T>> children = ((RTreeNodeDir<T>) node).getChildren();
+			int[] matches = new int[children.size()];
+			int n = MBBKernel.intersect(((RTreeNodeDir<T>) node).getPackedMBBs(), min, max, matches);
+			for (int i = 0; i < n; i++) {
+				subtrees.accept(children.get(matches[i]));
+			}
+			return;
+		}
+		ArrayList<Entry<T>> list = node.getEntries();
+		for (int i = 0; i < list.size(); i++) {
+			Entry<T> e = list.get(i);
+			if (Entry.checkOverlap(min, max, e)) {
+				if (e instanceof RTreeNode) {
+					subtrees.accept((RTreeNode<T>) e);
+				} else {
+					entries.accept(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected RTreeSpliterator<T> createEmpty() {
+		return new RTreeSpliterator<>(null, min, max, 0);
+	}
+}
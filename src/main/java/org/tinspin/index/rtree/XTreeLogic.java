@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Tilmann Zaeschke
+ * 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.rtree;
+
+import java.util.BitSet;
+
+/**
+ * X-tree split strategy, based on the paper from
+ * Berchtold, S.; Keim, D. A.; Kriegel, H. P. (1996).
+ * "The X-tree: An Index Structure for High-Dimensional Data".
+ * 
+ * Leaf nodes are split as in the R*tree. Directory nodes are only split with the 
+ * R*tree topological split if the resulting nodes overlap by at most MAX_OVERLAP.
+ * Otherwise we try an overlap-free split in a dimension that all children have been
+ * split in (split history). If that split is too unbalanced, the node is extended
+ * into a supernode.
+ */
+public class XTreeLogic extends RStarTreeLogic {
+
+	/** Maximum overlap of a topological split, relative to the volume of both nodes. */
+	static final double MAX_OVERLAP = 0.2;
+	/** Minimum fraction of the entries that each node gets in an overlap-free split. */
+	static final double MIN_FANOUT = 0.35;
+
+	@Override
+	public <T> RTreeNode<T> split(RTreeNode<T> node, Entry<T> e) {
+		Entry<T>[] children = getEntriesWith(node, e);
+		
+		//topological split
+		int splitAxis = chooseSplitAxis(children);
+		int splitIndex = chooseSplitIndex(children, splitAxis);
+		if (node instanceof RTreeNodeLeaf || calcOverlapRatio(children, splitIndex) <= MAX_OVERLAP) {
+			return splitAndRecord(node, children, splitIndex, splitAxis);
+		}
+		
+		//overlap-minimal split
+		BitSet history = calcCommonSplitHistory(children);
+		int bestAxis = -1;
+		int bestIndex = -1;
+		for (int d = history.nextSetBit(0); d >= 0; d = history.nextSetBit(d + 1)) {
+			sortByAxis(children, d);
+			int k = findOverlapFreeSplit(children, d);
+			if (k > 0 && Math.abs(2*k - children.length) < Math.abs(2*bestIndex - children.length)) {
+				bestAxis = d;
+				bestIndex = k;
+			}
+		}
+		if (bestAxis >= 0) {
+			sortByAxis(children, bestAxis);
+			return splitAndRecord(node, children, bestIndex, bestAxis);
+		}
+
+		//supernode
+		RTreeNodeDir<T> dir = (RTreeNodeDir<T>) node;
+		dir.extendCapacity();
+		dir.addEntry(e);
+		dir.extendParentMBB();
+		return null;
+	}
+
+	private <T> RTreeNode<T> splitAndRecord(RTreeNode<T> node, Entry<T>[] children, 
+			int splitIndex, int splitAxis) {
+		RTreeNode<T> newNode = splitAt(node, children, splitIndex);
+		BitSet history = node.getSplitHistory() == null ? 
+				new BitSet() : (BitSet) node.getSplitHistory().clone();
+		history.set(splitAxis);
+		node.setSplitHistory(history);
+		newNode.setSplitHistory((BitSet) history.clone());
+		if (node instanceof RTreeNodeDir) {
+			((RTreeNodeDir<T>) node).fitCapacity();
+			((RTreeNodeDir<T>) newNode).fitCapacity();
+		}
+		return newNode;
+	}
+	
+	/**
+	 * @param children entries in split order
+	 * @param splitIndex split index
+	 * @return the overlap of both nodes relative to the volume covered by both nodes
+	 */
+	private static <T> double calcOverlapRatio(Entry<T>[] children, int splitIndex) {
+		int dims = children[0].min.length;
+		double[] min1 = new double[dims];
+		double[] max1 = new double[dims];
+		double[] min2 = new double[dims];
+		double[] max2 = new double[dims];
+		Entry.calcBoundingBox(children, 0, splitIndex, min1, max1);
+		Entry.calcBoundingBox(children, splitIndex, children.length, min2, max2);
+		double overlap = Entry.calcOverlap(min1, max1, min2, max2);
+		double union = Entry.calcVolume(min1, max1) + Entry.calcVolume(min2, max2) - overlap;
+		return union <= 0 ? 0 : overlap / union;
+	}
+	
+	/**
+	 * @param children sub-nodes
+	 * @return dimensions that all sub-nodes have been split in
+	 */
+	private static <T> BitSet calcCommonSplitHistory(Entry<T>[] children) {
+		BitSet common = null;
+		for (Entry<T> child : children) {
+			BitSet history = ((RTreeNode<T>) child).getSplitHistory();
+			if (history == null) {
+				return new BitSet();
+			}
+			if (common == null) {
+				common = (BitSet) history.clone();
+			} else {
+				common.and(history);
+			}
+		}
+		return common;
+	}
+	
+	/**
+	 * @param children entries sorted by their lower bound in dimension 'axis'
+	 * @param axis the split dimension
+	 * @return the most balanced split index without overlap in 'axis', or -1 if 
+	 * there is no such split that gives each node at least MIN_FANOUT of the entries  
+	 */
+	private static <T> int findOverlapFreeSplit(Entry<T>[] children, int axis) {
+		final int n = children.length;
+		final int m = Math.max(RTree.NODE_MIN_DIR, (int) Math.ceil(MIN_FANOUT * n));
+		int bestIndex = -1;
+		double prefixMax = Double.NEGATIVE_INFINITY;
+		for (int k = 1; k <= n - m; k++) {
+			prefixMax = Math.max(prefixMax, children[k-1].max[axis]);
+			if (k >= m && prefixMax <= children[k].min[axis] && 
+					Math.abs(2*k - n) < Math.abs(2*bestIndex - n)) {
+				bestIndex = k;
+			}
+		}
+		return bestIndex;
+	}
+}
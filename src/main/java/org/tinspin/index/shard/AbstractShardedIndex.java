@@ -0,0 +1,924 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.shard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+import org.tinspin.index.Index;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.Stats;
+
+/**
+ * Base class for range partitioned indexes.
+ *
+ * Space is partitioned into slabs along a single 'split dimension'. Each slab
+ * is served by an independent inner index (the 'shard') which is protected by
+ * its own read/write lock. Writes to different shards can therefore proceed in parallel.
+ *
+ * The shard layout (split dimension and slab boundaries) is protected by a separate
+ * read/write lock which is only acquired for writing during rebalancing.
+ * Rebalancing chooses the dimension with the largest extent and splits it
+ * at the quantiles of the stored entries.
+ *
+ * @param <T> Value type
+ * @param <I> Type of the inner index
+ * @param <E> Entry type of the inner index
+ */
+abstract class AbstractShardedIndex<T, I extends Index<T>, E> implements Index<T> {
+
+	private static final String NL = System.lineSeparator();
+
+	/** A shard is considered skewed if it is larger than SKEW_FACTOR times the average. */
+	static final double SKEW_FACTOR = 2.0;
+	/** Minimum average number of entries per shard before rebalancing is considered. */
+	static final int MIN_REBALANCE_SIZE = 100;
+	/** The balance is only checked every CHECK_INTERVAL modifications. */
+	private static final int CHECK_INTERVAL = 64;
+
+	static final class Shard<I> {
+		final I index;
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		final int splitDim;
+		/** Lower bound (inclusive) of the slab. */
+		final double lo;
+		/** Upper bound (exclusive) of the slab. */
+		final double hi;
+		/**
+		 * Largest upper coordinate in the split dimension of any entry in this shard.
+		 * This may be larger than 'hi' for rectangles. It is not reduced by removal.
+		 */
+		volatile double maxUpper = Double.NEGATIVE_INFINITY;
+
+		Shard(I index, int splitDim, double lo, double hi) {
+			this.index = index;
+			this.splitDim = splitDim;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		void extend(double[] upper) {
+			if (upper[splitDim] > maxUpper) {
+				maxUpper = upper[splitDim];
+			}
+		}
+
+		boolean overlaps(double min, double max) {
+			return lo <= max && maxUpper >= min;
+		}
+
+		double distance(double x) {
+			if (x < lo) {
+				return lo - x;
+			}
+			return x > maxUpper ? x - maxUpper : 0;
+		}
+	}
+
+	static final class Layout<I> {
+		final int splitDim;
+		/** Shard 'i' covers [splits[i-1], splits[i]). */
+		final double[] splits;
+		final Shard<I>[] shards;
+
+		Layout(int splitDim, double[] splits, Shard<I>[] shards) {
+			this.splitDim = splitDim;
+			this.splits = splits;
+			this.shards = shards;
+		}
+
+		int shardPos(double x) {
+			//number of splits <= x
+			int lo = 0;
+			int hi = splits.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (splits[mid] <= x) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		Shard<I> shardFor(double[] key) {
+			return shards[shardPos(key[splitDim])];
+		}
+	}
+
+	protected final int dims;
+	private final int nShards;
+	private final Supplier<I> factory;
+	/** The split dimension and the splits of the layout after construction and clear(). */
+	private final int initialSplitDim;
+	private final double[] initialSplits;
+	private final ReentrantReadWriteLock layoutLock = new ReentrantReadWriteLock();
+	private volatile Layout<I> layout;
+	private final AtomicLong modCount = new AtomicLong();
+	private volatile long modCountAtRebalance = 0;
+	private volatile int sizeAtRebalance = 0;
+	private volatile boolean autoRebalance = true;
+
+	AbstractShardedIndex(int dims, int nShards, Supplier<I> factory) {
+		//Until the first rebalancing, all entries go into the first shard.
+		this(dims, nShards, factory, 0, emptySplits(nShards));
+	}
+
+	AbstractShardedIndex(int dims, int nShards, Supplier<I> factory, double[] min, double[] max) {
+		this(dims, nShards, factory, widestDim(min, max), uniformSplits(nShards, min, max));
+	}
+
+	private AbstractShardedIndex(int dims, int nShards, Supplier<I> factory, 
+			int splitDim, double[] splits) {
+		if (nShards < 1) {
+			throw new IllegalArgumentException("nShards must be >= 1 but was " + nShards);
+		}
+		this.dims = dims;
+		this.nShards = nShards;
+		this.factory = factory;
+		this.initialSplitDim = splitDim;
+		this.initialSplits = splits;
+		this.layout = createLayout(splitDim, splits.clone());
+	}
+
+	private static double[] emptySplits(int nShards) {
+		double[] splits = new double[Math.max(0, nShards - 1)];
+		Arrays.fill(splits, Double.POSITIVE_INFINITY);
+		return splits;
+	}
+
+	private static int widestDim(double[] min, double[] max) {
+		int splitDim = 0;
+		for (int d = 1; d < min.length; d++) {
+			if (max[d] - min[d] > max[splitDim] - min[splitDim]) {
+				splitDim = d;
+			}
+		}
+		return splitDim;
+	}
+
+	/**
+	 * @return splits that partition [min, max] into slabs of equal width along the 
+	 * widest dimension
+	 */
+	private static double[] uniformSplits(int nShards, double[] min, double[] max) {
+		int splitDim = widestDim(min, max);
+		double[] splits = new double[Math.max(0, nShards - 1)];
+		double width = (max[splitDim] - min[splitDim]) / nShards;
+		for (int i = 0; i < splits.length; i++) {
+			splits[i] = min[splitDim] + (i + 1) * width;
+		}
+		return splits;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Layout<I> createLayout(int splitDim, double[] splits) {
+		Shard<I>[] shards = new Shard[nShards];
+		for (int i = 0; i < nShards; i++) {
+			double lo = i == 0 ? Double.NEGATIVE_INFINITY : splits[i - 1];
+			double hi = i == nShards - 1 ? Double.POSITIVE_INFINITY : splits[i];
+			shards[i] = new Shard<>(factory.get(), splitDim, lo, hi);
+		}
+		return new Layout<>(splitDim, splits, shards);
+	}
+
+	/**
+	 * @param index an inner index
+	 * @return an iterator over all entries of the inner index
+	 */
+	abstract Iterator<? extends E> iterateAll(I index);
+
+	/**
+	 * @param e entry
+	 * @return the coordinates that determine the shard of the entry
+	 */
+	abstract double[] key(E e);
+
+	/**
+	 * @param e entry
+	 * @return the upper corner of the entry
+	 */
+	abstract double[] upper(E e);
+
+	abstract void insert(I index, E e);
+
+	/**
+	 * Execute an operation on the shard that is responsible for 'key'.
+	 * @param key the key
+	 * @param op the operation
+	 * @return the result of the operation
+	 */
+	protected <R> R write(double[] key, Function<Shard<I>, R> op) {
+		R result;
+		layoutLock.readLock().lock();
+		try {
+			Shard<I> s = layout.shardFor(key);
+			s.lock.writeLock().lock();
+			try {
+				result = op.apply(s);
+			} finally {
+				s.lock.writeLock().unlock();
+			}
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+		checkBalance();
+		return result;
+	}
+
+	protected <R> R read(double[] key, Function<I, R> op) {
+		layoutLock.readLock().lock();
+		try {
+			Shard<I> s = layout.shardFor(key);
+			s.lock.readLock().lock();
+			try {
+				return op.apply(s.index);
+			} finally {
+				s.lock.readLock().unlock();
+			}
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Move an entry from the shard of 'oldKey' to the shard of 'newKey'.
+	 * Both shards are locked during the operation, the lock order is
+	 * determined by the shard position in order to avoid dead-locks.
+	 * @param oldKey old key
+	 * @param newKey new key
+	 * @param newUpper new upper corner
+	 * @param updateLocal update operation if both keys fall into the same shard
+	 * @param remove removal from the old shard
+	 * @param insert insertion into the new shard
+	 * @return the value of the entry or 'null' if the entry was not found
+	 */
+	protected T move(double[] oldKey, double[] newKey, double[] newUpper, 
+			Function<I, T> updateLocal, Function<I, T> remove, BiConsumer<I, T> insert) {
+		T result;
+		layoutLock.readLock().lock();
+		try {
+			Layout<I> l = layout;
+			int pos1 = l.shardPos(oldKey[l.splitDim]);
+			int pos2 = l.shardPos(newKey[l.splitDim]);
+			Shard<I> s1 = l.shards[pos1];
+			Shard<I> s2 = l.shards[pos2];
+			if (pos1 == pos2) {
+				s1.lock.writeLock().lock();
+				try {
+					result = updateLocal.apply(s1.index);
+					if (result != null) {
+						s1.extend(newUpper);
+					}
+				} finally {
+					s1.lock.writeLock().unlock();
+				}
+			} else {
+				Shard<I> first = pos1 < pos2 ? s1 : s2;
+				Shard<I> second = pos1 < pos2 ? s2 : s1;
+				first.lock.writeLock().lock();
+				second.lock.writeLock().lock();
+				try {
+					result = remove.apply(s1.index);
+					if (result != null) {
+						insert.accept(s2.index, result);
+						s2.extend(newUpper);
+					}
+				} finally {
+					second.lock.writeLock().unlock();
+					first.lock.writeLock().unlock();
+				}
+			}
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+		checkBalance();
+		return result;
+	}
+
+	/**
+	 * Operations for batch updates. Updates are identified by their position in the batch.
+	 * @param <I> Type of the inner index
+	 * @param <T> Value type
+	 */
+	interface BatchOps<I, T> {
+		/**
+		 * Execute several updates that stay within the same shard.
+		 * @param index the inner index
+		 * @param pos positions of the updates in the batch
+		 * @return the number of updated entries
+		 */
+		int updateLocal(I index, int[] pos);
+
+		T remove(I index, int pos);
+
+		void insert(I index, int pos, T value);
+	}
+
+	/**
+	 * Execute a batch of updates. Updates that stay within a shard are grouped per shard 
+	 * and passed to the inner index as one batch, so each shard is locked only once. 
+	 * Updates that move entries to another shard lock both shards, see
+	 * {@link #move(double[], double[], double[], Function, Function, BiConsumer)}.
+	 * The balance is checked once for the whole batch.
+	 * @param oldKeys old keys
+	 * @param newKeys new keys
+	 * @param newUpper new upper corners
+	 * @param ops the update operations
+	 * @return the number of updated entries
+	 */
+	protected int moveBatch(double[][] oldKeys, double[][] newKeys, double[][] newUpper, 
+			BatchOps<I, T> ops) {
+		int n = 0;
+		layoutLock.readLock().lock();
+		try {
+			Layout<I> l = layout;
+			int[] src = new int[oldKeys.length];
+			int[] dst = new int[oldKeys.length];
+			int[] counts = new int[l.shards.length];
+			for (int i = 0; i < oldKeys.length; i++) {
+				src[i] = l.shardPos(oldKeys[i][l.splitDim]);
+				dst[i] = l.shardPos(newKeys[i][l.splitDim]);
+				if (src[i] == dst[i]) {
+					counts[src[i]]++;
+				}
+			}
+			int[][] local = new int[l.shards.length][];
+			for (int s = 0; s < local.length; s++) {
+				local[s] = new int[counts[s]];
+				counts[s] = 0;
+			}
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (src[i] == dst[i]) {
+					local[src[i]][counts[src[i]]++] = i;
+				}
+			}
+			
+			for (int pos = 0; pos < local.length; pos++) {
+				if (local[pos].length == 0) {
+					continue;
+				}
+				Shard<I> s = l.shards[pos];
+				s.lock.writeLock().lock();
+				try {
+					n += ops.updateLocal(s.index, local[pos]);
+					for (int i : local[pos]) {
+						s.extend(newUpper[i]);
+					}
+				} finally {
+					s.lock.writeLock().unlock();
+				}
+			}
+			
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (src[i] == dst[i]) {
+					continue;
+				}
+				Shard<I> s1 = l.shards[src[i]];
+				Shard<I> s2 = l.shards[dst[i]];
+				Shard<I> first = src[i] < dst[i] ? s1 : s2;
+				Shard<I> second = src[i] < dst[i] ? s2 : s1;
+				first.lock.writeLock().lock();
+				second.lock.writeLock().lock();
+				try {
+					T value = ops.remove(s1.index, i);
+					if (value != null) {
+						ops.insert(s2.index, i, value);
+						s2.extend(newUpper[i]);
+						n++;
+					}
+				} finally {
+					second.lock.writeLock().unlock();
+					first.lock.writeLock().unlock();
+				}
+			}
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+		checkBalance(oldKeys.length);
+		return n;
+	}
+
+	/**
+	 * @param keys keys
+	 * @param pos positions
+	 * @return the keys at the given positions
+	 */
+	static double[][] select(double[][] keys, int[] pos) {
+		double[][] ret = new double[pos.length][];
+		Arrays.setAll(ret, i -> keys[pos[i]]);
+		return ret;
+	}
+
+	/**
+	 * Execute an operation on all shards that may contain entries overlapping with
+	 * the query window.
+	 * @param min lower left corner of query
+	 * @param max upper right corner of query
+	 * @param op the operation
+	 */
+	protected void readOverlapping(double[] min, double[] max, Consumer<I> op) {
+		layoutLock.readLock().lock();
+		try {
+			Layout<I> l = layout;
+			for (Shard<I> s : l.shards) {
+				if (s.overlaps(min[l.splitDim], max[l.splitDim])) {
+					s.lock.readLock().lock();
+					try {
+						op.accept(s.index);
+					} finally {
+						s.lock.readLock().unlock();
+					}
+				}
+			}
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Executes a kNN query on all shards that may contain candidates. Shards are
+	 * visited in order of their distance (in the split dimension) to the center.
+	 * @param center center point
+	 * @param k number of neighbors
+	 * @param query the query for an inner index
+	 * @param dist distance of a result entry
+	 * @param copy creates a copy of a result entry that is not affected by later
+	 *  modifications of the inner index
+	 * @return the 'k' nearest neighbors, sorted by distance
+	 */
+	protected <D> ArrayList<D> queryKNN(double[] center, int k,
+			Function<I, Iterator<? extends D>> query, ToDoubleFunction<D> dist,
+			UnaryOperator<D> copy) {
+		ArrayList<D> result = new ArrayList<>(k);
+		if (k <= 0) {
+			return result;
+		}
+		layoutLock.readLock().lock();
+		try {
+			Layout<I> l = layout;
+			double x = center[l.splitDim];
+			Integer[] order = new Integer[l.shards.length];
+			Arrays.setAll(order, i -> i);
+			Arrays.sort(order, (i1, i2) ->
+				Double.compare(l.shards[i1].distance(x), l.shards[i2].distance(x)));
+			for (int pos : order) {
+				Shard<I> s = l.shards[pos];
+				double shardDist = s.distance(x);
+				if (shardDist == Double.POSITIVE_INFINITY || (result.size() >= k &&
+						shardDist > dist.applyAsDouble(result.get(k - 1)))) {
+					//all remaining shards are farther away
+					break;
+				}
+				s.lock.readLock().lock();
+				try {
+					Iterator<? extends D> it = query.apply(s.index);
+					while (it.hasNext()) {
+						D d = it.next();
+						double dd = dist.applyAsDouble(d);
+						if (result.size() >= k && dd >= dist.applyAsDouble(result.get(k - 1))) {
+							//iterator returns entries sorted by distance
+							break;
+						}
+						int insPos = result.size();
+						while (insPos > 0 && dist.applyAsDouble(result.get(insPos - 1)) > dd) {
+							insPos--;
+						}
+						result.add(insPos, copy.apply(d));
+						if (result.size() > k) {
+							result.remove(k);
+						}
+					}
+				} finally {
+					s.lock.readLock().unlock();
+				}
+			}
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+		return result;
+	}
+
+	private void checkBalance() {
+		checkBalance(1);
+	}
+
+	private void checkBalance(int nMods) {
+		long mods = modCount.addAndGet(nMods);
+		if (!autoRebalance || nShards == 1 
+				|| (mods / CHECK_INTERVAL) == ((mods - nMods) / CHECK_INTERVAL)) {
+			return;
+		}
+		if (isSkewed(mods)) {
+			rebalance(false);
+		}
+	}
+
+	private boolean isSkewed(long mods) {
+		//Avoid rebalancing too often, the cost of rebalancing should be amortized.
+		if (mods - modCountAtRebalance < sizeAtRebalance) {
+			return false;
+		}
+		Shard<I>[] shards = layout.shards;
+		long total = 0;
+		int max = 0;
+		for (Shard<I> s : shards) {
+			//This is racy, but good enough for a heuristic
+			int n = s.index.size();
+			total += n;
+			max = n > max ? n : max;
+		}
+		return total >= (long)MIN_REBALANCE_SIZE * nShards && max > SKEW_FACTOR * total / nShards;
+	}
+
+	/**
+	 * Repartition the space such that all shards contain a similar number of entries.
+	 * This blocks all other operations on the index.
+	 */
+	public void rebalance() {
+		rebalance(true);
+	}
+
+	private void rebalance(boolean force) {
+		layoutLock.writeLock().lock();
+		try {
+			if (!force && !isSkewed(modCount.get())) {
+				//Someone else was faster
+				return;
+			}
+			ArrayList<E> entries = new ArrayList<>();
+			for (Shard<I> s : layout.shards) {
+				Iterator<? extends E> it = iterateAll(s.index);
+				while (it.hasNext()) {
+					entries.add(it.next());
+				}
+			}
+
+			int splitDim = chooseSplitDim(entries);
+			double[] splits = new double[nShards - 1];
+			if (!entries.isEmpty()) {
+				double[] coords = new double[entries.size()];
+				for (int i = 0; i < coords.length; i++) {
+					coords[i] = key(entries.get(i))[splitDim];
+				}
+				Arrays.sort(coords);
+				for (int i = 0; i < splits.length; i++) {
+					splits[i] = coords[(int) ((i + 1) * (long)coords.length / nShards)];
+				}
+			} else {
+				Arrays.fill(splits, Double.POSITIVE_INFINITY);
+			}
+
+			Layout<I> newLayout = createLayout(splitDim, splits);
+			List<List<E>> perShard = new ArrayList<>(nShards);
+			for (int i = 0; i < nShards; i++) {
+				perShard.add(new ArrayList<>());
+			}
+			for (E e : entries) {
+				perShard.get(newLayout.shardPos(key(e)[splitDim])).add(e);
+			}
+			//The shards are independent, so we can load them in parallel
+			IntStream.range(0, nShards).parallel().forEach(i -> {
+				Shard<I> s = newLayout.shards[i];
+				for (E e : perShard.get(i)) {
+					insert(s.index, e);
+					s.extend(upper(e));
+				}
+			});
+			layout = newLayout;
+			sizeAtRebalance = entries.size();
+			modCountAtRebalance = modCount.get();
+		} finally {
+			layoutLock.writeLock().unlock();
+		}
+	}
+
+	private int chooseSplitDim(List<E> entries) {
+		if (entries.isEmpty()) {
+			return 0;
+		}
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for (E e : entries) {
+			double[] k = key(e);
+			for (int d = 0; d < dims; d++) {
+				min[d] = k[d] < min[d] ? k[d] : min[d];
+				max[d] = k[d] > max[d] ? k[d] : max[d];
+			}
+		}
+		int splitDim = 0;
+		for (int d = 1; d < dims; d++) {
+			if (max[d] - min[d] > max[splitDim] - min[splitDim]) {
+				splitDim = d;
+			}
+		}
+		return splitDim;
+	}
+
+	/**
+	 * @param autoRebalance Whether shards are automatically rebalanced when they
+	 * become skewed. Default is 'true'.
+	 */
+	public void setAutoRebalance(boolean autoRebalance) {
+		this.autoRebalance = autoRebalance;
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return nShards;
+	}
+
+	/**
+	 * @return the current number of entries in each shard
+	 */
+	public int[] getShardSizes() {
+		layoutLock.readLock().lock();
+		try {
+			Shard<I>[] shards = layout.shards;
+			int[] sizes = new int[shards.length];
+			for (int i = 0; i < shards.length; i++) {
+				shards[i].lock.readLock().lock();
+				try {
+					sizes[i] = shards[i].index.size();
+				} finally {
+					shards[i].lock.readLock().unlock();
+				}
+			}
+			return sizes;
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int getDims() {
+		return dims;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (int n : getShardSizes()) {
+			size += n;
+		}
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		layoutLock.writeLock().lock();
+		try {
+			layout = createLayout(initialSplitDim, initialSplits.clone());
+			sizeAtRebalance = 0;
+			modCountAtRebalance = modCount.get();
+		} finally {
+			layoutLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public ShardStats getStats() {
+		layoutLock.readLock().lock();
+		try {
+			Shard<I>[] shards = layout.shards;
+			Stats[] stats = new Stats[shards.length];
+			for (int i = 0; i < shards.length; i++) {
+				shards[i].lock.readLock().lock();
+				try {
+					stats[i] = shards[i].index.getStats();
+				} finally {
+					shards[i].lock.readLock().unlock();
+				}
+			}
+			return new ShardStats(dims, stats);
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		layoutLock.readLock().lock();
+		try {
+			long mem = 0;
+			for (Shard<I> s : layout.shards) {
+				s.lock.readLock().lock();
+				try {
+					mem += s.index.estimateMemoryBytes();
+				} finally {
+					s.lock.readLock().unlock();
+				}
+			}
+			return mem;
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Statistics container class. The counters are summed up over all shards.
+	 */
+	public static class ShardStats extends Stats {
+		private final Stats[] shards;
+		ShardStats(int dims, Stats[] shards) {
+			super(dims, 0);
+			this.shards = shards;
+			setEstimatedBytes(0);
+			for (Stats s : shards) {
+				add(s);
+			}
+		}
+		/**
+		 * @return the statistics of each shard
+		 */
+		public Stats[] getShardStats() {
+			return shards.clone();
+		}
+		@Override
+		public String toString() {
+			int[] sizes = new int[shards.length];
+			Arrays.setAll(sizes, i -> shards[i].getEntryCount());
+			return super.toString() + ";shards=" + Arrays.toString(sizes);
+		}
+	}
+
+	@Override
+	public int getNodeCount() {
+		layoutLock.readLock().lock();
+		try {
+			int n = 0;
+			for (Shard<I> s : layout.shards) {
+				s.lock.readLock().lock();
+				try {
+					n += s.index.getNodeCount();
+				} finally {
+					s.lock.readLock().unlock();
+				}
+			}
+			return n;
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int getDepth() {
+		layoutLock.readLock().lock();
+		try {
+			int depth = 0;
+			for (Shard<I> s : layout.shards) {
+				s.lock.readLock().lock();
+				try {
+					depth = Math.max(depth, s.index.getDepth());
+				} finally {
+					s.lock.readLock().unlock();
+				}
+			}
+			return depth;
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toStringTree() {
+		StringBuilder sb = new StringBuilder();
+		layoutLock.readLock().lock();
+		try {
+			for (Shard<I> s : layout.shards) {
+				sb.append("Shard [" + s.lo + "," + s.hi + ")" + NL);
+				s.lock.readLock().lock();
+				try {
+					sb.append(s.index.toStringTree() + NL);
+				} finally {
+					s.lock.readLock().unlock();
+				}
+			}
+		} finally {
+			layoutLock.readLock().unlock();
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		Layout<I> l = layout;
+		return getClass().getSimpleName() + ";nShards=" + nShards +
+				";splitDim=" + l.splitDim +
+				";inner=" + l.shards[0].index.toString();
+	}
+
+	/**
+	 * Window query iterator. The result is collected while the shards are locked.
+	 * Inner indexes may reuse or modify their entries, so the results must be copies.
+	 *
+	 * @param <R> result type
+	 */
+	static class ResultIterator<R> implements QueryIterator<R> {
+
+		private final ArrayList<R> results = new ArrayList<>();
+		private final WindowQuery<R> query;
+		private Iterator<R> it;
+
+		interface WindowQuery<R> {
+			void query(double[] min, double[] max, ArrayList<R> results);
+		}
+
+		ResultIterator(double[] min, double[] max, WindowQuery<R> query) {
+			this.query = query;
+			reset(min, max);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public R next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return it.next();
+		}
+
+		@Override
+		public void reset(double[] min, double[] max) {
+			results.clear();
+			query.query(min, max, results);
+			it = results.iterator();
+		}
+	}
+
+	/**
+	 * kNN iterator.
+	 *
+	 * @param <R> result type
+	 */
+	static class ResultIteratorKNN<R> implements QueryIteratorKNN<R> {
+
+		private final KnnQuery<R> query;
+		private Iterator<R> it;
+
+		interface KnnQuery<R> {
+			ArrayList<R> query(double[] center, int k);
+		}
+
+		ResultIteratorKNN(double[] center, int k, KnnQuery<R> query) {
+			this.query = query;
+			reset(center, k);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public R next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return it.next();
+		}
+
+		@Override
+		public ResultIteratorKNN<R> reset(double[] center, int k) {
+			it = query.query(center, k).iterator();
+			return this;
+		}
+	}
+}
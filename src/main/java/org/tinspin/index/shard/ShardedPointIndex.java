@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.shard;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+
+/**
+ * A thread-safe point index that partitions space into slabs, each
+ * of which is stored in a separate inner index.
+ *
+ * Example:
+ * <pre>
+ * {@code PointIndex<String> idx = ShardedPointIndex.create(3, 8, () -> KDTree.create(3));}
+ * </pre>
+ *
+ * Window queries and kNN queries only visit the shards that overlap with the query.
+ * Query results are copied while the shards are locked, so the returned iterators
+ * are not affected by concurrent modifications.
+ *
+ * @param <T> Value type
+ */
+public class ShardedPointIndex<T> extends AbstractShardedIndex<T, PointIndex<T>, PointEntry<T>>
+	implements PointIndex<T> {
+
+	private ShardedPointIndex(int dims, int nShards, Supplier<PointIndex<T>> factory) {
+		super(dims, nShards, factory);
+	}
+
+	private ShardedPointIndex(int dims, int nShards, Supplier<PointIndex<T>> factory,
+			double[] min, double[] max) {
+		super(dims, nShards, factory, min, max);
+	}
+
+	/**
+	 * Create a sharded index. Entries are partitioned once the index contains
+	 * sufficient entries to determine a good partitioning.
+	 * @param dims dimensionality
+	 * @param nShards number of shards
+	 * @param factory factory for the inner indexes, for example {@code () -> KDTree.create(dims)}
+	 * @return new sharded index
+	 * @param <T> Value type
+	 */
+	public static <T> ShardedPointIndex<T> create(int dims, int nShards,
+			Supplier<PointIndex<T>> factory) {
+		return new ShardedPointIndex<>(dims, nShards, factory);
+	}
+
+	/**
+	 * Create a sharded index with an initially uniform partitioning of the given area.
+	 * @param dims dimensionality
+	 * @param nShards number of shards
+	 * @param factory factory for the inner indexes, for example {@code () -> KDTree.create(dims)}
+	 * @param min lower left corner of the expected data area
+	 * @param max upper right corner of the expected data area
+	 * @return new sharded index
+	 * @param <T> Value type
+	 */
+	public static <T> ShardedPointIndex<T> create(int dims, int nShards,
+			Supplier<PointIndex<T>> factory, double[] min, double[] max) {
+		return new ShardedPointIndex<>(dims, nShards, factory, min, max);
+	}
+
+	@Override
+	Iterator<? extends PointEntry<T>> iterateAll(PointIndex<T> index) {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return index.query(min, max);
+	}
+
+	@Override
+	double[] key(PointEntry<T> e) {
+		return e.point();
+	}
+
+	@Override
+	double[] upper(PointEntry<T> e) {
+		return e.point();
+	}
+
+	@Override
+	void insert(PointIndex<T> index, PointEntry<T> e) {
+		index.insert(e.point(), e.value());
+	}
+
+	@Override
+	public void insert(double[] key, T value) {
+		write(key, s -> {
+			s.index.insert(key, value);
+			s.extend(key);
+			return null;
+		});
+	}
+
+	@Override
+	public T remove(double[] point) {
+		return write(point, s -> s.index.remove(point));
+	}
+
+	@Override
+	public T update(double[] oldPoint, double[] newPoint) {
+		return move(oldPoint, newPoint, newPoint,
+				idx -> idx.update(oldPoint, newPoint),
+				idx -> idx.remove(oldPoint),
+				(idx, v) -> idx.insert(newPoint, v));
+	}
+
+	@Override
+	public int updateBatch(double[][] oldKeys, double[][] newKeys) {
+		return moveBatch(oldKeys, newKeys, newKeys, new BatchOps<PointIndex<T>, T>() {
+			@Override
+			public int updateLocal(PointIndex<T> index, int[] pos) {
+				return index.updateBatch(select(oldKeys, pos), select(newKeys, pos));
+			}
+
+			@Override
+			public T remove(PointIndex<T> index, int pos) {
+				return index.remove(oldKeys[pos]);
+			}
+
+			@Override
+			public void insert(PointIndex<T> index, int pos, T value) {
+				index.insert(newKeys[pos], value);
+			}
+		});
+	}
+
+	@Override
+	public T queryExact(double[] point) {
+		return read(point, idx -> idx.queryExact(point));
+	}
+
+	@Override
+	public QueryIterator<PointEntry<T>> iterator() {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return query(min, max);
+	}
+
+	@Override
+	public QueryIterator<PointEntry<T>> query(double[] min, double[] max) {
+		return new ResultIterator<>(min, max, (min2, max2, results) ->
+			readOverlapping(min2, max2, idx -> {
+				Iterator<PointEntry<T>> it = idx.query(min2, max2);
+				while (it.hasNext()) {
+					PointEntry<T> e = it.next();
+					results.add(new PointS<>(e.point(), e.value()));
+				}
+			}));
+	}
+
+	@Override
+	public int count(double[] min, double[] max) {
+		int[] n = new int[1];
+		readOverlapping(min, max, idx -> n[0] += idx.count(min, max));
+		return n[0];
+	}
+
+	@Override
+	public Aggregate aggregate(double[] min, double[] max, ToDoubleFunction<? super T> extractor) {
+		Aggregate a = new Aggregate();
+		readOverlapping(min, max, idx -> a.add(idx.aggregate(min, max, extractor)));
+		return a;
+	}
+
+	@Override
+	public QueryIteratorKNN<PointEntryDist<T>> queryKNN(double[] center, int k) {
+		return new ResultIteratorKNN<>(center, k, (center2, k2) ->
+			queryKNN(center2, k2, idx -> idx.queryKNN(center2, k2), PointEntryDist::dist,
+					e -> new PointDistS<>(e.point(), e.value(), e.dist())));
+	}
+
+	private static class PointS<T> implements PointEntry<T> {
+
+		private final double[] point;
+		private final T value;
+
+		PointS(double[] point, T value) {
+			this.point = point;
+			this.value = value;
+		}
+
+		@Override
+		public double[] point() {
+			return point;
+		}
+
+		@Override
+		public T value() {
+			return value;
+		}
+	}
+
+	private static class PointDistS<T> extends PointS<T> implements PointEntryDist<T> {
+
+		private final double dist;
+
+		PointDistS(double[] point, T value, double dist) {
+			super(point, value);
+			this.dist = dist;
+		}
+
+		@Override
+		public double dist() {
+			return dist;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.shard;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.RectangleEntry;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.RectangleIndex;
+
+/**
+ * A thread-safe rectangle index that partitions space into slabs, each
+ * of which is stored in a separate inner index.
+ *
+ * Example:
+ * <pre>
+ * {@code RectangleIndex<String> idx = ShardedRectangleIndex.create(3, 8, () -> RTree.createRStar(3));}
+ * </pre>
+ *
+ * Rectangles are assigned to shards by their lower corner. Each shard keeps track of the
+ * largest upper corner of its rectangles, so window queries and kNN queries visit only
+ * shards that may contain matching rectangles.
+ * Query results are copied while the shards are locked, so the returned iterators
+ * are not affected by concurrent modifications.
+ *
+ * @param <T> Value type
+ */
+public class ShardedRectangleIndex<T>
+	extends AbstractShardedIndex<T, RectangleIndex<T>, RectangleEntry<T>>
+	implements RectangleIndex<T> {
+
+	private ShardedRectangleIndex(int dims, int nShards, Supplier<RectangleIndex<T>> factory) {
+		super(dims, nShards, factory);
+	}
+
+	private ShardedRectangleIndex(int dims, int nShards, Supplier<RectangleIndex<T>> factory,
+			double[] min, double[] max) {
+		super(dims, nShards, factory, min, max);
+	}
+
+	/**
+	 * Create a sharded index. Entries are partitioned once the index contains
+	 * sufficient entries to determine a good partitioning.
+	 * @param dims dimensionality
+	 * @param nShards number of shards
+	 * @param factory factory for the inner indexes, for example {@code () -> RTree.createRStar(dims)}
+	 * @return new sharded index
+	 * @param <T> Value type
+	 */
+	public static <T> ShardedRectangleIndex<T> create(int dims, int nShards,
+			Supplier<RectangleIndex<T>> factory) {
+		return new ShardedRectangleIndex<>(dims, nShards, factory);
+	}
+
+	/**
+	 * Create a sharded index with an initially uniform partitioning of the given area.
+	 * @param dims dimensionality
+	 * @param nShards number of shards
+	 * @param factory factory for the inner indexes, for example {@code () -> RTree.createRStar(dims)}
+	 * @param min lower left corner of the expected data area
+	 * @param max upper right corner of the expected data area
+	 * @return new sharded index
+	 * @param <T> Value type
+	 */
+	public static <T> ShardedRectangleIndex<T> create(int dims, int nShards,
+			Supplier<RectangleIndex<T>> factory, double[] min, double[] max) {
+		return new ShardedRectangleIndex<>(dims, nShards, factory, min, max);
+	}
+
+	@Override
+	Iterator<? extends RectangleEntry<T>> iterateAll(RectangleIndex<T> index) {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return index.queryIntersect(min, max);
+	}
+
+	@Override
+	double[] key(RectangleEntry<T> e) {
+		return e.lower();
+	}
+
+	@Override
+	double[] upper(RectangleEntry<T> e) {
+		return e.upper();
+	}
+
+	@Override
+	void insert(RectangleIndex<T> index, RectangleEntry<T> e) {
+		index.insert(e.lower(), e.upper(), e.value());
+	}
+
+	@Override
+	public void insert(double[] lower, double[] upper, T value) {
+		write(lower, s -> {
+			s.index.insert(lower, upper, value);
+			s.extend(upper);
+			return null;
+		});
+	}
+
+	@Override
+	public T remove(double[] lower, double[] upper) {
+		return write(lower, s -> s.index.remove(lower, upper));
+	}
+
+	@Override
+	public T update(double[] lo1, double[] up1, double[] lo2, double[] up2) {
+		return move(lo1, lo2, up2,
+				idx -> idx.update(lo1, up1, lo2, up2),
+				idx -> idx.remove(lo1, up1),
+				(idx, v) -> idx.insert(lo2, up2, v));
+	}
+
+	@Override
+	public int updateBatch(double[][] lo1, double[][] up1, double[][] lo2, double[][] up2) {
+		return moveBatch(lo1, lo2, up2, new BatchOps<RectangleIndex<T>, T>() {
+			@Override
+			public int updateLocal(RectangleIndex<T> index, int[] pos) {
+				return index.updateBatch(select(lo1, pos), select(up1, pos), 
+						select(lo2, pos), select(up2, pos));
+			}
+
+			@Override
+			public T remove(RectangleIndex<T> index, int pos) {
+				return index.remove(lo1[pos], up1[pos]);
+			}
+
+			@Override
+			public void insert(RectangleIndex<T> index, int pos, T value) {
+				index.insert(lo2[pos], up2[pos], value);
+			}
+		});
+	}
+
+	@Override
+	public T queryExact(double[] lower, double[] upper) {
+		return read(lower, idx -> idx.queryExact(lower, upper));
+	}
+
+	@Override
+	public QueryIterator<RectangleEntry<T>> iterator() {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return queryIntersect(min, max);
+	}
+
+	@Override
+	public QueryIterator<RectangleEntry<T>> queryIntersect(double[] min, double[] max) {
+		return new ResultIterator<>(min, max, (min2, max2, results) ->
+			readOverlapping(min2, max2, idx -> {
+				Iterator<RectangleEntry<T>> it = idx.queryIntersect(min2, max2);
+				while (it.hasNext()) {
+					RectangleEntry<T> e = it.next();
+					results.add(new RectS<>(e.lower(), e.upper(), e.value()));
+				}
+			}));
+	}
+
+	@Override
+	public int countIntersect(double[] min, double[] max) {
+		int[] n = new int[1];
+		readOverlapping(min, max, idx -> n[0] += idx.countIntersect(min, max));
+		return n[0];
+	}
+
+	@Override
+	public Aggregate aggregateIntersect(double[] min, double[] max,
+			ToDoubleFunction<? super T> extractor) {
+		Aggregate a = new Aggregate();
+		readOverlapping(min, max, idx -> a.add(idx.aggregateIntersect(min, max, extractor)));
+		return a;
+	}
+
+	@Override
+	public QueryIteratorKNN<RectangleEntryDist<T>> queryKNN(double[] center, int k) {
+		return new ResultIteratorKNN<>(center, k, (center2, k2) ->
+			queryKNN(center2, k2, idx -> idx.queryKNN(center2, k2), RectangleEntryDist::dist,
+					e -> new RectDistS<>(e.lower(), e.upper(), e.value(), e.dist())));
+	}
+
+	private static class RectS<T> implements RectangleEntry<T> {
+
+		private final double[] lower;
+		private final double[] upper;
+		private final T value;
+
+		RectS(double[] lower, double[] upper, T value) {
+			this.lower = lower;
+			this.upper = upper;
+			this.value = value;
+		}
+
+		@Override
+		public double[] lower() {
+			return lower;
+		}
+
+		@Override
+		public double[] upper() {
+			return upper;
+		}
+
+		@Override
+		public T value() {
+			return value;
+		}
+	}
+
+	private static class RectDistS<T> extends RectS<T> implements RectangleEntryDist<T> {
+
+		private final double dist;
+
+		RectDistS(double[] lower, double[] upper, T value, double dist) {
+			super(lower, upper, value);
+			this.dist = dist;
+		}
+
+		@Override
+		public double dist() {
+			return dist;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.vptree;
+
+import java.util.Arrays;
+
+import org.tinspin.index.PointEntry;
+
+/**
+ * Entry class for the VPTree.
+ *
+ * @param <T> Value type
+ */
+public class VPEntry<T> implements PointEntry<T> {
+
+	private double[] point;
+	private final T value;
+
+	VPEntry(double[] point, T value) {
+		this.point = point;
+		this.value = value;
+	}
+
+	@Override
+	public double[] point() {
+		return point;
+	}
+
+	@Override
+	public T value() {
+		return value;
+	}
+
+	void setKey(double[] point) {
+		this.point = point;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(point) + " v=" + value;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.vptree;
+
+import org.tinspin.index.PointEntryDist;
+
+/**
+ * Result entry of kNN and radius queries on the VPTree.
+ *
+ * @param <T> Value type
+ */
+public class VPEntryDist<T> implements PointEntryDist<T> {
+
+	private final VPEntry<T> entry;
+	private final double dist;
+
+	VPEntryDist(VPEntry<T> entry, double dist) {
+		this.entry = entry;
+		this.dist = dist;
+	}
+
+	@Override
+	public double[] point() {
+		return entry.point();
+	}
+
+	@Override
+	public T value() {
+		return entry.value();
+	}
+
+	@Override
+	public double dist() {
+		return dist;
+	}
+
+	@Override
+	public String toString() {
+		return "d=" + dist + ":" + entry;
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.vptree;
+
+import java.util.Arrays;
+
+import org.tinspin.index.MemoryModel;
+
+/**
+ * Node class for the VPTree. Inner nodes have a vantage point and a radius 'mu', 
+ * entries with a distance smaller than 'mu' from the vantage point are in the inner 
+ * subtree, all other entries in the outer subtree. Entries are only stored in leaves.
+ *
+ * @param <T> Value type
+ */
+public class VPNode<T> {
+
+	//inner nodes
+	private double[] vp;
+	private double mu;
+	private VPNode<T> inner;
+	private VPNode<T> outer;
+	//range of the distances of the entries in the subtrees to the vantage point
+	private double innerMin;
+	private double innerMax;
+	private double outerMin;
+	private double outerMax;
+	//leaf nodes
+	private VPEntry<T>[] entries;
+	private int nEntries;
+	//number of entries in the subtree
+	private int size;
+	//number of entries when the subtree was built
+	private int buildSize;
+
+	private VPNode() {
+		//see factory methods
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static <T> VPNode<T> createLeaf(VPEntry<T>[] entries, int from, int to) {
+		VPNode<T> n = new VPNode<>();
+		int len = Math.max(VPTree.LEAF_SIZE + 1, to - from);
+		n.entries = new VPEntry[len];
+		if (to > from) {
+			System.arraycopy(entries, from, n.entries, 0, to - from);
+		}
+		n.nEntries = to - from;
+		n.size = n.nEntries;
+		n.buildSize = n.nEntries;
+		return n;
+	}
+
+	static <T> VPNode<T> createInner(double[] vp, double mu, VPNode<T> inner, VPNode<T> outer,
+			double innerMin, double innerMax, double outerMin, double outerMax) {
+		VPNode<T> n = new VPNode<>();
+		n.vp = vp;
+		n.mu = mu;
+		n.inner = inner;
+		n.outer = outer;
+		n.innerMin = innerMin;
+		n.innerMax = innerMax;
+		n.outerMin = outerMin;
+		n.outerMax = outerMax;
+		n.size = inner.size + outer.size;
+		n.buildSize = n.size;
+		return n;
+	}
+
+	/**
+	 * Replace the content of this node, this is used to rebuild subtrees in place. 
+	 * @param n the new content
+	 */
+	void replaceWith(VPNode<T> n) {
+		vp = n.vp;
+		mu = n.mu;
+		inner = n.inner;
+		outer = n.outer;
+		innerMin = n.innerMin;
+		innerMax = n.innerMax;
+		outerMin = n.outerMin;
+		outerMax = n.outerMax;
+		entries = n.entries;
+		nEntries = n.nEntries;
+		size = n.size;
+		buildSize = n.buildSize;
+	}
+
+	boolean isLeaf() {
+		return vp == null;
+	}
+
+	/**
+	 * Choose the subtree for a new entry and extend its distance range.
+	 * @param d distance of the entry to the vantage point
+	 * @return the subtree
+	 */
+	VPNode<T> addToChild(double d) {
+		size++;
+		if (d < mu) {
+			innerMin = Math.min(innerMin, d);
+			innerMax = Math.max(innerMax, d);
+			return inner;
+		}
+		outerMin = Math.min(outerMin, d);
+		outerMax = Math.max(outerMax, d);
+		return outer;
+	}
+
+	VPNode<T> getChild(double d) {
+		return d < mu ? inner : outer;
+	}
+
+	void addEntry(VPEntry<T> e) {
+		if (nEntries == entries.length) {
+			entries = Arrays.copyOf(entries, nEntries * 2);
+		}
+		entries[nEntries++] = e;
+		size++;
+	}
+
+	int findEntry(double[] key) {
+		for (int i = 0; i < nEntries; i++) {
+			if (Arrays.equals(entries[i].point(), key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	VPEntry<T> removeEntry(int pos) {
+		VPEntry<T> e = entries[pos];
+		entries[pos] = entries[--nEntries];
+		entries[nEntries] = null;
+		size--;
+		return e;
+	}
+
+	void decSize() {
+		size--;
+	}
+
+	/**
+	 * Copy all entries of the subtree into 'out'.
+	 * @param out destination
+	 * @param pos start position
+	 * @return the position after the last copied entry
+	 */
+	int collect(VPEntry<T>[] out, int pos) {
+		if (isLeaf()) {
+			System.arraycopy(entries, 0, out, pos, nEntries);
+			return pos + nEntries;
+		}
+		pos = inner.collect(out, pos);
+		return outer.collect(out, pos);
+	}
+
+	double[] getVantagePoint() {
+		return vp;
+	}
+
+	double getMu() {
+		return mu;
+	}
+
+	VPNode<T> getInner() {
+		return inner;
+	}
+
+	VPNode<T> getOuter() {
+		return outer;
+	}
+
+	double getInnerMin() {
+		return innerMin;
+	}
+
+	double getInnerMax() {
+		return innerMax;
+	}
+
+	double getOuterMin() {
+		return outerMin;
+	}
+
+	double getOuterMax() {
+		return outerMax;
+	}
+
+	VPEntry<T>[] getEntries() {
+		return entries;
+	}
+
+	int getEntryCount() {
+		return nEntries;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getBuildSize() {
+		return buildSize;
+	}
+
+	/**
+	 * @return estimated heap usage of this node and all entries and nodes below it
+	 */
+	long estimateMemory(int dims) {
+		//vp, inner, outer, entries; mu, 4 bounds, nEntries, size, buildSize
+		long mem = MemoryModel.object(4, 52);
+		if (isLeaf()) {
+			mem += MemoryModel.refArray(entries.length);
+			//entry: point, value
+			mem += nEntries * (MemoryModel.object(2, 0) + MemoryModel.doubleArray(dims));
+			return mem;
+		}
+		mem += MemoryModel.doubleArray(dims);
+		return mem + inner.estimateMemory(dims) + outer.estimateMemory(dims);
+	}
+
+	@Override
+	public String toString() {
+		if (isLeaf()) {
+			return "leaf n=" + nEntries;
+		}
+		return "vp=" + Arrays.toString(vp) + " mu=" + mu + " size=" + size;
+	}
+}
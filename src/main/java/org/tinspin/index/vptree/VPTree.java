@@ -0,0 +1,702 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.vptree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinTask;
+
+import org.tinspin.index.PointDistance;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.QueryStats;
+import org.tinspin.index.Stats;
+
+/**
+ * A vantage-point tree (VP-tree) for arbitrary metric spaces.
+ * <p>
+ * Inner nodes partition their entries by the distance to a vantage point, the 
+ * triangle inequality is then used to prune subtrees during kNN and radius queries.
+ * Any {@link PointDistance} can be used as long as it is a metric, 
+ * for example {@link PointDistance#ANGULAR} instead of the cosine distance.
+ * <p>
+ * Window queries cannot be pruned in metric spaces, they scan the whole tree.
+ * <p>
+ * The tree is built with {@link #load(double[][], List, boolean)}, which can run in 
+ * parallel. Inserts and removals keep the tree balanced by rebuilding subtrees in 
+ * which one child holds most of the entries.
+ * 
+ * @param <T> Value type
+ */
+public class VPTree<T> implements PointIndex<T> {
+
+	private static final String NL = System.lineSeparator();
+
+	/** Maximum number of entries in a leaf, except for leaves with equidistant entries. */
+	static final int LEAF_SIZE = 16;
+	//Subtrees are rebuilt if one child holds more than ALPHA of the entries and
+	//the size of the subtree has doubled or halved since it was built.
+	private static final double ALPHA = 0.8;
+	//subtrees with more entries are built in parallel by load()
+	private static final int PARALLEL_THRESHOLD = 10_000;
+	//number of candidates for the vantage point and number of sample entries
+	//used to evaluate them
+	private static final int N_VP_CANDIDATES = 8;
+	private static final int N_VP_SAMPLES = 32;
+
+	private final int dims;
+	private final PointDistance dist;
+	private VPNode<T> root = null;
+	private int size = 0;
+
+	private VPTree(int dims, PointDistance dist) {
+		this.dims = dims;
+		this.dist = dist;
+	}
+
+	/**
+	 * Create a VP-tree with euclidean distance.
+	 * @param dims dimensions
+	 * @return a new tree
+	 * @param <T> value type
+	 */
+	public static <T> VPTree<T> create(int dims) {
+		return new VPTree<>(dims, PointDistance.EUCLIDEAN);
+	}
+
+	/**
+	 * Create a VP-tree.
+	 * @param dims dimensions
+	 * @param dist distance function, this must be a metric
+	 * @return a new tree
+	 * @param <T> value type
+	 */
+	public static <T> VPTree<T> create(int dims, PointDistance dist) {
+		return new VPTree<>(dims, dist);
+	}
+
+	/**
+	 * @return the distance function of the tree
+	 */
+	public PointDistance getDistance() {
+		return dist;
+	}
+
+	/**
+	 * Replace the content of the tree with the given entries. This is considerably 
+	 * faster than inserting the entries one by one and results in a balanced tree.
+	 * @param keys the keys
+	 * @param values the values
+	 * @param parallel whether subtrees should be built in parallel
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void load(double[][] keys, List<T> values, boolean parallel) {
+		if (keys.length != values.size()) {
+			throw new IllegalArgumentException(
+					"keys.length != values.size(): " + keys.length + " != " + values.size());
+		}
+		VPEntry<T>[] entries = new VPEntry[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			entries[i] = new VPEntry<>(keys[i], values.get(i));
+		}
+		root = build(entries, new double[entries.length], 0, entries.length, parallel);
+		size = entries.length;
+	}
+
+	/**
+	 * Rebuild the whole tree.
+	 */
+	public void rebalance() {
+		if (root != null) {
+			rebuild(root);
+		}
+	}
+
+	private VPNode<T> build(VPEntry<T>[] entries, double[] dists, int from, int to, 
+			boolean parallel) {
+		int n = to - from;
+		if (n <= LEAF_SIZE) {
+			return VPNode.createLeaf(entries, from, to);
+		}
+		double[] vp = selectVantagePoint(entries, from, to).clone();
+		for (int i = from; i < to; i++) {
+			dists[i] = dist.dist(vp, entries[i].point());
+		}
+		int mid = from + n / 2;
+		select(entries, dists, from, to, mid);
+		double mu = dists[mid];
+		int split = partition(entries, dists, from, to, mu);
+		if (split == from) {
+			//'mu' is the smallest distance, use the next larger distance instead
+			double mu2 = Double.POSITIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				if (dists[i] > mu && dists[i] < mu2) {
+					mu2 = dists[i];
+				}
+			}
+			if (mu2 == Double.POSITIVE_INFINITY) {
+				//all entries are equidistant to the vantage point
+				return VPNode.createLeaf(entries, from, to);
+			}
+			mu = mu2;
+			split = partition(entries, dists, from, to, mu);
+		}
+		double innerMin = Double.POSITIVE_INFINITY;
+		double innerMax = 0;
+		for (int i = from; i < split; i++) {
+			innerMin = Math.min(innerMin, dists[i]);
+			innerMax = Math.max(innerMax, dists[i]);
+		}
+		double outerMin = Double.POSITIVE_INFINITY;
+		double outerMax = 0;
+		for (int i = split; i < to; i++) {
+			outerMin = Math.min(outerMin, dists[i]);
+			outerMax = Math.max(outerMax, dists[i]);
+		}
+		VPNode<T> inner;
+		VPNode<T> outer;
+		final int s = split;
+		if (parallel && n > PARALLEL_THRESHOLD) {
+			ForkJoinTask<VPNode<T>> task = 
+					ForkJoinTask.adapt(() -> build(entries, dists, from, s, true)).fork();
+			outer = build(entries, dists, s, to, true);
+			inner = task.join();
+		} else {
+			inner = build(entries, dists, from, s, false);
+			outer = build(entries, dists, s, to, false);
+		}
+		return VPNode.createInner(vp, mu, inner, outer, innerMin, innerMax, outerMin, outerMax);
+	}
+
+	/**
+	 * Choose the candidate with the largest variance of the distances to a sample of 
+	 * the entries.
+	 */
+	private double[] selectVantagePoint(VPEntry<T>[] entries, int from, int to) {
+		int n = to - from;
+		int nCand = Math.min(N_VP_CANDIDATES, n);
+		int nSamples = Math.min(N_VP_SAMPLES, n);
+		double[] best = null;
+		double bestVar = -1;
+		for (int c = 0; c < nCand; c++) {
+			double[] cand = entries[from + (int) ((long) c * n / nCand)].point();
+			double sum = 0;
+			double sum2 = 0;
+			for (int s = 0; s < nSamples; s++) {
+				double d = dist.dist(cand, entries[from + (int) ((2L * s + 1) * n / (2 * nSamples))].point());
+				sum += d;
+				sum2 += d * d;
+			}
+			double mean = sum / nSamples;
+			double var = sum2 / nSamples - mean * mean;
+			if (var > bestVar) {
+				bestVar = var;
+				best = cand;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Quickselect: move the entry with the k-th smallest distance to position 'k', 
+	 * with smaller or equal distances before and larger or equal distances after it.
+	 */
+	private static <T> void select(VPEntry<T>[] entries, double[] dists, int from, int to, 
+			int k) {
+		int lo = from;
+		int hi = to - 1;
+		while (lo < hi) {
+			double pivot = dists[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (dists[i] < pivot) {
+					i++;
+				}
+				while (dists[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(entries, dists, i++, j--);
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the position of the first entry with distance >= mu
+	 */
+	private static <T> int partition(VPEntry<T>[] entries, double[] dists, int from, int to, 
+			double mu) {
+		int pos = from;
+		for (int i = from; i < to; i++) {
+			if (dists[i] < mu) {
+				swap(entries, dists, pos++, i);
+			}
+		}
+		return pos;
+	}
+
+	private static <T> void swap(VPEntry<T>[] entries, double[] dists, int i, int j) {
+		VPEntry<T> e = entries[i];
+		entries[i] = entries[j];
+		entries[j] = e;
+		double d = dists[i];
+		dists[i] = dists[j];
+		dists[j] = d;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void rebuild(VPNode<T> node) {
+		VPEntry<T>[] entries = new VPEntry[node.size()];
+		node.collect(entries, 0);
+		node.replaceWith(build(entries, new double[entries.length], 0, entries.length, false));
+	}
+
+	private static boolean needsRebuild(VPNode<?> node) {
+		if (node.isLeaf() || node.size() <= 2 * LEAF_SIZE) {
+			return false;
+		}
+		int n = node.size();
+		int nChild = Math.max(node.getInner().size(), node.getOuter().size());
+		return nChild > ALPHA * n && (n >= 2 * node.getBuildSize() || 2 * n <= node.getBuildSize());
+	}
+
+	@Override
+	public void insert(double[] key, T value) {
+		insertEntry(new VPEntry<>(key, value));
+		size++;
+	}
+
+	private void insertEntry(VPEntry<T> e) {
+		if (root == null) {
+			root = VPNode.createLeaf(null, 0, 0);
+		}
+		ArrayList<VPNode<T>> path = new ArrayList<>();
+		VPNode<T> n = root;
+		while (!n.isLeaf()) {
+			path.add(n);
+			n = n.addToChild(dist.dist(n.getVantagePoint(), e.point()));
+		}
+		n.addEntry(e);
+		int nEntries = n.getEntryCount();
+		if (nEntries > LEAF_SIZE && (nEntries == LEAF_SIZE + 1 || (nEntries & (nEntries - 1)) == 0)) {
+			//Split the leaf. Leaves with equidistant entries can not be split, we 
+			//retry only when the size has doubled.
+			rebuild(n);
+		}
+		for (int i = 0; i < path.size(); i++) {
+			if (needsRebuild(path.get(i))) {
+				rebuild(path.get(i));
+				break;
+			}
+		}
+	}
+
+	@Override
+	public T remove(double[] key) {
+		VPEntry<T> e = removeEntry(key);
+		if (e == null) {
+			return null;
+		}
+		size--;
+		return e.value();
+	}
+
+	private VPEntry<T> removeEntry(double[] key) {
+		if (root == null) {
+			return null;
+		}
+		ArrayList<VPNode<T>> path = new ArrayList<>();
+		VPNode<T> n = root;
+		while (!n.isLeaf()) {
+			path.add(n);
+			n = n.getChild(dist.dist(n.getVantagePoint(), key));
+		}
+		int pos = n.findEntry(key);
+		if (pos < 0) {
+			return null;
+		}
+		VPEntry<T> e = n.removeEntry(pos);
+		for (int i = 0; i < path.size(); i++) {
+			path.get(i).decSize();
+		}
+		for (int i = 0; i < path.size(); i++) {
+			VPNode<T> p = path.get(i);
+			if (p.size() <= LEAF_SIZE || needsRebuild(p)) {
+				rebuild(p);
+				break;
+			}
+		}
+		return e;
+	}
+
+	@Override
+	public T update(double[] oldKey, double[] newKey) {
+		VPEntry<T> e = removeEntry(oldKey);
+		if (e == null) {
+			return null;
+		}
+		e.setKey(newKey);
+		insertEntry(e);
+		return e.value();
+	}
+
+	@Override
+	public T queryExact(double[] key) {
+		if (root == null) {
+			return null;
+		}
+		VPNode<T> n = root;
+		while (!n.isLeaf()) {
+			n = n.getChild(dist.dist(n.getVantagePoint(), key));
+		}
+		int pos = n.findEntry(key);
+		return pos < 0 ? null : n.getEntries()[pos].value();
+	}
+
+	/**
+	 * Find all entries within a given distance.
+	 * @param center the query point
+	 * @param radius the maximum distance (inclusive)
+	 * @return all entries within 'radius' from 'center', in no particular order
+	 */
+	public List<VPEntryDist<T>> queryRadius(double[] center, double radius) {
+		ArrayList<VPEntryDist<T>> result = new ArrayList<>();
+		if (root != null) {
+			radiusSearch(root, center, radius, result);
+		}
+		QueryStats.entriesReturned(result.size());
+		return result;
+	}
+
+	private void radiusSearch(VPNode<T> node, double[] center, double radius, 
+			ArrayList<VPEntryDist<T>> result) {
+		QueryStats.node(node.isLeaf());
+		if (node.isLeaf()) {
+			VPEntry<T>[] entries = node.getEntries();
+			for (int i = 0; i < node.getEntryCount(); i++) {
+				QueryStats.distCalc();
+				double d = dist.dist(center, entries[i].point());
+				if (d <= radius) {
+					result.add(new VPEntryDist<>(entries[i], d));
+				}
+			}
+			return;
+		}
+		QueryStats.distCalc();
+		double d = dist.dist(node.getVantagePoint(), center);
+		if (d + radius >= node.getInnerMin() && d - radius <= node.getInnerMax()) {
+			radiusSearch(node.getInner(), center, radius, result);
+		}
+		if (d + radius >= node.getOuterMin() && d - radius <= node.getOuterMax()) {
+			radiusSearch(node.getOuter(), center, radius, result);
+		}
+	}
+
+	/**
+	 * @param center the query point
+	 * @param k number of neighbors
+	 * @return the 'k' nearest neighbors, sorted by distance
+	 */
+	public List<VPEntryDist<T>> knnQuery(double[] center, int k) {
+		ArrayList<VPEntryDist<T>> candidates = new ArrayList<>(k);
+		if (root != null && k > 0) {
+			knnSearch(root, center, k, candidates);
+		}
+		QueryStats.entriesReturned(candidates.size());
+		return candidates;
+	}
+
+	private void knnSearch(VPNode<T> node, double[] center, int k, 
+			ArrayList<VPEntryDist<T>> candidates) {
+		QueryStats.node(node.isLeaf());
+		if (node.isLeaf()) {
+			VPEntry<T>[] entries = node.getEntries();
+			for (int i = 0; i < node.getEntryCount(); i++) {
+				QueryStats.distCalc();
+				double d = dist.dist(center, entries[i].point());
+				if (candidates.size() == k) {
+					if (d >= candidates.get(k - 1).dist()) {
+						continue;
+					}
+					candidates.remove(k - 1);
+				}
+				int pos = candidates.size();
+				while (pos > 0 && candidates.get(pos - 1).dist() > d) {
+					pos--;
+				}
+				candidates.add(pos, new VPEntryDist<>(entries[i], d));
+			}
+			return;
+		}
+		QueryStats.distCalc();
+		double d = dist.dist(node.getVantagePoint(), center);
+		//search the subtree that contains the query point first
+		boolean innerFirst = d < node.getMu();
+		for (int i = 0; i < 2; i++) {
+			double r = candidates.size() < k ? 
+					Double.POSITIVE_INFINITY : candidates.get(k - 1).dist();
+			if (innerFirst == (i == 0)) {
+				if (d + r >= node.getInnerMin() && d - r <= node.getInnerMax()) {
+					knnSearch(node.getInner(), center, k, candidates);
+				}
+			} else {
+				if (d + r >= node.getOuterMin() && d - r <= node.getOuterMax()) {
+					knnSearch(node.getOuter(), center, k, candidates);
+				}
+			}
+		}
+	}
+
+	@Override
+	public VPQueryIteratorKNN queryKNN(double[] center, int k) {
+		return new VPQueryIteratorKNN(center, k);
+	}
+
+	/**
+	 * kNN query iterator.
+	 */
+	public class VPQueryIteratorKNN implements QueryIteratorKNN<PointEntryDist<T>> {
+
+		private Iterator<VPEntryDist<T>> it;
+
+		VPQueryIteratorKNN(double[] center, int k) {
+			reset(center, k);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public PointEntryDist<T> next() {
+			return it.next();
+		}
+
+		@Override
+		public VPQueryIteratorKNN reset(double[] center, int k) {
+			it = knnQuery(center, k).iterator();
+			return this;
+		}
+	}
+
+	/**
+	 * Window query. This scans all entries because metric trees cannot prune 
+	 * by coordinates.
+	 */
+	@Override
+	public VPIterator query(double[] min, double[] max) {
+		return new VPIterator(min, max);
+	}
+
+	@Override
+	public VPIterator iterator() {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(min, Double.NEGATIVE_INFINITY);
+		Arrays.fill(max, Double.POSITIVE_INFINITY);
+		return new VPIterator(min, max);
+	}
+
+	/**
+	 * Resettable window query iterator.
+	 */
+	public class VPIterator implements QueryIterator<PointEntry<T>> {
+
+		private final ArrayList<VPNode<T>> stack = new ArrayList<>();
+		private double[] min;
+		private double[] max;
+		private VPNode<T> leaf;
+		private int pos;
+		private VPEntry<T> next;
+
+		VPIterator(double[] min, double[] max) {
+			reset(min, max);
+		}
+
+		@Override
+		public void reset(double[] min, double[] max) {
+			this.min = min;
+			this.max = max;
+			stack.clear();
+			leaf = null;
+			if (root != null) {
+				stack.add(root);
+			}
+			findNext();
+		}
+
+		private void findNext() {
+			while (true) {
+				if (leaf != null) {
+					VPEntry<T>[] entries = leaf.getEntries();
+					while (pos < leaf.getEntryCount()) {
+						VPEntry<T> e = entries[pos++];
+						if (isInWindow(e.point())) {
+							next = e;
+							return;
+						}
+					}
+					leaf = null;
+				}
+				if (stack.isEmpty()) {
+					next = null;
+					return;
+				}
+				VPNode<T> n = stack.remove(stack.size() - 1);
+				if (n.isLeaf()) {
+					leaf = n;
+					pos = 0;
+				} else {
+					stack.add(n.getOuter());
+					stack.add(n.getInner());
+				}
+			}
+		}
+
+		private boolean isInWindow(double[] p) {
+			for (int d = 0; d < dims; d++) {
+				if (p[d] < min[d] || p[d] > max[d]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public PointEntry<T> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			VPEntry<T> ret = next;
+			findNext();
+			return ret;
+		}
+	}
+
+	@Override
+	public int getDims() {
+		return dims;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+		size = 0;
+	}
+
+	@Override
+	public Stats getStats() {
+		Stats s = new Stats(dims, LEAF_SIZE);
+		if (root != null) {
+			getStats(root, s, 0);
+		}
+		s.setEstimatedBytes(estimateMemoryBytes());
+		return s;
+	}
+
+	private static void getStats(VPNode<?> node, Stats s, int depth) {
+		s.countNode(depth, node.isLeaf());
+		if (node.isLeaf()) {
+			s.countEntries(depth, node.getEntryCount());
+			if (node.size() != node.getEntryCount()) {
+				throw new IllegalStateException("size=" + node.size());
+			}
+			return;
+		}
+		if (node.size() != node.getInner().size() + node.getOuter().size()) {
+			throw new IllegalStateException("size=" + node.size());
+		}
+		getStats(node.getInner(), s, depth + 1);
+		getStats(node.getOuter(), s, depth + 1);
+	}
+
+	@Override
+	public long estimateMemoryBytes() {
+		return root == null ? 0 : root.estimateMemory(dims);
+	}
+
+	@Override
+	public int getNodeCount() {
+		return getStats().getNodeCount();
+	}
+
+	@Override
+	public int getDepth() {
+		return getStats().getMaxDepth();
+	}
+
+	@Override
+	public String toStringTree() {
+		StringBuilder sb = new StringBuilder();
+		if (root == null) {
+			sb.append("empty tree");
+		} else {
+			toStringTree(sb, root, 0);
+		}
+		return sb.toString();
+	}
+
+	private static void toStringTree(StringBuilder sb, VPNode<?> node, int depth) {
+		for (int i = 0; i < depth; i++) {
+			sb.append(".");
+		}
+		sb.append(node).append(NL);
+		if (node.isLeaf()) {
+			for (int i = 0; i < node.getEntryCount(); i++) {
+				for (int j = 0; j <= depth; j++) {
+					sb.append(" ");
+				}
+				sb.append(node.getEntries()[i]).append(NL);
+			}
+		} else {
+			toStringTree(sb, node.getInner(), depth + 1);
+			toStringTree(sb, node.getOuter(), depth + 1);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "VPTree;dims=" + dims + ";size=" + size + ";leafSize=" + LEAF_SIZE;
+	}
+}
@@ -22,6 +22,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 import org.tinspin.index.PointEntryDist;
 import org.tinspin.index.QueryIteratorKNN;
@@ -128,6 +133,95 @@ public class KDTreeTest {
 		smokeTest(point_list);
 	}
 	
+	@Test
+	public void testRemoveLeaf() {
+		KDTree<Integer> tree = KDTree.create(2);
+		tree.insert(new double[]{5,5}, 1);
+		tree.insert(new double[]{7,5}, 2);
+		tree.insert(new double[]{3,5}, 3);
+		assertEquals(2, (int)tree.remove(new double[]{7,5}));
+		assertFalse(tree.containsExact(new double[]{7,5}));
+		assertEquals(2, tree.size());
+		assertEquals(1, (int)tree.remove(new double[]{5,5}));
+		assertEquals(3, (int)tree.remove(new double[]{3,5}));
+		assertEquals(0, tree.size());
+		assertFalse(tree.iterator().hasNext());
+	}
+	
+	@Test
+	public void testRebalanceSorted() {
+		KDTree<Integer> tree = KDTree.create(2);
+		int n = 100_000;
+		for (int i = 0; i < n; i++) {
+			tree.insert(new double[]{i, i}, i);
+		}
+		//without rebalancing, the depth would be 'n'
+		assertTrue(tree.getDepth() < 4 * Math.log(n) / Math.log(2));
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, (int)tree.queryExact(new double[]{i, i}));
+		}
+	}
+	
+	@Test
+	public void testRebalanceDuplicates() {
+		KDTree<Integer> tree = KDTree.create(2);
+		int n = 20_000;
+		int nDupl = 0;
+		for (int i = 0; i < n; i++) {
+			//duplicates form a path that no rebuild can shorten
+			if (i % 10 == 0) {
+				tree.insert(new double[]{-1, -1}, i);
+				nDupl++;
+			} else {
+				tree.insert(new double[]{i, i}, i);
+			}
+		}
+		assertEquals(n, tree.size());
+		assertTrue(tree.getDepth() < nDupl + 4 * Math.log(n) / Math.log(2));
+		for (int i = 0; i < n; i++) {
+			if (i % 10 != 0) {
+				assertEquals(i, (int)tree.queryExact(new double[]{i, i}));
+			}
+		}
+	}
+	
+	@Test
+	public void testRebalanceChurn() {
+		KDTree<Integer> tree = KDTree.create(3);
+		Random R = new Random(0);
+		int n = 10_000;
+		double[][] keys = new double[n][3];
+		for (int i = 0; i < n; i++) {
+			//many equal coordinates, this breaks the invariant during remove()
+			Arrays.setAll(keys[i], d -> R.nextInt(20));
+			tree.insert(keys[i], i);
+		}
+		for (int r = 0; r < 10 * n; r++) {
+			int i = R.nextInt(n);
+			double[] newKey = new double[3];
+			Arrays.setAll(newKey, d -> R.nextInt(20));
+			assertNotNull(tree.update(keys[i], newKey));
+			keys[i] = newKey;
+		}
+		assertEquals(n, tree.size());
+		for (int i = 0; i < n; i++) {
+			assertTrue(tree.containsExact(keys[i]));
+		}
+		
+		tree.rebalance();
+		assertEquals(n, tree.size());
+		assertEquals(n, tree.getNodeCount());
+		for (int i = 0; i < n; i++) {
+			assertTrue(tree.containsExact(keys[i]));
+		}
+		
+		//shrinking the tree triggers rebalancing
+		for (int i = 0; i < n; i++) {
+			assertNotNull(tree.remove(keys[i]));
+		}
+		assertEquals(0, tree.size());
+	}
+	
 	private void smokeTest(double[][] point_list) {
 		int dim = point_list[0].length;
 		KDTree<double[]> tree = KDTree.create(dim);
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.qthypercube2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.Stats;
+
+public class QuadTreeKD2Test {
+
+	private static final int DIMS = 3;
+
+	@Test
+	public void testCalcSubPosition() {
+		Random R = new Random(0);
+		double[] values = {0.0, -0.0, 1.0, -1.0, Double.MIN_VALUE, -Double.MIN_VALUE, 
+				Double.MAX_VALUE, -Double.MAX_VALUE, 0.1, 0.1 + 1e-17};
+		for (int i = 0; i < 10_000; i++) {
+			double[] p = new double[DIMS];
+			double[] center = new double[DIMS];
+			for (int d = 0; d < DIMS; d++) {
+				p[d] = i < 1000 ? values[R.nextInt(values.length)] : R.nextDouble() - 0.5;
+				center[d] = i < 1000 ? values[R.nextInt(values.length)] : R.nextDouble() - 0.5;
+			}
+			long expected = 0;
+			for (int d = 0; d < DIMS; d++) {
+				expected <<= 1;
+				if (p[d] >= center[d]) {
+					expected |= 1;
+				}
+			}
+			assertEquals(expected, QNode.calcSubPosition(p, center));
+		}
+	}
+
+	/**
+	 * The root center is not a multiple of the radius, so growing the root may require
+	 * rebuilding the tree.
+	 */
+	@Test
+	public void testRootGrowth() {
+		QuadTreeKD2<Integer> tree = QuadTreeKD2.create(DIMS, 10, new double[]{0.1, 0.3, -0.7}, 1e-3);
+		Random R = new Random(0);
+		int n = 10_000;
+		double[][] data = new double[n][];
+		for (int i = 0; i < n; i++) {
+			double scale = Math.pow(10, R.nextInt(8));
+			data[i] = new double[DIMS];
+			for (int d = 0; d < DIMS; d++) {
+				data[i][d] = (R.nextDouble() - 0.5) * scale;
+			}
+			tree.insert(data[i], i);
+		}
+		//checks node geometry and entry positions
+		checkNodeCounters(tree);
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, (int) tree.queryExact(data[i]));
+		}
+		for (int i = 0; i < n; i += 2) {
+			double[] p = data[i].clone();
+			p[0] *= 1000;
+			assertEquals(i, (int) tree.update(data[i], p));
+			assertNull(tree.queryExact(data[i]));
+			data[i] = p;
+		}
+		checkNodeCounters(tree);
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, (int) tree.remove(data[i]));
+		}
+		assertEquals(0, tree.size());
+	}
+
+	@Test
+	public void testNodeCounters() {
+		QuadTreeKD2<Integer> tree = QuadTreeKD2.create(DIMS, 4, new double[]{0.5, 0.5, 0.5}, 0.5);
+		Random R = new Random(0);
+		int n = 10_000;
+		double[][] data = new double[n][];
+		for (int i = 0; i < n; i++) {
+			data[i] = createPoint(R, 1);
+			tree.insert(data[i], i);
+		}
+		checkNodeCounters(tree);
+		for (int i = 0; i < n; i += 3) {
+			double[] p = createPoint(R, 1);
+			assertEquals(i, (int) tree.update(data[i], p));
+			data[i] = p;
+		}
+		checkNodeCounters(tree);
+		double[][] newKeys = new double[n / 2][];
+		for (int i = 0; i < newKeys.length; i++) {
+			//some entries move out of the root
+			newKeys[i] = createPoint(R, 2);
+		}
+		assertEquals(newKeys.length, tree.updateBatch(Arrays.copyOf(data, newKeys.length), newKeys));
+		System.arraycopy(newKeys, 0, data, 0, newKeys.length);
+		checkNodeCounters(tree);
+		for (int i = 0; i < n; i += 2) {
+			assertEquals(i, (int) tree.remove(data[i]));
+		}
+		checkNodeCounters(tree);
+		tree.clear();
+		assertEquals(0, tree.getNodeCount());
+		assertEquals(0, tree.getLeafNodeCount());
+	}
+
+	private static void checkNodeCounters(QuadTreeKD2<?> tree) {
+		Stats s = tree.getStats();
+		assertEquals(s.getNodeCount(), tree.getNodeCount());
+		assertEquals(s.getLeafNodeCount(), tree.getLeafNodeCount());
+	}
+
+	private static double[] createPoint(Random R, double scale) {
+		double[] p = new double[DIMS];
+		Arrays.setAll(p, d -> R.nextDouble() * scale);
+		return p;
+	}
+}
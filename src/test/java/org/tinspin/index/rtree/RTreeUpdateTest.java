@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.rtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RTreeUpdateTest {
+
+	private static final int DIMS = 3;
+	private static final int N = 20_000;
+
+	@Test
+	public void testSmallMoves() {
+		check(0.001);
+	}
+
+	@Test
+	public void testLargeMoves() {
+		check(0.5);
+	}
+
+	/**
+	 * Queries between updates must not see stale packed MBBs of directory nodes.
+	 */
+	@Test
+	public void testQueriesBetweenUpdates() {
+		Random R = new Random(1);
+		int n = 2_000;
+		RTree<Integer> tree = RTree.createRStar(DIMS);
+		double[][] pts = new double[n][];
+		for (int i = 0; i < n; i++) {
+			pts[i] = new double[]{R.nextDouble(), R.nextDouble(), R.nextDouble()};
+			tree.insert(pts[i], i);
+		}
+		for (int i = 0; i < n; i++) {
+			double[] p2 = new double[]{R.nextDouble(), R.nextDouble(), R.nextDouble()};
+			tree.update(pts[i], pts[i], p2, p2);
+			pts[i] = p2;
+			//window query
+			RTreeIterator<Integer> it = tree.queryIntersect(p2, p2);
+			assertEquals(i, (int) it.next().value());
+			//kNN query
+			RTreeQueryKnn<Integer> knn = tree.queryKNN(p2, 1);
+			assertEquals(0, knn.next().dist(), 0.0);
+			if (i % 3 == 0) {
+				assertEquals(i, (int) tree.remove(p2, p2));
+				tree.insert(p2, i);
+			}
+		}
+		assertEquals(n, tree.queryIntersectStream(new double[]{0, 0, 0}, 
+				new double[]{1, 1, 1}).count());
+	}
+
+	@Test
+	public void testMissing() {
+		RTree<Integer> tree = RTree.createRStar(DIMS);
+		tree.insert(new double[]{1, 1, 1}, 1);
+		assertNull(tree.update(new double[]{2, 2, 2}, new double[]{2, 2, 2},
+				new double[]{3, 3, 3}, new double[]{3, 3, 3}));
+		assertEquals(1, tree.size());
+	}
+
+	private static void check(double maxMove) {
+		Random R = new Random(0);
+		RTree<Integer> tree = RTree.createRStar(DIMS);
+		double[][] lo = new double[N][];
+		double[][] up = new double[N][];
+		for (int i = 0; i < N; i++) {
+			lo[i] = new double[DIMS];
+			up[i] = new double[DIMS];
+			for (int d = 0; d < DIMS; d++) {
+				lo[i][d] = R.nextDouble();
+				up[i][d] = lo[i][d] + R.nextDouble() * 0.001;
+			}
+			tree.insert(lo[i], up[i], i);
+		}
+		for (int r = 0; r < 5; r++) {
+			for (int i = 0; i < N; i++) {
+				double[] lo2 = new double[DIMS];
+				double[] up2 = new double[DIMS];
+				for (int d = 0; d < DIMS; d++) {
+					double move = (R.nextDouble() - 0.5) * maxMove;
+					lo2[d] = lo[i][d] + move;
+					up2[d] = up[i][d] + move;
+				}
+				assertEquals(i, (int) tree.update(lo[i], up[i], lo2, up2));
+				lo[i] = lo2;
+				up[i] = up2;
+			}
+			//checks MBBs, node fill and counts
+			tree.getStats();
+			assertEquals(N, tree.size());
+		}
+		for (int i = 0; i < N; i++) {
+			assertEquals(i, (int) tree.queryExact(lo[i], up[i]));
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.rtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.rtree.RTree.RTreeStats;
+
+public class XTreeTest {
+
+	private static final int DIMS = 16;
+	private static final int N = 20_000;
+
+	@Test
+	public void testQueries() {
+		Random R = new Random(0);
+		double[][] data = createData(R, N);
+		RTree<Integer> tree = RTree.createXTree(DIMS);
+		for (int i = 0; i < N; i++) {
+			tree.insert(data[i], i);
+		}
+		RTreeStats stats = tree.getStats();
+		assertTrue(stats.getNSuperNodes() > 0);
+		assertEquals(N, tree.size());
+
+		for (int i = 0; i < N; i++) {
+			assertEquals(i, (int) tree.queryExact(data[i], data[i]));
+		}
+		for (int r = 0; r < 20; r++) {
+			checkWindow(tree, data, R, N);
+			checkKnn(tree, data, R, N);
+		}
+	}
+
+	@Test
+	public void testRemove() {
+		Random R = new Random(1);
+		double[][] data = createData(R, N);
+		RTree<Integer> tree = RTree.createXTree(DIMS);
+		for (int i = 0; i < N; i++) {
+			tree.insert(data[i], i);
+		}
+		//remove every other entry
+		for (int i = 0; i < N; i += 2) {
+			assertEquals(i, (int) tree.remove(data[i], data[i]));
+		}
+		tree.getStats();
+		assertEquals(N / 2, tree.size());
+		for (int i = 0; i < N; i++) {
+			if (i % 2 == 0) {
+				assertNull(tree.queryExact(data[i], data[i]));
+			} else {
+				assertEquals(i, (int) tree.queryExact(data[i], data[i]));
+			}
+		}
+		for (int i = 1; i < N; i += 2) {
+			assertEquals(i, (int) tree.remove(data[i], data[i]));
+		}
+		assertEquals(0, tree.size());
+		assertEquals(0, tree.getStats().getNSuperNodes());
+	}
+
+	@Test
+	public void testUpdate() {
+		Random R = new Random(2);
+		double[][] data = createData(R, N);
+		RTree<Integer> tree = RTree.createXTree(DIMS);
+		for (int i = 0; i < N; i++) {
+			tree.insert(data[i], i);
+		}
+		for (int i = 0; i < N; i++) {
+			double[] p = data[i].clone();
+			p[R.nextInt(DIMS)] = R.nextDouble();
+			assertEquals(i, (int) tree.update(data[i], data[i], p, p));
+			data[i] = p;
+		}
+		tree.getStats();
+		assertEquals(N, tree.size());
+		for (int r = 0; r < 10; r++) {
+			checkKnn(tree, data, R, N);
+		}
+	}
+
+	/**
+	 * Clustered data, the clusters are spread over all dimensions.
+	 */
+	private static double[][] createData(Random R, int n) {
+		double[][] centers = new double[20][DIMS];
+		for (double[] c : centers) {
+			Arrays.setAll(c, d -> R.nextDouble());
+		}
+		double[][] data = new double[n][DIMS];
+		for (int i = 0; i < n; i++) {
+			double[] c = centers[R.nextInt(centers.length)];
+			for (int d = 0; d < DIMS; d++) {
+				data[i][d] = c[d] + R.nextGaussian() * 0.1;
+			}
+		}
+		return data;
+	}
+
+	private static void checkWindow(RTree<Integer> tree, double[][] data, Random R, int n) {
+		double[] min = new double[DIMS];
+		double[] max = new double[DIMS];
+		double[] c = data[R.nextInt(n)];
+		for (int d = 0; d < DIMS; d++) {
+			min[d] = c[d] - 0.15;
+			max[d] = c[d] + 0.15;
+		}
+		int expected = 0;
+		for (double[] p : data) {
+			if (Entry.checkOverlap(min, max, new Entry<>(p, p, null))) {
+				expected++;
+			}
+		}
+		int found = 0;
+		RTreeIterator<Integer> it = tree.queryIntersect(min, max);
+		while (it.hasNext()) {
+			it.next();
+			found++;
+		}
+		assertEquals(expected, found);
+	}
+
+	private static void checkKnn(RTree<Integer> tree, double[][] data, Random R, int n) {
+		double[] c = data[R.nextInt(n)].clone();
+		c[0] += 0.01;
+		int k = 10;
+		double[] dists = new double[data.length];
+		for (int i = 0; i < data.length; i++) {
+			dists[i] = DistanceFunction.EDGE.dist(c, data[i], data[i]);
+		}
+		Arrays.sort(dists);
+		RTreeQueryKnn<Integer> it = tree.queryKNN(c, k);
+		int i = 0;
+		while (it.hasNext()) {
+			RectangleEntryDist<Integer> e = it.next();
+			assertEquals(dists[i++], e.dist(), 0.0);
+		}
+		assertEquals(k, i);
+		assertEquals(dists[0], tree.query1NN(c).dist(), 0.0);
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import org.junit.Test;
+import org.tinspin.index.Aggregate;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+import org.tinspin.index.rtree.RTree;
+
+public class TestAggregate {
+
+	private static final int N = 5_000;
+	private static final int DIMS = 3;
+	private static final ToDoubleFunction<Integer> EXTRACTOR = v -> v;
+	//not the extractor of the summaries
+	private static final ToDoubleFunction<Integer> NEGATIVE = v -> -v;
+
+	@Test
+	public void testKDTree() {
+		testPointIndex(KDTree.createWithSummaries(DIMS, EXTRACTOR));
+	}
+
+	@Test
+	public void testKDTreeNoSummaries() {
+		testPointIndex(KDTree.create(DIMS));
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		testPointIndex(QuadTreeKD2.createWithSummaries(DIMS, EXTRACTOR));
+	}
+
+	@Test
+	public void testQuadTreeKD2NoSummaries() {
+		testPointIndex(QuadTreeKD2.create(DIMS));
+	}
+
+	@Test
+	public void testRTree() {
+		testRectangleIndex(RTree.createWithSummaries(DIMS, EXTRACTOR));
+	}
+
+	@Test
+	public void testRTreeNoSummaries() {
+		testRectangleIndex(RTree.createRStar(DIMS));
+	}
+
+	private void testPointIndex(PointIndex<Integer> idx) {
+		Random R = new Random(0);
+		List<double[]> keys = new ArrayList<>();
+		List<Integer> values = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			double[] p = createPoint(R);
+			keys.add(p);
+			values.add(i);
+			idx.insert(p, i);
+		}
+		checkPoints(R, idx, keys, values);
+
+		for (int r = 0; r < 10; r++) {
+			for (int i = 0; i < N / 10; i++) {
+				int pos = R.nextInt(keys.size());
+				switch (R.nextInt(3)) {
+				case 0:
+					double[] p = createPoint(R);
+					keys.add(p);
+					values.add(N + i);
+					idx.insert(p, N + i);
+					break;
+				case 1:
+					assertEquals(values.get(pos), idx.remove(keys.get(pos)));
+					keys.set(pos, keys.get(keys.size() - 1));
+					values.set(pos, values.get(values.size() - 1));
+					keys.remove(keys.size() - 1);
+					values.remove(values.size() - 1);
+					break;
+				default:
+					double[] p2 = createPoint(R);
+					assertEquals(values.get(pos), idx.update(keys.get(pos), p2));
+					keys.set(pos, p2);
+				}
+			}
+			checkPoints(R, idx, keys, values);
+		}
+
+		double[][] oldKeys = new double[N / 10][];
+		double[][] newKeys = new double[N / 10][];
+		for (int i = 0; i < oldKeys.length; i++) {
+			oldKeys[i] = keys.get(i);
+			newKeys[i] = createPoint(R);
+			keys.set(i, newKeys[i]);
+		}
+		assertEquals(oldKeys.length, idx.updateBatch(oldKeys, newKeys));
+		checkPoints(R, idx, keys, values);
+
+		idx.clear();
+		keys.clear();
+		values.clear();
+		checkPoints(R, idx, keys, values);
+		for (int i = 0; i < 100; i++) {
+			double[] p = createPoint(R);
+			keys.add(p);
+			values.add(i);
+			idx.insert(p, i);
+		}
+		checkPoints(R, idx, keys, values);
+	}
+
+	private void checkPoints(Random R, PointIndex<Integer> idx,
+			List<double[]> keys, List<Integer> values) {
+		for (int i = 0; i < 50; i++) {
+			double[] min = createPoint(R);
+			double[] max = new double[DIMS];
+			Arrays.setAll(max, d -> min[d] + R.nextDouble() * 0.5);
+			Aggregate expected = new Aggregate();
+			Aggregate expectedNeg = new Aggregate();
+			for (int j = 0; j < keys.size(); j++) {
+				if (isInside(keys.get(j), keys.get(j), min, max)) {
+					expected.add(values.get(j));
+					expectedNeg.add(-values.get(j));
+				}
+			}
+			assertEquals(expected.getCount(), idx.count(min, max));
+			check(expected, idx.aggregate(min, max, EXTRACTOR));
+			check(expectedNeg, idx.aggregate(min, max, NEGATIVE));
+		}
+	}
+
+	private void testRectangleIndex(RectangleIndex<Integer> idx) {
+		Random R = new Random(0);
+		List<double[]> lower = new ArrayList<>();
+		List<double[]> upper = new ArrayList<>();
+		List<Integer> values = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			double[] lo = createPoint(R);
+			double[] up = createUpper(R, lo);
+			lower.add(lo);
+			upper.add(up);
+			values.add(i);
+			idx.insert(lo, up, i);
+		}
+		checkRectangles(R, idx, lower, upper, values);
+
+		for (int r = 0; r < 10; r++) {
+			for (int i = 0; i < N / 10; i++) {
+				int pos = R.nextInt(lower.size());
+				switch (R.nextInt(3)) {
+				case 0:
+					double[] lo = createPoint(R);
+					lower.add(lo);
+					upper.add(createUpper(R, lo));
+					values.add(N + i);
+					idx.insert(lo, upper.get(upper.size() - 1), N + i);
+					break;
+				case 1:
+					assertEquals(values.get(pos), idx.remove(lower.get(pos), upper.get(pos)));
+					int last = lower.size() - 1;
+					lower.set(pos, lower.get(last));
+					upper.set(pos, upper.get(last));
+					values.set(pos, values.get(last));
+					lower.remove(last);
+					upper.remove(last);
+					values.remove(last);
+					break;
+				default:
+					//small moves often stay in the same leaf
+					double[] lo2 = lower.get(pos).clone();
+					double[] up2 = upper.get(pos).clone();
+					double delta = R.nextBoolean() ? 0.001 : R.nextDouble() - 0.5;
+					for (int d = 0; d < DIMS; d++) {
+						lo2[d] += delta;
+						up2[d] += delta;
+					}
+					assertEquals(values.get(pos),
+							idx.update(lower.get(pos), upper.get(pos), lo2, up2));
+					lower.set(pos, lo2);
+					upper.set(pos, up2);
+				}
+			}
+			checkRectangles(R, idx, lower, upper, values);
+		}
+
+		idx.clear();
+		lower.clear();
+		upper.clear();
+		values.clear();
+		checkRectangles(R, idx, lower, upper, values);
+	}
+
+	private void checkRectangles(Random R, RectangleIndex<Integer> idx,
+			List<double[]> lower, List<double[]> upper, List<Integer> values) {
+		for (int i = 0; i < 50; i++) {
+			double[] min = createPoint(R);
+			double[] max = new double[DIMS];
+			Arrays.setAll(max, d -> min[d] + R.nextDouble() * 0.5);
+			Aggregate expected = new Aggregate();
+			Aggregate expectedNeg = new Aggregate();
+			for (int j = 0; j < lower.size(); j++) {
+				if (intersects(lower.get(j), upper.get(j), min, max)) {
+					expected.add(values.get(j));
+					expectedNeg.add(-values.get(j));
+				}
+			}
+			assertEquals(expected.getCount(), idx.countIntersect(min, max));
+			check(expected, idx.aggregateIntersect(min, max, EXTRACTOR));
+			check(expectedNeg, idx.aggregateIntersect(min, max, NEGATIVE));
+		}
+	}
+
+	private static void check(Aggregate expected, Aggregate a) {
+		assertEquals(expected.getCount(), a.getCount());
+		assertEquals(expected.getSum(), a.getSum(), 0);
+		assertEquals(expected.getMin(), a.getMin(), 0);
+		assertEquals(expected.getMax(), a.getMax(), 0);
+	}
+
+	private static boolean isInside(double[] lo, double[] up, double[] min, double[] max) {
+		for (int d = 0; d < DIMS; d++) {
+			if (lo[d] < min[d] || up[d] > max[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean intersects(double[] lo, double[] up, double[] min, double[] max) {
+		for (int d = 0; d < DIMS; d++) {
+			if (lo[d] > max[d] || up[d] < min[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double[] createPoint(Random R) {
+		double[] p = new double[DIMS];
+		Arrays.setAll(p, i -> R.nextDouble());
+		return p;
+	}
+
+	private static double[] createUpper(Random R, double[] lo) {
+		double[] up = new double[DIMS];
+		Arrays.setAll(up, i -> lo[i] + R.nextDouble() * 0.05);
+		return up;
+	}
+}
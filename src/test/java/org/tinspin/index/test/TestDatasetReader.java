@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import org.tinspin.index.test.util.BinaryDatasetReader;
+import org.tinspin.index.test.util.CsvDatasetReader;
+import org.tinspin.index.test.util.DatasetReader;
+import org.tinspin.index.test.util.TestRunner;
+import org.tinspin.index.test.util.TestStats;
+import org.tinspin.index.test.util.TestStats.INDEX;
+import org.tinspin.index.test.util.TestStats.TST;
+
+public class TestDatasetReader extends AbstractWrapperTest {
+
+	private static final int EXTRA = 500;
+
+	private Path file;
+
+	@After
+	public void after() throws IOException {
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testCsv() throws IOException {
+		double[] values = createValues(1000 * 6);
+		file = Files.createTempFile("tinspin", ".csv");
+		try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file))) {
+			pw.println("x1,y1,z1,x2,y2,z2");
+			pw.println("# comment");
+			for (int i = 0; i < values.length; i += 6) {
+				for (int j = 0; j < 6; j++) {
+					pw.print(values[i + j]);
+					pw.print(j == 5 ? (i % 3 == 0 ? ",ignored" : "") : i % 2 == 0 ? ", " : "\t");
+				}
+				pw.print(i % 4 == 0 ? "\r\n" : "\n");
+				if (i % 100 == 0) {
+					pw.println();
+				}
+			}
+			//no final line break
+			pw.print("1e3;2;3;4;5;6");
+		}
+		//small windows to test lines that span windows
+		for (int windowSize : new int[]{200, 1000, DatasetReader.DEFAULT_WINDOW_SIZE}) {
+			try (DatasetReader r = new CsvDatasetReader(file, 3, true, windowSize)) {
+				double[] result = readAll(r, values.length + 6);
+				assertEquals(1001, r.getEntryCount());
+				for (int i = 0; i < values.length; i++) {
+					assertEquals(values[i], result[i], 0);
+				}
+				assertArrayEquals(new double[]{1000, 2, 3, 4, 5, 6}, 
+						copy(result, values.length, 6), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testBinary() throws IOException {
+		double[] values = createValues(1000 * 3);
+		file = Files.createTempFile("tinspin", ".bin");
+		ByteBuffer bb = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		bb.asDoubleBuffer().put(values);
+		Files.write(file, bb.array());
+		for (int windowSize : new int[]{100, 1000, DatasetReader.DEFAULT_WINDOW_SIZE}) {
+			try (DatasetReader r = new BinaryDatasetReader(file, 3, false, windowSize)) {
+				assertArrayEquals(values, readAll(r, values.length), 0);
+				assertEquals(1000, r.getEntryCount());
+				double[] min = r.getMin();
+				for (int i = 0; i < values.length; i++) {
+					assertEquals(true, values[i] >= min[i % 3]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStreamedPoints() throws IOException {
+		file = Files.createTempFile("tinspin", ".csv");
+		Random R = new Random(0);
+		try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file))) {
+			for (int i = 0; i < N + EXTRA; i++) {
+				pw.println(R.nextDouble() + "," + R.nextDouble() + "," + R.nextDouble());
+			}
+		}
+		TestStats expected = runStreamed(INDEX.ARRAY, TST.CSV, false, N);
+		for (INDEX idx : new INDEX[]{INDEX.KDTREE, INDEX.QUAD2, INDEX.STR, INDEX.SHARDED}) {
+			compare(expected, runStreamed(idx, TST.CSV, false, N));
+		}
+		//request more entries than available
+		runStreamed(INDEX.KDTREE, TST.CSV, false, 2 * N);
+	}
+
+	@Test
+	public void testStreamedRectangles() throws IOException {
+		file = Files.createTempFile("tinspin", ".bin");
+		Random R = new Random(0);
+		ByteBuffer bb = ByteBuffer.allocate((N + EXTRA) * 6 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < N + EXTRA; i++) {
+			double[] lo = {R.nextDouble(), R.nextDouble(), R.nextDouble()};
+			for (double d : lo) {
+				bb.putDouble(d);
+			}
+			for (double d : lo) {
+				bb.putDouble(d + R.nextDouble() * 0.01);
+			}
+		}
+		Files.write(file, bb.array());
+		TestStats expected = runStreamed(INDEX.ARRAY, TST.BINARY, true, N);
+		for (INDEX idx : new INDEX[]{INDEX.RSTAR, INDEX.STR, INDEX.QUAD}) {
+			compare(expected, runStreamed(idx, TST.BINARY, true, N));
+		}
+		runStreamed(INDEX.RSTAR, TST.BINARY, true, 2 * N);
+	}
+
+	private TestStats runStreamed(INDEX idx, TST tst, boolean isRangeData, int n) {
+		TestStats ts = createUnitTestStats(idx, tst, n, dims, isRangeData, 1.0);
+		ts.paramStr = file.toString();
+		ts.cfgStreamChunkSize = 999;
+		new TestRunner(ts).run();
+		assertEquals(Math.min(n, N + EXTRA), ts.getN());
+		return ts;
+	}
+
+	private static void compare(TestStats expected, TestStats ts) {
+		assertEquals(expected.statNq1, ts.statNq1);
+		assertEquals(expected.statNq2, ts.statNq2);
+		assertEquals(expected.statNqp1, ts.statNqp1);
+		assertEquals(expected.statNqp2, ts.statNqp2);
+		assertEquals(expected.statDqk10_1, ts.statDqk10_1, 1e-9);
+	}
+
+	private static double[] readAll(DatasetReader r, int n) {
+		double[] result = new double[n];
+		double[] buf = new double[7 * r.getEntrySize()];
+		int pos = 0;
+		int nRead;
+		while ((nRead = r.read(buf)) > 0) {
+			System.arraycopy(buf, 0, result, pos, nRead * r.getEntrySize());
+			pos += nRead * r.getEntrySize();
+		}
+		assertEquals(n, pos);
+		return result;
+	}
+
+	private static double[] copy(double[] a, int from, int len) {
+		double[] r = new double[len];
+		System.arraycopy(a, from, r, 0, len);
+		return r;
+	}
+
+	private static double[] createValues(int n) {
+		Random R = new Random(0);
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++) {
+			switch (i % 4) {
+			case 0: values[i] = R.nextDouble(); break;
+			//short decimals
+			case 1: values[i] = R.nextInt(100_000) / 1000.0; break;
+			case 2: values[i] = -R.nextInt(1000); break;
+			default: values[i] = R.nextGaussian() * 1e-12; break;
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.Stats;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.monitor.IndexMonitor;
+import org.tinspin.index.monitor.IndexMonitor.Op;
+import org.tinspin.index.monitor.LatencyHistogram;
+import org.tinspin.index.monitor.MonitoredPointIndex;
+import org.tinspin.index.monitor.MonitoredRectangleIndex;
+import org.tinspin.index.rtree.RTree;
+
+public class TestIndexMonitor {
+
+	private static final int N = 1_000;
+	private static final int DIMS = 3;
+
+	@Test
+	public void testPointIndex() throws JMException {
+		MonitoredPointIndex<Integer> idx = MonitoredPointIndex.create(KDTree.create(DIMS));
+		IndexMonitor m = idx.getMonitor();
+		Random R = new Random(0);
+		double[][] keys = new double[N][];
+		for (int i = 0; i < N; i++) {
+			keys[i] = createPoint(R);
+			idx.insert(keys[i], i);
+		}
+		for (int i = 0; i < N / 2; i++) {
+			double[] p = createPoint(R);
+			assertEquals(i, (int) idx.update(keys[i], p));
+			keys[i] = p;
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, (int) idx.queryExact(keys[i]));
+			assertEquals(i, (int) idx.remove(keys[i]));
+			count(idx.query(keys[i], keys[i]));
+			assertEquals(3, count(idx.queryKNN(keys[i], 3)));
+		}
+		//not exhausted -> not recorded
+		assertTrue(idx.queryKNN(keys[0], 3).hasNext());
+
+		assertEquals(N, m.getHistogram(Op.INSERT).getCount());
+		assertEquals(N / 2, m.getHistogram(Op.UPDATE).getCount());
+		assertEquals(10, m.getHistogram(Op.REMOVE).getCount());
+		assertEquals(10, m.getHistogram(Op.QUERY_EXACT).getCount());
+		assertEquals(10, m.getHistogram(Op.QUERY_WINDOW).getCount());
+		assertEquals(10, m.getHistogram(Op.QUERY_KNN).getCount());
+		assertEquals(N, m.getInsert().getCount());
+		assertTrue(m.getInsert().getRatePerSecond() > 0);
+		assertTrue(m.getInsert().getP50Nanos() <= m.getInsert().getP99Nanos());
+		assertTrue(m.getInsert().getP99Nanos() <= m.getInsert().getMaxNanos());
+		assertEquals(N - 10, m.getSize());
+		//structure information requires a snapshot
+		assertEquals(-1, m.getDepth());
+		assertEquals(-1, m.getNodeCount());
+		assertNull(m.getStructureStats());
+		m.publishSnapshot();
+		Stats s = idx.getStats();
+		assertTrue(m.getDepth() > 0);
+		assertEquals(s.getMaxDepth(), m.getDepth());
+		assertEquals(s.getNodeCount(), m.getNodeCount());
+		assertTrue(m.getEstimatedMemoryBytes() > 0);
+		assertEquals(s.getEstimatedBytes(), m.getEstimatedMemoryBytes());
+		assertTrue(m.getSnapshotAgeMillis() >= 0);
+		assertNull(m.getSnapshotError());
+
+		//JMX
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		m.register("testPointIndex");
+		ObjectName on = m.getObjectName();
+		assertNotNull(on);
+		try {
+			assertEquals(N - 10, server.getAttribute(on, "Size"));
+			assertEquals("KDTree", server.getAttribute(on, "IndexType"));
+			assertNotNull(server.getAttribute(on, "StructureStats"));
+			CompositeData cd = (CompositeData) server.getAttribute(on, "Insert");
+			assertEquals((long) N, cd.get("count"));
+			server.invoke(on, "resetMetrics", null, null);
+			assertEquals(0, m.getInsert().getCount());
+		} finally {
+			m.unregister();
+		}
+		assertNull(m.getObjectName());
+		assertFalse(server.isRegistered(on));
+	}
+
+	@Test
+	public void testRectangleIndex() {
+		MonitoredRectangleIndex<Integer> idx = MonitoredRectangleIndex.create(RTree.createRStar(DIMS));
+		IndexMonitor m = idx.getMonitor();
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] p = createPoint(R);
+			idx.insert(p, p, i);
+		}
+		double[] min = {0.2, 0.2, 0.2};
+		double[] max = {0.5, 0.5, 0.5};
+		count(idx.queryIntersect(min, max));
+		idx.queryKNN(new double[][]{min, max}, 3, (i, list) -> assertEquals(3, list.size()));
+		assertEquals(N, m.getInsert().getCount());
+		assertEquals(1, m.getWindowQuery().getCount());
+		assertEquals(2, m.getKnnQuery().getCount());
+	}
+
+	@Test
+	public void testSnapshotError() {
+		//an index that fails on every call
+		@SuppressWarnings("unchecked")
+		PointIndex<Integer> broken = (PointIndex<Integer>) Proxy.newProxyInstance(
+				PointIndex.class.getClassLoader(), new Class<?>[]{PointIndex.class}, 
+				(proxy, method, args) -> {
+					throw new IllegalStateException("broken");
+				});
+		IndexMonitor m = MonitoredPointIndex.create(broken).getMonitor();
+		m.publishSnapshot();
+		assertTrue(m.getSnapshotError().contains("broken"));
+		assertEquals(-1, m.getDepth());
+		assertEquals(-1, m.getNodeCount());
+		assertNull(m.getStructureStats());
+	}
+
+	@Test
+	public void testSnapshotSingleTraversal() {
+		//count the calls of the index that may traverse the structure
+		PointIndex<Integer> tree = KDTree.create(DIMS);
+		List<String> calls = new ArrayList<>();
+		@SuppressWarnings("unchecked")
+		PointIndex<Integer> counting = (PointIndex<Integer>) Proxy.newProxyInstance(
+				PointIndex.class.getClassLoader(), new Class<?>[]{PointIndex.class}, 
+				(proxy, method, args) -> {
+					calls.add(method.getName());
+					return method.invoke(tree, args);
+				});
+		MonitoredPointIndex<Integer> idx = MonitoredPointIndex.create(counting);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			idx.insert(createPoint(R), i);
+		}
+		calls.clear();
+		idx.getMonitor().publishSnapshot();
+		assertEquals(Arrays.asList("getStats"), calls);
+		assertNull(idx.getMonitor().getSnapshotError());
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getPercentileNanos(0.5));
+		for (int i = 1; i <= 1000; i++) {
+			h.record(i);
+		}
+		h.record(1_000_000, 10);
+		assertEquals(1010, h.getCount());
+		assertEquals(1_000_000, h.getMaxNanos());
+		//500 is in bucket [256, 512)
+		assertEquals(511, h.getPercentileNanos(0.5));
+		assertEquals(1_000_000, h.getPercentileNanos(0.999));
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMaxNanos());
+	}
+
+	@Test
+	public void testHistogramPrecision() {
+		LatencyHistogram h = new LatencyHistogram(7);
+		for (int i = 1; i <= 100_000; i++) {
+			h.record(i);
+		}
+		//accurate to 1/128
+		assertEquals(50_000, h.getPercentileNanos(0.5), 50_000 / 128);
+		assertEquals(99_000, h.getPercentileNanos(0.99), 99_000 / 128);
+		assertEquals(100_000, h.getPercentileNanos(1));
+		//small values are recorded exactly
+		h.reset();
+		h.record(100);
+		assertEquals(100, h.getPercentileNanos(0.5));
+		//bucket boundaries are contiguous
+		for (int i = 0; i < h.getBuckets().length - 1; i++) {
+			assertTrue(h.getUpperBoundNanos(i) < h.getUpperBoundNanos(i + 1));
+		}
+		h.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, h.getPercentileNanos(1));
+	}
+
+	private static double[] createPoint(Random R) {
+		double[] p = new double[DIMS];
+		Arrays.setAll(p, d -> R.nextDouble());
+		return p;
+	}
+
+	private static int count(Iterator<?> it) {
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+}
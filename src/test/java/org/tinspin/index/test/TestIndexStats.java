@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+import org.tinspin.index.Index;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.Stats;
+import org.tinspin.index.array.PointArray;
+import org.tinspin.index.array.RectArray;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.phtree.PHTreeP;
+import org.tinspin.index.phtree.PHTreeR;
+import org.tinspin.index.qthypercube.QuadTreeKD;
+import org.tinspin.index.qthypercube.QuadTreeRKD;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+import org.tinspin.index.qtplain.QuadTreeKD0;
+import org.tinspin.index.qtplain.QuadTreeRKD0;
+import org.tinspin.index.rtree.RTree;
+import org.tinspin.index.rtree.RTree.RTreeStats;
+import org.tinspin.index.shard.ShardedPointIndex;
+
+public class TestIndexStats {
+
+	private static final int N = 10_000;
+	private static final int DIMS = 3;
+
+	@Test
+	public void testKDTree() {
+		checkPoints(KDTree::create);
+	}
+
+	@Test
+	public void testQuadTreeKD() {
+		checkPoints(QuadTreeKD::create);
+	}
+
+	@Test
+	public void testQuadTreeKD0() {
+		checkPoints(QuadTreeKD0::create);
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		checkPoints(QuadTreeKD2::create);
+	}
+
+	@Test
+	public void testPointArray() {
+		checkPoints(dims -> new PointArray<>(dims, N));
+	}
+
+	@Test
+	public void testPHTreeP() {
+		PointIndex<Integer> idx = PHTreeP.createPHTree(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			idx.insert(createPoint(R), i);
+		}
+		Stats s = idx.getStats();
+		assertEquals(N, s.getEntryCount());
+		assertEquals(idx.getNodeCount(), s.getNodeCount());
+		assertTrue(s.getEstimatedBytes() > 0);
+	}
+
+	@Test
+	public void testShardedPoints() {
+		checkPoints(dims -> ShardedPointIndex.create(dims, 4, () -> KDTree.create(dims)));
+	}
+
+	@Test
+	public void testRTree() {
+		RTreeStats s = (RTreeStats) checkRectangles(RTree::createRStar);
+		assertTrue(s.getOverlapRatio() >= 0);
+		assertTrue(s.getDeadSpaceRatio() > 0);
+		assertTrue(s.getFillFactor() > 0.3);
+		assertTrue(s.getFillFactor() <= 1);
+		assertEquals(1, s.getDepthHistogram().length - s.getMaxDepth());
+	}
+
+	@Test
+	public void testQuadTreeRKD() {
+		checkRectangles(QuadTreeRKD::create);
+	}
+
+	@Test
+	public void testQuadTreeRKD0() {
+		checkRectangles(QuadTreeRKD0::create);
+	}
+
+	@Test
+	public void testRectArray() {
+		checkRectangles(dims -> new RectArray<>(dims, N));
+	}
+
+	@Test
+	public void testPHTreeR() {
+		RectangleIndex<Integer> idx = PHTreeR.createPHTree(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] lo = createPoint(R);
+			idx.insert(lo, createUpper(R, lo), i);
+		}
+		Stats s = idx.getStats();
+		assertEquals(N, s.getEntryCount());
+		assertEquals(idx.getNodeCount(), s.getNodeCount());
+	}
+
+	private static void checkPoints(IntFunction<PointIndex<Integer>> factory) {
+		PointIndex<Integer> idx = factory.apply(DIMS);
+		//the arrays are never empty
+		check(idx, idx.size());
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			idx.insert(createPoint(R), i);
+		}
+		check(idx, N);
+	}
+
+	private static Stats checkRectangles(IntFunction<RectangleIndex<Integer>> factory) {
+		RectangleIndex<Integer> idx = factory.apply(DIMS);
+		//the arrays are never empty
+		check(idx, idx.size());
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] lo = createPoint(R);
+			idx.insert(lo, createUpper(R, lo), i);
+		}
+		return check(idx, N);
+	}
+
+	private static Stats check(Index<?> idx, int n) {
+		Stats s = idx.getStats();
+		assertEquals(DIMS, s.getDims());
+		assertEquals(n, s.getEntryCount());
+		assertEquals(idx.getNodeCount(), s.getNodeCount());
+		assertEquals(s.getNodeCount(), s.getInnerNodeCount() + s.getLeafNodeCount());
+		assertEquals(n, Arrays.stream(s.getDepthHistogram()).sum());
+		assertTrue(s.getDepthHistogram().length <= s.getMaxDepth() + 1);
+		assertEquals(idx.estimateMemoryBytes(), s.getEstimatedBytes());
+		return s;
+	}
+
+	private static double[] createPoint(Random R) {
+		double[] p = new double[DIMS];
+		Arrays.setAll(p, d -> R.nextDouble());
+		return p;
+	}
+
+	private static double[] createUpper(Random R, double[] lo) {
+		double[] up = new double[DIMS];
+		Arrays.setAll(up, d -> lo[d] + R.nextDouble() * 0.01);
+		return up;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.PointIndexWrapper;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.qthypercube.QuadTreeKD;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+import org.tinspin.index.rtree.RTree;
+
+public class TestKnnBatch {
+
+	private static final int N = 10_000;
+	private static final int N_QUERY = 2_000;
+	private static final int DIMS = 3;
+	private static final int K = 10;
+	private static final double EPS = 1e-12;
+
+	@Test
+	public void testKDTree() {
+		checkPoints(KDTree::create);
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		checkPoints(QuadTreeKD2::create);
+	}
+
+	@Test
+	public void testPointWrapper() {
+		checkPoints(dims -> PointIndexWrapper.create(RTree.createRStar(dims)));
+	}
+
+	@Test
+	public void testDefault() {
+		checkPoints(QuadTreeKD::create);
+	}
+
+	@Test
+	public void testRTree() {
+		RectangleIndex<Integer> idx = RTree.createRStar(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] lo = new double[DIMS];
+			double[] up = new double[DIMS];
+			for (int d = 0; d < DIMS; d++) {
+				lo[d] = R.nextDouble();
+				up[d] = lo[d] + R.nextDouble() * 0.01;
+			}
+			idx.insert(lo, up, i);
+		}
+		double[][] centers = createQueries(R);
+		double[][] results = new double[centers.length][];
+		idx.queryKNN(centers, K, (i, list) -> results[i] = distances(list.iterator()));
+		for (int i = 0; i < centers.length; i++) {
+			Iterator<RectangleEntryDist<Integer>> it = idx.queryKNN(centers[i], K);
+			assertArrayEquals(distances(it), results[i], EPS);
+		}
+	}
+
+	private static void checkPoints(IntFunction<PointIndex<Integer>> factory) {
+		PointIndex<Integer> idx = factory.apply(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] p = new double[DIMS];
+			//use integers to get many equal distances
+			Arrays.setAll(p, d -> R.nextInt(50) / 50.);
+			idx.insert(p, i);
+		}
+		double[][] centers = createQueries(R);
+		double[][] results = new double[centers.length][];
+		idx.queryKNN(centers, K, (i, list) -> results[i] = distances(list.iterator()));
+		for (int i = 0; i < centers.length; i++) {
+			assertNotNull(results[i]);
+			Iterator<PointEntryDist<Integer>> it = idx.queryKNN(centers[i], K);
+			assertArrayEquals(distances(it), results[i], EPS);
+		}
+
+		//empty input
+		idx.queryKNN(new double[0][], K, (i, list) -> { throw new IllegalStateException(); });
+	}
+
+	@Test
+	public void testAllKnnKDTree() {
+		checkAllKnn(KDTree::create);
+	}
+
+	@Test
+	public void testAllKnnQuadTreeKD2() {
+		checkAllKnn(QuadTreeKD2::create);
+	}
+
+	@Test
+	public void testAllKnnDefault() {
+		checkAllKnn(QuadTreeKD::create);
+	}
+
+	private static void checkAllKnn(IntFunction<PointIndex<Integer>> factory) {
+		PointIndex<Integer> idx = factory.apply(DIMS);
+		Random R = new Random(0);
+		int n = 5_000;
+		for (int i = 0; i < n; i++) {
+			double[] p = new double[DIMS];
+			Arrays.setAll(p, d -> R.nextInt(50) / 50.);
+			idx.insert(p, i);
+		}
+		double[][] results = new double[n][];
+		double[][] points = new double[n][];
+		idx.queryAllKNN(K, (e, list) -> {
+			results[e.value()] = distances(list.iterator());
+			points[e.value()] = e.point();
+		});
+		for (int i = 0; i < n; i++) {
+			assertNotNull(results[i]);
+			//the point itself is part of the result
+			assertEquals(0, results[i][0], 0);
+			Iterator<PointEntryDist<Integer>> it = idx.queryKNN(points[i], K);
+			assertArrayEquals(distances(it), results[i], EPS);
+		}
+	}
+
+	private static double[][] createQueries(Random R) {
+		double[][] centers = new double[N_QUERY][DIMS];
+		for (double[] c : centers) {
+			Arrays.setAll(c, d -> R.nextDouble());
+		}
+		//Some duplicates
+		centers[1] = centers[0];
+		centers[3] = centers[2].clone();
+		return centers;
+	}
+
+	private static double[] distances(Iterator<?> it) {
+		double[] result = new double[K];
+		int n = 0;
+		while (it.hasNext()) {
+			Object o = it.next();
+			result[n++] = o instanceof PointEntryDist
+					? ((PointEntryDist<?>) o).dist() : ((RectangleEntryDist<?>) o).dist();
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
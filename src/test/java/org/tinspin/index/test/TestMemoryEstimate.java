@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+import org.tinspin.index.Index;
+import org.tinspin.index.MemoryModel;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.array.PointArray;
+import org.tinspin.index.array.RectArray;
+import org.tinspin.index.critbit.CritBit;
+import org.tinspin.index.critbit.CritBit64;
+import org.tinspin.index.critbit.CritBitKD;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.phtree.PHTreeP;
+import org.tinspin.index.qthypercube.QuadTreeKD;
+import org.tinspin.index.qthypercube.QuadTreeRKD;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+import org.tinspin.index.qtplain.QuadTreeKD0;
+import org.tinspin.index.qtplain.QuadTreeRKD0;
+import org.tinspin.index.rtree.RTree;
+import org.tinspin.index.shard.ShardedPointIndex;
+
+public class TestMemoryEstimate {
+
+	private static final int N = 10_000;
+	private static final int DIMS = 3;
+	
+	@Test
+	public void testKDTree() {
+		checkPoints(KDTree::create);
+		KDTree<Integer> tree = KDTree.create(DIMS);
+		assertEquals(0, tree.estimateMemoryBytes());
+		tree.insert(new double[]{1, 2, 3}, 1);
+		assertEquals(MemoryModel.object(4, 4) + MemoryModel.doubleArray(DIMS), 
+				tree.estimateMemoryBytes());
+	}
+
+	@Test
+	public void testQuadTreeKD() {
+		checkPoints(QuadTreeKD::create);
+	}
+
+	@Test
+	public void testQuadTreeKD0() {
+		checkPoints(QuadTreeKD0::create);
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		checkPoints(QuadTreeKD2::create);
+	}
+
+	@Test
+	public void testShardedPoints() {
+		checkPoints(dims -> ShardedPointIndex.create(dims, 4, () -> KDTree.create(dims)));
+	}
+
+	@Test
+	public void testPHTreeP() {
+		checkPoints(PHTreeP::createPHTree);
+	}
+
+	@Test
+	public void testRTree() {
+		checkRectangles(RTree::createRStar);
+	}
+
+	@Test
+	public void testQuadTreeRKD() {
+		checkRectangles(QuadTreeRKD::create);
+	}
+
+	@Test
+	public void testQuadTreeRKD0() {
+		checkRectangles(QuadTreeRKD0::create);
+	}
+
+	@Test
+	public void testArrays() {
+		PointArray<Integer> pa = new PointArray<>(DIMS, N);
+		long empty = pa.estimateMemoryBytes();
+		assertTrue(empty >= N * MemoryModel.doubleArray(DIMS));
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			pa.insert(createPoint(R), i);
+		}
+		assertTrue(pa.estimateMemoryBytes() > empty);
+
+		RectArray<Integer> ra = new RectArray<>(DIMS, N);
+		empty = ra.estimateMemoryBytes();
+		assertTrue(empty >= 2 * N * MemoryModel.doubleArray(DIMS));
+		for (int i = 0; i < N; i++) {
+			double[] lo = createPoint(R);
+			ra.insert(lo, createUpper(R, lo), i);
+		}
+		assertTrue(ra.estimateMemoryBytes() > empty);
+	}
+
+	@Test
+	public void testCritBit64() {
+		CritBit64<Integer> cb = CritBit64.create();
+		long empty = cb.estimateMemoryBytes();
+		cb.put(1, 1);
+		assertEquals(empty, cb.estimateMemoryBytes());
+		Random R = new Random(0);
+		while (cb.size() < N) {
+			cb.put(R.nextLong(), 1);
+		}
+		assertEquals(empty + (N - 1) * MemoryModel.object(4, 17), cb.estimateMemoryBytes());
+	}
+
+	@Test
+	public void testCritBitKD() {
+		CritBitKD<Integer> cb = CritBit.createKD(64, DIMS);
+		long empty = cb.estimateMemoryBytes();
+		Random R = new Random(0);
+		long prev = empty;
+		for (int i = 1; i <= N; i++) {
+			long[] key = new long[DIMS];
+			Arrays.setAll(key, d -> R.nextLong());
+			cb.putKD(key, i);
+			if (i % 1000 == 0) {
+				long mem = cb.estimateMemoryBytes();
+				assertTrue(mem > prev);
+				prev = mem;
+			}
+		}
+		//at least one node per entry with at least two long[]
+		assertTrue(prev > empty + (N - 1) * MemoryModel.object(7, 8));
+	}
+
+	private static void checkPoints(IntFunction<PointIndex<Integer>> factory) {
+		PointIndex<Integer> idx = factory.apply(DIMS);
+		assertTrue(idx.estimateMemoryBytes() >= 0);
+		Random R = new Random(0);
+		double[][] keys = new double[N][];
+		for (int i = 0; i < N; i++) {
+			keys[i] = createPoint(R);
+			idx.insert(keys[i], i);
+			if (i == N / 2) {
+				checkPerEntry(idx);
+			}
+		}
+		long full = checkPerEntry(idx);
+		for (int i = 0; i < N / 2; i++) {
+			idx.remove(keys[i]);
+		}
+		assertTrue(idx.estimateMemoryBytes() < full);
+	}
+
+	private static void checkRectangles(IntFunction<RectangleIndex<Integer>> factory) {
+		RectangleIndex<Integer> idx = factory.apply(DIMS);
+		assertTrue(idx.estimateMemoryBytes() >= 0);
+		Random R = new Random(0);
+		double[][] lo = new double[N][];
+		double[][] up = new double[N][];
+		for (int i = 0; i < N; i++) {
+			lo[i] = createPoint(R);
+			up[i] = createUpper(R, lo[i]);
+			idx.insert(lo[i], up[i], i);
+			if (i == N / 2) {
+				checkPerEntry(idx);
+			}
+		}
+		long full = checkPerEntry(idx);
+		for (int i = 0; i < N / 2; i++) {
+			idx.remove(lo[i], up[i]);
+		}
+		assertTrue(idx.estimateMemoryBytes() < full);
+	}
+
+	private static long checkPerEntry(Index<?> idx) {
+		long mem = idx.estimateMemoryBytes();
+		double perEntry = mem / (double) idx.size();
+		//at least the coordinates, at most a few nodes per entry
+		assertTrue(idx + " " + perEntry, perEntry >= DIMS * 8);
+		assertTrue(idx + " " + perEntry, perEntry < 1000);
+		return mem;
+	}
+
+	private static double[] createPoint(Random R) {
+		double[] p = new double[DIMS];
+		Arrays.setAll(p, d -> R.nextDouble());
+		return p;
+	}
+
+	private static double[] createUpper(Random R, double[] lo) {
+		double[] up = new double[DIMS];
+		Arrays.setAll(up, d -> lo[d] + R.nextDouble() * 0.01);
+		return up;
+	}
+}
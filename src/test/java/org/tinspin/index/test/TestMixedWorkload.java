@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.tinspin.index.test.util.MixedWorkload.MIX;
+import org.tinspin.index.test.util.MixedWorkload.OP;
+import org.tinspin.index.test.util.TestRunner;
+import org.tinspin.index.test.util.TestStats;
+import org.tinspin.index.test.util.TestStats.INDEX;
+import org.tinspin.index.test.util.TestStats.TST;
+
+public class TestMixedWorkload extends AbstractWrapperTest {
+
+	private static final int OPS = 2000;
+
+	@Test
+	public void testSingleThread() {
+		check(INDEX.KDTREE, false, MIX.SPATIAL, 1);
+	}
+
+	@Test
+	public void testShardedPoints() {
+		check(INDEX.SHARDED, false, MIX.A, 4);
+	}
+
+	@Test
+	public void testLockedPoints() {
+		check(INDEX.QUAD2, false, MIX.SPATIAL, 4);
+	}
+
+	@Test
+	public void testShardedRectangles() {
+		check(INDEX.SHARDED, true, MIX.SPATIAL, 4);
+	}
+
+	@Test
+	public void testLockedRectangles() {
+		check(INDEX.RSTAR, true, MIX.E, 3);
+	}
+
+	@Test
+	public void testRatios() {
+		TestStats ts = createUnitTestStats(INDEX.KDTREE, TST.CUBE, N, dims, false, 1.0);
+		ts.cfgMixedRatios = new int[]{0, 0, 1, 1};
+		ts.cfgMixedOps = OPS;
+		new TestRunner(ts).run();
+		assertEquals(0, ts.statMixedLatency[OP.POINT_QUERY.ordinal()][0]);
+		assertEquals(0, ts.statMixedLatency[OP.WINDOW_QUERY.ordinal()][0]);
+		assertEquals(OPS, ts.statMixedLatency[OP.KNN_QUERY.ordinal()][0] 
+				+ ts.statMixedLatency[OP.UPDATE.ordinal()][0]);
+	}
+
+	private static void check(INDEX idx, boolean isRangeData, MIX mix, int nThreads) {
+		TestStats ts = createUnitTestStats(idx, TST.CUBE, N, dims, isRangeData, 1.0);
+		ts.cfgMixedWorkload = mix;
+		ts.cfgMixedThreads = nThreads;
+		ts.cfgMixedOps = OPS;
+		new TestRunner(ts).run();
+
+		long n = 0;
+		for (OP op : OP.values()) {
+			long[] lat = ts.statMixedLatency[op.ordinal()];
+			n += lat[0];
+			if (lat[0] > 0) {
+				//p50 <= p99 <= p999 <= max
+				for (int i = 1; i < lat.length - 1; i++) {
+					assertTrue(lat[i] <= lat[i + 1]);
+				}
+			}
+		}
+		assertEquals(OPS * nThreads, n);
+		//concurrent updates must always find their entry
+		assertEquals(ts.statMixedLatency[OP.UPDATE.ordinal()][0], ts.statMixedNu);
+		assertTrue(ts.statMixedOpsPerSec > 0);
+	}
+}
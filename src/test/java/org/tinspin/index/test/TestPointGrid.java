@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.grid.PointGrid;
+
+/**
+ * Tests for the PointGrid, including points outside of the grid area. 
+ */
+public class TestPointGrid {
+
+	private static final int N = 5_000;
+
+	@Test
+	public void test1D() {
+		check(1, 0.01);
+	}
+
+	@Test
+	public void test2D() {
+		check(2, 0.05);
+	}
+
+	@Test
+	public void test3D() {
+		check(3, 0.1);
+	}
+
+	@Test
+	public void testSingleCell() {
+		check(2, 10);
+	}
+
+	@Test
+	public void testKnnLargeK() {
+		PointGrid<Integer> grid = create(2, 0.1);
+		grid.insert(new double[]{0.5, 0.5}, 1);
+		grid.insert(new double[]{5, 5}, 2);
+		grid.insert(new double[]{0.5, 0.5}, 3);
+		List<PointEntryDist<Integer>> result = new ArrayList<>();
+		grid.queryKNN(new double[]{-3, 0.2}, 10).forEachRemaining(result::add);
+		assertEquals(3, result.size());
+		assertEquals(2, (int) result.get(2).value());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyCells() {
+		create(3, 0.0001);
+	}
+
+	private static PointGrid<Integer> create(int dims, double cellSize) {
+		double[] min = new double[dims];
+		double[] max = new double[dims];
+		Arrays.fill(max, 1.0);
+		return PointGrid.create(dims, min, max, cellSize);
+	}
+
+	private static void check(int dims, double cellSize) {
+		PointGrid<Integer> grid = create(dims, cellSize);
+		Random R = new Random(0);
+		List<double[]> data = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			double[] p = createPoint(R, dims);
+			data.add(p);
+			grid.insert(p, i);
+		}
+		checkGrid(grid, data, R);
+
+		//small moves stay mostly within the cell
+		for (int r = 0; r < 3; r++) {
+			for (int i = 0; i < N; i++) {
+				double[] p = data.get(i);
+				double[] p2 = p.clone();
+				for (int d = 0; d < dims; d++) {
+					p2[d] += (R.nextDouble() - 0.5) * (i % 10 == 0 ? 1 : 0.001);
+				}
+				assertEquals(i, (int) grid.update(p, p2));
+				data.set(i, p2);
+			}
+			assertEquals(N, grid.size());
+			checkGrid(grid, data, R);
+		}
+
+		for (int i = 0; i < N; i += 2) {
+			double[] p = data.get(i);
+			assertEquals(i, (int) grid.remove(p));
+			assertNull(grid.queryExact(p));
+			data.set(i, null);
+		}
+		assertEquals(N / 2, grid.size());
+		checkGrid(grid, data, R);
+		
+		grid.clear();
+		assertEquals(0, grid.size());
+		assertEquals(0, grid.getNodeCount());
+		assertTrue(!grid.iterator().hasNext());
+	}
+
+	private static void checkGrid(PointGrid<Integer> grid, List<double[]> data, Random R) {
+		int dims = grid.getDims();
+		assertEquals(grid.size(), grid.getStats().getEntryCount());
+		for (int i = 0; i < data.size(); i++) {
+			if (data.get(i) != null) {
+				assertEquals(i, (int) grid.queryExact(data.get(i)));
+			}
+		}
+
+		List<Integer> all = new ArrayList<>();
+		grid.iterator().forEachRemaining(e -> all.add(e.value()));
+		assertEquals(grid.size(), all.size());
+		
+		for (int q = 0; q < 200; q++) {
+			double[] min = createPoint(R, dims);
+			double[] max = min.clone();
+			for (int d = 0; d < dims; d++) {
+				max[d] += R.nextDouble() * 0.3;
+			}
+			List<Integer> expected = new ArrayList<>();
+			for (int i = 0; i < data.size(); i++) {
+				double[] p = data.get(i);
+				if (p != null && isInWindow(p, min, max)) {
+					expected.add(i);
+				}
+			}
+			List<Integer> result = new ArrayList<>();
+			PointIndex<Integer> idx = grid;
+			idx.query(min, max).forEachRemaining(e -> result.add(e.value()));
+			result.sort(null);
+			assertEquals(expected, result);
+		}
+
+		int k = 10;
+		for (int q = 0; q < 100; q++) {
+			double[] p = createPoint(R, dims);
+			double[] expected = data.stream().filter(x -> x != null)
+					.mapToDouble(x -> dist(p, x)).sorted().limit(k).toArray();
+			List<PointEntryDist<Integer>> result = new ArrayList<>();
+			PointIndex<Integer> idx = grid;
+			idx.queryKNN(p, k).forEachRemaining(result::add);
+			assertEquals(k, result.size());
+			for (int i = 0; i < k; i++) {
+				PointEntryDist<Integer> e = result.get(i);
+				assertEquals(dist(p, e.point()), e.dist(), 0.0);
+				assertEquals(expected[i], e.dist(), 0.0);
+			}
+		}
+	}
+
+	private static double[] createPoint(Random R, int dims) {
+		double[] p = new double[dims];
+		for (int d = 0; d < dims; d++) {
+			//some points lie outside of the grid area
+			p[d] = R.nextDouble() * 1.2 - 0.1;
+		}
+		return p;
+	}
+
+	private static boolean isInWindow(double[] p, double[] min, double[] max) {
+		for (int d = 0; d < p.length; d++) {
+			if (p[d] < min[d] || p[d] > max[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double dist(double[] p1, double[] p2) {
+		double dist = 0;
+		for (int d = 0; d < p1.length; d++) {
+			double x = p1[d] - p2[d];
+			dist += x * x;
+		}
+		return Math.sqrt(dist);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointIndexMM;
+import org.tinspin.index.kdtree.KDTreeMM;
+import org.tinspin.index.qthypercube2.QuadTreeKD2MM;
+
+public class TestPointIndexMM {
+
+	private static final int N = 10_000;
+	private static final int DIMS = 3;
+	//number of different keys
+	private static final int N_KEYS = 500;
+
+	@Test
+	public void testKDTree() {
+		check(KDTreeMM::create);
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		check(QuadTreeKD2MM::create);
+	}
+
+	private static void check(IntFunction<PointIndexMM<Integer>> factory) {
+		PointIndexMM<Integer> idx = factory.apply(DIMS);
+		Random R = new Random(0);
+		double[][] keys = new double[N_KEYS][DIMS];
+		for (double[] k : keys) {
+			Arrays.setAll(k, d -> R.nextDouble());
+		}
+		double[][] pos = new double[N][];
+		for (int i = 0; i < N; i++) {
+			pos[i] = keys[R.nextInt(N_KEYS)];
+			idx.insert(pos[i], i);
+		}
+		assertEquals(N, idx.size());
+		checkAll(idx, pos);
+		checkIterator(idx, pos);
+
+		//move every second entry to another key, this should also break the KD-Tree invariant
+		for (int i = 0; i < N; i += 2) {
+			double[] newPos = keys[R.nextInt(N_KEYS)];
+			assertTrue(idx.update(pos[i], newPos, i));
+			pos[i] = newPos;
+		}
+		assertFalse(idx.update(keys[0], keys[1], -1));
+		assertEquals(N, idx.size());
+		checkAll(idx, pos);
+
+		//remove every third entry
+		for (int i = 0; i < N; i += 3) {
+			assertTrue(idx.remove(pos[i], i));
+			assertFalse(idx.remove(pos[i], i));
+			assertFalse(idx.contains(pos[i], i));
+			pos[i] = null;
+		}
+		assertEquals(N - (N + 2) / 3, idx.size());
+		checkAll(idx, pos);
+		checkIterator(idx, pos);
+
+		idx.clear();
+		assertFalse(idx.iterator().hasNext());
+	}
+
+	private static void checkIterator(PointIndexMM<Integer> idx, double[][] pos) {
+		boolean[] seen = new boolean[pos.length];
+		int n = 0;
+		Iterator<? extends PointEntry<Integer>> it = idx.iterator();
+		while (it.hasNext()) {
+			PointEntry<Integer> e = it.next();
+			int i = e.value();
+			assertFalse(seen[i]);
+			seen[i] = true;
+			assertTrue(Arrays.equals(pos[i], e.point()));
+			n++;
+		}
+		assertEquals(idx.size(), n);
+	}
+
+	private static void checkAll(PointIndexMM<Integer> idx, double[][] pos) {
+		for (int i = 0; i < pos.length; i++) {
+			if (pos[i] == null) {
+				continue;
+			}
+			assertTrue(idx.contains(pos[i], i));
+			if (i % 50 != 0) {
+				continue;
+			}
+			Set<Integer> expected = new HashSet<>();
+			for (int j = 0; j < pos.length; j++) {
+				if (pos[j] == pos[i]) {
+					expected.add(j);
+				}
+			}
+			Set<Integer> actual = new HashSet<>();
+			Iterator<PointEntry<Integer>> it = idx.queryExact(pos[i]);
+			while (it.hasNext()) {
+				assertTrue(actual.add(it.next().value()));
+			}
+			assertEquals(expected, actual);
+		}
+	}
+}
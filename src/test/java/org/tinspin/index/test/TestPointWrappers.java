@@ -53,6 +53,10 @@ public class TestPointWrappers extends AbstractWrapperTest {
 		l.add(new Object[]{INDEX.QUAD_OLD});
 		l.add(new Object[]{INDEX.RSTAR});
 		l.add(new Object[]{INDEX.STR});
+		l.add(new Object[]{INDEX.XTREE});
+		l.add(new Object[]{INDEX.SHARDED});
+		l.add(new Object[]{INDEX.GRID});
+		l.add(new Object[]{INDEX.VPTREE});
 //		l.add(new Object[]{INDEX.CRITBIT});
 		return l;
 	}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+
+/**
+ * Tests for the sparse directory nodes of the QuadTreeKD2. 
+ */
+public class TestQuadTreeHighDims {
+
+	private static final int N = 5_000;
+
+	@Test
+	public void test12D() {
+		check(12);
+	}
+
+	@Test
+	public void test16D() {
+		check(16);
+	}
+
+	@Test
+	public void test40D() {
+		check(40);
+	}
+
+	@Test
+	public void test3D() {
+		//full nodes, switching to sparse nodes and back when removing/updating
+		check(3);
+	}
+
+	@Test
+	public void testMemory() {
+		QuadTreeKD2<Integer> tree = QuadTreeKD2.create(16);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			tree.insert(createPoint(R, 16), i);
+		}
+		//full nodes would require 2^16 slots per directory node
+		long full = tree.getStats().getNodeCount() * (1L << 16) * 4;
+		assertTrue(tree.estimateMemoryBytes() < full / 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyDims() {
+		QuadTreeKD2.create(QuadTreeKD2.MAX_DIMS + 1);
+	}
+
+	private static void check(int dims) {
+		QuadTreeKD2<Integer> tree = QuadTreeKD2.create(dims);
+		Random R = new Random(0);
+		double[][] data = new double[N][];
+		for (int i = 0; i < N; i++) {
+			data[i] = createPoint(R, dims);
+			tree.insert(data[i], i);
+		}
+		assertEquals(N, tree.size());
+		tree.getStats();
+		checkQueries(tree, data, R);
+
+		//move half of the entries, remove a quarter
+		for (int i = 0; i < N; i += 2) {
+			double[] p = createPoint(R, dims);
+			assertEquals(i, (int) tree.update(data[i], p));
+			data[i] = p;
+		}
+		for (int i = 1; i < N; i += 4) {
+			assertEquals(i, (int) tree.remove(data[i]));
+			assertNull(tree.queryExact(data[i]));
+			data[i] = null;
+		}
+		assertEquals(N - N / 4, tree.size());
+		tree.getStats();
+		checkQueries(tree, data, R);
+
+		for (int i = 0; i < N; i++) {
+			if (data[i] != null) {
+				assertEquals(i, (int) tree.remove(data[i]));
+			}
+		}
+		assertEquals(0, tree.size());
+	}
+
+	private static void checkQueries(QuadTreeKD2<Integer> tree, double[][] data, Random R) {
+		boolean hci1 = QuadTreeKD2.ENABLE_HCI_1;
+		boolean hci2 = QuadTreeKD2.ENABLE_HCI_2;
+		try {
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] != null) {
+					assertEquals(i, (int) tree.queryExact(data[i]));
+				}
+			}
+			for (int r = 0; r < 20; r++) {
+				//entries with i%4==0 are never removed
+				double[] center = r % 2 == 0 ? createPoint(R, tree.getDims()) : data[R.nextInt(N / 4) * 4];
+				double[] min = new double[center.length];
+				double[] max = new double[center.length];
+				//small windows are navigated with inc(), large windows are scanned
+				double w = r % 2 == 0 ? 0.5 : 0.1;
+				for (int d = 0; d < center.length; d++) {
+					min[d] = center[d] - w;
+					max[d] = center[d] + w;
+				}
+				int expected = 0;
+				for (double[] p : data) {
+					if (p != null && isInside(p, min, max)) {
+						expected++;
+					}
+				}
+				//all three iterator variants
+				for (int hci = 0; hci < 3; hci++) {
+					QuadTreeKD2.ENABLE_HCI_1 = hci == 1;
+					QuadTreeKD2.ENABLE_HCI_2 = hci == 2;
+					int n = 0;
+					for (PointEntry<Integer> e : asList(tree, min, max)) {
+						assertTrue(isInside(e.point(), min, max));
+						n++;
+					}
+					assertEquals(expected, n);
+					assertTrue(r % 2 == 0 || n > 0);
+				}
+
+				List<Double> knn = new ArrayList<>();
+				PointIndex<Integer> idx = tree;
+				idx.queryKNN(center, 10).forEachRemaining(e -> knn.add(e.dist()));
+				double[] dists = Arrays.stream(data).filter(p -> p != null)
+						.mapToDouble(p -> dist(p, center)).sorted().limit(10).toArray();
+				assertEquals(dists.length, knn.size());
+				for (int i = 0; i < dists.length; i++) {
+					assertEquals(dists[i], knn.get(i), 0.0);
+				}
+			}
+		} finally {
+			QuadTreeKD2.ENABLE_HCI_1 = hci1;
+			QuadTreeKD2.ENABLE_HCI_2 = hci2;
+		}
+	}
+
+	private static List<PointEntry<Integer>> asList(QuadTreeKD2<Integer> tree, double[] min, double[] max) {
+		List<PointEntry<Integer>> list = new ArrayList<>();
+		tree.query(min, max).forEachRemaining(list::add);
+		return list;
+	}
+
+	private static boolean isInside(double[] p, double[] min, double[] max) {
+		for (int d = 0; d < p.length; d++) {
+			if (p[d] < min[d] || p[d] > max[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double dist(double[] p1, double[] p2) {
+		double d = 0;
+		for (int i = 0; i < p1.length; i++) {
+			d += (p1[i] - p2[i]) * (p1[i] - p2[i]);
+		}
+		return Math.sqrt(d);
+	}
+
+	/**
+	 * Clustered data, uniform data in 16+ dimensions is too sparse for window queries.
+	 */
+	private static double[] createPoint(Random R, int dims) {
+		double[] p = new double[dims];
+		int cluster = R.nextInt(10);
+		for (int d = 0; d < dims; d++) {
+			p[d] = ((cluster * 7 + d) % 10) * 0.1 + R.nextDouble() * 0.2;
+		}
+		return p;
+	}
+}
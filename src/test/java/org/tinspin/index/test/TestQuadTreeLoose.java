@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.qthypercube.QuadTreeRKD;
+
+/**
+ * Tests for the loose mode of the QuadTreeRKD. 
+ */
+public class TestQuadTreeLoose {
+
+	private static final int N = 5_000;
+
+	@Test
+	public void testStrict2D() {
+		check(QuadTreeRKD.create(2), 2);
+	}
+
+	@Test
+	public void testLoose2D() {
+		check(QuadTreeRKD.createLoose(2), 2);
+	}
+
+	@Test
+	public void testLoose3D() {
+		check(QuadTreeRKD.createLoose(3, 10, 1.5), 3);
+	}
+
+	@Test
+	public void testLooseMaxNodeSize1() {
+		check(QuadTreeRKD.createLoose(2, 1, 2.0), 2);
+	}
+
+	@Test
+	public void testDepth() {
+		//small rectangles on the center line of the root get stuck in the root of a 
+		//strict quadtree
+		QuadTreeRKD<Integer> strict = QuadTreeRKD.create(2);
+		QuadTreeRKD<Integer> loose = QuadTreeRKD.createLoose(2);
+		Random R = new Random(0);
+		strict.insert(new double[]{0, 0}, new double[]{1, 1}, -1);
+		loose.insert(new double[]{0, 0}, new double[]{1, 1}, -1);
+		for (int i = 0; i < N; i++) {
+			double y = R.nextDouble();
+			double[] lo = {0.499, y};
+			double[] up = {0.501, y + 0.001};
+			strict.insert(lo, up, i);
+			loose.insert(lo, up, i);
+		}
+		int nRootStrict = strict.getStats().getDepthHistogram()[0];
+		int nRootLoose = loose.getStats().getDepthHistogram()[0];
+		assertTrue(nRootStrict > N);
+		assertTrue("" + nRootLoose, nRootLoose < 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLooseness() {
+		QuadTreeRKD.createLoose(2, 10, 0.5);
+	}
+
+	private static void check(QuadTreeRKD<Integer> tree, int dims) {
+		Random R = new Random(0);
+		List<double[][]> data = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			double[][] box = createBox(R, dims);
+			data.add(box);
+			tree.insert(box[0], box[1], i);
+		}
+		checkTree(tree, data, R);
+
+		//move boxes, some of them far
+		for (int r = 0; r < 3; r++) {
+			for (int i = 0; i < N; i++) {
+				double[][] box = data.get(i);
+				double[][] box2 = move(R, box, i % 100 == 0 ? 0.5 : 0.01);
+				assertEquals(i, (int) tree.update(box[0], box[1], box2[0], box2[1]));
+				data.set(i, box2);
+			}
+			assertEquals(N, tree.size());
+			checkTree(tree, data, R);
+		}
+
+		for (int i = 0; i < N; i += 2) {
+			double[][] box = data.get(i);
+			assertEquals(i, (int) tree.remove(box[0], box[1]));
+			assertNull(tree.queryExact(box[0], box[1]));
+			data.set(i, null);
+		}
+		assertEquals(N / 2, tree.size());
+		checkTree(tree, data, R);
+	}
+
+	private static void checkTree(QuadTreeRKD<Integer> tree, List<double[][]> data, Random R) {
+		int dims = tree.getDims();
+		//check consistency
+		assertEquals(tree.size(), tree.getStats().getEntryCount());
+		
+		for (int i = 0; i < data.size(); i++) {
+			double[][] box = data.get(i);
+			if (box != null) {
+				assertEquals(i, (int) tree.queryExact(box[0], box[1]));
+			}
+		}
+
+		for (int q = 0; q < 200; q++) {
+			double[][] w = createBox(R, dims);
+			for (int d = 0; d < dims; d++) {
+				w[1][d] += R.nextDouble() * 0.1;
+			}
+			List<Integer> expected = new ArrayList<>();
+			for (int i = 0; i < data.size(); i++) {
+				double[][] box = data.get(i);
+				if (box != null && overlap(box, w)) {
+					expected.add(i);
+				}
+			}
+			List<Integer> result = new ArrayList<>();
+			RectangleIndex<Integer> idx = tree;
+			idx.queryIntersect(w[0], w[1]).forEachRemaining(e -> result.add(e.value()));
+			result.sort(null);
+			assertEquals(expected, result);
+		}
+
+		int k = 10;
+		for (int q = 0; q < 50; q++) {
+			double[] p = createBox(R, dims)[0];
+			double[] expected = data.stream().filter(b -> b != null)
+					.mapToDouble(b -> dist(p, b)).sorted().limit(k).toArray();
+			List<RectangleEntryDist<Integer>> result = new ArrayList<>();
+			RectangleIndex<Integer> idx = tree;
+			idx.queryKNN(p, k).forEachRemaining(result::add);
+			assertEquals(k, result.size());
+			for (int i = 0; i < k; i++) {
+				RectangleEntryDist<Integer> e = result.get(i);
+				assertEquals(dist(p, new double[][]{e.lower(), e.upper()}), e.dist(), 0.0);
+				assertEquals(expected[i], e.dist(), 0.0);
+			}
+		}
+	}
+
+	private static double[][] createBox(Random R, int dims) {
+		double[] lo = new double[dims];
+		double[] up = new double[dims];
+		for (int d = 0; d < dims; d++) {
+			lo[d] = R.nextDouble();
+			//some boxes are points
+			up[d] = R.nextInt(10) == 0 ? lo[d] : lo[d] + R.nextDouble() * 0.01;
+		}
+		return new double[][]{lo, up};
+	}
+
+	private static double[][] move(Random R, double[][] box, double maxDist) {
+		int dims = box[0].length;
+		double[] lo = new double[dims];
+		double[] up = new double[dims];
+		for (int d = 0; d < dims; d++) {
+			double delta = (R.nextDouble() - 0.5) * maxDist;
+			lo[d] = box[0][d] + delta;
+			up[d] = box[1][d] + delta;
+		}
+		return new double[][]{lo, up};
+	}
+
+	private static boolean overlap(double[][] box, double[][] w) {
+		for (int d = 0; d < box[0].length; d++) {
+			if (box[1][d] < w[0][d] || box[0][d] > w[1][d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static double dist(double[] p, double[][] box) {
+		double dist = 0;
+		for (int d = 0; d < p.length; d++) {
+			double x = 0;
+			if (p[d] < box[0][d]) {
+				x = box[0][d] - p[d];
+			} else if (p[d] > box[1][d]) {
+				x = p[d] - box[1][d];
+			}
+			dist += x * x;
+		}
+		return Math.sqrt(dist);
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016-2017 Tilmann Zaeschke
+ * 
+ * This file is part of TinSpin.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.PointDistance;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.QueryIterator;
+import org.tinspin.index.QueryIteratorKNN;
+import org.tinspin.index.RectangleEntry;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.cache.CachedPointIndex;
+import org.tinspin.index.cache.CachedRectangleIndex;
+import org.tinspin.index.cache.QueryCache;
+import org.tinspin.index.cache.QueryCache.Eviction;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.rtree.RTree;
+import org.tinspin.index.vptree.VPTree;
+
+public class TestQueryCache {
+
+	private static final int N = 2_000;
+	private static final int DIMS = 2;
+
+	@Test
+	public void testPointIndexLRU() {
+		testPointIndex(Eviction.LRU);
+	}
+
+	@Test
+	public void testPointIndexLFU() {
+		testPointIndex(Eviction.LFU);
+	}
+
+	private void testPointIndex(Eviction eviction) {
+		Random R = new Random(0);
+		PointIndex<Integer> ref = KDTree.create(DIMS);
+		CachedPointIndex<Integer> idx = CachedPointIndex.create(KDTree.create(DIMS), 20, eviction);
+		List<double[]> keys = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			double[] p = createPoint(R);
+			keys.add(p);
+			ref.insert(p, i);
+			idx.insert(p, i);
+		}
+		double[][] windows = new double[30][];
+		for (int i = 0; i < windows.length; i++) {
+			windows[i] = createPoint(R);
+		}
+
+		int nextValue = N;
+		for (int r = 0; r < 20_000; r++) {
+			double[] min = windows[R.nextInt(windows.length)];
+			double[] max = {min[0] + 0.1, min[1] + 0.1};
+			switch (R.nextInt(10)) {
+			case 0: {
+				double[] p = createPoint(R);
+				keys.add(p);
+				ref.insert(p, nextValue);
+				idx.insert(p, nextValue++);
+				break;
+			}
+			case 1: {
+				double[] p = keys.remove(R.nextInt(keys.size()));
+				assertEquals(ref.remove(p), idx.remove(p));
+				break;
+			}
+			case 2: {
+				int pos = R.nextInt(keys.size());
+				double[] p = createPoint(R);
+				assertEquals(ref.update(keys.get(pos), p), idx.update(keys.get(pos), p));
+				keys.set(pos, p);
+				break;
+			}
+			case 3:
+			case 4:
+			case 5: {
+				int k = 1 + R.nextInt(5);
+				assertEquals(distances(ref.queryKNN(min, k)), distances(idx.queryKNN(min, k)));
+				assertEquals(ref.query1NN(min).value(), idx.query1NN(min).value());
+				break;
+			}
+			default:
+				assertEquals(values(ref.query(min, max)), values(idx.query(min, max)));
+			}
+		}
+		QueryCache cache = idx.getCache();
+		assertTrue(cache.toString(), cache.getHitRate() > 0.2);
+		assertTrue(cache.toString(), cache.getInvalidationCount() > 0);
+		assertTrue(cache.toString(), cache.getEvictionCount() > 0);
+		assertTrue(cache.size() <= 20);
+	}
+
+	@Test
+	public void testRectangleIndex() {
+		Random R = new Random(0);
+		RectangleIndex<Integer> ref = RTree.createRStar(DIMS);
+		CachedRectangleIndex<Integer> idx =
+				CachedRectangleIndex.create(RTree.createRStar(DIMS), 20, Eviction.LRU);
+		List<double[]> keys = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			double[] p = createPoint(R);
+			keys.add(p);
+			ref.insert(p, upper(p), i);
+			idx.insert(p, upper(p), i);
+		}
+		double[][] windows = new double[30][];
+		for (int i = 0; i < windows.length; i++) {
+			windows[i] = createPoint(R);
+		}
+
+		int nextValue = N;
+		for (int r = 0; r < 20_000; r++) {
+			double[] min = windows[R.nextInt(windows.length)];
+			double[] max = {min[0] + 0.1, min[1] + 0.1};
+			switch (R.nextInt(10)) {
+			case 0: {
+				double[] p = createPoint(R);
+				keys.add(p);
+				ref.insert(p, upper(p), nextValue);
+				idx.insert(p, upper(p), nextValue++);
+				break;
+			}
+			case 1: {
+				double[] p = keys.remove(R.nextInt(keys.size()));
+				assertEquals(ref.remove(p, upper(p)), idx.remove(p, upper(p)));
+				break;
+			}
+			case 2: {
+				int pos = R.nextInt(keys.size());
+				double[] p1 = keys.get(pos);
+				double[] p2 = createPoint(R);
+				assertEquals(ref.update(p1, upper(p1), p2, upper(p2)),
+						idx.update(p1, upper(p1), p2, upper(p2)));
+				keys.set(pos, p2);
+				break;
+			}
+			case 3:
+			case 4:
+			case 5: {
+				int k = 1 + R.nextInt(5);
+				assertEquals(distancesR(ref.queryKNN(min, k)), distancesR(idx.queryKNN(min, k)));
+				break;
+			}
+			default:
+				assertEquals(valuesR(ref.queryIntersect(min, max)),
+						valuesR(idx.queryIntersect(min, max)));
+			}
+		}
+		QueryCache cache = idx.getCache();
+		assertTrue(cache.toString(), cache.getHitRate() > 0.2);
+		assertTrue(cache.toString(), cache.getInvalidationCount() > 0);
+	}
+
+	@Test
+	public void testInvalidation() {
+		CachedPointIndex<Integer> idx = CachedPointIndex.create(KDTree.create(DIMS), 10, Eviction.LRU);
+		QueryCache cache = idx.getCache();
+		idx.insert(new double[]{1, 1}, 1);
+		idx.insert(new double[]{5, 5}, 2);
+		double[] min1 = {0, 0};
+		double[] max1 = {2, 2};
+		double[] min2 = {4, 4};
+		double[] max2 = {6, 6};
+		double[] center = {0, 0};
+		assertEquals(1, count(idx.query(min1, max1)));
+		assertEquals(1, count(idx.query(min2, max2)));
+		assertEquals(1, count(idx.queryKNN(center, 1)));
+		assertEquals(3, cache.getMissCount());
+
+		//outside all windows and farther than the nearest neighbor
+		idx.insert(new double[]{3, 3}, 3);
+		assertEquals(0, cache.getInvalidationCount());
+		//on the boundary of window 1
+		idx.insert(new double[]{2, 2}, 4);
+		assertEquals(1, cache.getInvalidationCount());
+		assertEquals(2, count(idx.query(min1, max1)));
+		assertEquals(1, count(idx.query(min2, max2)));
+		assertEquals(1, count(idx.queryKNN(center, 1)));
+		assertEquals(4, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+
+		//closer than the nearest neighbor
+		idx.update(new double[]{5, 5}, new double[]{0.5, 0.5});
+		assertEquals(4, cache.getInvalidationCount());
+		assertEquals(2, (int) idx.query1NN(center).value());
+		assertEquals(3, count(idx.query(min1, max1)));
+		assertEquals(0, count(idx.query(min2, max2)));
+
+		//the cache keeps copies of the query arrays
+		QueryIterator<PointEntry<Integer>> it = idx.query(min2, max2);
+		min2[0] = 10;
+		it.reset(new double[]{4, 4}, max2);
+		assertFalse(it.hasNext());
+		assertEquals(4, cache.getHitCount());
+
+		idx.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, count(idx.query(min1, max1)));
+	}
+
+	@Test
+	public void testDistanceFunction() {
+		for (PointDistance dist : new PointDistance[]{PointDistance.CHEBYSHEV, 
+				PointDistance.MANHATTAN, PointDistance.ANGULAR}) {
+			Random R = new Random(0);
+			PointIndex<Integer> ref = VPTree.create(DIMS, dist);
+			CachedPointIndex<Integer> idx = 
+					CachedPointIndex.create(VPTree.create(DIMS, dist), 20, Eviction.LRU);
+			double[][] centers = new double[10][];
+			for (int i = 0; i < centers.length; i++) {
+				centers[i] = createPoint(R);
+			}
+			for (int i = 0; i < 2_000; i++) {
+				double[] p = createPoint(R);
+				ref.insert(p, i);
+				idx.insert(p, i);
+				double[] c = centers[R.nextInt(centers.length)];
+				assertEquals(ref.query1NN(c).dist(), idx.query1NN(c).dist(), 0);
+				assertEquals(distances(ref.queryKNN(c, 5)), distances(idx.queryKNN(c, 5)));
+			}
+		}
+
+		//the new entry is closer in chebyshev distance, but not in euclidean distance 
+		CachedPointIndex<Integer> idx = CachedPointIndex.create(
+				VPTree.create(2, PointDistance.CHEBYSHEV), 20, Eviction.LRU);
+		idx.insert(new double[]{1, 0}, 1);
+		assertEquals(1, (int) idx.query1NN(new double[]{0, 0}).value());
+		idx.insert(new double[]{0.9, 0.9}, 2);
+		assertEquals(2, (int) idx.query1NN(new double[]{0, 0}).value());
+	}
+
+	@Test
+	public void testEviction() {
+		CachedPointIndex<Integer> lru = CachedPointIndex.create(KDTree.create(DIMS), 2, Eviction.LRU);
+		CachedPointIndex<Integer> lfu = CachedPointIndex.create(KDTree.create(DIMS), 2, Eviction.LFU);
+		for (CachedPointIndex<Integer> idx : Arrays.asList(lru, lfu)) {
+			idx.insert(new double[]{1, 1}, 1);
+			//query 1 is used often, query 2 is used last
+			for (int i = 0; i < 3; i++) {
+				count(idx.queryKNN(new double[]{1, 0}, 1));
+			}
+			count(idx.queryKNN(new double[]{2, 0}, 1));
+			count(idx.queryKNN(new double[]{3, 0}, 1));
+			assertEquals(1, idx.getCache().getEvictionCount());
+			assertEquals(2, idx.getCache().size());
+		}
+		//LRU evicted query 1, LFU evicted query 2
+		count(lru.queryKNN(new double[]{2, 0}, 1));
+		assertEquals(3, lru.getCache().getHitCount());
+		count(lfu.queryKNN(new double[]{1, 0}, 1));
+		assertEquals(3, lfu.getCache().getHitCount());
+	}
+
+	private static double[] createPoint(Random R) {
+		double[] p = new double[DIMS];
+		Arrays.setAll(p, d -> R.nextDouble());
+		return p;
+	}
+
+	private static double[] upper(double[] p) {
+		double[] u = new double[DIMS];
+		Arrays.setAll(u, d -> p[d] + 0.01);
+		return u;
+	}
+
+	private static List<Integer> values(QueryIterator<PointEntry<Integer>> it) {
+		List<Integer> list = new ArrayList<>();
+		it.forEachRemaining(e -> list.add(e.value()));
+		Collections.sort(list);
+		return list;
+	}
+
+	private static List<Integer> valuesR(QueryIterator<RectangleEntry<Integer>> it) {
+		List<Integer> list = new ArrayList<>();
+		it.forEachRemaining(e -> list.add(e.value()));
+		Collections.sort(list);
+		return list;
+	}
+
+	private static List<Double> distances(QueryIteratorKNN<PointEntryDist<Integer>> it) {
+		List<Double> list = new ArrayList<>();
+		it.forEachRemaining(e -> list.add(e.dist()));
+		return list;
+	}
+
+	private static List<Double> distancesR(QueryIteratorKNN<RectangleEntryDist<Integer>> it) {
+		List<Double> list = new ArrayList<>();
+		it.forEachRemaining(e -> list.add(e.dist()));
+		return list;
+	}
+
+	private static int count(Iterator<?> it) {
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.ToDoubleFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.QueryStats;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+import org.tinspin.index.rtree.RTree;
+
+/**
+ * Requires -Dtinspin.querystats=true, which is set in the 'querystats' surefire execution.
+ */
+public class TestQueryStats {
+
+	private static final int N = 10_000;
+	private static final int DIMS = 3;
+	private static final int K = 10;
+
+	@Before
+	public void before() {
+		assumeTrue(QueryStats.ENABLED);
+	}
+
+	@Test
+	public void testKDTree() {
+		checkPoints(KDTree::create);
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		checkPoints(QuadTreeKD2::create);
+	}
+
+	@Test
+	public void testRTree() {
+		RectangleIndex<Integer> idx = RTree.createRStar(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] lo = new double[DIMS];
+			Arrays.setAll(lo, d -> R.nextDouble());
+			idx.insert(lo, lo.clone(), i);
+		}
+		QueryStats.reset();
+		int n = count(idx.queryIntersect(new double[]{0.2, 0.2, 0.2}, new double[]{0.4, 0.4, 0.4}));
+		QueryStats s = QueryStats.get();
+		assertEquals(n, s.getEntriesReturned());
+		assertTrue(s.getEntriesScanned() >= n);
+		assertTrue(s.getOverlapTests() >= s.getEntriesScanned());
+		assertTrue(s.getDirNodes() > 0);
+		assertTrue(s.getLeafNodes() > 0);
+		assertEquals(0, s.getDistCalcs());
+
+		QueryStats.reset();
+		assertEquals(K, count(idx.queryKNN(new double[]{0.5, 0.5, 0.5}, K)));
+		checkKnn(QueryStats.get());
+	}
+
+	@Test
+	public void testAggregate() {
+		double[] min = new double[DIMS];
+		double[] max = new double[DIMS];
+		Arrays.fill(min, -1);
+		Arrays.fill(max, 2);
+		Random R = new Random(0);
+		ToDoubleFunction<Integer> extractor = v -> v;
+		KDTree<Integer> kd = KDTree.createWithSummaries(DIMS, extractor);
+		QuadTreeKD2<Integer> qt = QuadTreeKD2.createWithSummaries(DIMS, extractor);
+		RTree<Integer> rt = RTree.createWithSummaries(DIMS, extractor);
+		for (int i = 0; i < N; i++) {
+			double[] p = new double[DIMS];
+			Arrays.setAll(p, d -> R.nextDouble());
+			kd.insert(p, i);
+			qt.insert(p, i);
+			rt.insert(p, p, i);
+		}
+
+		//the root lies inside the query window
+		QueryStats.reset();
+		assertEquals(N, kd.count(min, max));
+		assertEquals(1, QueryStats.get().getDirNodes() + QueryStats.get().getLeafNodes());
+		QueryStats.reset();
+		assertEquals(N, qt.count(min, max));
+		assertEquals(1, QueryStats.get().getDirNodes() + QueryStats.get().getLeafNodes());
+		QueryStats.reset();
+		assertEquals(N, rt.countIntersect(min, max));
+		assertEquals(1, QueryStats.get().getDirNodes() + QueryStats.get().getLeafNodes());
+
+		//inner nodes are counted without scanning their entries
+		double[] min2 = new double[DIMS];
+		double[] max2 = new double[DIMS];
+		Arrays.fill(min2, 0.1);
+		Arrays.fill(max2, 0.9);
+		QueryStats.reset();
+		int n = count(kd.query(min2, max2));
+		long scanned = QueryStats.get().getEntriesScanned();
+		QueryStats.reset();
+		assertEquals(n, kd.count(min2, max2));
+		assertTrue(QueryStats.get().getEntriesScanned() < scanned);
+		QueryStats.reset();
+		n = count(qt.query(min2, max2));
+		scanned = QueryStats.get().getEntriesScanned();
+		QueryStats.reset();
+		assertEquals(n, qt.count(min2, max2));
+		assertTrue(QueryStats.get().getEntriesScanned() < scanned);
+		QueryStats.reset();
+		n = count(rt.queryIntersect(min2, max2));
+		scanned = QueryStats.get().getEntriesScanned();
+		QueryStats.reset();
+		assertEquals(n, rt.countIntersect(min2, max2));
+		assertTrue(QueryStats.get().getEntriesScanned() < scanned);
+	}
+
+	private static void checkPoints(IntFunction<PointIndex<Integer>> factory) {
+		PointIndex<Integer> idx = factory.apply(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] p = new double[DIMS];
+			Arrays.setAll(p, d -> R.nextDouble());
+			idx.insert(p, i);
+		}
+		QueryStats.reset();
+		int n = count(idx.query(new double[]{0.2, 0.2, 0.2}, new double[]{0.4, 0.4, 0.4}));
+		QueryStats s = QueryStats.get();
+		assertEquals(n, s.getEntriesReturned());
+		assertTrue(s.getEntriesScanned() >= n);
+		assertTrue(s.getDirNodes() + s.getLeafNodes() > 0);
+		assertEquals(0, s.getDistCalcs());
+
+		QueryStats.reset();
+		assertEquals(K, count(idx.queryKNN(new double[]{0.5, 0.5, 0.5}, K)));
+		checkKnn(QueryStats.get());
+	}
+
+	private static void checkKnn(QueryStats s) {
+		assertEquals(K, s.getEntriesReturned());
+		assertTrue(s.getEntriesScanned() >= K);
+		assertTrue(s.getDistCalcs() >= s.getEntriesScanned());
+		//much less than a full scan
+		assertTrue(s.toString(), s.getEntriesScanned() < N / 10);
+	}
+
+	private static int count(Iterator<?> it) {
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+}
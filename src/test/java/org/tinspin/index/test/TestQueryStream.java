@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.PointIndexWrapper;
+import org.tinspin.index.RectangleEntry;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+import org.tinspin.index.rtree.RTree;
+
+public class TestQueryStream {
+
+	private static final int N = 20_000;
+	private static final int DIMS = 3;
+
+	@Test
+	public void testKDTree() {
+		checkPoints(KDTree::create);
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		checkPoints(QuadTreeKD2::create);
+	}
+
+	@Test
+	public void testPointWrapper() {
+		checkPoints(dims -> PointIndexWrapper.create(RTree.createRStar(dims)));
+	}
+
+	@Test
+	public void testRTree() {
+		RectangleIndex<Integer> idx = RTree.createRStar(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] lo = new double[DIMS];
+			double[] up = new double[DIMS];
+			for (int d = 0; d < DIMS; d++) {
+				lo[d] = R.nextDouble();
+				up[d] = lo[d] + R.nextDouble() * 0.01;
+			}
+			idx.insert(lo, up, i);
+		}
+		for (int i = 0; i < 20; i++) {
+			double[] min = new double[DIMS];
+			double[] max = new double[DIMS];
+			createWindow(R, min, max);
+			int[] expected = values(idx.queryIntersect(min, max), RectangleEntry::value);
+			int[] parallel = idx.queryIntersectStream(min, max).parallel()
+					.mapToInt(RectangleEntry::value).sorted().toArray();
+			int[] sequential = idx.queryIntersectStream(min, max)
+					.mapToInt(RectangleEntry::value).sorted().toArray();
+			assertEquals(Arrays.toString(expected), Arrays.toString(parallel));
+			assertEquals(Arrays.toString(expected), Arrays.toString(sequential));
+		}
+	}
+
+	private static void checkPoints(IntFunction<PointIndex<Integer>> factory) {
+		PointIndex<Integer> idx = factory.apply(DIMS);
+		Random R = new Random(0);
+		for (int i = 0; i < N; i++) {
+			double[] p = new double[DIMS];
+			Arrays.setAll(p, d -> R.nextInt(100));
+			idx.insert(p, i);
+		}
+		//remove some entries to make sure the tree is not perfect
+		Iterator<? extends PointEntry<Integer>> it = idx.query(new double[]{0, 0, 0}, new double[]{20, 100, 100});
+		for (double[] p : Arrays.asList(it.next().point(), it.next().point())) {
+			idx.remove(p);
+		}
+		for (int i = 0; i < 20; i++) {
+			double[] min = new double[DIMS];
+			double[] max = new double[DIMS];
+			createWindow(R, min, max);
+			Arrays.setAll(min, d -> Math.floor(min[d] * 100));
+			Arrays.setAll(max, d -> Math.floor(max[d] * 100));
+			int[] expected = values(idx.query(min, max), PointEntry::value);
+			int[] parallel = idx.queryStream(min, max).parallel()
+					.mapToInt(PointEntry::value).sorted().toArray();
+			assertEquals(Arrays.toString(expected), Arrays.toString(parallel));
+			String seq = idx.queryStream(min, max).map(e -> e.value().toString())
+					.sorted().collect(Collectors.joining(","));
+			String par = idx.queryStream(min, max).parallel().map(e -> e.value().toString())
+					.sorted().collect(Collectors.joining(","));
+			assertEquals(seq, par);
+		}
+	}
+
+	private static void createWindow(Random R, double[] min, double[] max) {
+		for (int d = 0; d < min.length; d++) {
+			double w = R.nextDouble() * 0.5;
+			min[d] = R.nextDouble() * (1 - w);
+			max[d] = min[d] + w;
+		}
+	}
+
+	private static <E> int[] values(Iterator<? extends E> it, ToIntFunction<E> f) {
+		int[] result = new int[0];
+		int n = 0;
+		while (it.hasNext()) {
+			if (n == result.length) {
+				result = Arrays.copyOf(result, Math.max(16, n * 2));
+			}
+			result[n++] = f.applyAsInt(it.next());
+		}
+		result = Arrays.copyOf(result, n);
+		Arrays.sort(result);
+		return result;
+	}
+}
@@ -51,6 +51,8 @@ public class TestRectangleWrappers extends AbstractWrapperTest {
 		l.add(new Object[]{INDEX.QUAD});
 		l.add(new Object[]{INDEX.RSTAR});
 		l.add(new Object[]{INDEX.STR});
+		l.add(new Object[]{INDEX.XTREE});
+		l.add(new Object[]{INDEX.SHARDED});
 		return l;
 	}
 
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.PointEntry;
+import org.tinspin.index.PointEntryDist;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.RectangleEntry;
+import org.tinspin.index.RectangleEntryDist;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.rtree.RTree;
+import org.tinspin.index.shard.ShardedPointIndex;
+import org.tinspin.index.shard.ShardedRectangleIndex;
+
+public class TestShardedIndex {
+
+	private static final int N = 2_000;
+	private static final int DIMS = 3;
+	private static final int SHARDS = 4;
+
+	/**
+	 * Removing entries from a KD-Tree moves keys and values between nodes.
+	 * Iterators that were created before the removal must not see this.
+	 */
+	@Test
+	public void testPointIteratorIsolation() {
+		double[] min = new double[DIMS];
+		double[] max = new double[DIMS];
+		Arrays.fill(max, 1);
+		PointIndex<Integer> idx = ShardedPointIndex.create(DIMS, SHARDS,
+				() -> KDTree.create(DIMS), min, max);
+		double[][] data = createData();
+		for (int i = 0; i < N; i++) {
+			idx.insert(data[i], i);
+		}
+
+		Iterator<? extends PointEntry<Integer>> it = idx.iterator();
+		Iterator<PointEntryDist<Integer>> itKnn = idx.queryKNN(data[0], N);
+		for (int i = 0; i < N; i += 2) {
+			assertEquals(i, (int) idx.remove(data[i]));
+		}
+
+		boolean[] seen = new boolean[N];
+		while (it.hasNext()) {
+			PointEntry<Integer> e = it.next();
+			assertFalse(seen[e.value()]);
+			seen[e.value()] = true;
+			assertTrue(Arrays.equals(data[e.value()], e.point()));
+		}
+		checkAllSeen(seen);
+
+		Arrays.fill(seen, false);
+		double prevDist = 0;
+		while (itKnn.hasNext()) {
+			PointEntryDist<Integer> e = itKnn.next();
+			assertFalse(seen[e.value()]);
+			seen[e.value()] = true;
+			assertTrue(Arrays.equals(data[e.value()], e.point()));
+			assertTrue(e.dist() >= prevDist);
+			prevDist = e.dist();
+		}
+		checkAllSeen(seen);
+	}
+
+	@Test
+	public void testRectangleIteratorIsolation() {
+		double[] min = new double[DIMS];
+		double[] max = new double[DIMS];
+		Arrays.fill(max, 1);
+		RectangleIndex<Integer> idx = ShardedRectangleIndex.create(DIMS, SHARDS,
+				() -> RTree.createRStar(DIMS), min, max);
+		double[][] data = createData();
+		for (int i = 0; i < N; i++) {
+			idx.insert(data[i], data[i], i);
+		}
+
+		Iterator<? extends RectangleEntry<Integer>> it = idx.iterator();
+		Iterator<RectangleEntryDist<Integer>> itKnn = idx.queryKNN(data[0], N);
+		for (int i = 0; i < N; i += 2) {
+			assertEquals(i, (int) idx.remove(data[i], data[i]));
+		}
+
+		boolean[] seen = new boolean[N];
+		while (it.hasNext()) {
+			RectangleEntry<Integer> e = it.next();
+			assertFalse(seen[e.value()]);
+			seen[e.value()] = true;
+			assertTrue(Arrays.equals(data[e.value()], e.lower()));
+		}
+		checkAllSeen(seen);
+
+		Arrays.fill(seen, false);
+		while (itKnn.hasNext()) {
+			RectangleEntryDist<Integer> e = itKnn.next();
+			assertFalse(seen[e.value()]);
+			seen[e.value()] = true;
+			assertTrue(Arrays.equals(data[e.value()], e.upper()));
+		}
+		checkAllSeen(seen);
+	}
+
+	private static double[][] createData() {
+		Random R = new Random(0);
+		double[][] data = new double[N][DIMS];
+		for (double[] p : data) {
+			Arrays.setAll(p, d -> R.nextDouble());
+		}
+		return data;
+	}
+
+	private static void checkAllSeen(boolean[] seen) {
+		for (int i = 0; i < seen.length; i++) {
+			assertTrue("missing: " + i, seen[i]);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.array.RectArray;
+import org.tinspin.index.qthypercube.QuadTreeRKD;
+import org.tinspin.index.rtree.RTree;
+
+public class TestSpatialJoin {
+
+	private static final int DIMS = 2;
+
+	@Test
+	public void testRTreeJoin() {
+		RTree<Integer> t1 = RTree.createRStar(DIMS);
+		RTree<Integer> t2 = RTree.createRStar(DIMS);
+		RectArray<Integer> a1 = new RectArray<>(DIMS, 5000);
+		RectArray<Integer> a2 = new RectArray<>(DIMS, 2000);
+		fill(new Random(0), 5000, 0.01, t1, a1);
+		fill(new Random(1), 2000, 0.05, t2, a2);
+
+		Set<Long> expected = join(a1, a2);
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, join(t1, t2));
+		assertEquals(expected, join(t1, a2));
+		assertEquals(expected, join(a1, t2));
+
+		Set<Long> parallel = Collections.synchronizedSet(new HashSet<>());
+		t1.queryIntersectJoin(t2, (e1, e2) -> parallel.add(key(e1.value(), e2.value())), true);
+		assertEquals(expected, parallel);
+	}
+
+	@Test
+	public void testEmptyAndDifferentHeight() {
+		RTree<Integer> t1 = RTree.createRStar(DIMS);
+		RTree<Integer> t2 = RTree.createRStar(DIMS);
+		QuadTreeRKD<Integer> q2 = QuadTreeRKD.create(DIMS);
+		assertEquals(0, join(t1, t2).size());
+		fill(new Random(0), 10_000, 0.01, t1);
+		assertEquals(0, join(t1, t2).size());
+		fill(new Random(1), 5, 0.2, t2, q2);
+		Set<Long> expected = join(t1, q2);
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, join(t1, t2));
+		assertEquals(expected, join(q2, t1).stream()
+				.map(l -> key((int) (l & 0xFFFFFFFFL), (int) (l >>> 32))).collect(Collectors.toSet()));
+	}
+
+	@SafeVarargs
+	private static void fill(Random R, int n, double maxLen, RectangleIndex<Integer> ... indexes) {
+		for (int i = 0; i < n; i++) {
+			double[] lo = new double[DIMS];
+			double[] up = new double[DIMS];
+			for (int d = 0; d < DIMS; d++) {
+				lo[d] = R.nextDouble();
+				up[d] = lo[d] + R.nextDouble() * maxLen;
+			}
+			for (RectangleIndex<Integer> idx : indexes) {
+				idx.insert(lo, up, i);
+			}
+		}
+	}
+
+	private static Set<Long> join(RectangleIndex<Integer> i1, RectangleIndex<Integer> i2) {
+		Set<Long> result = new HashSet<>();
+		i1.queryIntersectJoin(i2, (e1, e2) -> {
+			if (!result.add(key(e1.value(), e2.value()))) {
+				throw new IllegalStateException("Duplicate: " + e1.value() + "/" + e2.value());
+			}
+		});
+		return result;
+	}
+
+	private static long key(int v1, int v2) {
+		return ((long) v1 << 32) | v2;
+	}
+}
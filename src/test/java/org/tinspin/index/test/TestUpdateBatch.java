@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+import org.tinspin.index.PointIndex;
+import org.tinspin.index.PointIndexWrapper;
+import org.tinspin.index.RectangleIndex;
+import org.tinspin.index.kdtree.KDTree;
+import org.tinspin.index.qthypercube.QuadTreeKD;
+import org.tinspin.index.qthypercube2.QuadTreeKD2;
+import org.tinspin.index.rtree.RTree;
+import org.tinspin.index.shard.ShardedPointIndex;
+import org.tinspin.index.shard.ShardedRectangleIndex;
+
+public class TestUpdateBatch {
+
+	private static final int N = 10_000;
+	private static final int DIMS = 3;
+
+	@Test
+	public void testKDTree() {
+		checkPoints(KDTree::create);
+	}
+
+	@Test
+	public void testQuadTreeKD2() {
+		checkPoints(QuadTreeKD2::create);
+	}
+
+	@Test
+	public void testPointWrapper() {
+		checkPoints(dims -> PointIndexWrapper.create(RTree.createRStar(dims)));
+	}
+
+	@Test
+	public void testDefault() {
+		checkPoints(QuadTreeKD::create);
+	}
+
+	@Test
+	public void testShardedPoints() {
+		checkPoints(dims -> ShardedPointIndex.create(dims, 4, () -> KDTree.create(dims)));
+	}
+
+	@Test
+	public void testRTree() {
+		checkRectangles(RTree::createRStar);
+	}
+
+	@Test
+	public void testShardedRectangles() {
+		checkRectangles(dims -> ShardedRectangleIndex.create(dims, 4, () -> RTree.createRStar(dims)));
+	}
+
+	private static void checkPoints(IntFunction<PointIndex<Integer>> factory) {
+		PointIndex<Integer> idx = factory.apply(DIMS);
+		Random R = new Random(0);
+		double[][] keys = new double[N][];
+		for (int i = 0; i < N; i++) {
+			keys[i] = createPoint(R);
+			idx.insert(keys[i], i);
+		}
+		for (int r = 0; r < 3; r++) {
+			//update every second entry, plus one entry that does not exist
+			double[][] oldKeys = new double[N / 2 + 1][];
+			double[][] newKeys = new double[N / 2 + 1][];
+			for (int i = 0; i < N / 2; i++) {
+				oldKeys[i] = keys[i * 2];
+				newKeys[i] = createPoint(R);
+				//later rounds move entries out of the root node
+				for (int d = 0; d < DIMS; d++) {
+					newKeys[i][d] *= r + 1;
+				}
+				keys[i * 2] = newKeys[i];
+			}
+			oldKeys[N / 2] = new double[]{-1, -1, -1};
+			newKeys[N / 2] = createPoint(R);
+			assertEquals(N / 2, idx.updateBatch(oldKeys, newKeys));
+			assertEquals(N, idx.size());
+			for (int i = 0; i < N / 2; i++) {
+				assertNull(idx.queryExact(oldKeys[i]));
+			}
+			for (int i = 0; i < N; i++) {
+				assertEquals(i, (int) idx.queryExact(keys[i]));
+			}
+		}
+		assertEquals(0, idx.updateBatch(new double[0][], new double[0][]));
+	}
+
+	private static void checkRectangles(IntFunction<RectangleIndex<Integer>> factory) {
+		RectangleIndex<Integer> idx = factory.apply(DIMS);
+		Random R = new Random(0);
+		double[][] lo = new double[N][];
+		double[][] up = new double[N][];
+		for (int i = 0; i < N; i++) {
+			lo[i] = createPoint(R);
+			up[i] = new double[DIMS];
+			for (int d = 0; d < DIMS; d++) {
+				up[i][d] = lo[i][d] + R.nextDouble() * 0.01;
+			}
+			idx.insert(lo[i], up[i], i);
+		}
+		for (int r = 0; r < 3; r++) {
+			double[][] lo2 = new double[N][];
+			double[][] up2 = new double[N][];
+			for (int i = 0; i < N; i++) {
+				double move = (R.nextDouble() - 0.5) * (r == 0 ? 0.001 : 0.5);
+				lo2[i] = new double[DIMS];
+				up2[i] = new double[DIMS];
+				for (int d = 0; d < DIMS; d++) {
+					lo2[i][d] = lo[i][d] + move;
+					up2[i][d] = up[i][d] + move;
+				}
+			}
+			assertEquals(N, idx.updateBatch(lo, up, lo2, up2));
+			assertEquals(N, idx.size());
+			for (int i = 0; i < N; i++) {
+				assertEquals(i, (int) idx.queryExact(lo2[i], up2[i]));
+			}
+			lo = lo2;
+			up = up2;
+		}
+	}
+
+	private static double[] createPoint(Random R) {
+		double[] p = new double[DIMS];
+		Arrays.setAll(p, d -> R.nextDouble());
+		return p;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test.util;
+
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+
+/**
+ * Reader for packed binary datasets. The file consists of little-endian 64 bit 
+ * doubles without header, each point has 'dims' values, each rectangle has 'dims' 
+ * values for the lower corner followed by 'dims' values for the upper corner.
+ */
+public class BinaryDatasetReader extends DatasetReader {
+
+	/**
+	 * @param file the file
+	 * @param dims dimensions
+	 * @param isRangeData whether the file contains rectangles
+	 * @param windowSize maximum size of a mapped window in bytes
+	 */
+	public BinaryDatasetReader(Path file, int dims, boolean isRangeData, int windowSize) {
+		super(file, dims, isRangeData, alignWindow(windowSize, dims, isRangeData));
+		window.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int alignWindow(int windowSize, int dims, boolean isRangeData) {
+		int entryBytes = (isRangeData ? 2 : 1) * dims * Double.BYTES;
+		if (windowSize < entryBytes) {
+			throw new IllegalArgumentException("windowSize=" + windowSize);
+		}
+		return windowSize - windowSize % entryBytes;
+	}
+
+	@Override
+	protected int readEntries(double[] buf, int maxEntries) {
+		int entryBytes = entrySize * Double.BYTES;
+		int n = 0;
+		while (n < maxEntries) {
+			if (window.remaining() < entryBytes) {
+				if (isLastWindow()) {
+					if (window.hasRemaining()) {
+						throw new IllegalStateException("Truncated entry at file position " 
+								+ (windowPos + window.position()));
+					}
+					break;
+				}
+				map(windowPos + window.position());
+				window.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			int k = Math.min(window.remaining() / entryBytes, maxEntries - n);
+			window.asDoubleBuffer().get(buf, n * entrySize, k * entrySize);
+			window.position(window.position() + k * entryBytes);
+			n += k;
+		}
+		return n;
+	}
+}
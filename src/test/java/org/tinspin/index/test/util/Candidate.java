@@ -21,6 +21,18 @@ public abstract class Candidate {
 	
 	public abstract void load(double[] data, int idxDim);
 
+	/**
+	 * Load the data in chunks from a streaming source. The data is not kept in 
+	 * memory, so unload() and update() are not available afterwards.
+	 * @param reader data source
+	 * @param chunkSize number of entries per chunk
+	 * @param maxEntries maximum number of entries to load
+	 * @return number of loaded entries
+	 */
+	public int load(DatasetReader reader, int chunkSize, int maxEntries) {
+		throw new UnsupportedOperationException();
+	}
+
 	/**
 	 * This method is called before the actual point
 	 * query, providing the underlying tree with the
@@ -219,6 +231,14 @@ public abstract class Candidate {
 		return true;
 	}
 
+	/**
+	 * @return 'true' if the candidate can be accessed concurrently by several
+	 * threads, see {@link MixedWorkload}.
+	 */
+	public boolean isThreadSafe() {
+		return false;
+	}
+
 	/**
 	 * Float to long.
 	 * @param f
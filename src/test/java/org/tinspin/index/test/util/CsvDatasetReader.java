@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test.util;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Reader for CSV datasets. Each line contains the coordinates of one point, or 
+ * of the lower corner followed by the upper corner of one rectangle. 
+ * Values can be separated by commas, semicolons, tabs or spaces, additional 
+ * columns are ignored. Empty lines, comment lines starting with '#' and header 
+ * lines that do not start with a number are skipped.
+ * 
+ * Numbers are parsed directly from the mapped file. Decimal numbers without 
+ * exponent and with up to 15 significant digits are converted exactly, all others
+ * fall back to {@link Double#parseDouble(String)}.
+ */
+public class CsvDatasetReader extends DatasetReader {
+
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+	/** Mantissas below this value are exact doubles. */
+	private static final long MAX_EXACT = 1L << 53;
+
+	private long lineNumber = 0;
+
+	/**
+	 * @param file the file
+	 * @param dims dimensions
+	 * @param isRangeData whether the file contains rectangles
+	 * @param windowSize maximum size of a mapped window in bytes, this limits the 
+	 * maximum line length
+	 */
+	public CsvDatasetReader(Path file, int dims, boolean isRangeData, int windowSize) {
+		super(file, dims, isRangeData, windowSize);
+	}
+
+	@Override
+	protected int readEntries(double[] buf, int maxEntries) {
+		int n = 0;
+		while (n < maxEntries && readLine(buf, n * entrySize)) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Read the next data line.
+	 * @return 'false' if the end of the file was reached
+	 */
+	private boolean readLine(double[] buf, int offs) {
+		while (true) {
+			int start = window.position();
+			int end = findLineEnd(start);
+			if (end < 0) {
+				if (start == window.limit() && isLastWindow()) {
+					return false;
+				}
+				//remap, starting with the current line
+				map(windowPos + start);
+				start = 0;
+				end = findLineEnd(start);
+				if (end < 0) {
+					if (!isLastWindow()) {
+						throw new IllegalStateException("Line " + (lineNumber + 1) + 
+								" is longer than " + getWindowSize() + " bytes");
+					}
+					//last line without line break
+					end = window.limit();
+				}
+			}
+			window.position(end < window.limit() ? end + 1 : end);
+			lineNumber++;
+			if (parseLine(start, end, buf, offs)) {
+				return true;
+			}
+		}
+	}
+
+	private int findLineEnd(int pos) {
+		int limit = window.limit();
+		for (int i = pos; i < limit; i++) {
+			if (window.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isSeparator(byte b) {
+		return b == ',' || b == ';' || b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static boolean isNumberStart(byte b) {
+		return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.';
+	}
+
+	/**
+	 * @return 'false' for lines without data
+	 */
+	private boolean parseLine(int start, int end, double[] buf, int offs) {
+		int pos = start;
+		while (pos < end && isSeparator(window.get(pos))) {
+			pos++;
+		}
+		if (pos == end || !isNumberStart(window.get(pos))) {
+			//empty, comment or header
+			return false;
+		}
+		for (int i = 0; i < entrySize; i++) {
+			while (pos < end && isSeparator(window.get(pos))) {
+				pos++;
+			}
+			int tokenEnd = pos;
+			while (tokenEnd < end && !isSeparator(window.get(tokenEnd))) {
+				tokenEnd++;
+			}
+			if (pos == tokenEnd) {
+				throw new IllegalStateException("Line " + lineNumber + ": expected " + 
+						entrySize + " values but found " + i);
+			}
+			buf[offs + i] = parseDouble(pos, tokenEnd);
+			pos = tokenEnd;
+		}
+		return true;
+	}
+
+	private double parseDouble(int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		byte b = window.get(pos);
+		if (b == '-' || b == '+') {
+			negative = b == '-';
+			pos++;
+		}
+		long mantissa = 0;
+		int nDigits = 0;
+		int nFraction = 0;
+		boolean isFraction = false;
+		for (; pos < end; pos++) {
+			b = window.get(pos);
+			if (b >= '0' && b <= '9') {
+				if (nDigits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (mantissa != 0) {
+						nDigits++;
+					}
+					if (isFraction) {
+						nFraction++;
+					}
+				} else {
+					//too many digits
+					return parseSlow(start, end);
+				}
+			} else if (b == '.' && !isFraction) {
+				isFraction = true;
+			} else {
+				//exponent, NaN, ...
+				return parseSlow(start, end);
+			}
+		}
+		if (mantissa >= MAX_EXACT || nFraction >= POW10.length) {
+			return parseSlow(start, end);
+		}
+		double d = mantissa / POW10[nFraction];
+		return negative ? -d : d;
+	}
+
+	private double parseSlow(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = window.get(start + i);
+		}
+		try {
+			return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Line " + lineNumber + ": " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for point or rectangle datasets. 
+ * 
+ * Files are memory-mapped in windows of limited size, so datasets can be much 
+ * larger than the heap. Entries are returned in chunks via {@link #read(double[])}, 
+ * rectangles are returned as lower corner followed by upper corner.
+ * The reader keeps track of the bounding box of all returned entries. 
+ */
+public abstract class DatasetReader implements Closeable {
+
+	/** Default size of a mapped window. */
+	public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+	protected final int dims;
+	protected final boolean isRangeData;
+	/** Number of doubles per entry. */
+	protected final int entrySize;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int windowSize;
+	private final double[] min;
+	private final double[] max;
+	private long nEntries = 0;
+
+	/** The current window, mapped from file position 'windowPos'. */
+	protected MappedByteBuffer window;
+	protected long windowPos = 0;
+
+	protected DatasetReader(Path file, int dims, boolean isRangeData, int windowSize) {
+		this.dims = dims;
+		this.isRangeData = isRangeData;
+		this.entrySize = isRangeData ? 2 * dims : dims;
+		this.windowSize = windowSize;
+		this.min = new double[dims];
+		this.max = new double[dims];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			fileSize = channel.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		map(0);
+	}
+
+	/**
+	 * Open a dataset.
+	 * @param S test configuration, {@link TestStats#paramStr} is the file name
+	 * @return a reader for CSV or binary data, depending on {@link TestStats#TEST}
+	 */
+	public static DatasetReader open(TestStats S) {
+		Path file = Paths.get(S.paramStr);
+		switch (S.TEST) {
+		case CSV: return new CsvDatasetReader(file, S.cfgNDims, S.isRangeData, DEFAULT_WINDOW_SIZE);
+		case BINARY: 
+			return new BinaryDatasetReader(file, S.cfgNDims, S.isRangeData, DEFAULT_WINDOW_SIZE);
+		default:
+			throw new IllegalArgumentException(S.TEST.name());
+		}
+	}
+
+	/**
+	 * Map a new window. 
+	 * @param pos file position, the window ends at the end of the file or after 
+	 * 'windowSize' bytes.
+	 */
+	protected final void map(long pos) {
+		try {
+			long len = Math.min(windowSize, fileSize - pos);
+			window = channel.map(MapMode.READ_ONLY, pos, len);
+			windowPos = pos;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	protected final boolean isLastWindow() {
+		return windowPos + window.limit() >= fileSize;
+	}
+
+	protected final int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Read the next chunk of entries.
+	 * @param buf output buffer, the length should be a multiple of the entry size
+	 * @return number of entries that were read, 0 if the end of the file was reached
+	 */
+	public final int read(double[] buf) {
+		return read(buf, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Read the next chunk of entries.
+	 * @param buf output buffer, the length should be a multiple of the entry size
+	 * @param maxEntries maximum number of entries to read
+	 * @return number of entries that were read, 0 if the end of the file was reached
+	 */
+	public final int read(double[] buf, int maxEntries) {
+		int n = readEntries(buf, Math.min(maxEntries, buf.length / entrySize));
+		for (int i = 0; i < n; i++) {
+			int offs = i * entrySize;
+			for (int d = 0; d < dims; d++) {
+				double lo = buf[offs + d];
+				double up = isRangeData ? buf[offs + dims + d] : lo;
+				min[d] = lo < min[d] ? lo : min[d];
+				max[d] = up > max[d] ? up : max[d];
+			}
+		}
+		nEntries += n;
+		return n;
+	}
+
+	/**
+	 * @param buf output buffer
+	 * @param maxEntries maximum number of entries to read
+	 * @return number of entries that were read, 0 if the end of the file was reached
+	 */
+	protected abstract int readEntries(double[] buf, int maxEntries);
+
+	public int getDims() {
+		return dims;
+	}
+
+	public boolean isRangeData() {
+		return isRangeData;
+	}
+
+	public int getEntrySize() {
+		return entrySize;
+	}
+
+	/**
+	 * @return number of entries that have been read so far
+	 */
+	public long getEntryCount() {
+		return nEntries;
+	}
+
+	/**
+	 * @return lower corner of the bounding box of all entries read so far
+	 */
+	public double[] getMin() {
+		return min.clone();
+	}
+
+	/**
+	 * @return upper corner of the bounding box of all entries read so far
+	 */
+	public double[] getMax() {
+		return max.clone();
+	}
+
+	@Override
+	public void close() {
+		window = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.tinspin.index.monitor.LatencyHistogram;
+
+/**
+ * Mixed workload driver for the {@link TestRunner}.
+ * 
+ * Each thread executes a random sequence of point queries, window queries, 
+ * kNN queries and updates, the share of each operation type is given by a {@link MIX}
+ * or by {@link TestStats#cfgMixedRatios}. The latency of every single operation is 
+ * recorded in a histogram per operation type.
+ * 
+ * Updates are partitioned between threads: thread {@code t} only moves entries
+ * {@code i} with {@code i % nThreads == t}, so concurrent updates never target the
+ * same entry.
+ * 
+ * Candidates that are not thread-safe are protected by a single global lock if
+ * more than one thread is used. This serves as baseline for concurrent indexes.
+ * The recorded latency of these candidates includes the time spent waiting for the lock.
+ */
+public class MixedWorkload {
+
+	public enum OP {
+		POINT_QUERY,
+		WINDOW_QUERY,
+		KNN_QUERY,
+		UPDATE
+	}
+
+	/**
+	 * Predefined mixes, the numbers are relative shares of point queries, 
+	 * window queries, kNN queries and updates. The first four follow the 
+	 * YCSB core workloads.
+	 */
+	public enum MIX {
+		/** YCSB A: update heavy */
+		A(50, 0, 0, 50),
+		/** YCSB B: read mostly */
+		B(95, 0, 0, 5),
+		/** YCSB C: read only */
+		C(100, 0, 0, 0),
+		/** YCSB E: short ranges, window queries instead of scans */
+		E(0, 95, 0, 5),
+		/** Spatial read mostly: all query types with 10% updates */
+		SPATIAL(30, 30, 30, 10);
+
+		private final int[] ratios;
+
+		MIX(int... ratios) {
+			this.ratios = ratios;
+		}
+
+		public int[] ratios() {
+			return ratios.clone();
+		}
+	}
+
+	/** Precision of the latency histograms, 2^-7 corresponds to less than 1%. */
+	private static final int PRECISION_BITS = 7;
+	private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+	private final TestStats S;
+	private final Candidate tree;
+	private final AbstractTest test;
+	private final double[] data;
+	private final int[] ratios;
+	private final int nThreads;
+	private final LatencyHistogram[] histograms = new LatencyHistogram[OP.values().length];
+
+	/**
+	 * @param S test configuration
+	 * @param tree loaded candidate
+	 * @param test test that generated the data
+	 * @param data the data, this is modified by updates
+	 */
+	public MixedWorkload(TestStats S, Candidate tree, AbstractTest test, double[] data) {
+		this.S = S;
+		this.tree = tree;
+		this.test = test;
+		this.data = data;
+		this.ratios = S.cfgMixedRatios != null ? S.cfgMixedRatios : S.cfgMixedWorkload.ratios;
+		this.nThreads = S.cfgMixedThreads;
+		if (ratios.length != OP.values().length) {
+			throw new IllegalArgumentException("ratios=" + Arrays.toString(ratios));
+		}
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram(PRECISION_BITS);
+		}
+	}
+
+	/**
+	 * Execute the workload and store the results in the {@link TestStats}.
+	 * @return the number of executed operations
+	 */
+	public long run() {
+		int[] r = ratios.clone();
+		if (!tree.supportsPointQuery()) {
+			r[OP.POINT_QUERY.ordinal()] = 0;
+		}
+		if (!tree.supportsWindowQuery()) {
+			r[OP.WINDOW_QUERY.ordinal()] = 0;
+		}
+		if (!tree.supportsKNN()) {
+			r[OP.KNN_QUERY.ordinal()] = 0;
+		}
+		if (!tree.supportsUpdate()) {
+			r[OP.UPDATE.ordinal()] = 0;
+		}
+		if (Arrays.stream(r).sum() <= 0) {
+			throw new IllegalStateException("No supported operations: " + Arrays.toString(ratios));
+		}
+
+		ReentrantLock lock = nThreads > 1 && !tree.isThreadSafe() ? new ReentrantLock() : null;
+		Worker[] workers = new Worker[nThreads];
+		for (int t = 0; t < nThreads; t++) {
+			//prepared sequentially, the query generator of the test is not thread-safe
+			workers[t] = new Worker(t, r, lock);
+		}
+
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[nThreads];
+		Throwable[] failure = new Throwable[1];
+		for (int t = 0; t < nThreads; t++) {
+			Worker w = workers[t];
+			threads[t] = new Thread(() -> {
+				try {
+					start.await();
+					w.run();
+				} catch (Throwable e) {
+					synchronized (failure) {
+						failure[0] = e;
+					}
+				}
+			}, "MixedWorkload-" + t);
+			threads[t].start();
+		}
+		long t1 = System.nanoTime();
+		start.countDown();
+		try {
+			for (Thread t : threads) {
+				t.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		long t2 = System.nanoTime();
+		if (failure[0] != null) {
+			throw new IllegalStateException(failure[0]);
+		}
+
+		S.statMixedNu = 0;
+		for (Worker w : workers) {
+			S.statMixedNu += w.nUpdated;
+		}
+		long nOps = 0;
+		S.statMixedLatency = new long[histograms.length][];
+		for (int i = 0; i < histograms.length; i++) {
+			LatencyHistogram h = histograms[i];
+			nOps += h.getCount();
+			S.statMixedLatency[i] = new long[] {h.getCount(), 
+					h.getPercentileNanos(PERCENTILES[0]), 
+					h.getPercentileNanos(PERCENTILES[1]), 
+					h.getPercentileNanos(PERCENTILES[2]), 
+					h.getMaxNanos()};
+		}
+		S.statMixedTime = (t2 - t1) / 1_000_000;
+		S.statMixedOpsPerSec = nOps * 1e9 / (t2 - t1);
+		return nOps;
+	}
+
+	public LatencyHistogram getHistogram(OP op) {
+		return histograms[op.ordinal()];
+	}
+
+	/**
+	 * @return a table with count, p50, p99, p999 and max latency per operation type.
+	 */
+	public String toStringTable() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-13s %10s %10s %10s %10s %10s%n", 
+				"[ns]", "n", "p50", "p99", "p999", "max"));
+		for (OP op : OP.values()) {
+			LatencyHistogram h = getHistogram(op);
+			if (h.getCount() == 0) {
+				continue;
+			}
+			sb.append(String.format("%-13s %10d %10d %10d %10d %10d%n", op, h.getCount(), 
+					h.getPercentileNanos(PERCENTILES[0]), 
+					h.getPercentileNanos(PERCENTILES[1]), 
+					h.getPercentileNanos(PERCENTILES[2]), 
+					h.getMaxNanos()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A worker thread. All query arguments are prepared in advance, only the 
+	 * updates are created on the fly because they depend on the current data.
+	 */
+	private class Worker {
+
+		private final int id;
+		private final Random R;
+		private final ReentrantLock lock;
+		private final OP[] ops;
+		private final Object[] pointQueries;
+		private final double[][] windowLower;
+		private final double[][] windowUpper;
+		private final double[][] knnCenters;
+		private final int nOwned;
+		private final double maxMove;
+		private final int dims;
+		private final int entrySize;
+		private int nUpdated = 0;
+
+		Worker(int id, int[] ratios, ReentrantLock lock) {
+			this.id = id;
+			this.R = new Random(S.seed + 1000 + id);
+			this.lock = lock;
+			this.dims = S.cfgNDims;
+			this.entrySize = S.isRangeData ? 2 * dims : dims;
+			this.maxMove = test.maxUpdateDistance();
+			int n = S.cfgMixedOps;
+			int total = Arrays.stream(ratios).sum();
+			ops = new OP[n];
+			int[] count = new int[OP.values().length];
+			for (int i = 0; i < n; i++) {
+				int x = R.nextInt(total);
+				int op = 0;
+				while (x >= ratios[op]) {
+					x -= ratios[op++];
+				}
+				ops[i] = OP.values()[op];
+				count[op]++;
+			}
+			int nPQ = count[OP.POINT_QUERY.ordinal()];
+			pointQueries = new Object[nPQ];
+			for (int i = 0; i < nPQ; i++) {
+				int offs = R.nextInt(S.cfgNEntries) * entrySize;
+				double[][] q;
+				if (S.isRangeData) {
+					q = new double[][] {Arrays.copyOfRange(data, offs, offs + dims), 
+						Arrays.copyOfRange(data, offs + dims, offs + 2*dims)};
+				} else {
+					q = new double[][] {Arrays.copyOfRange(data, offs, offs + dims)};
+				}
+				pointQueries[i] = tree.preparePointQuery(q);
+			}
+			int nWQ = count[OP.WINDOW_QUERY.ordinal()];
+			windowLower = new double[nWQ][dims];
+			windowUpper = new double[nWQ][dims];
+			if (nWQ > 0) {
+				test.generateWindowQueries(windowLower, windowUpper);
+			}
+			int nKQ = count[OP.KNN_QUERY.ordinal()];
+			knnCenters = new double[nKQ][dims];
+			for (double[] c : knnCenters) {
+				for (int d = 0; d < dims; d++) {
+					c[d] = test.min(d) + R.nextDouble()*test.len(d);
+				}
+			}
+			int nEntries = S.cfgNEntries;
+			nOwned = nEntries / nThreads + (id < nEntries % nThreads ? 1 : 0);
+		}
+
+		void run() {
+			int iPQ = 0;
+			int iWQ = 0;
+			int iKQ = 0;
+			double[][] upd = new double[S.isRangeData ? 4 : 2][];
+			for (OP op : ops) {
+				if (op == OP.UPDATE) {
+					prepareUpdate(upd);
+				}
+
+				//execute, the latency includes waiting for the lock
+				long t1 = System.nanoTime();
+				if (lock != null) {
+					lock.lock();
+				}
+				try {
+					switch (op) {
+					case POINT_QUERY: tree.pointQuery(pointQueries[iPQ]); break;
+					case WINDOW_QUERY: tree.query(windowLower[iWQ], windowUpper[iWQ]); break;
+					case KNN_QUERY: tree.knnQuery(S.cfgMixedKnnK, knnCenters[iKQ]); break;
+					case UPDATE: nUpdated += tree.update(upd); break;
+					default: throw new IllegalStateException(op.name());
+					}
+				} finally {
+					if (lock != null) {
+						lock.unlock();
+					}
+				}
+				long t2 = System.nanoTime();
+				histograms[op.ordinal()].record(t2 - t1);
+				switch (op) {
+				case POINT_QUERY: iPQ++; break;
+				case WINDOW_QUERY: iWQ++; break;
+				case KNN_QUERY: iKQ++; break;
+				default:
+				}
+			}
+		}
+
+		/**
+		 * Move one of the entries owned by this thread.
+		 */
+		private void prepareUpdate(double[][] upd) {
+			int pos = R.nextInt(nOwned) * nThreads + id;
+			int offs = pos * entrySize;
+			if (S.isRangeData) {
+				double[] lo1 = Arrays.copyOfRange(data, offs, offs + dims);
+				double[] up1 = Arrays.copyOfRange(data, offs + dims, offs + 2*dims);
+				double[] lo2 = new double[dims];
+				double[] up2 = new double[dims];
+				for (int d = 0; d < dims; d++) {
+					double mv = R.nextDouble()*2*maxMove - maxMove;
+					lo2[d] = lo1[d] + mv;
+					up2[d] = up1[d] + mv;
+				}
+				System.arraycopy(lo2, 0, data, offs, dims);
+				System.arraycopy(up2, 0, data, offs + dims, dims);
+				upd[0] = lo1;
+				upd[1] = up1;
+				upd[2] = lo2;
+				upd[3] = up2;
+			} else {
+				double[] p1 = Arrays.copyOfRange(data, offs, offs + dims);
+				double[] p2 = new double[dims];
+				for (int d = 0; d < dims; d++) {
+					p2[d] = p1[d] + R.nextDouble()*2*maxMove - maxMove;
+				}
+				System.arraycopy(p2, 0, data, offs, dims);
+				upd[0] = p1;
+				upd[1] = p2;
+			}
+		}
+	}
+}
@@ -6,6 +6,7 @@
  */
 package org.tinspin.index.test.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.tinspin.index.Index;
@@ -16,6 +17,7 @@ import org.tinspin.index.PointIndexWrapper;
 import org.tinspin.index.QueryIterator;
 import org.tinspin.index.QueryIteratorKNN;
 import org.tinspin.index.rtree.Entry;
+import org.tinspin.index.shard.ShardedPointIndex;
 import org.tinspin.index.test.util.TestStats.INDEX;
 
 public class PointIndexCandidate extends Candidate {
@@ -27,6 +29,7 @@ public class PointIndexCandidate extends Candidate {
 	private QueryIterator<PointEntry<double[]>> it;
 	private QueryIteratorKNN<PointEntryDist<double[]>> itKnn;
 	private final boolean bulkloadSTR;
+	private final boolean concurrent;
 
 	
 	/**
@@ -39,6 +42,7 @@ public class PointIndexCandidate extends Candidate {
 		this.dims = ts.cfgNDims;
 		idx = (PointIndex<double[]>) pi;
 		this.bulkloadSTR = ts.INDEX.equals(INDEX.STR);
+		this.concurrent = pi instanceof ShardedPointIndex;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -67,6 +71,32 @@ public class PointIndexCandidate extends Candidate {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public int load(DatasetReader reader, int chunkSize, int maxEntries) {
+		this.data = null;
+		double[] buf = new double[chunkSize * dims];
+		ArrayList<Entry<double[]>> entries = bulkloadSTR ? new ArrayList<>() : null;
+		int n = 0;
+		int nRead;
+		while ((nRead = reader.read(buf, maxEntries - n)) > 0) {
+			for (int i = 0; i < nRead; i++) {
+				double[] p = Arrays.copyOfRange(buf, i*dims, (i+1)*dims);
+				if (bulkloadSTR) {
+					entries.add(new Entry<>(p, p, p));
+				} else {
+					idx.insert(p, p);
+				}
+			}
+			n += nRead;
+		}
+		if (bulkloadSTR) {
+			PointIndexWrapper<double[]> rt = (PointIndexWrapper<double[]>) idx;
+			rt.load(entries.toArray(new Entry[entries.size()]));
+		}
+		return n;
+	}
+
 	@Override
 	public Object preparePointQuery(double[][] q) {
 		return q;
@@ -108,19 +138,18 @@ public class PointIndexCandidate extends Candidate {
 	
 	@Override
 	public int query(double[] min, double[] max) {
+		if (concurrent) {
+			//iterators must not be shared between threads
+			return count(idx.query(min, max));
+		}
 		if (it == null) {
 			it = idx.query(min, max);
 		} else {
 			it.reset(min, max);
 		}
-		int n = 0;
-		while (it.hasNext()) {
-			it.next();
-			n++;
-		}
 //		int n = ((PhTree7)idx).queryAll(min2, max2).size();
 		//log("q=" + Arrays.toString(q));
-		return n;
+		return count(it);
 	}
 	
 	@Override
@@ -128,14 +157,30 @@ public class PointIndexCandidate extends Candidate {
 		if (k == 1) {
 			return idx.query1NN(center).dist();
 		}
+		if (concurrent) {
+			return sumDist(idx.queryKNN(center, k));
+		}
 		if (itKnn == null) {
 			itKnn = idx.queryKNN(center, k);
 		} else {
 			itKnn.reset(center, k);
 		}
+		return sumDist(itKnn);
+	}
+
+	private static int count(QueryIterator<?> it) {
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+
+	private static double sumDist(QueryIteratorKNN<PointEntryDist<double[]>> it) {
 		double ret = 0;
-		while (itKnn.hasNext()) {
-			ret += itKnn.next().dist();
+		while (it.hasNext()) {
+			ret += it.next().dist();
 		}
 		return ret;
 	}
@@ -193,6 +238,11 @@ public class PointIndexCandidate extends Candidate {
 	public boolean supportsUnload() {
 		return dims <= 16;
 	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return concurrent;
+	}
 	
 	@Override
 	public String toString() {
@@ -6,6 +6,7 @@
  */
 package org.tinspin.index.test.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.tinspin.index.Index;
@@ -16,6 +17,7 @@ import org.tinspin.index.RectangleEntryDist;
 import org.tinspin.index.RectangleIndex;
 import org.tinspin.index.rtree.Entry;
 import org.tinspin.index.rtree.RTree;
+import org.tinspin.index.shard.ShardedRectangleIndex;
 import org.tinspin.index.test.util.TestStats.INDEX;
 
 public class RectangleIndexCandidate extends Candidate {
@@ -28,6 +30,7 @@ public class RectangleIndexCandidate extends Candidate {
 	private QueryIterator<RectangleEntry<Object>> query = null;
 	private QueryIteratorKNN<RectangleEntryDist<Object>> queryKnn = null;
 	private final boolean bulkloadSTR;
+	private final boolean concurrent;
 	
 	/**
 	 * @param ri index 
@@ -39,6 +42,7 @@ public class RectangleIndexCandidate extends Candidate {
 		this.dims = ts.cfgNDims;
 		this.idx = (RectangleIndex<Object>) ri;
 		this.bulkloadSTR = ts.INDEX.equals(INDEX.STR);
+		this.concurrent = ri instanceof ShardedRectangleIndex;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -73,6 +77,36 @@ public class RectangleIndexCandidate extends Candidate {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public int load(DatasetReader reader, int chunkSize, int maxEntries) {
+		this.data = null;
+		double[] buf = new double[chunkSize * dims * 2];
+		ArrayList<Entry<Object>> entries = bulkloadSTR ? new ArrayList<>() : null;
+		int n = 0;
+		int nRead;
+		while ((nRead = reader.read(buf, maxEntries - n)) > 0) {
+			int pos = 0;
+			for (int i = 0; i < nRead; i++) {
+				double[] lo = Arrays.copyOfRange(buf, pos, pos + dims);
+				pos += dims;
+				double[] hi = Arrays.copyOfRange(buf, pos, pos + dims);
+				pos += dims;
+				if (bulkloadSTR) {
+					entries.add(new Entry<>(lo, hi, O));
+				} else {
+					idx.insert(lo, hi, O);
+				}
+			}
+			n += nRead;
+		}
+		if (bulkloadSTR) {
+			RTree<Object> rt = (RTree<Object>) idx;
+			rt.load(entries.toArray(new Entry[entries.size()]));
+		}
+		return n;
+	}
+
 	@Override
 	public Object preparePointQuery(double[][] q) {
 		return q;
@@ -121,14 +155,22 @@ public class RectangleIndexCandidate extends Candidate {
 	
 	@Override
 	public int query(double[] min, double[] max) {
+		if (concurrent) {
+			//iterators must not be shared between threads
+			return count(idx.queryIntersect(min, max));
+		}
 		if (query == null) {
 			query = idx.queryIntersect(min, max);
 		} else {
 			query.reset(min, max);
 		}
+		return count(query);
+	}
+
+	private static int count(QueryIterator<?> it) {
 		int n = 0;
-		while (query.hasNext()) {
-			query.next();
+		while (it.hasNext()) {
+			it.next();
 			n++;
 		}
 		return n;
@@ -139,14 +181,21 @@ public class RectangleIndexCandidate extends Candidate {
 		if (k == 1) {
 			return idx.query1NN(center).dist();
 		}
+		if (concurrent) {
+			return sumDist(idx.queryKNN(center, k));
+		}
 		if (queryKnn == null) {
 			queryKnn = idx.queryKNN(center, k);
 		} else {
 			queryKnn.reset(center, k);
 		}
+		return sumDist(queryKnn);
+	}
+
+	private static double sumDist(QueryIteratorKNN<RectangleEntryDist<Object>> it) {
 		double ret = 0;
-		while (queryKnn.hasNext()) {
-			RectangleEntryDist<Object> e = queryKnn.next();
+		while (it.hasNext()) {
+			RectangleEntryDist<Object> e = it.next();
 			ret += e.dist();
 		}
 		return ret;
@@ -196,6 +245,11 @@ public class RectangleIndexCandidate extends Candidate {
 	public boolean supportsUnload() {
 		return dims <= 16;
 	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return concurrent;
+	}
 	
 	@Override
 	public String toString() {
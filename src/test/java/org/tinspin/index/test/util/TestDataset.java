@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.test.util;
+
+import java.util.Random;
+
+/**
+ * Test for datasets that are streamed from a file, see {@link DatasetReader}.
+ * The data is not kept in memory, so it cannot be generated or updated, queries 
+ * are generated inside the bounding box of the dataset.
+ */
+public class TestDataset extends AbstractTest {
+
+	/**
+	 * @param R random generator for queries
+	 * @param S test configuration
+	 * @param min lower corner of the dataset
+	 * @param max upper corner of the dataset
+	 */
+	public TestDataset(Random R, TestStats S, double[] min, double[] max) {
+		super(R, S);
+		this.globalMin = min.clone();
+		this.globalMax = max.clone();
+	}
+
+	@Override
+	public double[] generate() {
+		throw new UnsupportedOperationException("Data is streamed from: " + paramStr);
+	}
+
+	@Override
+	public double[][] generateUpdates(int n, double[] data, double[][] ups) {
+		throw new UnsupportedOperationException("Data is streamed from: " + paramStr);
+	}
+}
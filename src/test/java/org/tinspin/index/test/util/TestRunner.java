@@ -9,6 +9,7 @@ package org.tinspin.index.test.util;
 import static org.junit.Assert.assertNotNull;
 
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Random;
 
@@ -54,6 +55,8 @@ public class TestRunner {
 		//s0.cfgWindowQueryRepeat = 1000;
 		s0.cfgPointQueryRepeat = 1000*1000;
 		//s0.cfgUpdateSize = 1000;
+		//s0.cfgMixedWorkload = MixedWorkload.MIX.B;
+		//s0.cfgMixedThreads = 4;
 
 //		s0.cfgWindowQuerySize = 1;
 
@@ -120,7 +123,7 @@ public class TestRunner {
 		}
 		
 		//update
-		if (tree.supportsUpdate()) {
+		if (tree.supportsUpdate() && data != null) {
 			S.assortedInfo += " UPD_DIST=" + test.maxUpdateDistance();
 			resetR();
 			update(0);
@@ -128,9 +131,19 @@ public class TestRunner {
 		} else {
 			System.err.println("WARNING: update() disabled");
 		}
+
+		//mixed workload
+		if (S.cfgMixedWorkload != null || S.cfgMixedRatios != null) {
+			if (data != null) {
+				resetR();
+				mixed();
+			} else {
+				System.err.println("WARNING: mixed workload disabled for streamed data");
+			}
+		}
 		
 		//unload
-		if (tree.supportsUnload()) {
+		if (tree.supportsUnload() && data != null) {
 			unload();
 		} else {
 			System.err.println("WARNING: unload() disabled");
@@ -176,6 +189,10 @@ public class TestRunner {
 	}
 	
 	private void load(TestStats ts) {
+		if (ts.TEST == TST.CSV || ts.TEST == TST.BINARY) {
+			loadStream(ts);
+			return;
+		}
 		log(time() + "generating data ...");
 		long t1g = System.currentTimeMillis();
 
@@ -188,7 +205,6 @@ public class TestRunner {
 		switch (ts.TEST) {
 		case CUBE:
 		case CLUSTER:
-		case CSV:
 		case OSM:
 		case TIGER:
 		case TOUCH:
@@ -246,6 +262,42 @@ public class TestRunner {
 		//This avoid premature garbage collection...
 		log("loaded objects: " + N + " " + data[0]);
 	}
+
+	/**
+	 * Load the index from a file in chunks, the data is not kept in memory.
+	 */
+	private void loadStream(TestStats ts) {
+		int N = ts.cfgNEntries;
+		log(time() + "loading index from " + ts.paramStr + " ...");
+		long memTree = MemTools.getMemUsed();
+		if (ts.paramEnforceGC) {
+			MemTools.cleanMem(N, memTree);
+		}
+		memTree = MemTools.getMemUsed();
+		JmxTools.reset();
+		long t1 = System.currentTimeMillis();
+
+		tree = ts.createTree(N, S);
+		try (DatasetReader reader = DatasetReader.open(ts)) {
+			N = tree.load(reader, ts.cfgStreamChunkSize, N);
+			S.setN(N);
+			test = new TestDataset(R, S, reader.getMin(), reader.getMax());
+		}
+
+		long t2 = System.currentTimeMillis();
+		S.statGcDiffL = JmxTools.getDiff();
+		S.statGcTimeL = JmxTools.getTime();
+		log("loading finished in: " + (t2-t1));
+		if (ts.paramEnforceGC) {
+			S.statSjvmF = MemTools.cleanMem(N, memTree);
+		}
+		S.statSjvmE = N == 0 ? 0 : S.statSjvmF / N;
+		S.statTLoad = t2-t1;
+		
+		tree.getStats(S);
+		S.assortedInfo += tree.toString();
+		log("loaded objects: " + N);
+	}
 		
 	private void repeatQuery(int repeat, int round) {
 		int dims = S.cfgNDims;
@@ -411,7 +463,7 @@ public class TestRunner {
 	private double[] generateQueryPointD(final int N, final int dims) {
 		double[] xyz = new double[dims];
 		int pos = R.nextInt(N*2); 
-		if (pos >= N) {
+		if (pos >= N || data == null) {
 			//randomise
 			for (int d = 0; d < dims; d++) {
 				xyz[d] = test.min(d) + R.nextDouble()*test.len(d);
@@ -425,7 +477,7 @@ public class TestRunner {
 	
 	private void generateQueryPointDRect(double[] lo, double[] hi, final int N, final int dims) {
 		int pos = R.nextInt(N*2);
-		if (pos >= N) {
+		if (pos >= N || data == null) {
 			//randomise
 			for (int d = 0; d < dims; d++) {
 				lo[d] = test.min(d) + R.nextDouble()*test.len(d);
@@ -488,6 +540,19 @@ public class TestRunner {
 		}
 	}
 	
+	private void mixed() {
+		log(time() + "mixed workload: " + (S.cfgMixedRatios != null ? 
+				Arrays.toString(S.cfgMixedRatios) : S.cfgMixedWorkload) + 
+				" threads=" + S.cfgMixedThreads + " ...");
+		MixedWorkload mw = new MixedWorkload(S, tree, test, data);
+		long n = mw.run();
+		log("Mixed workload: " + n + " ops in " + S.statMixedTime + " ms -> " + 
+				(long) S.statMixedOpsPerSec + " ops/s");
+		log(mw.toStringTable());
+		S.assortedInfo += " MIXED=" + (long) S.statMixedOpsPerSec + "ops/s/" + 
+				S.cfgMixedThreads + "T";
+	}
+	
 	private void unload() {
 		log("Unloading...");
 		JmxTools.reset();
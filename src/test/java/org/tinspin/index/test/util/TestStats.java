@@ -7,6 +7,7 @@
 package org.tinspin.index.test.util;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.List;
 
 import org.tinspin.index.PointIndex;
@@ -14,6 +15,7 @@ import org.tinspin.index.PointIndexWrapper;
 import org.tinspin.index.RectangleIndex;
 import org.tinspin.index.array.PointArray;
 import org.tinspin.index.array.RectArray;
+import org.tinspin.index.grid.PointGrid;
 import org.tinspin.index.kdtree.KDTree;
 import org.tinspin.index.phtree.PHTreeP;
 import org.tinspin.index.phtree.PHTreeR;
@@ -23,6 +25,9 @@ import org.tinspin.index.qthypercube2.QuadTreeKD2;
 import org.tinspin.index.qtplain.QuadTreeKD0;
 import org.tinspin.index.qtplain.QuadTreeRKD0;
 import org.tinspin.index.rtree.RTree;
+import org.tinspin.index.shard.ShardedPointIndex;
+import org.tinspin.index.shard.ShardedRectangleIndex;
+import org.tinspin.index.vptree.VPTree;
 
 public class TestStats implements Serializable, Cloneable {
 
@@ -44,7 +49,15 @@ public class TestStats implements Serializable, Cloneable {
 		/** RStarTree */
 		RSTAR,
 		/** STR-loaded RStarTree */
-		STR
+		STR,
+		/** X-tree, an RStarTree with supernodes */
+		XTREE,
+		/** Sharded index, backed by KD-Trees or RStarTrees */
+		SHARDED,
+		/** Uniform grid, points only */
+		GRID,
+		/** Vantage-point tree, points only */
+		VPTREE
 	}
 
 	static <T> PointIndex<T> createPI(INDEX idx, int dims, int size) {
@@ -58,6 +71,17 @@ public class TestStats implements Serializable, Cloneable {
 		case QUAD_OLD: return QuadTreeKD0.create(dims);
 		case RSTAR: 
 		case STR: return PointIndexWrapper.create(RTree.createRStar(dims));
+		case XTREE: return PointIndexWrapper.create(RTree.createXTree(dims));
+		case SHARDED: return ShardedPointIndex.create(dims, 4, () -> KDTree.create(dims));
+		case GRID: {
+			//about 4 points per cell for uniformly distributed data
+			double cellsPerDim = Math.max(1, Math.floor(Math.pow(size / 4.0, 1.0 / dims)));
+			double[] min = new double[dims];
+			double[] max = new double[dims];
+			Arrays.fill(max, DEFAULT_DATA_LEN);
+			return PointGrid.create(dims, min, max, DEFAULT_DATA_LEN / cellsPerDim);
+		}
+		case VPTREE: return VPTree.create(dims);
 		default:
 			throw new UnsupportedOperationException();
 		}
@@ -72,6 +96,8 @@ public class TestStats implements Serializable, Cloneable {
 		case QUAD_OLD: return QuadTreeRKD0.create(dims);
 		case RSTAR: 
 		case STR: return RTree.createRStar(dims);
+		case XTREE: return RTree.createXTree(dims);
+		case SHARDED: return ShardedRectangleIndex.create(dims, 4, () -> RTree.createRStar(dims));
 		default:
 			throw new UnsupportedOperationException();
 		}
@@ -98,7 +124,10 @@ public class TestStats implements Serializable, Cloneable {
 		VORTEX,
 		CUSTOM,
 		TOUCH,
-		CSV;
+		/** Streamed from a CSV file, see {@link CsvDatasetReader}. */
+		CSV,
+		/** Streamed from a packed binary file, see {@link BinaryDatasetReader}. */
+		BINARY;
 	}
 
 	/** How often are tests repeated? */
@@ -110,6 +139,8 @@ public class TestStats implements Serializable, Cloneable {
 	public static int DEFAULT_N_KNN_QUERY = 10*1000;
 	public static int DEFAULT_N_UPDATES = 100*1000;
 	public static int DEFAULT_N_UPDATE_CYCLES = 10;
+	public static int DEFAULT_N_MIXED_OPS = 100*1000; //per thread
+	public static int DEFAULT_STREAM_CHUNK_SIZE = 64*1024;
 
 
 	/** */
@@ -146,6 +177,16 @@ public class TestStats implements Serializable, Cloneable {
 	public int cfgWindowQueryRepeat = DEFAULT_N_WINDOW_QUERY;
 	/** Expected average number of entries in a query result. */
 	public int cfgWindowQuerySize = DEFAULT_W_QUERY_SIZE;
+	/** Mixed workload, 'null' skips the mixed workload, see {@link MixedWorkload}. */
+	public MixedWorkload.MIX cfgMixedWorkload = null;
+	/** Shares of point/window/kNN queries and updates, overrides cfgMixedWorkload. */
+	public int[] cfgMixedRatios = null;
+	/** Number of mixed workload operations per thread. */
+	public int cfgMixedOps = DEFAULT_N_MIXED_OPS;
+	public int cfgMixedThreads = 1;
+	public int cfgMixedKnnK = 10;
+	/** Number of entries per chunk when loading streamed datasets (CSV, BINARY). */
+	public int cfgStreamChunkSize = DEFAULT_STREAM_CHUNK_SIZE;
 	
 	/** length of the populated data area */
 	public double cfgDataLen = DEFAULT_DATA_LEN;
@@ -158,6 +199,7 @@ public class TestStats implements Serializable, Cloneable {
 	public long seed;
 	public final double param1;
 	public double param2;
+	/** Additional parameter, this is the file name for CSV and BINARY. */
 	public String paramStr;
 	public boolean paramEnforceGC = true;
 	public final boolean isRangeData;
@@ -218,6 +260,12 @@ public class TestStats implements Serializable, Cloneable {
 	long statGcTimeK10;
 	long statGcDiffUl;
 	long statGcTimeUl;
+	long statMixedTime;
+	public double statMixedOpsPerSec;
+	/** Number of successful updates in the mixed workload. */
+	public int statMixedNu;
+	/** Count, p50, p99, p999 and max latency [ns] for each {@link MixedWorkload.OP}. */
+	public long[][] statMixedLatency;
 	String assortedInfo = "";
 
 	Throwable exception = null;
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Tilmann Zaeschke
+ *
+ * This file is part of TinSpin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinspin.index.vptree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.tinspin.index.PointDistance;
+
+public class VPTreeTest {
+
+	private static final int N = 10_000;
+
+	@Test
+	public void testEuclidean() {
+		VPTree<Integer> tree = VPTree.create(3);
+		check(tree, PointDistance.EUCLIDEAN, insert(tree, 3, new Random(0)));
+	}
+
+	@Test
+	public void testManhattan() {
+		VPTree<Integer> tree = VPTree.create(3, PointDistance.MANHATTAN);
+		check(tree, PointDistance.MANHATTAN, insert(tree, 3, new Random(0)));
+	}
+
+	@Test
+	public void testAngularHighDims() {
+		VPTree<Integer> tree = VPTree.create(16, PointDistance.ANGULAR);
+		check(tree, PointDistance.ANGULAR, insert(tree, 16, new Random(0)));
+	}
+
+	@Test
+	public void testLoadParallel() {
+		Random R = new Random(0);
+		double[][] keys = new double[5 * N][];
+		List<Integer> values = new ArrayList<>();
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = createPoint(R, 3);
+			values.add(i);
+		}
+		VPTree<Integer> tree = VPTree.create(3, PointDistance.CHEBYSHEV);
+		tree.load(keys, values, true);
+		assertEquals(keys.length, tree.size());
+		List<double[]> data = new ArrayList<>();
+		for (double[] k : keys) {
+			data.add(k);
+		}
+		check(tree, PointDistance.CHEBYSHEV, data);
+	}
+
+	@Test
+	public void testDuplicates() {
+		VPTree<Integer> tree = VPTree.create(2);
+		List<double[]> data = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			double[] p = i % 2 == 0 ? new double[]{0.5, 0.5} : new double[]{i % 7, 0.5};
+			data.add(p);
+			tree.insert(p, i);
+		}
+		assertEquals(1000, tree.getStats().getEntryCount());
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(tree.remove(data.get(i)) != null);
+		}
+		assertEquals(0, tree.size());
+		assertEquals(0, tree.getStats().getEntryCount());
+	}
+
+	private static List<double[]> insert(VPTree<Integer> tree, int dims, Random R) {
+		List<double[]> data = new ArrayList<>();
+		for (int i = 0; i < N; i++) {
+			double[] p = createPoint(R, dims);
+			data.add(p);
+			tree.insert(p, i);
+		}
+		return data;
+	}
+
+	private static void check(VPTree<Integer> tree, PointDistance dist, List<double[]> data) {
+		Random R = new Random(1);
+		int dims = tree.getDims();
+		checkQueries(tree, dist, data, R);
+
+		for (int i = 0; i < data.size(); i += 3) {
+			double[] p = data.get(i);
+			double[] p2 = p.clone();
+			p2[0] += (R.nextDouble() - 0.5) * 0.1;
+			assertEquals(i, (int) tree.update(p, p2));
+			data.set(i, p2);
+		}
+		checkQueries(tree, dist, data, R);
+
+		//remove most entries, the tree must shrink and stay balanced
+		int n = data.size();
+		for (int i = 0; i < data.size(); i++) {
+			if (i % 10 != 0) {
+				double[] p = data.get(i);
+				assertEquals(i, (int) tree.remove(p));
+				assertNull(tree.queryExact(p));
+				data.set(i, null);
+				n--;
+			}
+		}
+		assertEquals(n, tree.size());
+		checkQueries(tree, dist, data, R);
+		assertTrue(tree.getDepth() < 2 * Math.log(n) / Math.log(2));
+
+		for (int i = 0; i < data.size(); i++) {
+			if (data.get(i) == null) {
+				double[] p = createPoint(R, dims);
+				data.set(i, p);
+				tree.insert(p, i);
+			}
+		}
+		checkQueries(tree, dist, data, R);
+	}
+
+	private static void checkQueries(VPTree<Integer> tree, PointDistance dist, 
+			List<double[]> data, Random R) {
+		int dims = tree.getDims();
+		assertEquals(tree.size(), tree.getStats().getEntryCount());
+		for (int i = 0; i < data.size(); i++) {
+			if (data.get(i) != null) {
+				assertEquals(i, (int) tree.queryExact(data.get(i)));
+			}
+		}
+
+		int k = 10;
+		for (int q = 0; q < 100; q++) {
+			double[] c = createPoint(R, dims);
+			double[] expected = data.stream().filter(p -> p != null)
+					.mapToDouble(p -> dist.dist(c, p)).sorted().limit(k).toArray();
+			List<VPEntryDist<Integer>> result = tree.knnQuery(c, k);
+			assertEquals(k, result.size());
+			for (int i = 0; i < k; i++) {
+				assertEquals(expected[i], result.get(i).dist(), 0.0);
+			}
+
+			double radius = expected[k - 1];
+			long nExpected = data.stream().filter(p -> p != null && dist.dist(c, p) <= radius).count();
+			assertEquals(nExpected, tree.queryRadius(c, radius).size());
+		}
+	}
+
+	private static double[] createPoint(Random R, int dims) {
+		double[] p = new double[dims];
+		for (int d = 0; d < dims; d++) {
+			p[d] = R.nextDouble() - 0.3;
+		}
+		return p;
+	}
+}